@@ -0,0 +1,118 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.service.LogProperties;
+import me.victorjacobs.transactionstatistics.service.MetricsProperties;
+import me.victorjacobs.transactionstatistics.service.StatisticsStore;
+import me.victorjacobs.transactionstatistics.service.StoreProperties;
+import me.victorjacobs.transactionstatistics.service.TransactionLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of GET /statistics with many polling clients while no transactions come in, comparing serializing the
+ * statistics on every request, as before, with answering from the cache of the StatisticsController and answering an
+ * If-None-Match with 304. The store runs on the real clock, so buckets expire and the cache is refreshed every second.
+ * Only the controller is measured, not the dispatching of requests by Spring.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class StatisticsEndpointBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private StatisticsStore statisticsStore;
+    private StatisticsController controller;
+
+    @Setup
+    public void setup() {
+        LogProperties logProperties = new LogProperties();
+        logProperties.setEnabled(false);
+        statisticsStore = new StatisticsStore(new StoreProperties(), new MetricsProperties(),
+                new TransactionLog(logProperties));
+        controller = new StatisticsController(statisticsStore, null, null, null, null, objectMapper);
+
+        // Fill every bucket so reads have the whole window to go through
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 60000; i += 10) {
+            statisticsStore.add(new Transaction(i % 500 + 0.5, now - i));
+        }
+    }
+
+    /**
+     * Like before the cache: read the statistics and serialize them for every request.
+     */
+    @Benchmark
+    public byte[] serializeEveryRequest(Client client) throws JsonProcessingException {
+        client.request(null);
+        return objectMapper.writeValueAsBytes(statisticsStore.getStatistic());
+    }
+
+    @Benchmark
+    public Object cached(Client client) throws IOException {
+        return controller.getStatistics(null, null, null, client.request(null));
+    }
+
+    /**
+     * Polls like a client that sends the ETag of the last response it got, so only the first poll after the statistics
+     * changed gets them in full.
+     */
+    @Benchmark
+    public Object notModified(Client client) throws IOException {
+        ResponseEntity<?> response = controller.getStatistics(null, null, null, client.request(client.eTag));
+
+        if (response != null) {
+            client.eTag = response.getHeaders().getETag();
+        }
+
+        return response;
+    }
+
+    /**
+     * Requests and response of one polling client, reused between polls so creating them isn't measured.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/statistics");
+        private final MockHttpServletResponse response = new MockHttpServletResponse();
+        private MockHttpServletRequest conditionalRequest;
+        private String eTag;
+
+        ServletWebRequest request(String ifNoneMatch) {
+            response.reset();
+
+            if (ifNoneMatch == null) {
+                return new ServletWebRequest(request, response);
+            }
+
+            if (conditionalRequest == null || !ifNoneMatch.equals(conditionalRequest.getHeader("If-None-Match"))) {
+                conditionalRequest = new MockHttpServletRequest("GET", "/statistics");
+                conditionalRequest.addHeader("If-None-Match", ifNoneMatch);
+            }
+
+            return new ServletWebRequest(conditionalRequest, response);
+        }
+    }
+}
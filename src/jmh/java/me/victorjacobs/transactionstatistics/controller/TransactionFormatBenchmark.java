@@ -0,0 +1,132 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.http.MockHttpInputMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of decoding request bodies into transactions, per transaction, for every format accepted on /transactions:
+ * single JSON transactions read by the Jackson converter or the TransactionMessageConverter, a JSON array read by the
+ * TransactionBatchReader, and the packed and delta encoded binary formats read by the BinaryBatchReader. Only decoding
+ * is measured, the store is left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionFormatBenchmark {
+    private static final int TRANSACTIONS = 10000;
+    private static final long NOW = 1486728000000L;
+
+    private final MappingJackson2HttpMessageConverter jackson = new MappingJackson2HttpMessageConverter();
+    private final TransactionMessageConverter converter = new TransactionMessageConverter(jackson);
+    private final TransactionBatchReader batchReader = new TransactionBatchReader();
+    private final BinaryBatchReader binaryReader = new BinaryBatchReader();
+
+    private byte[][] single;
+    private byte[] array;
+    private byte[] packed;
+    private byte[] deltas;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        double[] amounts = new double[TRANSACTIONS];
+        long[] timestamps = new long[TRANSACTIONS];
+
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            amounts[i] = random.nextInt(100000) / 100.0;
+            timestamps[i] = NOW - random.nextInt(60000);
+        }
+
+        single = new byte[TRANSACTIONS][];
+        StringBuilder json = new StringBuilder("[");
+        ByteBuffer packedBuffer = ByteBuffer.allocate(TRANSACTIONS * 16).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream deltaStream = new ByteArrayOutputStream();
+        ByteBuffer amountBuffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        long previous = 0;
+
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            String transaction = "{\"amount\":" + amounts[i] + ",\"timestamp\":" + timestamps[i] + "}";
+            single[i] = transaction.getBytes(StandardCharsets.UTF_8);
+            json.append(i == 0 ? "" : ",").append(transaction);
+
+            packedBuffer.putDouble(amounts[i]).putLong(timestamps[i]);
+
+            amountBuffer.clear();
+            deltaStream.write(amountBuffer.putDouble(amounts[i]).array(), 0, 8);
+            long delta = timestamps[i] - previous;
+            previous = timestamps[i];
+
+            for (long zigzag = (delta << 1) ^ (delta >> 63); ; zigzag >>>= 7) {
+                if ((zigzag & ~0x7FL) == 0) {
+                    deltaStream.write((int) zigzag);
+                    break;
+                }
+                deltaStream.write((int) (zigzag & 0x7F) | 0x80);
+            }
+        }
+
+        array = json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+        packed = packedBuffer.array();
+        deltas = deltaStream.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS)
+    public void jsonSingle(Blackhole blackhole) throws IOException {
+        for (byte[] body : single) {
+            blackhole.consume(jackson.read(Transaction.class, new MockHttpInputMessage(body)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS)
+    public void jsonSingleConverter(Blackhole blackhole) throws IOException {
+        for (byte[] body : single) {
+            blackhole.consume(converter.read(Transaction.class, new MockHttpInputMessage(body)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS)
+    public TransactionBatch jsonArray() throws IOException {
+        return batchReader.read(new ByteArrayInputStream(array));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS)
+    public void packed(Blackhole blackhole) throws IOException {
+        binaryReader.read(new ByteArrayInputStream(packed), packed.length, false, blackhole::consume);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS)
+    public void deltas(Blackhole blackhole) throws IOException {
+        binaryReader.read(new ByteArrayInputStream(deltas), deltas.length, true, blackhole::consume);
+    }
+}
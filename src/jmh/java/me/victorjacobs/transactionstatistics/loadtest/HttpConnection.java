@@ -0,0 +1,172 @@
+package me.victorjacobs.transactionstatistics.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal persistent HTTP/1.1 connection, so the load generator controls exactly how many connections are open and
+ * spends as little time as possible on the client side. Only supports what the load generator needs: small requests
+ * and responses with either a Content-Length or a chunked body, which is read and thrown away. Reconnects on the next
+ * request when the server closed the connection or a request failed, a response that can't be parsed fails the
+ * request as well.
+ */
+class HttpConnection implements AutoCloseable {
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private final String host;
+    private final int port;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    HttpConnection(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Send a GET request and wait for the response.
+     * @param path  Path and query of the request
+     * @return Status code of the response
+     * @throws IOException When the request failed, the connection is closed
+     */
+    int get(String path) throws IOException {
+        return send("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n", null);
+    }
+
+    /**
+     * Send a POST request with a JSON body and wait for the response.
+     * @param path  Path of the request
+     * @param body  JSON body
+     * @return Status code of the response
+     * @throws IOException When the request failed, the connection is closed
+     */
+    int post(String path, byte[] body) throws IOException {
+        return send("POST " + path + " HTTP/1.1\r\nHost: " + host + "\r\nContent-Type: application/json\r\n" +
+                "Content-Length: " + body.length + "\r\n\r\n", body);
+    }
+
+    @Override
+    public void close() {
+        if (socket == null) {
+            return;
+        }
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to do with the connection
+        }
+        socket = null;
+    }
+
+    private int send(String head, byte[] body) throws IOException {
+        try {
+            if (socket == null) {
+                connect();
+            }
+
+            out.write(head.getBytes(StandardCharsets.US_ASCII));
+            if (body != null) {
+                out.write(body);
+            }
+            out.flush();
+
+            return readResponse();
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            // Parsing a malformed status line or header, whatever follows on the connection can't be trusted either
+            close();
+            throw new IOException("Malformed response", e);
+        }
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        socket.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    private int readResponse() throws IOException {
+        String statusLine = readLine();
+        int status = Integer.parseInt(statusLine.split(" ")[1]);
+        long contentLength = 0;
+        boolean chunked = false;
+        boolean keepAlive = true;
+
+        for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+            String name = header.substring(0, header.indexOf(':')).trim();
+            String value = header.substring(header.indexOf(':') + 1).trim();
+
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = value.equalsIgnoreCase("chunked");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                keepAlive = !value.equalsIgnoreCase("close");
+            }
+        }
+
+        if (chunked) {
+            for (long size = nextChunkSize(); size > 0; size = nextChunkSize()) {
+                skip(size);
+                readLine();
+            }
+            // Trailers, if any, end with an empty line
+            while (!readLine().isEmpty()) {
+                continue;
+            }
+        } else {
+            skip(contentLength);
+        }
+
+        if (!keepAlive) {
+            close();
+        }
+
+        return status;
+    }
+
+    private long nextChunkSize() throws IOException {
+        String line = readLine();
+        int extension = line.indexOf(';');
+
+        return Long.parseLong(extension < 0 ? line : line.substring(0, extension), 16);
+    }
+
+    private void skip(long bytes) throws IOException {
+        for (long skipped = 0; skipped < bytes; skipped++) {
+            if (in.read() < 0) {
+                throw new EOFException("Connection closed in the middle of a response");
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new EOFException("Connection closed in the middle of a response");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
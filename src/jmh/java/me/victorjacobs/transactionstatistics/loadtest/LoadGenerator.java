@@ -0,0 +1,325 @@
+package me.victorjacobs.transactionstatistics.loadtest;
+
+import me.victorjacobs.transactionstatistics.Application;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load generator for the HTTP API. Starts the application on a random port, unless a URL is given, and
+ * drives POST /transactions and GET /statistics at a fixed rate over a fixed number of persistent connections.
+ *
+ * The load is open-loop: the moment every request should be sent is fixed up front by the rate, and its latency is
+ * measured from that moment instead of from when a connection got around to sending it. When the application can't
+ * keep up, requests queue up and their latency includes the time spent waiting, so a slow response doesn't hide the
+ * requests that should have been sent in the meantime (coordinated omission). Requests still queued when the run ends
+ * are reported as not sent.
+ *
+ * Options are given as --name=value, all other arguments are passed on to the application, e.g.
+ * --statistics.store.mode=ROLLING:
+ *  --url           Base URL of an application that is already running, e.g. http://localhost:8080
+ *  --rate          Requests per second, default 1000
+ *  --duration      Seconds to measure, default 30
+ *  --warmup        Seconds to run before measuring, default 5
+ *  --read-ratio    Fraction of the requests that read the statistics, default 0.1
+ *  --skew-millis   Transactions are up to this many milliseconds old, default 0. More than 60000 to include
+ *                  transactions that are discarded
+ *  --connections   Number of connections, default 8
+ *
+ * Latencies are recorded in QuantileSketches, so every reported percentile is within 1% of the actual latency.
+ */
+public class LoadGenerator {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final String host;
+    private final int port;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final double readRatio;
+    private final long skewMillis;
+    private final int connections;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private volatile boolean dispatching = true;
+    private volatile long drainDeadline = Long.MAX_VALUE;
+    private long measureStart;
+    private long measureEnd;
+
+    private LoadGenerator(String host, int port, double rate, long durationNanos, long warmupNanos, double readRatio,
+                          long skewMillis, int connections) {
+        this.host = host;
+        this.port = port;
+        this.rate = rate;
+        this.durationNanos = durationNanos;
+        this.warmupNanos = warmupNanos;
+        this.readRatio = readRatio;
+        this.skewMillis = skewMillis;
+        this.connections = connections;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        double rate = 1000;
+        long duration = 30;
+        long warmup = 5;
+        double readRatio = 0.1;
+        long skewMillis = 0;
+        int connections = 8;
+        List<String> applicationArgs = new ArrayList<>();
+
+        for (String arg : args) {
+            String name = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+            String value = arg.substring(name.length() + (arg.contains("=") ? 1 : 0));
+
+            switch (name) {
+                case "--url":
+                    url = value;
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--duration":
+                    duration = Long.parseLong(value);
+                    break;
+                case "--warmup":
+                    warmup = Long.parseLong(value);
+                    break;
+                case "--read-ratio":
+                    readRatio = Double.parseDouble(value);
+                    break;
+                case "--skew-millis":
+                    skewMillis = Long.parseLong(value);
+                    break;
+                case "--connections":
+                    connections = Integer.parseInt(value);
+                    break;
+                default:
+                    applicationArgs.add(arg);
+            }
+        }
+
+        if (rate <= 0 || duration <= 0 || warmup < 0 || readRatio < 0 || readRatio > 1 || skewMillis < 0 ||
+                connections <= 0) {
+            throw new IllegalArgumentException("Invalid options, see the documentation of " +
+                    LoadGenerator.class.getSimpleName());
+        }
+
+        ConfigurableApplicationContext context = null;
+        String host = "localhost";
+        int port;
+
+        if (url == null) {
+            // The restart class loader of devtools only gets in the way when measuring
+            System.setProperty("spring.devtools.restart.enabled", "false");
+            applicationArgs.add("--server.port=0");
+            context = SpringApplication.run(Application.class, applicationArgs.toArray(new String[0]));
+            port = Integer.parseInt(context.getEnvironment().getProperty("local.server.port"));
+        } else {
+            URI uri = URI.create(url);
+            host = uri.getHost();
+            port = uri.getPort() < 0 ? 80 : uri.getPort();
+        }
+
+        try {
+            new LoadGenerator(host, port, rate, TimeUnit.SECONDS.toNanos(duration), TimeUnit.SECONDS.toNanos(warmup),
+                    readRatio, skewMillis, connections).run();
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    private void run() throws InterruptedException {
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Worker worker = new Worker(new HttpConnection(host, port));
+            worker.setName("load-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        measureStart = start + warmupNanos;
+        measureEnd = measureStart + durationNanos;
+
+        System.out.printf(Locale.ROOT, "Sending %.0f requests/s over %d connections to %s:%d, %.0f%% reads%n",
+                rate, connections, host, port, readRatio * 100);
+
+        for (long i = 0; ; i++) {
+            long intended = start + i * intervalNanos;
+
+            if (intended >= measureEnd) {
+                break;
+            }
+
+            for (long wait = intended - System.nanoTime(); wait > 0; wait = intended - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+
+            queue.add(new Request(intended, ThreadLocalRandom.current().nextDouble() < readRatio));
+        }
+
+        dispatching = false;
+        drainDeadline = System.nanoTime() + DRAIN_NANOS;
+
+        for (Worker worker : workers) {
+            worker.join();
+        }
+
+        report(workers);
+    }
+
+    private void report(List<Worker> workers) {
+        Recorder writes = new Recorder();
+        Recorder reads = new Recorder();
+        for (Worker worker : workers) {
+            writes.merge(worker.writes);
+            reads.merge(worker.reads);
+        }
+
+        double seconds = durationNanos / 1e9;
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-8s %10s %8s %12s", "", "count", "errors",
+                "requests/s"));
+        for (double percentile : PERCENTILES) {
+            header.append(String.format(Locale.ROOT, " %9s",
+                    "p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString()));
+        }
+        header.append(String.format(Locale.ROOT, " %9s", "max"));
+
+        System.out.println();
+        System.out.println("Latency in milliseconds, measured from when the request should have been sent");
+        System.out.println(header);
+        System.out.println(writes.format("writes", seconds));
+        System.out.println(reads.format("reads", seconds));
+        System.out.printf(Locale.ROOT, "Not sent: %d requests still queued %d s after the run ended%n", queue.size(),
+                TimeUnit.NANOSECONDS.toSeconds(DRAIN_NANOS));
+    }
+
+    private byte[] nextTransaction() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long timestamp = System.currentTimeMillis() - (skewMillis == 0 ? 0 : random.nextLong(skewMillis + 1));
+        String json = "{\"amount\":" + random.nextInt(100000) / 100.0 + ",\"timestamp\":" + timestamp + "}";
+
+        return json.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A request and the moment it should have been sent.
+     */
+    private static class Request {
+        private final long intendedNanos;
+        private final boolean read;
+
+        Request(long intendedNanos, boolean read) {
+            this.intendedNanos = intendedNanos;
+            this.read = read;
+        }
+    }
+
+    /**
+     * Sends the queued requests over its own connection and records their latency, until the queue is empty after the
+     * run or the time to drain it is up.
+     */
+    private class Worker extends Thread {
+        private final HttpConnection connection;
+        private final Recorder writes = new Recorder();
+        private final Recorder reads = new Recorder();
+
+        Worker(HttpConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (System.nanoTime() < drainDeadline) {
+                    Request request = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                    if (request == null) {
+                        if (!dispatching) {
+                            return;
+                        }
+                        continue;
+                    }
+
+                    send(request);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connection.close();
+            }
+        }
+
+        private void send(Request request) {
+            boolean success;
+
+            try {
+                int status = request.read
+                        ? connection.get("/statistics")
+                        : connection.post("/transactions", nextTransaction());
+                success = status >= 200 && status < 300;
+            } catch (IOException | RuntimeException e) {
+                // A failed request is recorded like an error status, the worker moves on to the next one
+                success = false;
+            }
+
+            if (request.intendedNanos >= measureStart) {
+                (request.read ? reads : writes).record(System.nanoTime() - request.intendedNanos, success);
+            }
+        }
+    }
+
+    /**
+     * Latencies and error count of one type of request.
+     */
+    private static class Recorder {
+        private final QuantileSketch latencies = new QuantileSketch();
+        private long errors;
+        private long maxNanos;
+
+        void record(long latencyNanos, boolean success) {
+            latencies.add(latencyNanos / 1e6);
+            maxNanos = Math.max(maxNanos, latencyNanos);
+
+            if (!success) {
+                errors++;
+            }
+        }
+
+        void merge(Recorder other) {
+            latencies.merge(other.latencies);
+            errors += other.errors;
+            maxNanos = Math.max(maxNanos, other.maxNanos);
+        }
+
+        String format(String name, double seconds) {
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-8s %10d %8d %12.1f", name,
+                    latencies.getCount(), errors, (latencies.getCount() - errors) / seconds));
+
+            for (double percentile : PERCENTILES) {
+                line.append(String.format(Locale.ROOT, " %9.3f", latencies.getQuantile(percentile / 100)));
+            }
+            line.append(String.format(Locale.ROOT, " %9.3f", maxNanos / 1e6));
+
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package me.victorjacobs.transactionstatistics.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the operations on Statistic that the bucket storages are built from: adding an amount, which allocates a new
+ * instance, and combining the buckets of a window.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticBenchmark {
+    private static final int AMOUNTS = 1024;
+
+    @Param({"60"})
+    public int buckets;
+
+    private final double[] amounts = new double[AMOUNTS];
+    private List<Statistic> statistics;
+    private Statistic statistic;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < AMOUNTS; i++) {
+            amounts[i] = random.nextInt(100000) / 100.0;
+        }
+
+        statistics = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            statistics.add(new Statistic().add(amounts[i]).add(amounts[i + buckets]));
+        }
+
+        statistic = new Statistic();
+    }
+
+    @Benchmark
+    public Statistic add() {
+        statistic = statistic.add(amounts[next++ & (AMOUNTS - 1)]);
+        return statistic;
+    }
+
+    @Benchmark
+    public Statistic combine() {
+        return Statistic.combine(statistics);
+    }
+}
@@ -0,0 +1,72 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Clock for the benchmarks that can run faster than real time. At a speed of 0 the clock stands still, at a speed of
+ * 1000 every real millisecond is a second on the clock, so the window wraps around every 60 real milliseconds. Both
+ * read System.nanoTime(), so the cost of reading the clock is the same at every speed.
+ */
+class BenchmarkClock extends Clock {
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final long speed;
+
+    BenchmarkClock(long speed) {
+        this.speed = speed;
+    }
+
+    @Override
+    public long millis() {
+        return startMillis + (System.nanoTime() - startNanos) * speed / 1000000;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(getZone()) ? this : new ZonedView(zone);
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis());
+    }
+
+    /**
+     * The time of this clock in another zone, which runs at the same speed.
+     */
+    private class ZonedView extends Clock {
+        private final ZoneId zone;
+
+        private ZonedView(ZoneId zone) {
+            this.zone = zone;
+        }
+
+        @Override
+        public long millis() {
+            return BenchmarkClock.this.millis();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return BenchmarkClock.this.withZone(zone);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the metrics of the StatisticsStore on ingest throughput, comparing the store with and without metrics. Adds
+ * go through the accepted path and the discard path, and reads are included since those are always timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private static final int TRANSACTIONS = 1024;
+
+    @Param({"true", "false"})
+    public boolean metrics;
+
+    @Param({"SYNCHRONIZED", "STRIPED", "PRIMITIVE", "ROLLING"})
+    public StorageMode mode;
+
+    private StatisticsStore statisticsStore;
+    private Transaction[] accepted;
+    private Transaction[] discarded;
+    private int next;
+
+    @Setup
+    public void setup() {
+        StoreProperties properties = new StoreProperties();
+        properties.setMode(mode);
+        BenchmarkClock clock = new BenchmarkClock(0);
+        statisticsStore = new StatisticsStore(clock, properties, metrics);
+
+        long now = clock.millis();
+        accepted = new Transaction[TRANSACTIONS];
+        discarded = new Transaction[TRANSACTIONS];
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            accepted[i] = new Transaction(i % 500 + 0.5, now - (i * 58000L / TRANSACTIONS));
+            discarded[i] = new Transaction(i % 500 + 0.5, now - 120000);
+        }
+    }
+
+    @Benchmark
+    public void add() {
+        statisticsStore.add(accepted[next++ & (TRANSACTIONS - 1)]);
+    }
+
+    @Benchmark
+    public void add_discarded() {
+        statisticsStore.add(discarded[next++ & (TRANSACTIONS - 1)]);
+    }
+
+    @Benchmark
+    public Statistic getStatistic() {
+        return statisticsStore.getStatistic();
+    }
+}
@@ -0,0 +1,79 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extra cost of keeping percentile sketches, per add and per read, compared to a store without percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PercentileBenchmark {
+    @Param({"", "50,95,99"})
+    public String percentiles;
+
+    @Param({"SYNCHRONIZED", "PRIMITIVE"})
+    public StorageMode mode;
+
+    private StatisticsStore statisticsStore;
+    private Transaction[] transactions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        StoreProperties properties = new StoreProperties();
+        properties.setMode(mode);
+        properties.setPercentiles(parsePercentiles(percentiles));
+        statisticsStore = new StatisticsStore(Clock.systemUTC(), properties);
+
+        // Spread the transactions over the whole window so every bucket is filled
+        long now = System.currentTimeMillis();
+        transactions = new Transaction[1024];
+        for (int i = 0; i < transactions.length; i++) {
+            transactions[i] = new Transaction(i % 500 + 0.5, now - (i * 58000L / transactions.length));
+            statisticsStore.add(transactions[i]);
+        }
+    }
+
+    @Benchmark
+    public void add() {
+        statisticsStore.add(transactions[next++ & (transactions.length - 1)]);
+    }
+
+    @Benchmark
+    public Statistic getStatistic() {
+        return statisticsStore.getStatistic();
+    }
+
+    private static List<Double> parsePercentiles(String percentiles) {
+        List<Double> parsed = new ArrayList<>();
+
+        for (String percentile : percentiles.split(",")) {
+            if (!percentile.isEmpty()) {
+                parsed.add(Double.parseDouble(percentile));
+            }
+        }
+
+        return parsed;
+    }
+}
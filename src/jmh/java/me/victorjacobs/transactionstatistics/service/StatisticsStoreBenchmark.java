@@ -0,0 +1,191 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of adding transactions to the StatisticsStore from 1 to N threads, latency of reading the statistics with
+ * and without concurrent writers, and the cost of discarding transactions outside of the window. Every case runs for
+ * every storage mode and for two distributions of the timestamps:
+ *  - IN_WINDOW: the clock stands still and timestamps are spread over the whole window, so buckets are only updated,
+ *  - WRAP_AROUND: the clock runs 1000 times faster than real time and timestamps are at most 2 seconds old, so the
+ *    window keeps moving and writes regularly hit a bucket that has to be reset first.
+ *
+ * The modes are all the values of StorageMode, so a new mode is benchmarked as soon as it is added. MAPPED keeps its
+ * buckets in a temporary file, deleted again after the benchmark.
+ *
+ * Metrics are disabled, like they are by default, the MetricsBenchmark measures what they cost. Run with "-prof gc"
+ * for the allocation rate, note that every add allocates the Transaction it adds.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsStoreBenchmark {
+    private static final int OFFSETS = 1024;
+
+    public enum Distribution {
+        IN_WINDOW(0, 58000),
+        WRAP_AROUND(1000, 2000);
+
+        private final long clockSpeed;
+        private final int maxAgeMillis;
+
+        Distribution(long clockSpeed, int maxAgeMillis) {
+            this.clockSpeed = clockSpeed;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+    }
+
+    // Without values, JMH runs every value of the enum
+    @Param
+    public StorageMode mode;
+
+    @Param({"IN_WINDOW", "WRAP_AROUND"})
+    public Distribution distribution;
+
+    private BenchmarkClock clock;
+    private StatisticsStore statisticsStore;
+    private Path bucketFile;
+
+    @Setup
+    public void setup() throws IOException {
+        bucketFile = Files.createTempFile("buckets", ".bin");
+
+        StoreProperties properties = new StoreProperties();
+        properties.setMode(mode);
+        properties.setBucketFile(bucketFile.toString());
+
+        clock = new BenchmarkClock(distribution.clockSpeed);
+        statisticsStore = new StatisticsStore(clock, properties, false);
+
+        // Fill every bucket so reads have the whole window to go through
+        long now = clock.millis();
+        for (int i = 0; i < 60000; i += 10) {
+            statisticsStore.add(new Transaction(i % 500 + 0.5, now - i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        statisticsStore.close();
+        Files.delete(bucketFile);
+    }
+
+    /**
+     * Amounts and ages of the transactions added by one thread, generated up front so no time is spent on generating
+     * them in the benchmark itself.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        private final double[] amounts = new double[OFFSETS];
+        private final int[] ages = new int[OFFSETS];
+        private int next;
+
+        @Setup
+        public void setup(StatisticsStoreBenchmark benchmark) {
+            Random random = new Random(Thread.currentThread().getId());
+
+            for (int i = 0; i < OFFSETS; i++) {
+                amounts[i] = random.nextInt(100000) / 100.0;
+                ages[i] = random.nextInt(benchmark.distribution.maxAgeMillis);
+            }
+        }
+
+        Transaction next(BenchmarkClock clock) {
+            int i = next++ & (OFFSETS - 1);
+            return new Transaction(amounts[i], clock.millis() - ages[i]);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(1)
+    public void add_1Thread(Writer writer) {
+        statisticsStore.add(writer.next(clock));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(2)
+    public void add_2Threads(Writer writer) {
+        statisticsStore.add(writer.next(clock));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(4)
+    public void add_4Threads(Writer writer) {
+        statisticsStore.add(writer.next(clock));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(Threads.MAX)
+    public void add_maxThreads(Writer writer) {
+        statisticsStore.add(writer.next(clock));
+    }
+
+    /**
+     * Transactions both too old and in the future, which the store discards before they reach the storage.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void add_discarded(Writer writer) {
+        Transaction transaction = writer.next(clock);
+        long shift = (transaction.getTimestamp() & 1) == 0 ? -120000 : 120000;
+
+        statisticsStore.add(new Transaction(transaction.getAmount(), transaction.getTimestamp() + shift));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Statistic getStatistic() {
+        return statisticsStore.getStatistic();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Group("concurrentWrites")
+    @GroupThreads(1)
+    public Statistic getStatistic_concurrentWrites() {
+        return statisticsStore.getStatistic();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Group("concurrentWrites")
+    @GroupThreads(3)
+    public void add_concurrentReads(Writer writer) {
+        statisticsStore.add(writer.next(clock));
+    }
+}
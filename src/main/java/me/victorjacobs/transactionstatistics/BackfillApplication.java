@@ -0,0 +1,204 @@
+package me.victorjacobs.transactionstatistics;
+
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.service.BackfillAggregator;
+import me.victorjacobs.transactionstatistics.service.SecondBuckets;
+import me.victorjacobs.transactionstatistics.service.TransactionFileFormat;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command computing the statistics of files of transactions offline, for backfilling and reconciling the statistics
+ * over daily dumps. Writes CSV with the statistics over the sliding 60 second window ending at every second, as
+ * GET /statistics would have reported them during that second, or with the statistics of every second on its own.
+ * No Spring is involved, like for the StandaloneApplication. Run it from the jar with:
+ *
+ *   java -cp transaction-statistics.jar -Dloader.main=me.victorjacobs.transactionstatistics.BackfillApplication \
+ *       org.springframework.boot.loader.PropertiesLauncher [options] file...
+ *
+ * Options, given as --name=value:
+ *  - format: csv or packed, by default csv for files ending in .csv and packed for all others,
+ *  - threads: number of threads parsing the files, by default the number of processors,
+ *  - split-mb: size in megabytes the files are split at for parsing in parallel, 64 by default,
+ *  - window-seconds: size of the sliding window, 60 by default,
+ *  - buckets: true to write the statistics per second instead of per window,
+ *  - output: file to write to instead of standard output.
+ * A summary of the run is written to standard error.
+ */
+public class BackfillApplication {
+    static final String HEADER = "timestamp,sum,avg,max,min,count";
+
+    private static final int DEFAULT_SPLIT_MEGABYTES = 64;
+    private static final int DEFAULT_WINDOW_SECONDS = 60;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        try {
+            run(args, System.err);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: BackfillApplication [--format=csv|packed] [--threads=N] [--split-mb=N] " +
+                    "[--window-seconds=N] [--buckets=true] [--output=FILE] FILE...");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Aggregate the files given as arguments and write the statistics.
+     * @param args      Options and files
+     * @param summary   Receives a summary of the run
+     * @throws IOException When reading a file or writing the statistics fails
+     * @throws IllegalArgumentException When the arguments are invalid, or a file isn't of the given format
+     */
+    static void run(String[] args, PrintStream summary) throws IOException {
+        long start = System.nanoTime();
+        List<Path> files = new ArrayList<>();
+        TransactionFileFormat format = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int splitMegabytes = DEFAULT_SPLIT_MEGABYTES;
+        int windowSeconds = DEFAULT_WINDOW_SECONDS;
+        boolean buckets = false;
+        Path output = null;
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                files.add(Paths.get(arg));
+                continue;
+            }
+
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected an option of the form --name=value, got " + arg);
+            }
+
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+
+            try {
+                switch (name) {
+                    case "format":
+                        format = TransactionFileFormat.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "split-mb":
+                        splitMegabytes = Integer.parseInt(value);
+                        break;
+                    case "window-seconds":
+                        windowSeconds = Integer.parseInt(value);
+                        break;
+                    case "buckets":
+                        buckets = Boolean.parseBoolean(value);
+                        break;
+                    case "output":
+                        output = Paths.get(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value \"" + value + "\" for " + name, e);
+            }
+        }
+
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No files given");
+        }
+
+        if (splitMegabytes <= 0 || splitMegabytes > 1024) {
+            throw new IllegalArgumentException("The split size must be between 1 and 1024 megabytes");
+        }
+
+        if (format == null) {
+            format = files.get(0).toString().endsWith(".csv") ? TransactionFileFormat.CSV :
+                    TransactionFileFormat.PACKED;
+        }
+
+        BackfillAggregator aggregator = new BackfillAggregator(threads, splitMegabytes * 1024 * 1024);
+        SecondBuckets secondBuckets = aggregator.aggregate(files, format);
+        long aggregated = System.nanoTime();
+
+        try (OutputStream outputStream = output == null ? new NonClosingOutputStream(System.out) :
+                Files.newOutputStream(output);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.US_ASCII),
+                     OUTPUT_BUFFER_SIZE)) {
+            writer.write(HEADER);
+            writer.write('\n');
+
+            SecondBuckets.SecondConsumer consumer = (timestamp, statistic) -> write(writer, timestamp, statistic);
+            if (buckets) {
+                secondBuckets.forEachSecond(consumer);
+            } else {
+                secondBuckets.forEachWindow(windowSeconds, consumer);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        long aggregateMillis = Math.max(1, (aggregated - start) / 1000000);
+        summary.println("Aggregated " + secondBuckets.getTransactionCount() + " transactions from " +
+                aggregator.getBytes() / (1024 * 1024) + " MB in " + aggregateMillis + " ms (" +
+                aggregator.getBytes() * 1000 / aggregateMillis / (1024 * 1024) + " MB/s), skipped " +
+                aggregator.getSkippedLines() + " lines, written in " + (System.nanoTime() - aggregated) / 1000000 +
+                " ms");
+    }
+
+    private static void write(Writer writer, long timestamp, Statistic statistic) {
+        try {
+            writer.write(Long.toString(timestamp));
+            writer.write(',');
+            writer.write(Double.toString(statistic.getSum()));
+            writer.write(',');
+            writer.write(Double.toString(statistic.getAvg()));
+            writer.write(',');
+            writer.write(Double.toString(statistic.getMax()));
+            writer.write(',');
+            writer.write(Double.toString(statistic.getMin()));
+            writer.write(',');
+            writer.write(Long.toString(statistic.getCount()));
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Standard output, flushed but left open when the writer on it is closed.
+     */
+    private static class NonClosingOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+
+        private NonClosingOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            outputStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            outputStream.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.flush();
+        }
+    }
+}
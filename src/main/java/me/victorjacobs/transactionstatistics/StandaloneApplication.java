@@ -0,0 +1,186 @@
+package me.victorjacobs.transactionstatistics;
+
+import me.victorjacobs.transactionstatistics.controller.StandaloneServer;
+import me.victorjacobs.transactionstatistics.service.LogProperties;
+import me.victorjacobs.transactionstatistics.service.MetricsProperties;
+import me.victorjacobs.transactionstatistics.service.StatisticsStore;
+import me.victorjacobs.transactionstatistics.service.StoreProperties;
+import me.victorjacobs.transactionstatistics.service.StoreTicker;
+import me.victorjacobs.transactionstatistics.service.TransactionLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Alternative entry point serving /transactions and /statistics from the StandaloneServer instead of Spring MVC, for
+ * when many small instances have to start quickly. No application context is created: the StatisticsStore, its
+ * transaction log and ticker are wired by hand, configured by the same statistics.store, statistics.log and
+ * statistics.metrics properties, and server.port. Properties are read from application.properties on the classpath,
+ * overridden by system properties and then by arguments given as --name=value, like Spring Boot does.
+ *
+ * Most of the startup time of Spring Boot goes into loading classes, so this class and the StandaloneServer stay away
+ * from Spring altogether, properties included: they are bound by a few lines of reflection instead of the binder of
+ * Spring Boot, which alone takes longer to load than the StandaloneServer takes to start.
+ */
+public class StandaloneApplication {
+    private static final String DEFAULT_PORT = "8080";
+
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        // Answer right away on persistent connections, instead of waiting for the ack of the previous response
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        Properties properties = loadProperties(args);
+        StoreProperties storeProperties = bind(new StoreProperties(), "statistics.store", properties);
+        TransactionLog transactionLog = new TransactionLog(bind(new LogProperties(), "statistics.log", properties));
+        StatisticsStore statisticsStore = new StatisticsStore(storeProperties,
+                bind(new MetricsProperties(), "statistics.metrics", properties), transactionLog);
+        StoreTicker storeTicker = new StoreTicker(statisticsStore, storeProperties);
+        StandaloneServer server = new StandaloneServer(statisticsStore,
+                Integer.parseInt(properties.getProperty("server.port", DEFAULT_PORT)),
+                Integer.parseInt(properties.getProperty("statistics.standalone.threads",
+                        Integer.toString(Runtime.getRuntime().availableProcessors() * 2))));
+
+        statisticsStore.recover();
+        storeTicker.start();
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            storeTicker.stop();
+            statisticsStore.close();
+            transactionLog.close();
+        }, "standalone-shutdown"));
+
+        System.out.println("Started StandaloneApplication on port " + server.getPort() + " in " +
+                (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Read the properties from application.properties, system properties and arguments, later ones taking precedence.
+     * @param args  Arguments of the form --name=value
+     * @return All properties
+     * @throws IOException When reading application.properties fails
+     * @throws IllegalArgumentException When an argument isn't of the form --name=value
+     */
+    static Properties loadProperties(String[] args) throws IOException {
+        Properties properties = new Properties();
+
+        try (InputStream inputStream = StandaloneApplication.class.getResourceAsStream("/application.properties")) {
+            if (inputStream != null) {
+                properties.load(inputStream);
+            }
+        }
+
+        properties.putAll(System.getProperties());
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected an argument of the form --name=value, got " + arg);
+            }
+
+            properties.setProperty(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        return properties;
+    }
+
+    /**
+     * Bind properties to a properties class by its setters. Names may be written in camel case or with dashes or
+     * underscores between the words, like Spring Boot accepts for @ConfigurationProperties. Only the types used by the
+     * properties classes are supported: strings, numbers, booleans, enums and lists of these, given comma separated.
+     * @param target        Properties class to set the properties on
+     * @param prefix        Prefix of the properties of the class
+     * @param properties    All properties, those without the prefix and those without a setter are ignored
+     * @return The target
+     * @throws IllegalArgumentException When the value of a property can't be converted to the type of its setter
+     */
+    static <T> T bind(T target, String prefix, Properties properties) {
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.startsWith(prefix + ".")) {
+                continue;
+            }
+
+            Method setter = findSetter(target.getClass(), "set" + name.substring(prefix.length() + 1)
+                    .replaceAll("[-_]", "").toLowerCase(Locale.ROOT));
+
+            if (setter == null) {
+                continue;
+            }
+
+            String value = properties.getProperty(name).trim();
+            Type type = setter.getGenericParameterTypes()[0];
+
+            try {
+                if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class) {
+                    Class<?> elementType = (Class<?>) ((ParameterizedType) type).getActualTypeArguments()[0];
+                    List<Object> values = new ArrayList<>();
+
+                    for (String element : value.split(",")) {
+                        if (!element.trim().isEmpty()) {
+                            values.add(convert(element.trim(), elementType));
+                        }
+                    }
+
+                    setter.invoke(target, values);
+                } else {
+                    setter.invoke(target, convert(value, setter.getParameterTypes()[0]));
+                }
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalArgumentException("Could not set " + name, e);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid value \"" + value + "\" for " + name, e);
+            }
+        }
+
+        return target;
+    }
+
+    /**
+     * Find a public setter with a single parameter, by its name in lower case.
+     */
+    private static Method findSetter(Class<?> clazz, String name) {
+        for (Method method : clazz.getMethods()) {
+            if (method.getParameterCount() == 1 && method.getName().toLowerCase(Locale.ROOT).equals(name)) {
+                return method;
+            }
+        }
+
+        return null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object convert(String value, Class<?> type) {
+        if (type == String.class) {
+            return value;
+        } else if (type == int.class || type == Integer.class) {
+            return Integer.parseInt(value);
+        } else if (type == long.class || type == Long.class) {
+            return Long.parseLong(value);
+        } else if (type == double.class || type == Double.class) {
+            return Double.parseDouble(value);
+        } else if (type == boolean.class || type == Boolean.class) {
+            if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                throw new IllegalArgumentException("Not a boolean");
+            }
+
+            return Boolean.parseBoolean(value);
+        } else if (type.isEnum()) {
+            return Enum.valueOf((Class<Enum>) type, value.toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+
+        throw new IllegalArgumentException("Unsupported type " + type.getName());
+    }
+}
@@ -0,0 +1,16 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a batch of transactions holds more transactions than are read into memory at once, answered with 413.
+ */
+@ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+class BatchTooLargeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    BatchTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,165 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Consumer;
+
+/**
+ * Reads transactions in one of the binary formats from a stream, all numbers little-endian:
+ *  - packed: records of 16 bytes, the amount as a double followed by the timestamp as a long,
+ *  - deltas: records of the amount as a double followed by the difference between the timestamp and the one of the
+ *    previous record, as a zigzag encoded varint. The first record is relative to 0. Timestamps of transactions that
+ *    happened close together take one or two bytes instead of eight.
+ *
+ * The stream is read into a buffer and the records are decoded from it straight into a batch, without creating an
+ * object per record. To keep memory bounded for large bodies, the batch is handed to a consumer every CHUNK_SIZE
+ * records and then reused, so it never grows beyond a chunk.
+ *
+ * A packed body whose length is known up front is rejected before anything is read when it isn't a whole number of
+ * records. Otherwise a body ending in the middle of a record is only noticed once that record is reached: it is
+ * rejected as a whole when no chunk was consumed yet, which is always the case for a body of at most one chunk. When
+ * chunks were already consumed, the complete records before it are consumed as well and the body is reported as
+ * truncated.
+ */
+class BinaryBatchReader {
+    static final int CHUNK_SIZE = 65536;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PACKED_RECORD_SIZE = 16;
+    // A double followed by a varint of at most 10 bytes
+    private static final int MAX_DELTA_RECORD_SIZE = 18;
+
+    /**
+     * Read all records from given stream, handing them to the consumer in chunks.
+     * @param inputStream   Stream containing the records
+     * @param length        Length of the stream in bytes, negative when unknown
+     * @param deltas        Whether the timestamps are delta encoded, or packed
+     * @param consumer      Receives the records per chunk, the batch is reused after the consumer returns
+     * @return Whether the stream ended after a whole record, false when it ended in the middle of one after chunks
+     * were consumed
+     * @throws IOException When reading the stream fails
+     * @throws HttpMessageNotReadableException When the stream isn't a whole number of records, before any chunk was
+     * consumed
+     */
+    boolean read(InputStream inputStream, long length, boolean deltas, Consumer<TransactionBatch> consumer)
+            throws IOException {
+        if (!deltas && length >= 0 && length % PACKED_RECORD_SIZE != 0) {
+            throw new HttpMessageNotReadableException("Body of " + length + " bytes isn't a whole number of " +
+                    PACKED_RECORD_SIZE + " byte records");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        TransactionBatch batch = new TransactionBatch();
+        int recordSize = deltas ? MAX_DELTA_RECORD_SIZE : PACKED_RECORD_SIZE;
+        boolean ended = false;
+        boolean consumed = false;
+        long timestamp = 0;
+
+        buffer.limit(0);
+
+        while (true) {
+            if (!ended && buffer.remaining() < recordSize) {
+                ended = fill(inputStream, buffer);
+            }
+
+            if (!buffer.hasRemaining()) {
+                break;
+            }
+
+            if (buffer.remaining() < Double.BYTES + (deltas ? 1 : Long.BYTES) ||
+                    (deltas && !hasDelta(buffer, Double.BYTES))) {
+                if (!consumed) {
+                    throw new HttpMessageNotReadableException("Body ends in the middle of a record, after " +
+                            batch.size() + " records");
+                }
+
+                break;
+            }
+
+            double amount = buffer.getDouble();
+
+            if (deltas) {
+                timestamp += readDelta(buffer);
+            } else {
+                timestamp = buffer.getLong();
+            }
+
+            batch.add(amount, timestamp);
+
+            if (batch.size() == CHUNK_SIZE) {
+                consumer.accept(batch);
+                batch.clear();
+                consumed = true;
+            }
+        }
+
+        if (batch.size() != 0) {
+            consumer.accept(batch);
+        }
+
+        return !buffer.hasRemaining();
+    }
+
+    /**
+     * Whether the buffer holds the last byte of a varint starting at given offset from its position, or a byte too many
+     * for one.
+     */
+    private static boolean hasDelta(ByteBuffer buffer, int offset) {
+        for (int i = buffer.position() + offset; i < buffer.limit() && i < buffer.position() + MAX_DELTA_RECORD_SIZE;
+             i++) {
+            if (buffer.get(i) >= 0) {
+                return true;
+            }
+        }
+
+        return buffer.remaining() >= MAX_DELTA_RECORD_SIZE;
+    }
+
+    /**
+     * Read a zigzag encoded varint: 7 bits per byte, least significant first, with the high bit set on all but the last
+     * byte.
+     */
+    private static long readDelta(ByteBuffer buffer) {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+
+            if (b >= 0) {
+                return (value >>> 1) ^ -(value & 1);
+            }
+        }
+
+        throw new HttpMessageNotReadableException("Timestamp delta longer than 10 bytes");
+    }
+
+    /**
+     * Move the unread bytes to the front of the buffer and read from the stream until the buffer is full.
+     * @return Whether or not the end of the stream was reached
+     */
+    private static boolean fill(InputStream inputStream, ByteBuffer buffer) throws IOException {
+        buffer.compact();
+
+        try {
+            while (buffer.hasRemaining()) {
+                int read = inputStream.read(buffer.array(), buffer.position(), buffer.remaining());
+
+                if (read == -1) {
+                    return true;
+                }
+
+                buffer.position(buffer.position() + read);
+            }
+
+            return false;
+        } finally {
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a request parameter can't be parsed or lies outside of what can be answered, answered with 400.
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+class InvalidParameterException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    InvalidParameterException(String message) {
+        super(message);
+    }
+
+    InvalidParameterException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
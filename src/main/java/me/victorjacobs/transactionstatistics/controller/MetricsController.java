@@ -0,0 +1,91 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import lombok.RequiredArgsConstructor;
+import me.victorjacobs.transactionstatistics.service.AsyncIngester;
+import me.victorjacobs.transactionstatistics.service.KeyedStatisticsStore;
+import me.victorjacobs.transactionstatistics.service.LatencyHistogram;
+import me.victorjacobs.transactionstatistics.service.StatisticsBroadcaster;
+import me.victorjacobs.transactionstatistics.service.StatisticsStore;
+import me.victorjacobs.transactionstatistics.service.StoreMetrics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Controller for the /metrics endpoint, exposing the metrics of the stores and the latencies of the endpoints in the
+ * Prometheus text format.
+ */
+@RestController
+@RequiredArgsConstructor
+public class MetricsController {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StatisticsStore statisticsStore;
+    private final KeyedStatisticsStore keyedStatisticsStore;
+    private final StatisticsBroadcaster statisticsBroadcaster;
+    private final MetricsInterceptor metricsInterceptor;
+    private final AsyncIngester asyncIngester;
+
+    /**
+     * Get all metrics.
+     * @return Metrics in the Prometheus text format
+     */
+    @GetMapping(path = "/metrics", produces = CONTENT_TYPE)
+    public String getMetrics() {
+        StoreMetrics metrics = statisticsStore.getMetrics();
+        PrometheusWriter writer = new PrometheusWriter();
+
+        Map<String, Long> transactions = new LinkedHashMap<>();
+        transactions.put("accepted", metrics.getAccepted());
+        transactions.put("too_old", metrics.getTooOld());
+        transactions.put("in_future", metrics.getInFuture());
+        writer.counter("transactions_total", "Transactions received by the store, by result", "result", transactions);
+
+        Map<String, LatencyHistogram> operations = new LinkedHashMap<>();
+        operations.put("add", metrics.getAddLatencies());
+        operations.put("get_statistic", metrics.getGetStatisticLatencies());
+        writer.histogram("store_operation_seconds", "Latency of the store, adds are sampled", "operation", operations);
+
+        writer.counter("bucket_resets_total", "Buckets reset to be reused for a newer second",
+                metrics.getBucketResets());
+        writer.counter("amount_overflows_total", "Transactions rejected because their fixed-point amount overflowed",
+                metrics.getAmountOverflows());
+
+        if (metrics.getLockWaits() != null) {
+            writer.histogram("store_lock_wait_seconds", "Time spent waiting for the lock of the storage, when taken",
+                    null, Collections.singletonMap("", metrics.getLockWaits()));
+        }
+
+        writer.histogram("http_request_seconds", "Latency of the endpoints, by controller method", "handler",
+                new TreeMap<>(metricsInterceptor.getLatencies()));
+
+        writer.gauge("keyed_keys", "Keys holding an entry in the keyed store", keyedStatisticsStore.size());
+        writer.counter("keyed_evicted_total", "Idle keys evicted from the keyed store",
+                keyedStatisticsStore.getEvicted());
+        writer.counter("keyed_rejected_total", "Transactions rejected because all keys were taken",
+                keyedStatisticsStore.getRejected());
+        writer.gauge("stream_subscribers", "Subscribers to the statistics stream",
+                statisticsBroadcaster.getSubscriberCount());
+
+        if (asyncIngester.isEnabled()) {
+            writer.gauge("async_queue_depth", "Transactions waiting in the queue of the async ingester",
+                    asyncIngester.getQueueDepth());
+            writer.gauge("async_queue_capacity", "Transactions the queue of the async ingester holds",
+                    asyncIngester.getQueueCapacity());
+
+            Map<String, Long> shed = new LinkedHashMap<>();
+            shed.put("rejected", asyncIngester.getRejected());
+            shed.put("dropped", asyncIngester.getDropped());
+            writer.counter("async_shed_total", "Transactions shed because the async queue was full, by result",
+                    "result", shed);
+            writer.counter("async_failed_total", "Queued transactions lost because the store failed to add them",
+                    asyncIngester.getFailed());
+        }
+
+        return writer.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import me.victorjacobs.transactionstatistics.service.LatencyHistogram;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the latency of every request per controller method, from before the handler is invoked until the response
+ * is complete, so including binding and serialisation. Streams only record the time until the stream was started.
+ */
+@Component
+public class MetricsInterceptor extends HandlerInterceptorAdapter {
+    private static final String START_ATTRIBUTE = MetricsInterceptor.class.getName() + ".start";
+
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        record(request, handler);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        record(request, handler);
+    }
+
+    /**
+     * Latencies per controller method, keyed by the name of the method.
+     * @return Unmodifiable view of the latencies
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    private void record(HttpServletRequest request, Object handler) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+
+        if (start == null || !(handler instanceof HandlerMethod)) {
+            return;
+        }
+
+        long latency = System.nanoTime() - (Long) start;
+        String name = ((HandlerMethod) handler).getMethod().getName();
+        LatencyHistogram histogram = latencies.get(name);
+
+        if (histogram == null) {
+            histogram = latencies.computeIfAbsent(name, key -> new LatencyHistogram());
+        }
+
+        histogram.record(latency);
+        request.removeAttribute(START_ATTRIBUTE);
+    }
+}
@@ -0,0 +1,95 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import me.victorjacobs.transactionstatistics.service.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * Writes metrics in the Prometheus text exposition format. Latencies are written in seconds, as Prometheus expects.
+ */
+class PrometheusWriter {
+    private static final String PREFIX = "transaction_statistics_";
+
+    private final StringBuilder out = new StringBuilder();
+
+    PrometheusWriter counter(String name, String help, long value) {
+        header(name, help, "counter");
+        sample(name, "", value);
+        return this;
+    }
+
+    /**
+     * Write a counter with one sample per value of a label.
+     * @param name      Name of the counter, without prefix
+     * @param help      Description of the counter
+     * @param label     Name of the label
+     * @param values    Value of the counter per value of the label
+     * @return This writer
+     */
+    PrometheusWriter counter(String name, String help, String label, Map<String, Long> values) {
+        header(name, help, "counter");
+        values.forEach((labelValue, value) -> sample(name, wrap(labels(label, labelValue)), value));
+        return this;
+    }
+
+    PrometheusWriter gauge(String name, String help, long value) {
+        header(name, help, "gauge");
+        sample(name, "", value);
+        return this;
+    }
+
+    /**
+     * Write a histogram of latencies with one series per value of a label.
+     * @param name          Name of the histogram, without prefix
+     * @param help          Description of the histogram
+     * @param label         Name of the label, null when the map holds a single unlabelled histogram
+     * @param histograms    Histogram per value of the label
+     * @return This writer
+     */
+    PrometheusWriter histogram(String name, String help, String label, Map<String, LatencyHistogram> histograms) {
+        long[] bounds = LatencyHistogram.getBoundsNanos();
+        header(name, help, "histogram");
+
+        histograms.forEach((labelValue, histogram) -> {
+            String labels = label == null ? "" : labels(label, labelValue);
+            String separator = labels.isEmpty() ? "" : ",";
+            long[] counts = histogram.getCumulativeCounts();
+
+            for (int i = 0; i < bounds.length; i++) {
+                sample(name + "_bucket", "{" + labels + separator + "le=\"" + seconds(bounds[i]) + "\"}", counts[i]);
+            }
+            sample(name + "_bucket", "{" + labels + separator + "le=\"+Inf\"}", counts[bounds.length]);
+            out.append(PREFIX).append(name).append("_sum").append(wrap(labels)).append(' ')
+                    .append(seconds(histogram.getSumNanos())).append('\n');
+            sample(name + "_count", wrap(labels), counts[bounds.length]);
+        });
+
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void header(String name, String help, String type) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private void sample(String name, String labels, long value) {
+        out.append(PREFIX).append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static String labels(String label, String value) {
+        return label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String wrap(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
@@ -0,0 +1,86 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import me.victorjacobs.transactionstatistics.model.BatchResult;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Writes the JSON responses of the StandaloneServer with the streaming generator of Jackson, field by field in the same
+ * order and form as the ObjectMapper of Spring Boot writes them. Creating an ObjectMapper and introspecting the classes
+ * takes longer than the rest of the startup of the StandaloneServer together.
+ */
+class ResponseWriter {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ResponseWriter() {
+    }
+
+    /**
+     * @param statistic Statistics to write, percentiles are left out when there are none
+     * @return Statistics as JSON
+     * @throws IOException When writing fails
+     */
+    static byte[] write(Statistic statistic) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(128);
+
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+            generator.writeStartObject();
+            generator.writeNumberField("sum", statistic.getSum());
+            generator.writeNumberField("avg", statistic.getAvg());
+            generator.writeNumberField("max", statistic.getMax());
+            generator.writeNumberField("min", statistic.getMin());
+            generator.writeNumberField("count", statistic.getCount());
+
+            if (statistic.getPercentiles() != null) {
+                generator.writeObjectFieldStart("percentiles");
+
+                for (Map.Entry<String, Double> percentile : statistic.getPercentiles().entrySet()) {
+                    generator.writeFieldName(percentile.getKey());
+
+                    if (percentile.getValue() != null) {
+                        generator.writeNumber(percentile.getValue());
+                    } else {
+                        generator.writeNull();
+                    }
+                }
+
+                generator.writeEndObject();
+            }
+
+            generator.writeEndObject();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * @param result    Result of adding a batch
+     * @return Result as JSON
+     * @throws IOException When writing fails
+     */
+    static byte[] write(BatchResult result) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64);
+
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+            generator.writeStartObject();
+            generator.writeNumberField("accepted", result.getAccepted());
+            generator.writeNumberField("tooOld", result.getTooOld());
+            generator.writeNumberField("inFuture", result.getInFuture());
+
+            if (result.getRejected() != 0) {
+                generator.writeNumberField("rejected", result.getRejected());
+            }
+            if (result.isTruncated()) {
+                generator.writeBooleanField("truncated", true);
+            }
+            generator.writeEndObject();
+        }
+
+        return outputStream.toByteArray();
+    }
+}
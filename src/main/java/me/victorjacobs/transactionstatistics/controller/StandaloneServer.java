@@ -0,0 +1,311 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import me.victorjacobs.transactionstatistics.model.BatchResult;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.service.StatisticsStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves /transactions and /statistics from the HTTP server built into the JDK, for the StandaloneApplication. The
+ * requests and responses are the same as those of the TransactionController and the StatisticsController: the same
+ * status codes, headers and bodies, the same ETags and the same readers for the bodies. Only error responses differ,
+ * they come without the body Spring Boot adds to them.
+ *
+ * To start quickly, nothing of Spring is used on the way and responses are written by the ResponseWriter. An
+ * ObjectMapper is only created once a transaction comes in that the TransactionMessageConverter doesn't decode itself.
+ *
+ * Only the global statistics are served. Keys of transactions are ignored, transactions are always added synchronously
+ * and ranges are answered with 404, like when no history is kept. The other endpoints, like the stream, the cluster and
+ * the metrics, aren't served at all.
+ */
+public class StandaloneServer {
+    private static final String JSON_CONTENT_TYPE = "application/json;charset=UTF-8";
+    private static final String OCTET_STREAM_MEDIA_TYPE = "application/octet-stream";
+    // Not among the constants of HttpURLConnection
+    private static final int HTTP_UNPROCESSABLE_ENTITY = 422;
+
+    private final TransactionBatchReader batchReader = new TransactionBatchReader();
+    private final BinaryBatchReader binaryReader = new BinaryBatchReader();
+    private final StatisticsStore statisticsStore;
+    private final StatisticsCache statisticsCache;
+    private final int port;
+    private final int threads;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param statisticsStore   Store to add the transactions to and read the statistics from
+     * @param port              Port to listen on, 0 for any free port
+     * @param threads           Number of threads handling requests
+     */
+    public StandaloneServer(StatisticsStore statisticsStore, int port, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+
+        this.statisticsStore = statisticsStore;
+        this.statisticsCache = new StatisticsCache(statisticsStore, ResponseWriter::write);
+        this.port = port;
+        this.threads = threads;
+    }
+
+    /**
+     * Start listening.
+     * @throws IOException When binding the port fails
+     */
+    public void start() throws IOException {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        executor = Executors.newFixedThreadPool(threads, runnable ->
+                new Thread(runnable, "standalone-http-" + threadCount.incrementAndGet()));
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/transactions", exchange -> handle(exchange, this::handleTransactions));
+        server.createContext("/statistics", exchange -> handle(exchange, this::handleStatistics));
+        server.start();
+    }
+
+    /**
+     * Stop listening, without waiting for requests that are still being handled.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Port the server listens on, once started.
+     * @return Port of the server
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            handler.handle(exchange);
+        } catch (JsonProcessingException | HttpMessageNotReadableException | InvalidParameterException |
+                IllegalArgumentException e) {
+            // Also thrown for invalid windows and numbers, like the StatisticsController answers them
+            send(exchange, HttpURLConnection.HTTP_BAD_REQUEST);
+        } catch (BatchTooLargeException e) {
+            send(exchange, HttpURLConnection.HTTP_ENTITY_TOO_LARGE);
+        } catch (RuntimeException e) {
+            send(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleTransactions(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+
+        if (!path.equals("/transactions") && !path.equals("/transactions/batch")) {
+            send(exchange, HttpURLConnection.HTTP_NOT_FOUND);
+            return;
+        }
+
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.getResponseHeaders().set(HttpHeaders.ALLOW, "POST");
+            send(exchange, HttpURLConnection.HTTP_BAD_METHOD);
+            return;
+        }
+
+        if (path.equals("/transactions/batch")) {
+            sendJson(exchange, HttpURLConnection.HTTP_CREATED,
+                    ResponseWriter.write(statisticsStore.addAll(batchReader.read(exchange.getRequestBody()))));
+            return;
+        }
+
+        String mediaType = getMediaType(exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+
+        if (mediaType.equals(OCTET_STREAM_MEDIA_TYPE) || mediaType.equals(TransactionController.DELTAS_CONTENT_TYPE)) {
+            BatchResult result = addBinary(exchange, mediaType.equals(TransactionController.DELTAS_CONTENT_TYPE));
+            sendJson(exchange, result.isTruncated() ? HttpURLConnection.HTTP_OK : HttpURLConnection.HTTP_CREATED,
+                    ResponseWriter.write(result));
+        } else if (mediaType.equals("application/json") ||
+                (mediaType.startsWith("application/") && mediaType.endsWith("+json"))) {
+            Transaction transaction = TransactionMessageConverter.read(exchange.getRequestBody(), Fallback::read);
+            boolean added = statisticsStore.add(transaction);
+            send(exchange, added ? HttpURLConnection.HTTP_CREATED : HTTP_UNPROCESSABLE_ENTITY);
+        } else {
+            send(exchange, HttpURLConnection.HTTP_UNSUPPORTED_TYPE);
+        }
+    }
+
+    private void handleStatistics(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/statistics")) {
+            send(exchange, HttpURLConnection.HTTP_NOT_FOUND);
+            return;
+        }
+
+        if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().set(HttpHeaders.ALLOW, "GET,HEAD");
+            send(exchange, HttpURLConnection.HTTP_BAD_METHOD);
+            return;
+        }
+
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        String window = parameters.get("window");
+        Long from = parseLong(parameters.get("from"));
+        Long to = parseLong(parameters.get("to"));
+
+        if (from == null && to == null) {
+            if (window == null) {
+                sendCurrentStatistics(exchange);
+            } else {
+                sendJson(exchange, HttpURLConnection.HTTP_OK,
+                        ResponseWriter.write(statisticsStore.getStatistic(StatisticsController.parseWindow(window))));
+            }
+            return;
+        }
+
+        if (window != null || from == null) {
+            throw new InvalidParameterException("Either a window or a range starting at from must be given");
+        }
+
+        // No history is kept
+        send(exchange, HttpURLConnection.HTTP_NOT_FOUND);
+    }
+
+    private void sendCurrentStatistics(HttpExchange exchange) throws IOException {
+        StatisticsCache.Entry cached = statisticsCache.get();
+        Headers headers = exchange.getResponseHeaders();
+
+        headers.set(HttpHeaders.ETAG, cached.eTag);
+
+        if (cached.matches(exchange.getRequestHeaders().getFirst(HttpHeaders.IF_NONE_MATCH))) {
+            send(exchange, HttpURLConnection.HTTP_NOT_MODIFIED);
+            return;
+        }
+
+        sendJson(exchange, HttpURLConnection.HTTP_OK, cached.json);
+    }
+
+    private BatchResult addBinary(HttpExchange exchange, boolean deltas) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_LENGTH);
+        long length = contentLength != null ? Long.parseLong(contentLength) : -1;
+        long[] totals = new long[4];
+
+        boolean whole = binaryReader.read(exchange.getRequestBody(), length, deltas, batch -> {
+            BatchResult result = statisticsStore.addAll(batch);
+
+            totals[0] += result.getAccepted();
+            totals[1] += result.getTooOld();
+            totals[2] += result.getInFuture();
+            totals[3] += result.getRejected();
+        });
+
+        return new BatchResult(totals[0], totals[1], totals[2], totals[3], !whole);
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, byte[] json) throws IOException {
+        exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, JSON_CONTENT_TYPE);
+        send(exchange, status, json);
+    }
+
+    private static void send(HttpExchange exchange, int status) throws IOException {
+        send(exchange, status, null);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+
+        if (body == null || head) {
+            if (body != null) {
+                exchange.getResponseHeaders().set(HttpHeaders.CONTENT_LENGTH, Integer.toString(body.length));
+            }
+
+            // -1 tells the server there is no body, 0 would mean a chunked one
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Media type of a request without its parameters, like Spring a body without content type is taken to be binary.
+     */
+    private static String getMediaType(String contentType) {
+        if (contentType == null) {
+            return OCTET_STREAM_MEDIA_TYPE;
+        }
+
+        int parameters = contentType.indexOf(';');
+        return (parameters < 0 ? contentType : contentType.substring(0, parameters)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Parse a query string, keeping the first value of every parameter.
+     */
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+
+        if (query == null) {
+            return parameters;
+        }
+
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), "UTF-8");
+            String value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), "UTF-8");
+
+            parameters.putIfAbsent(name, value);
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Parse an optional number like Spring binds a request parameter: missing or empty is null.
+     * @throws NumberFormatException When the value isn't a number, which is an IllegalArgumentException
+     */
+    private static Long parseLong(String value) {
+        return value == null || value.isEmpty() ? null : Long.parseLong(value.trim());
+    }
+
+    /**
+     * Holder of the mapper for bodies the TransactionMessageConverter doesn't decode, created on first use.
+     */
+    private static class Fallback {
+        // The same defaults as the one Spring Boot creates
+        private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .disable(MapperFeature.DEFAULT_VIEW_INCLUSION);
+
+        static Transaction read(InputStream body) throws IOException {
+            return OBJECT_MAPPER.readValue(body, Transaction.class);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+}
@@ -0,0 +1,92 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import lombok.RequiredArgsConstructor;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.service.StatisticsStore;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cache of the statistics over the last 60 seconds serialized as JSON, kept for as long as the version of the
+ * StatisticsStore stays the same. Every entry carries the version as ETag, starting with an identifier of this process
+ * so ETags from before a restart never match. Shared by the StatisticsController and the StandaloneServer, so both
+ * answer with the same ETags and bodies.
+ */
+@RequiredArgsConstructor
+class StatisticsCache {
+    private static final String INSTANCE = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    private final StatisticsStore statisticsStore;
+    private final Serializer serializer;
+    private final AtomicReference<Entry> entry = new AtomicReference<>();
+
+    /**
+     * Get the serialized statistics, refreshing them when the version of the store moved on.
+     * @return Statistics of the current version
+     * @throws IOException When serializing the statistics fails
+     */
+    Entry get() throws IOException {
+        long version = statisticsStore.getVersion();
+        Entry cached = entry.get();
+
+        if (cached == null || cached.version != version) {
+            cached = new Entry(version, "\"" + INSTANCE + "-" + Long.toHexString(version) + "\"",
+                    serializer.serialize(statisticsStore.getStatistic()));
+            // Keep whichever is newer when requests for different versions refresh the cache concurrently
+            entry.accumulateAndGet(cached, (current, next) ->
+                    current == null || current.version < next.version ? next : current);
+        }
+
+        return cached;
+    }
+
+    /**
+     * Writes statistics as JSON.
+     */
+    @FunctionalInterface
+    interface Serializer {
+        byte[] serialize(Statistic statistic) throws IOException;
+    }
+
+    /**
+     * Serialized statistics over the last 60 seconds, for a version of the store.
+     */
+    @RequiredArgsConstructor
+    static class Entry {
+        private final long version;
+        final String eTag;
+        final byte[] json;
+
+        /**
+         * Whether the entry matches an If-None-Match header, comparing weakly like for a GET.
+         * @param ifNoneMatch   Value of the header, a single ETag, a list of them or "*", may be null
+         * @return Whether the client already has these statistics
+         */
+        boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+
+            // Pollers send back the single ETag they got, only lists and weak ETags need to be split
+            if (eTag.equals(ifNoneMatch)) {
+                return true;
+            }
+
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+
+                if (candidate.equals("*") || eTag.equals(candidate)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -1,22 +1,213 @@
 package me.victorjacobs.transactionstatistics.controller;
 
-import lombok.RequiredArgsConstructor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.victorjacobs.transactionstatistics.model.KeyedStatistic;
 import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.service.ClusterAggregator;
+import me.victorjacobs.transactionstatistics.service.HistoryStore;
+import me.victorjacobs.transactionstatistics.service.KeyedStatisticsStore;
+import me.victorjacobs.transactionstatistics.service.StatisticsBroadcaster;
 import me.victorjacobs.transactionstatistics.service.StatisticsStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Controller for the /statistics endpoint.
+ *
+ * The statistics over the last 60 seconds are answered from a StatisticsCache of their serialized JSON. The response
+ * carries the version of the store as ETag, so a client polling with If-None-Match gets a 304 while nothing changed,
+ * without the buckets being read or anything being serialized.
  * Created by Victor on 10/02/2017.
  */
 @RestController
-@RequiredArgsConstructor
 public class StatisticsController {
+    private static final Pattern WINDOW_PATTERN = Pattern.compile("(\\d+)(ms|s|m|h)?");
+
     private final StatisticsStore statisticsStore;
+    private final KeyedStatisticsStore keyedStatisticsStore;
+    private final StatisticsBroadcaster statisticsBroadcaster;
+    private final ClusterAggregator clusterAggregator;
+    private final HistoryStore historyStore;
+    private final StatisticsCache statisticsCache;
+
+    public StatisticsController(StatisticsStore statisticsStore, KeyedStatisticsStore keyedStatisticsStore,
+                                StatisticsBroadcaster statisticsBroadcaster, ClusterAggregator clusterAggregator,
+                                HistoryStore historyStore, ObjectMapper objectMapper) {
+        this.statisticsStore = statisticsStore;
+        this.keyedStatisticsStore = keyedStatisticsStore;
+        this.statisticsBroadcaster = statisticsBroadcaster;
+        this.clusterAggregator = clusterAggregator;
+        this.historyStore = historyStore;
+        this.statisticsCache = new StatisticsCache(statisticsStore, objectMapper::writeValueAsBytes);
+    }
 
+    /**
+     * Get the statistics over the last 60 seconds, or over the given window when the store keeps a long enough one. When
+     * a range is given instead, the statistics over that range are taken from the history. Only the statistics over the
+     * last 60 seconds carry an ETag and can be requested conditionally.
+     * @param window    Optional length of the window, e.g. "500ms", "10s", "5m" or a plain number of milliseconds
+     * @param from      Optional start of the range, inclusive, in milliseconds
+     * @param to        Optional end of the range, exclusive, in milliseconds, defaults to now
+     * @param request   Request, checked for an If-None-Match header
+     * @return Statistics over the window or range, not modified when they match the ETag of the request, or not found
+     *         for a range when no history is kept
+     * @throws IOException When serializing the statistics fails
+     * @throws InvalidParameterException When the window or range is invalid, or can't be answered by the store
+     */
     @GetMapping(path = "/statistics")
-    public Statistic getStatistics() {
-        return statisticsStore.getStatistic();
+    public ResponseEntity<?> getStatistics(@RequestParam(required = false) String window,
+                                           @RequestParam(required = false) Long from,
+                                           @RequestParam(required = false) Long to,
+                                           WebRequest request) throws IOException {
+        if (from == null && to == null) {
+            return window == null ? getCurrentStatistics(request) : ResponseEntity.ok(getWindowStatistic(window));
+        }
+
+        if (window != null || from == null) {
+            throw new InvalidParameterException("Either a window or a range starting at from must be given");
+        }
+
+        if (!historyStore.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        try {
+            return ResponseEntity.ok(to == null ? historyStore.getStatistic(from) :
+                    historyStore.getStatistic(from, to));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stream the statistics over the last 60 seconds as Server-Sent Events, pushed when they change and at a fixed
+     * interval.
+     * @return Emitter for the stream
+     */
+    @GetMapping(path = "/statistics/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamStatistics() {
+        return statisticsBroadcaster.subscribe();
+    }
+
+    /**
+     * Get the buckets of the last 60 seconds in their binary form, to be merged by an aggregator.
+     * @return Encoded BucketSnapshot
+     */
+    @GetMapping(path = "/statistics/buckets", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public byte[] getBuckets() {
+        return statisticsStore.exportBuckets().toBytes();
+    }
+
+    /**
+     * Get the statistics over the last 60 seconds of all nodes in the cluster, only on a node configured as aggregator.
+     * The number of peers whose buckets were pulled successfully is returned in the X-Peers-Reachable header.
+     * @return Statistics of the cluster, or not found when this node isn't an aggregator
+     */
+    @GetMapping(path = "/statistics/cluster")
+    public ResponseEntity<Statistic> getClusterStatistics() {
+        if (!clusterAggregator.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        return ResponseEntity.ok()
+                .header("X-Peers-Reachable", clusterAggregator.getReachablePeerCount() + "/" +
+                        clusterAggregator.getPeerCount())
+                .body(clusterAggregator.getStatistic());
+    }
+
+    /**
+     * Get the keys with the highest sum over the last 60 seconds. Like the stream, the buckets and the cluster, takes
+     * precedence over the statistics of a key with the same name.
+     * @param n Maximum number of keys to return
+     * @return Statistics per key, ordered by decreasing sum
+     */
+    @GetMapping(path = "/statistics/top")
+    public List<KeyedStatistic> getTopStatistics(@RequestParam(defaultValue = "10") int n) {
+        return keyedStatisticsStore.getTopBySum(n);
+    }
+
+    /**
+     * Get the statistics over the last 60 seconds for the transactions of a single key.
+     * @param key   Key of the transactions
+     * @return Statistics for the key
+     */
+    @GetMapping(path = "/statistics/{key}")
+    public Statistic getKeyStatistics(@PathVariable String key) {
+        return keyedStatisticsStore.getStatistic(key);
+    }
+
+    /**
+     * Answer with the statistics over the last 60 seconds from the cache, refreshing it when the version moved on.
+     */
+    private ResponseEntity<?> getCurrentStatistics(WebRequest request) throws IOException {
+        StatisticsCache.Entry cached = statisticsCache.get();
+
+        if (cached.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(cached.eTag).build();
+        }
+
+        return ResponseEntity.ok()
+                .eTag(cached.eTag)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(cached.json);
+    }
+
+    /**
+     * Get the statistics over a window, rejecting the windows the store doesn't keep as invalid parameters.
+     */
+    private Statistic getWindowStatistic(String window) {
+        long windowMillis = parseWindow(window);
+
+        try {
+            return statisticsStore.getStatistic(windowMillis);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse the length of a window.
+     * @param window    Number followed by an optional unit: ms, s, m or h. Without unit milliseconds are assumed
+     * @return Length of the window, in milliseconds
+     * @throws InvalidParameterException When the window can't be parsed or doesn't fit in a long
+     */
+    static long parseWindow(String window) {
+        Matcher matcher = WINDOW_PATTERN.matcher(window.trim());
+
+        if (!matcher.matches()) {
+            throw new InvalidParameterException("Invalid window \"" + window + "\"");
+        }
+
+        String unit = matcher.group(2) == null ? "ms" : matcher.group(2);
+
+        try {
+            long value = Long.parseLong(matcher.group(1));
+
+            switch (unit) {
+                case "s":
+                    return Math.multiplyExact(value, 1000);
+                case "m":
+                    return Math.multiplyExact(value, 60000);
+                case "h":
+                    return Math.multiplyExact(value, 3600000);
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new InvalidParameterException("Window \"" + window + "\" is too long", e);
+        }
     }
 }
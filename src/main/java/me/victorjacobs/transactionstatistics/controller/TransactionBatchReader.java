@@ -0,0 +1,117 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a batch of transactions from a stream, token by token. The body can either be a JSON array of transactions or
+ * newline delimited JSON, i.e. a sequence of transaction objects. Every object is decoded straight into the batch
+ * without binding it to a Transaction first. Like the Jackson binding of a single transaction, unknown fields are
+ * ignored and missing fields default to 0, but the amount and timestamp have to be JSON numbers: strings, booleans and
+ * nulls are rejected instead of coerced. Batches only feed the global statistics, so the key of a transaction is
+ * ignored as well.
+ *
+ * The whole batch is added to the store at once, so it is held in memory until the end of the body. To keep that
+ * bounded, a body with more than the maximum number of transactions is rejected as soon as the limit is passed.
+ */
+class TransactionBatchReader {
+    static final int MAX_RECORDS = 1 << 20;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int maxRecords;
+
+    TransactionBatchReader() {
+        this(MAX_RECORDS);
+    }
+
+    /**
+     * @param maxRecords    Maximum number of transactions in a batch
+     */
+    TransactionBatchReader(int maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Read all transactions from given stream into a batch.
+     * @param inputStream   Stream containing the JSON array or newline delimited JSON
+     * @return Batch containing all transactions in the stream
+     * @throws IOException When reading the stream fails or it doesn't contain valid transactions
+     * @throws BatchTooLargeException When the stream contains more than the maximum number of transactions
+     */
+    TransactionBatch read(InputStream inputStream) throws IOException {
+        TransactionBatch batch = new TransactionBatch();
+
+        try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+            JsonToken token = parser.nextToken();
+
+            if (token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    readTransaction(parser, token, batch);
+                }
+
+                token = parser.nextToken();
+                if (token != null) {
+                    throw new JsonParseException(parser, "Unexpected content after array: " + token);
+                }
+            } else {
+                while (token != null) {
+                    readTransaction(parser, token, batch);
+                    token = parser.nextToken();
+                }
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * Read a single transaction object, of which the START_OBJECT token was already consumed, and add it to the batch.
+     * @param parser    Parser positioned at the start of the object
+     * @param token     Current token of the parser
+     * @param batch     Batch to add the transaction to
+     * @throws IOException When the object isn't a valid transaction
+     */
+    private void readTransaction(JsonParser parser, JsonToken token, TransactionBatch batch) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected transaction object but got " + token);
+        }
+
+        if (batch.size() == maxRecords) {
+            throw new BatchTooLargeException("Batch holds more than " + maxRecords + " transactions");
+        }
+
+        double amount = 0;
+        long timestamp = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if ("amount".equals(field)) {
+                checkNumber(parser, value);
+                amount = parser.getDoubleValue();
+            } else if ("timestamp".equals(field)) {
+                checkNumber(parser, value);
+                timestamp = parser.getLongValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        batch.add(amount, timestamp);
+    }
+
+    private void checkNumber(JsonParser parser, JsonToken value) throws IOException {
+        if (!value.isNumeric()) {
+            throw new JsonParseException(parser, "Expected a number for " + parser.getCurrentName()
+                    + " but got " + value);
+        }
+    }
+}
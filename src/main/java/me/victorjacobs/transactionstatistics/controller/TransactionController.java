@@ -1,14 +1,27 @@
 package me.victorjacobs.transactionstatistics.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.RequiredArgsConstructor;
+import me.victorjacobs.transactionstatistics.model.BatchResult;
 import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import me.victorjacobs.transactionstatistics.service.AsyncIngester;
+import me.victorjacobs.transactionstatistics.service.KeyedStatisticsStore;
 import me.victorjacobs.transactionstatistics.service.StatisticsStore;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * Controller for the /transactions endpoint.
  * Created by Victor on 10/02/2017.
@@ -16,11 +29,116 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequiredArgsConstructor
 public class TransactionController {
+    /**
+     * Content type of a body of records with delta encoded timestamps, as read by the BinaryBatchReader.
+     */
+    public static final String DELTAS_CONTENT_TYPE = "application/x-transaction-deltas";
+    /**
+     * Header telling how many transactions are waiting to be added, when transactions are added asynchronously.
+     */
+    public static final String QUEUE_DEPTH_HEADER = "X-Queue-Depth";
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final TransactionBatchReader batchReader = new TransactionBatchReader();
+    private final BinaryBatchReader binaryReader = new BinaryBatchReader();
     private final StatisticsStore statisticsStore;
+    private final KeyedStatisticsStore keyedStatisticsStore;
+    private final AsyncIngester asyncIngester;
 
-    @ResponseStatus(HttpStatus.CREATED)
+    /**
+     * Add a transaction. Transactions with a key are also added to the statistics of their key. When ingestion is
+     * asynchronous, the transaction is queued and answered with 202, or with 503 when the queue is full and the
+     * transaction was shed. Both carry the depth of the queue. A transaction whose amount the store rejects, e.g. because
+     * it overflows a fixed-point storage, is answered with 422 and not added to the statistics of its key.
+     * @param transaction   Transaction to add
+     * @return Empty response with the status
+     */
     @PostMapping(path = "/transactions")
-    public void postTransaction(@RequestBody Transaction transaction) {
-        statisticsStore.add(transaction);
+    public ResponseEntity<Void> postTransaction(@RequestBody Transaction transaction) {
+        if (!asyncIngester.isEnabled()) {
+            if (!statisticsStore.add(transaction)) {
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).build();
+            }
+        } else if (!asyncIngester.offer(transaction)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .header(QUEUE_DEPTH_HEADER, Integer.toString(asyncIngester.getQueueDepth()))
+                    .build();
+        }
+
+        if (transaction.getKey() != null) {
+            keyedStatisticsStore.add(transaction);
+        }
+
+        if (asyncIngester.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(QUEUE_DEPTH_HEADER, Integer.toString(asyncIngester.getQueueDepth()))
+                    .build();
+        }
+
+        return ResponseEntity.status(HttpStatus.CREATED).build();
+    }
+
+    /**
+     * Add a batch of transactions, sent either as a JSON array or as newline delimited JSON. The body is parsed as a
+     * stream and the whole batch is added to the store at once.
+     * @param body  Request body
+     * @return How many transactions were accepted and how many were discarded
+     * @throws IOException When reading the request body fails
+     */
+    @ResponseStatus(HttpStatus.CREATED)
+    @PostMapping(path = "/transactions/batch")
+    public BatchResult postTransactions(InputStream body) throws IOException {
+        TransactionBatch batch;
+
+        try {
+            batch = batchReader.read(body);
+        } catch (JsonProcessingException e) {
+            throw new HttpMessageNotReadableException("Could not read transaction batch: " + e.getMessage(), e);
+        }
+
+        return statisticsStore.addAll(batch);
+    }
+
+    /**
+     * Add transactions sent as packed binary records: the amount as a double and the timestamp as a long, both
+     * little-endian. The records are added to the store in chunks while reading the body. A body that ended in the
+     * middle of a record after chunks were added is answered with 200 and the result marked as truncated.
+     * @param request   Request with the body
+     * @return How many transactions were accepted and how many were discarded
+     * @throws IOException When reading the request body fails
+     */
+    @PostMapping(path = "/transactions", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<BatchResult> postPackedTransactions(HttpServletRequest request) throws IOException {
+        return addBinary(request, false);
+    }
+
+    /**
+     * Add transactions sent as binary records with delta encoded timestamps, see BinaryBatchReader. Truncated bodies
+     * are answered like for packed records.
+     * @param request   Request with the body
+     * @return How many transactions were accepted and how many were discarded
+     * @throws IOException When reading the request body fails
+     */
+    @PostMapping(path = "/transactions", consumes = DELTAS_CONTENT_TYPE)
+    public ResponseEntity<BatchResult> postDeltaTransactions(HttpServletRequest request) throws IOException {
+        return addBinary(request, true);
+    }
+
+    private ResponseEntity<BatchResult> addBinary(HttpServletRequest request, boolean deltas) throws IOException {
+        long[] totals = new long[4];
+
+        boolean whole = binaryReader.read(request.getInputStream(), request.getContentLengthLong(), deltas, batch -> {
+            BatchResult result = statisticsStore.addAll(batch);
+
+            totals[0] += result.getAccepted();
+            totals[1] += result.getTooOld();
+            totals[2] += result.getInFuture();
+            totals[3] += result.getRejected();
+        });
+
+        return ResponseEntity.status(whole ? HttpStatus.CREATED : HttpStatus.OK)
+                .body(new BatchResult(totals[0], totals[1], totals[2], totals[3], !whole));
     }
 }
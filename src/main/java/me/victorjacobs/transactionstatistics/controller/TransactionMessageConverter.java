@@ -0,0 +1,394 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a single transaction from a JSON body without Jackson databinding. The body is read into a buffer per thread
+ * and scanned byte by byte for the fields of a transaction, so apart from the Transaction itself and its key, nothing is
+ * allocated per request.
+ *
+ * Only the common shape is decoded here: an object with at most the fields amount, timestamp and key, each at most
+ * once, with plain numbers, a key without escapes or non-ASCII characters, and nothing but whitespace around it. Any
+ * other body, valid or not, is handed to the Jackson converter instead, so anything unusual is bound, coerced or
+ * rejected exactly like before. Amounts are only decoded when the result is exactly the double Jackson would produce:
+ * integers of up to 18 digits, and decimals whose digits form an integer of at most 2^53, with a power of ten of at
+ * most 22.
+ */
+class TransactionMessageConverter extends AbstractHttpMessageConverter<Transaction> {
+    private static final int BUFFER_SIZE = 1024;
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final MappingJackson2HttpMessageConverter fallback;
+
+    /**
+     * @param fallback  Converter reading all bodies that aren't decoded here, its media types are supported as well
+     */
+    TransactionMessageConverter(MappingJackson2HttpMessageConverter fallback) {
+        super(fallback.getSupportedMediaTypes().toArray(new MediaType[0]));
+        this.fallback = fallback;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return Transaction.class == clazz;
+    }
+
+    @Override
+    protected boolean canWrite(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Transaction readInternal(Class<? extends Transaction> clazz, HttpInputMessage inputMessage)
+            throws IOException {
+        return read(inputMessage.getBody(), remaining ->
+                (Transaction) fallback.read(clazz, new BufferedInputMessage(inputMessage.getHeaders(), remaining)));
+    }
+
+    /**
+     * Write a transaction with the fallback converter. Writing is left to the Jackson converter registered next to this
+     * one, so this is only reached when called directly.
+     */
+    @Override
+    protected void writeInternal(Transaction transaction, HttpOutputMessage outputMessage) throws IOException {
+        fallback.write(transaction, outputMessage.getHeaders().getContentType(), outputMessage);
+    }
+
+    /**
+     * Read a single transaction from a body. Bodies of up to the size of the buffer of the current thread are read into
+     * it and decoded here, longer ones and those that aren't decoded here are handed to the fallback reader.
+     * @param body      Body to read
+     * @param fallback  Reader for bodies that aren't decoded here, gets the part already read followed by the rest
+     * @return Transaction read from the body
+     * @throws IOException When the body could not be read
+     */
+    static Transaction read(InputStream body, BodyReader fallback) throws IOException {
+        byte[] buffer = BUFFERS.get();
+        int length = 0;
+        int read = 0;
+
+        while (length < buffer.length && (read = body.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+
+        InputStream remaining = new ByteArrayInputStream(buffer, 0, length);
+
+        if (read == -1) {
+            Transaction transaction = decode(buffer, length);
+
+            if (transaction != null) {
+                return transaction;
+            }
+        } else {
+            remaining = new SequenceInputStream(remaining, body);
+        }
+
+        return fallback.read(remaining);
+    }
+
+    /**
+     * Decode a transaction from a complete body.
+     * @param bytes     Buffer holding the body
+     * @param length    Length of the body
+     * @return Decoded transaction, null when the body has to be read by Jackson
+     */
+    static Transaction decode(byte[] bytes, int length) {
+        return new Decoder(bytes, length).decode();
+    }
+
+    /**
+     * Scanner over a body, every method returns a sentinel or null instead of throwing when it meets anything it doesn't
+     * handle.
+     */
+    private static class Decoder {
+        private static final int AMOUNT = 1;
+        private static final int TIMESTAMP = 2;
+        private static final int KEY = 4;
+
+        private final byte[] bytes;
+        private final int length;
+        private int position;
+        private boolean valid = true;
+
+        Decoder(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        Transaction decode() {
+            double amount = 0;
+            long timestamp = 0;
+            String key = null;
+            int seen = 0;
+
+            if (!consume('{')) {
+                return null;
+            }
+
+            if (!consume('}')) {
+                do {
+                    int field = readFieldName();
+
+                    if (field == 0 || (seen & field) != 0 || !consume(':')) {
+                        return null;
+                    }
+                    seen |= field;
+                    skipWhitespace();
+
+                    if (field == AMOUNT) {
+                        amount = readDouble();
+                    } else if (field == TIMESTAMP) {
+                        timestamp = readLong();
+                    } else {
+                        key = readKey();
+                    }
+
+                    if (!valid) {
+                        return null;
+                    }
+                } while (consume(','));
+
+                if (!consume('}')) {
+                    return null;
+                }
+            }
+
+            skipWhitespace();
+            return position == length ? new Transaction(amount, timestamp, key) : null;
+        }
+
+        /**
+         * Read a quoted field name.
+         * @return Bit of the field, 0 when it isn't a field of a transaction
+         */
+        private int readFieldName() {
+            if (!consume('"')) {
+                return 0;
+            }
+
+            if (matches("amount\"")) {
+                return AMOUNT;
+            } else if (matches("timestamp\"")) {
+                return TIMESTAMP;
+            } else if (matches("key\"")) {
+                return KEY;
+            }
+
+            return 0;
+        }
+
+        private double readDouble() {
+            boolean negative = consumeByte('-');
+            int start = position;
+            long mantissa = readDigits(0, MAX_LONG_DIGITS);
+            int integerDigits = position - start;
+            int exponent = 0;
+
+            if (integerDigits == 0 || (integerDigits > 1 && bytes[start] == '0')) {
+                return invalid();
+            }
+
+            if (!peek('.') && !peek('e') && !peek('E')) {
+                // Integers are converted like Jackson does, so -0 becomes 0.0
+                return negative ? -mantissa : mantissa;
+            }
+
+            if (consumeByte('.')) {
+                int fractionStart = position;
+                mantissa = readDigits(mantissa, MAX_LONG_DIGITS - integerDigits);
+                exponent = fractionStart - position;
+
+                if (exponent == 0) {
+                    return invalid();
+                }
+            }
+
+            if (consumeByte('e') || consumeByte('E')) {
+                boolean negativeExponent = consumeByte('-');
+                if (!negativeExponent) {
+                    consumeByte('+');
+                }
+
+                int exponentStart = position;
+                long exponentValue = readDigits(0, 4);
+
+                if (position == exponentStart) {
+                    return invalid();
+                }
+                exponent += negativeExponent ? -exponentValue : exponentValue;
+            }
+
+            if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+                return invalid();
+            }
+
+            // Both the mantissa and the power of ten are exact doubles, so a single operation rounds correctly
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+
+        private long readLong() {
+            boolean negative = consumeByte('-');
+            int start = position;
+            long value = readDigits(0, MAX_LONG_DIGITS);
+            int digits = position - start;
+
+            if (digits == 0 || (digits > 1 && bytes[start] == '0') || peek('.') || peek('e') || peek('E')) {
+                valid = false;
+                return 0;
+            }
+
+            return negative ? -value : value;
+        }
+
+        private String readKey() {
+            if (matches("null")) {
+                return null;
+            }
+
+            if (!consumeByte('"')) {
+                valid = false;
+                return null;
+            }
+
+            int start = position;
+            while (position < length && bytes[position] != '"') {
+                byte b = bytes[position];
+
+                if (b == '\\' || b < 0x20) {
+                    valid = false;
+                    return null;
+                }
+                position++;
+            }
+
+            if (position == length) {
+                valid = false;
+                return null;
+            }
+
+            return new String(bytes, start, position++ - start, StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Read digits, appending them to the given value.
+         * @param value         Value read so far
+         * @param maxDigits     Maximum number of digits to read, more of them makes the body invalid
+         * @return Value with the digits appended
+         */
+        private long readDigits(long value, int maxDigits) {
+            int start = position;
+
+            while (position < length && bytes[position] >= '0' && bytes[position] <= '9') {
+                if (position - start == maxDigits) {
+                    valid = false;
+                    return 0;
+                }
+                value = value * 10 + (bytes[position++] - '0');
+            }
+
+            return value;
+        }
+
+        private double invalid() {
+            valid = false;
+            return 0;
+        }
+
+        /**
+         * Skip whitespace and consume the given character.
+         */
+        private boolean consume(char c) {
+            skipWhitespace();
+            return consumeByte(c);
+        }
+
+        private boolean consumeByte(char c) {
+            if (peek(c)) {
+                position++;
+                return true;
+            }
+
+            return false;
+        }
+
+        private boolean peek(char c) {
+            return position < length && bytes[position] == c;
+        }
+
+        private boolean matches(String expected) {
+            if (length - position < expected.length()) {
+                return false;
+            }
+
+            for (int i = 0; i < expected.length(); i++) {
+                if (bytes[position + i] != expected.charAt(i)) {
+                    return false;
+                }
+            }
+
+            position += expected.length();
+            return true;
+        }
+
+        private void skipWhitespace() {
+            while (position < length) {
+                byte b = bytes[position];
+
+                if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                    return;
+                }
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Reads a transaction from a body that isn't decoded by the TransactionMessageConverter.
+     */
+    @FunctionalInterface
+    interface BodyReader {
+        Transaction read(InputStream body) throws IOException;
+    }
+
+    /**
+     * The already buffered start of a body followed by the rest of it, for the fallback converter.
+     */
+    private static class BufferedInputMessage implements HttpInputMessage {
+        private final HttpHeaders headers;
+        private final InputStream body;
+
+        BufferedInputMessage(HttpHeaders headers, InputStream body) {
+            this.headers = headers;
+            this.body = body;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import lombok.RequiredArgsConstructor;
+import me.victorjacobs.transactionstatistics.service.MetricsProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.List;
+
+/**
+ * Registers the MetricsInterceptor for all endpoints but the metrics themselves, unless metrics are disabled, and the
+ * TransactionMessageConverter in front of the Jackson converter it falls back to.
+ */
+@Configuration
+@RequiredArgsConstructor
+public class WebConfiguration extends WebMvcConfigurerAdapter {
+    private final MetricsProperties metricsProperties;
+    private final MetricsInterceptor metricsInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (metricsProperties.isEnabled()) {
+            registry.addInterceptor(metricsInterceptor).excludePathPatterns("/metrics");
+        }
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        for (int i = 0; i < converters.size(); i++) {
+            HttpMessageConverter<?> converter = converters.get(i);
+
+            if (converter instanceof MappingJackson2HttpMessageConverter) {
+                converters.add(i, new TransactionMessageConverter((MappingJackson2HttpMessageConverter) converter));
+                return;
+            }
+        }
+    }
+}
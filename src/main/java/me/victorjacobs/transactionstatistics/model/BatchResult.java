@@ -0,0 +1,36 @@
+package me.victorjacobs.transactionstatistics.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Outcome of adding a batch of transactions to the store. A binary body that ended in the middle of a record after
+ * some of its chunks were already added is marked as truncated, the counts then cover the records before it.
+ * Transactions within the window whose amount the storage couldn't keep, e.g. because it overflowed a fixed-point
+ * storage, are counted as rejected instead of accepted.
+ */
+@Data
+@RequiredArgsConstructor
+public class BatchResult {
+    private final long accepted;
+    private final long tooOld;
+    private final long inFuture;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private final long rejected;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private final boolean truncated;
+
+    public BatchResult(long accepted, long tooOld, long inFuture) {
+        this(accepted, tooOld, inFuture, 0, false);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult [accepted: " + accepted +
+                ", tooOld: " + tooOld +
+                ", inFuture: " + inFuture +
+                (rejected != 0 ? ", rejected: " + rejected : "") +
+                (truncated ? ", truncated" : "") + "]";
+    }
+}
@@ -0,0 +1,165 @@
+package me.victorjacobs.transactionstatistics.model;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The per-second buckets of a store, exported so they can be merged with the buckets of other nodes. Every bucket is
+ * keyed by its bucket timestamp, the start of its second. Adding a bucket for a second that is already present combines
+ * both like Statistic.combine, so after merging the snapshots of all nodes every second holds the statistics over the
+ * transactions of that second on all nodes.
+ *
+ * The binary form is big-endian: a magic number and the number of buckets as ints, followed by 40 bytes per bucket:
+ * bucket timestamp and count as longs, then sum, min and max as doubles.
+ */
+public class BucketSnapshot {
+    static final int MAGIC = 0x54584253;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int BUCKET_SIZE = 40;
+
+    private final TreeMap<Long, Statistic> buckets = new TreeMap<>();
+
+    /**
+     * Add a bucket, combining it with the bucket already present for the same second.
+     * @param bucketTimestamp   Start of the second of the bucket, in milliseconds
+     * @param statistic         Statistics of the bucket
+     */
+    public void add(long bucketTimestamp, Statistic statistic) {
+        if (statistic.getCount() == 0) {
+            return;
+        }
+
+        buckets.merge(bucketTimestamp, statistic, (a, b) -> Statistic.combine(Arrays.asList(a, b)));
+    }
+
+    /**
+     * Add a bucket kept as primitives, combining it with the bucket already present for the same second.
+     * @param bucketTimestamp   Start of the second of the bucket, in milliseconds
+     * @param sum               Sum of the amounts in the bucket
+     * @param min               Minimum amount in the bucket
+     * @param max               Maximum amount in the bucket
+     * @param count             Number of transactions in the bucket
+     */
+    public void add(long bucketTimestamp, double sum, double min, double max, long count) {
+        if (count != 0) {
+            add(bucketTimestamp, new Statistic(sum, sum / count, max, min, count));
+        }
+    }
+
+    /**
+     * Add all buckets of another snapshot to this one.
+     * @param other Snapshot to merge into this one, is not modified
+     */
+    public void merge(BucketSnapshot other) {
+        for (Map.Entry<Long, Statistic> bucket : other.buckets.entrySet()) {
+            add(bucket.getKey(), bucket.getValue());
+        }
+    }
+
+    /**
+     * Get statistics over all buckets whose timestamp lies at or after the start of the window.
+     * @param windowStart   Lower bound of the window, in milliseconds
+     * @return Statistics over the buckets in the window
+     */
+    public Statistic getStatistic(long windowStart) {
+        return Statistic.combine(new ArrayList<>(buckets.tailMap(windowStart).values()));
+    }
+
+    /**
+     * Get statistics over all buckets whose timestamp lies within a range.
+     * @param from  Lower bound, inclusive, in milliseconds
+     * @param to    Upper bound, exclusive, in milliseconds
+     * @return Statistics over the buckets in the range
+     */
+    public Statistic getStatistic(long from, long to) {
+        if (from >= to) {
+            return new Statistic();
+        }
+
+        return Statistic.combine(new ArrayList<>(buckets.subMap(from, to).values()));
+    }
+
+    /**
+     * The buckets in this snapshot.
+     * @return Statistics per bucket timestamp, ordered by timestamp
+     */
+    public SortedMap<Long, Statistic> getBuckets() {
+        return Collections.unmodifiableSortedMap(buckets);
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Encode the snapshot in its binary form.
+     * @return Encoded snapshot
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + buckets.size() * BUCKET_SIZE);
+        buffer.putInt(MAGIC).putInt(buckets.size());
+
+        for (Map.Entry<Long, Statistic> bucket : buckets.entrySet()) {
+            Statistic statistic = bucket.getValue();
+
+            buffer.putLong(bucket.getKey())
+                    .putLong(statistic.getCount())
+                    .putDouble(statistic.getSum())
+                    .putDouble(statistic.getMin())
+                    .putDouble(statistic.getMax());
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Decode a snapshot from its binary form.
+     * @param bytes Encoded snapshot
+     * @return Decoded snapshot
+     * @throws IllegalArgumentException When the bytes don't hold a snapshot
+     */
+    public static BucketSnapshot fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        BucketSnapshot snapshot = new BucketSnapshot();
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a bucket snapshot");
+            }
+
+            int size = buffer.getInt();
+
+            if (size < 0 || buffer.remaining() != (long) size * BUCKET_SIZE) {
+                throw new IllegalArgumentException("Bucket snapshot of " + size + " buckets has " +
+                        buffer.remaining() + " bytes of buckets");
+            }
+
+            for (int i = 0; i < size; i++) {
+                long bucketTimestamp = buffer.getLong();
+                long count = buffer.getLong();
+                double sum = buffer.getDouble();
+                double min = buffer.getDouble();
+                double max = buffer.getDouble();
+
+                snapshot.add(bucketTimestamp, sum, min, max, count);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Bucket snapshot is truncated", e);
+        }
+
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "BucketSnapshot " + buckets;
+    }
+}
@@ -0,0 +1,17 @@
+package me.victorjacobs.transactionstatistics.model;
+
+import lombok.Data;
+
+/**
+ * Statistics for the transactions of a single key.
+ */
+@Data
+public class KeyedStatistic {
+    private final String key;
+    private final Statistic statistic;
+
+    @Override
+    public String toString() {
+        return "KeyedStatistic [key: " + key + ", statistic: " + statistic + "]";
+    }
+}
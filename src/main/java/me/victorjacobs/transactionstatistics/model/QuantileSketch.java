@@ -0,0 +1,135 @@
+package me.victorjacobs.transactionstatistics.model;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size, mergeable sketch of the distribution of a series of doubles, used to estimate percentiles. Values are
+ * counted in logarithmically sized bins, bin i holding the values in (GAMMA^(i-1), GAMMA^i], so every value is known up
+ * to a relative error of RELATIVE_ACCURACY. Negative values are counted in a mirrored set of bins, values too close to
+ * zero to fit in a bin are counted as zero and values beyond the last bin are clamped to it.
+ *
+ * Since the bins are fixed, the memory of a sketch is bounded regardless of how many values are added and two sketches
+ * can be merged by adding up their bins.
+ */
+public class QuantileSketch {
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double MIN_INDEXABLE = 1e-2;
+    private static final double MAX_INDEXABLE = 1e10;
+    private static final int MIN_INDEX = (int) Math.ceil(Math.log(MIN_INDEXABLE) / LOG_GAMMA);
+    private static final int BIN_COUNT = (int) Math.ceil(Math.log(MAX_INDEXABLE) / LOG_GAMMA) - MIN_INDEX + 1;
+
+    private final long[] positive = new long[BIN_COUNT];
+    private final long[] negative = new long[BIN_COUNT];
+    private long zeroCount;
+    private long count;
+
+    /**
+     * Add a value to the sketch.
+     * @param value Value to add
+     */
+    public void add(double value) {
+        if (value >= MIN_INDEXABLE) {
+            positive[binIndex(value)]++;
+        } else if (value <= -MIN_INDEXABLE) {
+            negative[binIndex(-value)]++;
+        } else {
+            zeroCount++;
+        }
+
+        count++;
+    }
+
+    /**
+     * Add all values counted in another sketch to this one.
+     * @param other Sketch to merge into this one, isn't modified
+     */
+    public void merge(QuantileSketch other) {
+        for (int i = 0; i < BIN_COUNT; i++) {
+            positive[i] += other.positive[i];
+            negative[i] += other.negative[i];
+        }
+
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    /**
+     * Remove all values from the sketch.
+     */
+    public void clear() {
+        Arrays.fill(positive, 0);
+        Arrays.fill(negative, 0);
+        zeroCount = 0;
+        count = 0;
+    }
+
+    /**
+     * Estimate the value at given quantile.
+     * @param quantile  Quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return Estimate of the value at the quantile, NaN when the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        }
+
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long) (quantile * (count - 1));
+        long seen = 0;
+
+        for (int i = BIN_COUNT - 1; i >= 0; i--) {
+            seen += negative[i];
+            if (seen > rank) {
+                return -binValue(i);
+            }
+        }
+
+        seen += zeroCount;
+        if (seen > rank) {
+            return 0;
+        }
+
+        for (int i = 0; i < BIN_COUNT; i++) {
+            seen += positive[i];
+            if (seen > rank) {
+                return binValue(i);
+            }
+        }
+
+        return binValue(BIN_COUNT - 1);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Index of the bin holding given positive value.
+     * @param value Value of at least MIN_INDEXABLE
+     * @return Index of the bin, clamped to the last bin
+     */
+    private static int binIndex(double value) {
+        int index = (int) Math.ceil(Math.log(value) / LOG_GAMMA) - MIN_INDEX;
+        return Math.min(Math.max(index, 0), BIN_COUNT - 1);
+    }
+
+    /**
+     * Value representing a bin, chosen so that it lies within the relative accuracy of all values in the bin.
+     * @param index Index of the bin
+     * @return Representative value of the bin
+     */
+    private static double binValue(int index) {
+        return 2 * Math.pow(GAMMA, index + MIN_INDEX) / (GAMMA + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch [count: " + count + "]";
+    }
+}
@@ -1,13 +1,19 @@
 package me.victorjacobs.transactionstatistics.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents statistics for a time series of doubles. The values themselves are not stored, only their moving statistics.
- * Objects are immutable, all mutating operations return new instances of the class.
+ * Objects are immutable, all mutating operations return new instances of the class. Percentiles are only present when
+ * requested from the store, and are then estimated from a QuantileSketch.
  * Created by Victor on 10/02/2017.
  */
 @Data
@@ -18,22 +24,37 @@ public class Statistic {
     private final double max;
     private final double min;
     private final long count;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Map<String, Double> percentiles;
 
     public Statistic() {
         this(0, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0);
     }
 
+    public Statistic(double sum, double avg, double max, double min, long count) {
+        this(sum, avg, max, min, count, null);
+    }
+
     /**
      * Add a transaction to statistics, doesn't mutate this object.
      * @param transaction   Transaction to add to the statistics
      * @return New instance of this class, combining the original statistics and the new transaction
      */
     public Statistic add(Transaction transaction) {
+        return add(transaction.getAmount());
+    }
+
+    /**
+     * Add an amount to statistics, doesn't mutate this object.
+     * @param amount    Amount to add to the statistics
+     * @return New instance of this class, combining the original statistics and the new amount
+     */
+    public Statistic add(double amount) {
         long newCount = count + 1;
-        double newAvg = avg + ((transaction.getAmount() - avg) / newCount);
-        double newMax = Math.max(max, transaction.getAmount());
-        double newMin = Math.min(min, transaction.getAmount());
-        double newSum = sum + transaction.getAmount();
+        double newAvg = avg + ((amount - avg) / newCount);
+        double newMax = Math.max(max, amount);
+        double newMin = Math.min(min, amount);
+        double newSum = sum + amount;
 
         return new Statistic(newSum, newAvg, newMax, newMin, newCount);
     }
@@ -67,12 +88,30 @@ public class Statistic {
         }
     }
 
+    /**
+     * Add percentiles estimated from a sketch to the statistics, doesn't mutate this object.
+     * @param sketch        Sketch of the values the statistics were computed over
+     * @param percentiles   Percentiles to estimate, between 0 and 100
+     * @return New instance of this class, with the percentiles keyed like "p50" or "p99.9"
+     */
+    public Statistic withPercentiles(QuantileSketch sketch, List<Double> percentiles) {
+        Map<String, Double> estimates = new LinkedHashMap<>();
+
+        for (Double percentile : percentiles) {
+            String key = "p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString();
+            estimates.put(key, sketch.getQuantile(percentile / 100));
+        }
+
+        return new Statistic(sum, avg, max, min, count, Collections.unmodifiableMap(estimates));
+    }
+
     @Override
     public String toString() {
         return "Statistic [sum: " + sum +
                 ", avg: " + avg +
                 ", max: " + max +
                 ", min: " + min +
-                ", count: " + count + "]";
+                ", count: " + count +
+                (percentiles != null ? ", percentiles: " + percentiles : "") + "]";
     }
 }
@@ -5,21 +5,29 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
 /**
- * Class representing a transaction.
+ * Class representing a transaction. The key is optional and identifies what the transaction belongs to, e.g. a merchant
+ * or a currency, to keep statistics per key next to the global ones.
  * Created by Victor on 10/02/2017.
  */
 @Data
 public class Transaction {
     private final double amount;
     private final long timestamp;
+    private final String key;
+
+    public Transaction(double amount, long timestamp) {
+        this(amount, timestamp, null);
+    }
 
     @JsonCreator
     public Transaction(
             @JsonProperty("amount") double amount,
-            @JsonProperty("timestamp") long timestamp
+            @JsonProperty("timestamp") long timestamp,
+            @JsonProperty("key") String key
     ) {
         this.amount = amount;
         this.timestamp = timestamp;
+        this.key = key;
     }
 
     /**
@@ -32,6 +40,6 @@ public class Transaction {
 
     @Override
     public String toString() {
-        return "Transaction [" + timestamp + " " + amount + "]";
+        return "Transaction [" + timestamp + " " + amount + (key != null ? " " + key : "") + "]";
     }
 }
@@ -0,0 +1,96 @@
+package me.victorjacobs.transactionstatistics.model;
+
+import java.util.Arrays;
+
+/**
+ * A batch of transactions, stored as parallel arrays of amounts and timestamps instead of as Transaction objects. The
+ * arrays grow as transactions are added to the batch.
+ */
+public class TransactionBatch {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private double[] amounts;
+    private long[] timestamps;
+    private int size;
+
+    public TransactionBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TransactionBatch(int capacity) {
+        this.amounts = new double[Math.max(1, capacity)];
+        this.timestamps = new long[Math.max(1, capacity)];
+    }
+
+    /**
+     * Append a transaction to the batch.
+     * @param amount    Amount of the transaction
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     */
+    public void add(double amount, long timestamp) {
+        if (size == amounts.length) {
+            amounts = Arrays.copyOf(amounts, size * 2);
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+        }
+
+        amounts[size] = amount;
+        timestamps[size] = timestamp;
+        size++;
+    }
+
+    /**
+     * Overwrite the transaction at given position, used to compact a batch in place.
+     * @param index     Position in the batch, has to be smaller than the size
+     * @param amount    Amount of the transaction
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     */
+    public void set(int index, double amount, long timestamp) {
+        checkIndex(index);
+        amounts[index] = amount;
+        timestamps[index] = timestamp;
+    }
+
+    /**
+     * Drop all transactions from given position onwards.
+     * @param newSize   New size of the batch, has to be smaller than or equal to the current size
+     */
+    public void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("Cannot truncate batch of size " + size + " to " + newSize);
+        }
+
+        size = newSize;
+    }
+
+    /**
+     * Remove all transactions from the batch, keeping the allocated arrays.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public double getAmount(int index) {
+        checkIndex(index);
+        return amounts[index];
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for batch of size " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionBatch [size: " + size + "]";
+    }
+}
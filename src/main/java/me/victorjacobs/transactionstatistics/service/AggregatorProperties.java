@@ -0,0 +1,41 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of the ClusterAggregator, bound from the "statistics.aggregator" properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "statistics.aggregator")
+public class AggregatorProperties {
+    /**
+     * Whether or not this node serves the statistics of the cluster, merged from the buckets of its peers.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Base URLs of the peers to pull the buckets from, e.g. http://10.0.0.2:8080.
+     */
+    private List<String> peers = new ArrayList<>();
+
+    /**
+     * Whether or not the buckets of this node itself are included in the statistics of the cluster.
+     */
+    private boolean includeLocal = true;
+
+    /**
+     * Interval at which the buckets are pulled from every peer.
+     */
+    private long pollIntervalMillis = 1000;
+
+    /**
+     * Connect and read timeout of a pull.
+     */
+    private int timeoutMillis = 1000;
+}
@@ -0,0 +1,187 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples request threads from the StatisticsStore when enabled: single transactions are put in a bounded
+ * TransactionQueue, from which one drainer thread moves them to the store in batches. Request threads then never wait
+ * for the store, so a burst of writes doesn't hold up the threads serving the statistics.
+ *
+ * When the queue is full, the configured ShedPolicy decides between rejecting the new transaction, dropping the oldest
+ * queued one, or waiting for room up to a timeout. Rejected and dropped transactions are counted, and never reach the
+ * store or its metrics. Queued transactions are checked against the window when they are drained, so a transaction
+ * that waited in the queue for too long is counted as too old by the store.
+ *
+ * Accepting a transaction means it was queued, not that it is visible in the statistics yet: that happens once the
+ * drainer caught up, normally within a fraction of a millisecond. Queued transactions are lost when the process dies,
+ * stopping gracefully drains them first. A batch the store fails to take is counted as failed and lost, the drainer
+ * carries on with the next one so the queue doesn't fill up for good.
+ */
+@Service
+public class AsyncIngester {
+    private static final long IDLE_PARK_NANOS = 100000;
+    private static final long BLOCK_PARK_NANOS = 50000;
+
+    private final StatisticsStore statisticsStore;
+    private final AsyncProperties properties;
+    private final TransactionQueue queue;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private Thread drainerThread;
+    private volatile boolean draining;
+
+    @Autowired
+    public AsyncIngester(StatisticsStore statisticsStore, AsyncProperties properties) {
+        if (properties.getDrainBatchSize() <= 0 || properties.getBlockTimeoutMillis() < 0) {
+            throw new IllegalArgumentException("Drain batch size must be positive and block timeout not negative");
+        }
+
+        this.statisticsStore = statisticsStore;
+        this.properties = properties;
+        this.queue = properties.isEnabled() ? new TransactionQueue(properties.getQueueCapacity()) : null;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        draining = true;
+        drainerThread = new Thread(this::drain, "async-drainer");
+        drainerThread.setDaemon(true);
+        drainerThread.start();
+    }
+
+    /**
+     * Stop the drainer thread once it handed all queued transactions to the store.
+     */
+    @PreDestroy
+    public void stop() {
+        if (drainerThread == null) {
+            return;
+        }
+
+        draining = false;
+
+        try {
+            drainerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Whether or not transactions are queued instead of added to the store right away.
+     * @return Whether or not transactions should be offered to the ingester
+     */
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Queue a transaction to be added to the store, applying the shed policy when the queue is full.
+     * @param transaction   Transaction to be added
+     * @return Whether or not the transaction was queued, false when it was rejected
+     */
+    public boolean offer(Transaction transaction) {
+        double amount = transaction.getAmount();
+        long timestamp = transaction.getTimestamp();
+
+        if (queue.offer(amount, timestamp)) {
+            return true;
+        }
+
+        switch (properties.getShedPolicy()) {
+            case DROP_OLDEST:
+                do {
+                    dropped.add(queue.drainTo(null, 1));
+                } while (!queue.offer(amount, timestamp));
+                return true;
+            case BLOCK:
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(properties.getBlockTimeoutMillis());
+
+                while (System.nanoTime() - deadline < 0) {
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+
+                    if (queue.offer(amount, timestamp)) {
+                        return true;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Number of transactions waiting in the queue.
+     * @return Depth of the queue, 0 when disabled
+     */
+    public int getQueueDepth() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    public int getQueueCapacity() {
+        return properties.getQueueCapacity();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Number of queued transactions lost because the store failed while they were added.
+     * @return Number of failed transactions
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Loop of the drainer thread: move transactions from the queue to the store, parking briefly when it's empty. Stops
+     * once the ingester is stopped and the queue is empty.
+     */
+    private void drain() {
+        int batchSize = properties.getDrainBatchSize();
+        TransactionBatch batch = new TransactionBatch(batchSize);
+
+        while (true) {
+            batch.clear();
+
+            int size = queue.drainTo(batch, batchSize);
+
+            if (size != 0) {
+                try {
+                    statisticsStore.addAll(batch);
+                } catch (RuntimeException e) {
+                    // Nobody is left to retry the batch, but a dead drainer would leave every later request shed.
+                    // The store compacts the batch in place, so its size may no longer be what was drained
+                    failed.add(size);
+                }
+            } else if (!draining) {
+                return;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the AsyncIngester, bound from the "statistics.async" properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "statistics.async")
+public class AsyncProperties {
+    /**
+     * Whether or not single transactions are queued and added to the store in the background, answering with 202.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Number of transactions the queue holds, a power of two.
+     */
+    private int queueCapacity = 65536;
+
+    /**
+     * What to do with a transaction when the queue is full.
+     */
+    private ShedPolicy shedPolicy = ShedPolicy.REJECT;
+
+    /**
+     * Maximum time a request waits for room in the queue with the BLOCK policy, before it is rejected.
+     */
+    private long blockTimeoutMillis = 1000;
+
+    /**
+     * Maximum number of transactions handed to the store at once.
+     */
+    private int drainBatchSize = 4096;
+}
@@ -0,0 +1,471 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates files of transactions into statistics per second offline, for backfilling and reconciling the statistics
+ * over dumps far too large to send through POST /transactions. The files are cut into splits of about splitBytes, each
+ * starting and ending on the boundary of a record: for packed files at a multiple of the record size, for CSV files
+ * right after a line break. The splits are memory-mapped and parsed in parallel on a ForkJoinPool, straight from the
+ * mapped pages without copying them or creating an object per transaction.
+ *
+ * Every worker thread adds the transactions of all splits it parses to SecondBuckets of its own, so the threads never
+ * share anything while parsing. Once all splits are parsed, the buckets of the threads are merged into one.
+ *
+ * Amounts in CSV files are parsed without creating a String whenever the result is exactly the double
+ * Double.parseDouble would produce, like the TransactionMessageConverter does: decimals whose digits form an integer of
+ * at most 2^53, with a power of ten of at most 22. All other amounts fall back to Double.parseDouble.
+ */
+public class BackfillAggregator {
+    static final int PACKED_RECORD_SIZE = 16;
+
+    private static final int MAX_SPLIT_BYTES = 1 << 30;
+    private static final int SCAN_BUFFER_SIZE = 8192;
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long[] LONG_POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+    };
+
+    private final int parallelism;
+    private final int splitBytes;
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder skippedLines = new LongAdder();
+
+    /**
+     * @param parallelism   Number of threads parsing splits
+     * @param splitBytes    Size a split is cut at, splits of CSV files run on to the end of the line
+     */
+    public BackfillAggregator(int parallelism, int splitBytes) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+
+        if (splitBytes < PACKED_RECORD_SIZE || splitBytes > MAX_SPLIT_BYTES) {
+            throw new IllegalArgumentException("Splits must be between " + PACKED_RECORD_SIZE + " and " +
+                    MAX_SPLIT_BYTES + " bytes");
+        }
+
+        this.parallelism = parallelism;
+        this.splitBytes = splitBytes;
+    }
+
+    /**
+     * Aggregate all transactions in given files.
+     * @param files     Files of transactions
+     * @param format    Format of all files
+     * @return Statistics per second of all transactions
+     * @throws IOException When reading a file fails
+     * @throws IllegalArgumentException When a packed file ends in the middle of a record
+     */
+    public SecondBuckets aggregate(List<Path> files, TransactionFileFormat format) throws IOException {
+        List<FileChannel> channels = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            List<Split> splits = new ArrayList<>();
+
+            for (Path file : files) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                channels.add(channel);
+                splits.addAll(split(file, channel, format));
+            }
+
+            Queue<SecondBuckets> threadBuckets = new ConcurrentLinkedQueue<>();
+            ThreadLocal<SecondBuckets> buckets = ThreadLocal.withInitial(() -> {
+                SecondBuckets created = new SecondBuckets();
+                threadBuckets.add(created);
+                return created;
+            });
+
+            try {
+                pool.invoke(new SplitTask(splits, 0, splits.size(), buckets, format));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            SecondBuckets merged = new SecondBuckets();
+            for (SecondBuckets thread : threadBuckets) {
+                merged.merge(thread);
+            }
+
+            return merged;
+        } finally {
+            pool.shutdown();
+
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * @return Number of bytes of all files aggregated so far
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return Number of lines of CSV files that weren't a transaction, empty lines aside
+     */
+    public long getSkippedLines() {
+        return skippedLines.sum();
+    }
+
+    /**
+     * Cut a file into splits on record boundaries.
+     */
+    private List<Split> split(Path file, FileChannel channel, TransactionFileFormat format) throws IOException {
+        long size = channel.size();
+        List<Split> splits = new ArrayList<>();
+
+        if (format == TransactionFileFormat.PACKED && size % PACKED_RECORD_SIZE != 0) {
+            throw new IllegalArgumentException(file + " ends in the middle of a record");
+        }
+
+        // A multiple of the record size, so packed splits start on a record without looking at the file
+        long nominalSize = splitBytes - splitBytes % PACKED_RECORD_SIZE;
+        long start = 0;
+
+        while (start < size) {
+            long end = Math.min(size, start + nominalSize);
+
+            if (format == TransactionFileFormat.CSV && end < size) {
+                end = findLineStart(channel, end, size);
+            }
+
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(file + " has a line too long to map");
+            }
+
+            splits.add(new Split(channel, start, (int) (end - start)));
+            start = end;
+        }
+
+        bytes.add(size);
+        return splits;
+    }
+
+    /**
+     * Find the start of the first line at or after given position.
+     * @return Position right after the first line break at or after position - 1, or the size of the file if none
+     */
+    private static long findLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long offset = position - 1;
+
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+
+            if (read < 0) {
+                break;
+            }
+
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+
+            offset += read;
+        }
+
+        return size;
+    }
+
+    /**
+     * A part of a file starting and ending on record boundaries.
+     */
+    @RequiredArgsConstructor
+    private static class Split {
+        private final FileChannel channel;
+        private final long start;
+        private final int length;
+    }
+
+    /**
+     * Parses a range of splits, halving the range until a single split is left.
+     */
+    @RequiredArgsConstructor
+    private class SplitTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Split> splits;
+        private final int from;
+        private final int to;
+        private final ThreadLocal<SecondBuckets> buckets;
+        private final TransactionFileFormat format;
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SplitTask(splits, from, middle, buckets, format),
+                        new SplitTask(splits, middle, to, buckets, format));
+                return;
+            }
+
+            if (to == from) {
+                return;
+            }
+
+            Split split = splits.get(from);
+            MappedByteBuffer buffer;
+
+            try {
+                buffer = split.channel.map(FileChannel.MapMode.READ_ONLY, split.start, split.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if (format == TransactionFileFormat.PACKED) {
+                parsePacked(buffer, buckets.get());
+            } else {
+                skippedLines.add(new CsvParser(buffer).parse(buckets.get()));
+            }
+        }
+    }
+
+    private static void parsePacked(MappedByteBuffer buffer, SecondBuckets buckets) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int position = 0; position < buffer.limit(); position += PACKED_RECORD_SIZE) {
+            buckets.add(buffer.getDouble(position), buffer.getLong(position + Double.BYTES));
+        }
+    }
+
+    /**
+     * Parses the lines of a split of a CSV file, straight from the mapped buffer. Digits are read eight at a time as
+     * a little-endian long: the first byte that isn't a digit is found with a few bit operations on the whole word, and
+     * the digits before it are converted with three multiplications instead of one per digit, like simdjson does.
+     */
+    private static class CsvParser {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private int position;
+
+        private CsvParser(MappedByteBuffer buffer) {
+            this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+            this.limit = buffer.limit();
+        }
+
+        /**
+         * Add the transaction of every line to the buckets.
+         * @return Number of lines that weren't a transaction, empty lines aside
+         */
+        private long parse(SecondBuckets buckets) {
+            long skipped = 0;
+
+            while (position < limit) {
+                byte first = buffer.get(position);
+
+                if (first != '\n' && first != '\r' && !parseLine(buckets)) {
+                    skipped++;
+                }
+
+                skipLine();
+            }
+
+            return skipped;
+        }
+
+        /**
+         * Parse the transaction at the start of a line and add it to the buckets, leaving the position somewhere on
+         * the same line.
+         */
+        private boolean parseLine(SecondBuckets buckets) {
+            double amount = readAmount();
+
+            if (Double.isNaN(amount) || Double.isInfinite(amount) || !consume(',')) {
+                return false;
+            }
+
+            boolean negative = consume('-');
+            int start = position;
+            long timestamp = readDigits(0, MAX_LONG_DIGITS);
+
+            if (position == start || !atFieldEnd()) {
+                return false;
+            }
+
+            buckets.add(amount, negative ? -timestamp : timestamp);
+            return true;
+        }
+
+        /**
+         * @return The amount, or NaN when the field isn't a number
+         */
+        private double readAmount() {
+            int start = position;
+            boolean negative = consume('-');
+            if (!negative) {
+                consume('+');
+            }
+
+            int digitsStart = position;
+            long mantissa = readDigits(0, MAX_LONG_DIGITS);
+            int integerDigits = position - digitsStart;
+            int exponent = 0;
+
+            if (consume('.')) {
+                int fractionStart = position;
+                mantissa = readDigits(mantissa, MAX_LONG_DIGITS - integerDigits);
+                exponent = fractionStart - position;
+            }
+
+            if (consume('e') || consume('E')) {
+                boolean negativeExponent = consume('-');
+                if (!negativeExponent) {
+                    consume('+');
+                }
+
+                int exponentStart = position;
+                long exponentValue = readDigits(0, 4);
+
+                if (position == exponentStart) {
+                    return parseAmount(start);
+                }
+                exponent += negativeExponent ? -exponentValue : exponentValue;
+            }
+
+            if (position == digitsStart || !atFieldEnd() || mantissa > MAX_EXACT_MANTISSA || exponent < -22 ||
+                    exponent > 22) {
+                return parseAmount(start);
+            }
+
+            // Both the mantissa and the power of ten are exact doubles, so a single operation rounds correctly
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+
+        /**
+         * Parse the amount starting at given position with Double.parseDouble.
+         */
+        private double parseAmount(int start) {
+            position = start;
+
+            while (!atFieldEnd()) {
+                position++;
+            }
+
+            byte[] field = new byte[position - start];
+            for (int i = 0; i < field.length; i++) {
+                field[i] = buffer.get(start + i);
+            }
+
+            try {
+                return Double.parseDouble(new String(field, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        /**
+         * Read at most maxDigits digits onto value.
+         */
+        private long readDigits(long value, int maxDigits) {
+            while (maxDigits > 0 && position + Long.BYTES <= limit) {
+                long word = buffer.getLong(position);
+                // The first byte in memory is the lowest one, its bits are the first to be counted
+                int digits = Math.min(maxDigits, Long.numberOfTrailingZeros(nonDigits(word)) >>> 3);
+
+                if (digits == 0) {
+                    return value;
+                }
+
+                value = value * LONG_POWERS_OF_TEN[digits] + parseDigits(word, digits);
+                position += digits;
+                maxDigits -= digits;
+
+                if (digits < Long.BYTES) {
+                    return value;
+                }
+            }
+
+            // Byte by byte in the last bytes of the split
+            int end = Math.min(limit, position + Math.max(maxDigits, 0));
+
+            while (position < end) {
+                int digit = buffer.get(position) - '0';
+
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+
+                value = value * 10 + digit;
+                position++;
+            }
+
+            return value;
+        }
+
+        /**
+         * @return Word with bits set in every byte that isn't an ASCII digit, and possibly in the bytes after it
+         */
+        private static long nonDigits(long word) {
+            // Digits are 0x30 up to 0x39: a high nibble of 3, that stays 3 when adding 6
+            return ((word & 0xF0F0F0F0F0F0F0F0L) ^ 0x3030303030303030L) |
+                    (((word + 0x0606060606060606L) & 0xF0F0F0F0F0F0F0F0L) ^ 0x3030303030303030L);
+        }
+
+        /**
+         * @return Value of the first digits bytes of the word, all ASCII digits
+         */
+        private static long parseDigits(long word, int digits) {
+            // Shift the digits to the top, the bytes shifted in become leading zeros
+            long value = (word << ((Long.BYTES - digits) * 8)) & 0x0F0F0F0F0F0F0F0FL;
+
+            // Combine pairs of digits, then pairs of those, then the two halves
+            value = (value * 10 + (value >>> 8)) & 0x00FF00FF00FF00FFL;
+            value = (value * 100 + (value >>> 16)) & 0x0000FFFF0000FFFFL;
+            return (value * 10000 + (value >>> 32)) & 0x00000000FFFFFFFFL;
+        }
+
+        private boolean atFieldEnd() {
+            if (position == limit) {
+                return true;
+            }
+
+            byte b = buffer.get(position);
+            return b == ',' || b == '\n' || b == '\r';
+        }
+
+        private boolean consume(char expected) {
+            if (position < limit && buffer.get(position) == expected) {
+                position++;
+                return true;
+            }
+
+            return false;
+        }
+
+        private void skipLine() {
+            while (position < limit && buffer.get(position++) != '\n') {
+                // Skip the rest of the line, up to and including the line break
+            }
+        }
+    }
+}
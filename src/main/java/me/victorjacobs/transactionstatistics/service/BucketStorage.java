@@ -0,0 +1,153 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+/**
+ * Backing storage for the buckets of the StatisticsStore. Implementations only receive transactions that lie within the
+ * window, discarding transactions that are too old or in the future is done by the store itself.
+ */
+public interface BucketStorage {
+    /**
+     * Add a transaction to the bucket it falls in, resetting the bucket first when it still holds an older second.
+     * @param amount    Amount of the transaction
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     * @return Whether or not the transaction was added, false when the storage rejected its amount
+     */
+    boolean add(double amount, long timestamp);
+
+    /**
+     * Add all transactions in a batch. Storages that take a lock on add should override this to only take it once for
+     * the entire batch.
+     * @param batch Transactions to add, all within the window
+     * @return Number of transactions whose amount the storage rejected
+     */
+    default int addAll(TransactionBatch batch) {
+        int rejected = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (!add(batch.getAmount(i), batch.getTimestamp(i))) {
+                rejected++;
+            }
+        }
+
+        return rejected;
+    }
+
+    /**
+     * Reset the bucket of the second now falls in when it still holds an older second, so the first writer of that
+     * second finds it ready. Called by the ticker of the store right after every second boundary, writers still reset
+     * buckets themselves when the ticker runs late or isn't enabled. Storages without anything to gain from it ignore
+     * it.
+     * @param now   Current time, in milliseconds, past the start of its second
+     */
+    default void resetExpired(long now) {
+    }
+
+    /**
+     * Get statistics over all buckets whose timestamp lies at or after the start of the window.
+     * @param now           Current time, in milliseconds
+     * @param windowMillis  Length of the window, at most the one returned by getWindowMillis()
+     * @return Statistics over all relevant buckets
+     */
+    default Statistic getStatistic(long now, long windowMillis) {
+        return getStatistic(now, windowMillis, null);
+    }
+
+    /**
+     * Get statistics over all buckets whose timestamp lies at or after the start of the window, and merge the sketches
+     * of those same buckets into a sketch while folding them. Storages only keep sketches when created with
+     * percentiles enabled, and storages taking a lock fold both while holding it once, so the percentiles estimated
+     * from the sketch are over the same transactions as the statistics.
+     * @param now           Current time, in milliseconds
+     * @param windowMillis  Length of the window, at most the one returned by getWindowMillis()
+     * @param sketch        Sketch to merge the sketches of the buckets into, null when no percentiles are requested
+     * @return Statistics over all relevant buckets
+     */
+    Statistic getStatistic(long now, long windowMillis, QuantileSketch sketch);
+
+    /**
+     * Add the buckets whose timestamp lies at or after the start of the window to a snapshot, keyed by the start of
+     * their second, so they can be merged with the buckets of other nodes.
+     * @param snapshot      Snapshot to add the buckets to
+     * @param windowStart   Lower bound of the window, in milliseconds
+     */
+    void exportBuckets(BucketSnapshot snapshot, long windowStart);
+
+    /**
+     * Longest window this storage keeps buckets for, transactions older than this are discarded by the store.
+     * @return Length of the window, in milliseconds
+     */
+    default long getWindowMillis() {
+        return StatisticsStore.WINDOW_SIZE_MILLIS;
+    }
+
+    /**
+     * Resolution of the buckets a window is served from. The statistics over a window can only change without an add
+     * when the start of the window crosses the start of a bucket.
+     * @param windowMillis  Length of the window, at most the one returned by getWindowMillis()
+     * @return Length of the buckets, in milliseconds
+     */
+    default long getResolutionMillis(long windowMillis) {
+        return 1000;
+    }
+
+    /**
+     * Number of transactions added to this storage. Counted by the storage itself, so storages that take a lock can
+     * count with a plain increment while holding it. Transactions skipped because their bucket already holds a newer
+     * second aren't counted.
+     * @return Number of transactions added
+     */
+    long getTransactionCount();
+
+    /**
+     * Number of times a bucket still holding an older second was reset to be reused.
+     * @return Number of bucket resets
+     */
+    default long getBucketResets() {
+        return 0;
+    }
+
+    /**
+     * Number of transactions rejected because their amount overflowed, by storages that keep amounts as fixed-point
+     * numbers.
+     * @return Number of dropped transactions
+     */
+    default long getAmountOverflows() {
+        return 0;
+    }
+
+    /**
+     * Time writers and readers spent waiting for the lock of this storage.
+     * @return Histogram of the waits, null for storages that don't take a lock
+     */
+    default LatencyHistogram getLockWaits() {
+        return null;
+    }
+
+    /**
+     * Add transactions replayed from the transaction log to the sketches only. Called instead of addAll on persistent
+     * storages, whose buckets survived the restart while their sketches, kept in memory, didn't. Transactions whose
+     * bucket no longer holds their second are skipped.
+     * @param batch Transactions to add, all within the window
+     */
+    default void restorePercentiles(TransactionBatch batch) {
+    }
+
+    /**
+     * Whether or not the buckets survive a restart by themselves, in which case they aren't rebuilt from the
+     * transaction log.
+     * @return Whether or not the storage is persistent
+     */
+    default boolean isPersistent() {
+        return false;
+    }
+
+    /**
+     * Release whatever the storage holds outside of the heap, called when the store is shut down.
+     */
+    default void close() {
+    }
+}
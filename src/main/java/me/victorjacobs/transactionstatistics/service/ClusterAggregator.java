@@ -0,0 +1,188 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_MILLIS;
+
+/**
+ * Serves the statistics of a cluster of nodes that each only receive part of the transactions. Every poll interval the
+ * buckets of every peer are pulled from its /statistics/buckets endpoint in their binary form, and the last snapshot of
+ * each peer is kept. The statistics of the cluster are computed by merging those snapshots with the buckets of this
+ * node by bucket timestamp, then folding the merged buckets within the window. Every bucket only holds the transactions
+ * of its own second on its own node, so merging never counts a transaction twice.
+ *
+ * A peer that can't be reached keeps its last snapshot. Its buckets leave the window like any other, so the statistics
+ * lose its share gradually instead of all at once. The share of every peer lags behind by up to one poll interval.
+ */
+@Service
+public class ClusterAggregator {
+    private static final String BUCKETS_PATH = "/statistics/buckets";
+
+    private final StatisticsStore statisticsStore;
+    private final AggregatorProperties properties;
+    private final Clock clock;
+    private final List<Peer> peers = new ArrayList<>();
+    private ScheduledExecutorService poller;
+
+    @Autowired
+    public ClusterAggregator(StatisticsStore statisticsStore, AggregatorProperties properties) {
+        this(Clock.systemUTC(), statisticsStore, properties);
+    }
+
+    ClusterAggregator(Clock clock, StatisticsStore statisticsStore, AggregatorProperties properties) {
+        this.clock = clock;
+        this.statisticsStore = statisticsStore;
+        this.properties = properties;
+
+        for (String peer : properties.getPeers()) {
+            String baseUrl = peer.trim();
+            peers.add(new Peer(baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled() || peers.isEmpty()) {
+            return;
+        }
+
+        poller = Executors.newScheduledThreadPool(Math.min(peers.size(), 4), runnable -> {
+            Thread thread = new Thread(runnable, "aggregator-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (Peer peer : peers) {
+            poller.scheduleWithFixedDelay(peer::poll, 0, properties.getPollIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+
+    /**
+     * Whether or not this node is configured as aggregator.
+     * @return Whether or not the statistics of the cluster are served
+     */
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Get statistics over the transactions of all nodes in the last 60 seconds.
+     * @return Statistics of the cluster
+     */
+    public Statistic getStatistic() {
+        BucketSnapshot merged = new BucketSnapshot();
+
+        if (properties.isIncludeLocal()) {
+            merged.merge(statisticsStore.exportBuckets());
+        }
+
+        for (Peer peer : peers) {
+            BucketSnapshot snapshot = peer.snapshot;
+
+            if (snapshot != null) {
+                merged.merge(snapshot);
+            }
+        }
+
+        return merged.getStatistic(clock.millis() - WINDOW_SIZE_MILLIS);
+    }
+
+    /**
+     * Number of configured peers.
+     * @return Number of peers
+     */
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    /**
+     * Number of peers whose last pull succeeded.
+     * @return Number of reachable peers
+     */
+    public int getReachablePeerCount() {
+        int reachable = 0;
+
+        for (Peer peer : peers) {
+            if (peer.reachable) {
+                reachable++;
+            }
+        }
+
+        return reachable;
+    }
+
+    /**
+     * Pull the buckets of all peers once, on the calling thread.
+     */
+    void pollAll() {
+        for (Peer peer : peers) {
+            peer.poll();
+        }
+    }
+
+    private BucketSnapshot fetch(String baseUrl) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + BUCKETS_PATH).openConnection();
+        connection.setConnectTimeout(properties.getTimeoutMillis());
+        connection.setReadTimeout(properties.getTimeoutMillis());
+        connection.setRequestProperty("Accept", "application/octet-stream");
+
+        int status = connection.getResponseCode();
+
+        if (status != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException("Peer " + baseUrl + " responded with " + status);
+        }
+
+        // Reading the whole body and closing the stream lets the connection be reused for the next pull
+        try (InputStream body = connection.getInputStream()) {
+            return BucketSnapshot.fromBytes(StreamUtils.copyToByteArray(body));
+        }
+    }
+
+    /**
+     * A peer with the last snapshot pulled from it.
+     */
+    private class Peer {
+        private final String baseUrl;
+        private volatile BucketSnapshot snapshot;
+        private volatile boolean reachable;
+
+        Peer(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        void poll() {
+            try {
+                snapshot = fetch(baseUrl);
+                reachable = true;
+            } catch (IOException | RuntimeException e) {
+                // Any exception escaping would cancel the scheduled polls of this peer for good
+                reachable = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock of the storages that records how long threads had to wait for it. When the lock is free it is taken with a
+ * single tryLock, like a plain ReentrantLock, and nothing is timed. Only a thread that finds the lock taken reads the
+ * clock before and after blocking on it.
+ */
+class ContendedLock extends ReentrantLock {
+    private static final long serialVersionUID = 1L;
+
+    private final LatencyHistogram waits = new LatencyHistogram();
+
+    /**
+     * Take the lock, blocking until it's free. Must be followed by unlock() in a finally block.
+     */
+    void acquire() {
+        if (tryLock()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        lock();
+        waits.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Time spent waiting for the lock, only for the times it was taken.
+     * @return Histogram of the waits
+     */
+    LatencyHistogram getWaits() {
+        return waits;
+    }
+}
@@ -0,0 +1,21 @@
+package me.victorjacobs.transactionstatistics.service;
+
+/**
+ * How durable a transaction is once the TransactionLog returns from appending it. Selected through the
+ * "statistics.log.durability" property.
+ */
+public enum Durability {
+    /**
+     * Records are written out to the log in the background and never forced to disk, a crash of the machine loses
+     * whatever the operating system didn't write back yet.
+     */
+    NONE,
+    /**
+     * Appending waits until the record is forced to disk, concurrent appends share one force through group commit.
+     */
+    BATCHED,
+    /**
+     * Every append writes and forces its own records before returning, one after the other.
+     */
+    PER_REQUEST
+}
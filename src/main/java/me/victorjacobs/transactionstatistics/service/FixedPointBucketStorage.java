@@ -0,0 +1,329 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_SECONDS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.floorToSecond;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.getBucketIndex;
+
+/**
+ * Lock-free storage keeping amounts as fixed-point longs: every amount is scaled to minor units, e.g. cents with a scale
+ * of 2, and rounded to the nearest one when it has more decimals. Sums are then exact integers, so they are kept with
+ * atomic adds instead of CAS loops over doubles, and the window is folded without the rounding errors of adding up
+ * doubles. Min and max are updated with CAS loops. Reads convert back to decimals, so the statistics look the same as
+ * with the other storages.
+ *
+ * Buckets are cells tagged with their second in a single ring, replaced with a CAS on the slot when the ring wraps
+ * around, following the same rules as the cells of the StripedBucketStorage.
+ *
+ * Overflow is detected instead of wrapping around. A transaction whose amount doesn't fit in a long once scaled, or
+ * whose amount would overflow the sum of its bucket, is rejected: add returns false, so the store reports it back
+ * instead of counting it as accepted, and it is counted in getAmountOverflows(). The adds to a sum are undone when
+ * they overflow, so a read concurrent with an overflowing add can briefly see a wrapped sum. A window whose buckets
+ * together sum beyond the range of a long is folded as doubles instead, losing only exactness.
+ *
+ * When percentiles are enabled, the sketches are kept in PercentileRings striped per writer thread like the stripes of
+ * the StripedBucketStorage, each guarded by its own monitor, since a sketch can't be updated lock-free. Readers merge
+ * the sketches of the same cells they fold, up to writes concurrent with the read.
+ */
+class FixedPointBucketStorage implements BucketStorage {
+    static final int MAX_SCALE = 9;
+
+    private static final double MAX_SCALED_AMOUNT = 0x1p63;
+
+    private final AtomicReferenceArray<Cell> cells = new AtomicReferenceArray<>(WINDOW_SIZE_SECONDS);
+    private final int scale;
+    private final long unit;
+    private final LongAdder transactionCount = new LongAdder();
+    private final LongAdder bucketResets = new LongAdder();
+    private final LongAdder amountOverflows = new LongAdder();
+    private final PercentileRing[] percentiles;
+
+    /**
+     * @param scale Number of decimals amounts are kept with, between 0 and MAX_SCALE
+     */
+    FixedPointBucketStorage(int scale) {
+        this(scale, false);
+    }
+
+    /**
+     * @param scale             Number of decimals amounts are kept with, between 0 and MAX_SCALE
+     * @param keepPercentiles   Whether or not to keep a sketch next to every bucket to estimate percentiles from
+     */
+    FixedPointBucketStorage(int scale, boolean keepPercentiles) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Amount scale must be between 0 and " + MAX_SCALE + ", got " + scale);
+        }
+
+        long unit = 1;
+        for (int i = 0; i < scale; i++) {
+            unit *= 10;
+        }
+
+        this.scale = scale;
+        this.unit = unit;
+        this.percentiles = keepPercentiles ? createPercentileStripes() : null;
+    }
+
+    @Override
+    public boolean add(double amount, long timestamp) {
+        double scaled = amount * unit;
+
+        // Also true for NaN and infinite amounts
+        if (!(Math.abs(scaled) < MAX_SCALED_AMOUNT)) {
+            amountOverflows.increment();
+            return false;
+        }
+
+        long minorUnits = Math.round(scaled);
+        int index = getBucketIndex(timestamp);
+        long bucketTimestamp = floorToSecond(timestamp);
+
+        while (true) {
+            Cell cell = cells.get(index);
+
+            if (cell != null && cell.timestamp == bucketTimestamp) {
+                if (!cell.add(minorUnits)) {
+                    amountOverflows.increment();
+                    return false;
+                }
+
+                transactionCount.increment();
+                addPercentile(index, bucketTimestamp, amount);
+                return true;
+            }
+
+            // The cell already holds a newer second, so this one already left the window. Not counted, but its
+            // amount wasn't rejected either
+            if (cell != null && cell.timestamp > bucketTimestamp) {
+                return true;
+            }
+
+            if (cells.compareAndSet(index, cell, new Cell(bucketTimestamp, minorUnits))) {
+                if (cell != null) {
+                    bucketResets.increment();
+                }
+                transactionCount.increment();
+                addPercentile(index, bucketTimestamp, amount);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Install an empty cell for the new second, so its writers only add to it instead of racing to replace the cell.
+     * @param now   Current time, in milliseconds, past the start of its second
+     */
+    @Override
+    public void resetExpired(long now) {
+        int index = getBucketIndex(now);
+        long bucketTimestamp = floorToSecond(now);
+        Cell cell = cells.get(index);
+
+        if ((cell == null || cell.timestamp < bucketTimestamp) &&
+                cells.compareAndSet(index, cell, new Cell(bucketTimestamp)) && cell != null) {
+            bucketResets.increment();
+        }
+    }
+
+    @Override
+    public Statistic getStatistic(long now, long windowMillis, QuantileSketch sketch) {
+        long windowStart = now - windowMillis;
+        long totalCount = 0;
+        long totalSum = 0;
+        double approximateSum = 0;
+        boolean sumOverflowed = false;
+        long totalMax = Long.MIN_VALUE;
+        long totalMin = Long.MAX_VALUE;
+
+        for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+            Cell cell = cells.get(i);
+
+            if (cell == null || cell.count == 0 || cell.timestamp < windowStart) {
+                continue;
+            }
+
+            long sum = cell.sum;
+            long result = totalSum + sum;
+
+            if (((totalSum ^ result) & (sum ^ result)) < 0) {
+                sumOverflowed = true;
+            }
+
+            totalSum = result;
+            approximateSum += sum;
+            totalCount += cell.count;
+            totalMax = Math.max(totalMax, cell.max);
+            totalMin = Math.min(totalMin, cell.min);
+        }
+
+        if (sketch != null && percentiles != null) {
+            mergePercentiles(windowStart, sketch);
+        }
+
+        if (totalCount == 0) {
+            return new Statistic();
+        }
+
+        if (sumOverflowed) {
+            double sum = approximateSum / unit;
+            return new Statistic(sum, sum / totalCount, toDecimal(totalMax), toDecimal(totalMin), totalCount);
+        }
+
+        BigDecimal sum = BigDecimal.valueOf(totalSum, scale);
+        double avg = sum.divide(BigDecimal.valueOf(totalCount), MathContext.DECIMAL64).doubleValue();
+
+        return new Statistic(sum.doubleValue(), avg, toDecimal(totalMax), toDecimal(totalMin), totalCount);
+    }
+
+    @Override
+    public void exportBuckets(BucketSnapshot snapshot, long windowStart) {
+        for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+            Cell cell = cells.get(i);
+
+            if (cell != null && cell.count != 0 && cell.timestamp >= windowStart) {
+                snapshot.add(cell.timestamp, toDecimal(cell.sum), toDecimal(cell.min), toDecimal(cell.max),
+                        cell.count);
+            }
+        }
+    }
+
+    @Override
+    public long getTransactionCount() {
+        return transactionCount.sum();
+    }
+
+    @Override
+    public long getBucketResets() {
+        return bucketResets.sum();
+    }
+
+    @Override
+    public long getAmountOverflows() {
+        return amountOverflows.sum();
+    }
+
+    private static PercentileRing[] createPercentileStripes() {
+        int stripeCount = 1;
+
+        while (stripeCount < Runtime.getRuntime().availableProcessors() * 2) {
+            stripeCount <<= 1;
+        }
+
+        PercentileRing[] stripes = new PercentileRing[stripeCount];
+
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new PercentileRing(WINDOW_SIZE_SECONDS);
+        }
+
+        return stripes;
+    }
+
+    /**
+     * Add an accepted amount to the sketch of its bucket, in the ring of the current thread.
+     */
+    private void addPercentile(int index, long bucketTimestamp, double amount) {
+        if (percentiles == null) {
+            return;
+        }
+
+        PercentileRing ring = percentiles[(int) Thread.currentThread().getId() & (percentiles.length - 1)];
+
+        synchronized (ring) {
+            ring.add(index, bucketTimestamp, amount);
+        }
+    }
+
+    /**
+     * Merge the sketches of the buckets in the window of every ring, for the cells currently in the window.
+     */
+    private void mergePercentiles(long windowStart, QuantileSketch sketch) {
+        for (PercentileRing ring : percentiles) {
+            synchronized (ring) {
+                for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+                    Cell cell = cells.get(i);
+
+                    if (cell != null && cell.count != 0 && cell.timestamp >= windowStart) {
+                        ring.merge(i, cell.timestamp, sketch);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Convert minor units back to the closest double of the decimal amount they represent.
+     */
+    private double toDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, scale).doubleValue();
+    }
+
+    /**
+     * Statistics for a single second, in minor units.
+     */
+    private static class Cell {
+        private static final AtomicLongFieldUpdater<Cell> COUNT = AtomicLongFieldUpdater.newUpdater(Cell.class, "count");
+        private static final AtomicLongFieldUpdater<Cell> SUM = AtomicLongFieldUpdater.newUpdater(Cell.class, "sum");
+        private static final AtomicLongFieldUpdater<Cell> MAX = AtomicLongFieldUpdater.newUpdater(Cell.class, "max");
+        private static final AtomicLongFieldUpdater<Cell> MIN = AtomicLongFieldUpdater.newUpdater(Cell.class, "min");
+
+        private final long timestamp;
+        private volatile long count;
+        private volatile long sum;
+        private volatile long max;
+        private volatile long min;
+
+        /**
+         * Empty cell, installed ahead of the first transaction of its second.
+         */
+        Cell(long timestamp) {
+            this.timestamp = timestamp;
+            this.max = Long.MIN_VALUE;
+            this.min = Long.MAX_VALUE;
+        }
+
+        Cell(long timestamp, long amount) {
+            this.timestamp = timestamp;
+            this.count = 1;
+            this.sum = amount;
+            this.max = amount;
+            this.min = amount;
+        }
+
+        /**
+         * Add an amount to the cell, unless it makes the sum overflow.
+         * @param amount    Amount in minor units
+         * @return Whether or not the amount was added
+         */
+        boolean add(long amount) {
+            long previous = SUM.getAndAdd(this, amount);
+            long result = previous + amount;
+
+            if (((previous ^ result) & (amount ^ result)) < 0) {
+                SUM.getAndAdd(this, -amount);
+                return false;
+            }
+
+            long current;
+
+            do {
+                current = max;
+            } while (amount > current && !MAX.compareAndSet(this, current, amount));
+
+            do {
+                current = min;
+            } while (amount < current && !MIN.compareAndSet(this, current, amount));
+
+            COUNT.incrementAndGet(this);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the HistoryStore, bound from the "statistics.history" properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "statistics.history")
+public class HistoryProperties {
+    /**
+     * Whether or not the buckets of the store are rolled up into minutes and hours before they leave the window.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Interval at which buckets are rolled up. Buckets are rolled up once they are older than the window minus twice
+     * this interval, so it has to be well below the window.
+     */
+    private long rollupIntervalMillis = 5000;
+
+    /**
+     * Number of minutes retained, a day by default.
+     */
+    private int minutes = 1440;
+
+    /**
+     * Number of hours retained, 30 days by default.
+     */
+    private int hours = 720;
+}
@@ -0,0 +1,181 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_MILLIS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.floorToSecond;
+
+/**
+ * Keeps the statistics of the StatisticsStore after they left its window, to answer queries over arbitrary time ranges.
+ * Every rollup interval the buckets of the store are exported, and the seconds that are about to leave the window are
+ * added to a RollupTier of minutes and one of hours. Both tiers are rings of fixed capacity, so memory is bounded.
+ *
+ * A query for a range is answered from the hour tier for the part before the first complete hour in the minute tier,
+ * from the minute tier for the part up to the seconds that weren't rolled up yet, and from the buckets of the store for
+ * the rest. Each tier answers in logarithmic time, so the cost of a query doesn't depend on the length of the range.
+ * Buckets are included when their interval starts within the range, so the start of a range is rounded up to the
+ * resolution of the tier it falls in: seconds for the last minute, minutes for the last day and hours before that, with
+ * the default retention.
+ *
+ * Seconds are rolled up once they are older than the window minus twice the rollup interval, 50 seconds by default.
+ * Transactions that arrive even later for their second still count in the live statistics, but not in the history.
+ * Likewise, seconds are lost to the history when rolling up stalls for longer than that margin, e.g. when a rollup
+ * fails: the next rollup simply tries again.
+ * The history is kept in memory only, and starts out empty after a restart.
+ */
+@Service
+public class HistoryStore {
+    private static final long MINUTE_MILLIS = 60000;
+    private static final long HOUR_MILLIS = 3600000;
+
+    private final StatisticsStore statisticsStore;
+    private final HistoryProperties properties;
+    private final Clock clock;
+    private final RollupTier minutes;
+    private final RollupTier hours;
+    // Start of the oldest second that wasn't rolled up yet, only accessed while synchronized
+    private long rolledUpTo = Long.MIN_VALUE;
+    private ScheduledExecutorService roller;
+
+    @Autowired
+    public HistoryStore(StatisticsStore statisticsStore, HistoryProperties properties) {
+        this(Clock.systemUTC(), statisticsStore, properties);
+    }
+
+    HistoryStore(Clock clock, StatisticsStore statisticsStore, HistoryProperties properties) {
+        long interval = properties.getRollupIntervalMillis();
+
+        if (interval <= 0 || interval * 4 > WINDOW_SIZE_MILLIS) {
+            throw new IllegalArgumentException("Rollup interval must be between 1 and " + WINDOW_SIZE_MILLIS / 4 +
+                    " ms");
+        }
+
+        this.clock = clock;
+        this.statisticsStore = statisticsStore;
+        this.properties = properties;
+        this.minutes = new RollupTier(MINUTE_MILLIS, properties.getMinutes());
+        this.hours = new RollupTier(HOUR_MILLIS, properties.getHours());
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        roller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-roller");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = properties.getRollupIntervalMillis();
+        roller.scheduleWithFixedDelay(this::tryRollUp, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (roller != null) {
+            roller.shutdownNow();
+        }
+    }
+
+    /**
+     * Whether or not the history is kept.
+     * @return Whether or not ranges can be queried
+     */
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    private void tryRollUp() {
+        try {
+            rollUp();
+        } catch (RuntimeException e) {
+            // Left to escape, it would cancel every later rollup and the history would quietly stop growing
+        }
+    }
+
+    /**
+     * Roll up the seconds of the store that are about to leave the window and weren't rolled up yet.
+     */
+    synchronized void rollUp() {
+        long cutoff = floorToSecond(clock.millis() - WINDOW_SIZE_MILLIS + 2 * properties.getRollupIntervalMillis());
+
+        for (Map.Entry<Long, Statistic> bucket : statisticsStore.exportBuckets().getBuckets().entrySet()) {
+            long bucketTimestamp = bucket.getKey();
+
+            if (bucketTimestamp >= rolledUpTo && bucketTimestamp < cutoff) {
+                Statistic statistic = bucket.getValue();
+
+                minutes.add(bucketTimestamp, statistic.getSum(), statistic.getMin(), statistic.getMax(),
+                        statistic.getCount());
+                hours.add(bucketTimestamp, statistic.getSum(), statistic.getMin(), statistic.getMax(),
+                        statistic.getCount());
+            }
+        }
+
+        rolledUpTo = Math.max(rolledUpTo, cutoff);
+    }
+
+    /**
+     * Get statistics over the transactions since a point in time, as far as they are retained.
+     * @param from  Lower bound, inclusive, in milliseconds
+     * @return Statistics from the given point in time up to now
+     * @throws IllegalArgumentException When the point in time lies in the future
+     */
+    public Statistic getStatistic(long from) {
+        return getStatistic(from, clock.millis() + 1);
+    }
+
+    /**
+     * Get statistics over the transactions between two points in time, as far as they are retained.
+     * @param from  Lower bound, inclusive, in milliseconds
+     * @param to    Upper bound, exclusive, in milliseconds
+     * @return Statistics over the range
+     * @throws IllegalArgumentException When the range is empty
+     */
+    public synchronized Statistic getStatistic(long from, long to) {
+        if (from >= to) {
+            throw new IllegalArgumentException("Start of the range must lie before its end");
+        }
+
+        List<Statistic> parts = new ArrayList<>(3);
+        long retainedTo = Math.min(to, rolledUpTo);
+        long minutesFrom = ceil(minutes.getRetainedFrom(), HOUR_MILLIS);
+
+        if (from < minutesFrom) {
+            parts.add(hours.getStatistic(from, Math.min(retainedTo, minutesFrom)));
+        }
+        if (retainedTo > from) {
+            parts.add(minutes.getStatistic(Math.max(from, minutesFrom), retainedTo));
+        }
+        if (to > rolledUpTo) {
+            BucketSnapshot live = statisticsStore.exportBuckets();
+            parts.add(live.getStatistic(Math.max(from, rolledUpTo), to));
+        }
+
+        return Statistic.combine(parts);
+    }
+
+    private static long ceil(long timestamp, long resolution) {
+        if (timestamp == Long.MIN_VALUE) {
+            return Long.MIN_VALUE;
+        }
+
+        return Math.floorDiv(timestamp + resolution - 1, resolution) * resolution;
+    }
+}
@@ -0,0 +1,39 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the TcpIngestServer, bound from the "statistics.ingest" properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "statistics.ingest")
+public class IngestProperties {
+    /**
+     * Whether or not to listen for binary transaction frames over TCP, next to the REST endpoints.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Port to listen on, 0 for any free port.
+     */
+    private int port = 9091;
+
+    /**
+     * Maximum number of records in one frame, larger frames close the connection.
+     */
+    private int maxFrameRecords = 4096;
+
+    /**
+     * Number of transactions the ring between the listener and the store holds, a power of two. When it's full, reading
+     * from the connections pauses until the store caught up.
+     */
+    private int ringCapacity = 65536;
+
+    /**
+     * Maximum number of transactions handed to the store at once.
+     */
+    private int drainBatchSize = 4096;
+}
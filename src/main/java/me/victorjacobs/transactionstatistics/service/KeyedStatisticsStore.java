@@ -0,0 +1,437 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.KeyedStatistic;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_MILLIS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_SECONDS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.floorToSecond;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.getBucketIndex;
+
+/**
+ * Store of the statistics per key, for transactions that have one. Every key gets its own ring of 60 buckets that
+ * behaves like the one of the PrimitiveBucketStorage.
+ *
+ * To keep memory bounded and avoid an object per key, the number of keys is fixed. Keys are assigned an entry id, the
+ * rings of all entries live in one slab of primitive arrays where the buckets of entry E start at E * 60. The slab
+ * doubles as more entries are taken, up to the maximum, so a store that only ever sees a few keys stays small. Finding
+ * the entry of a key goes through an open-addressing table with linear probing, that maps the hash of the key to the
+ * entry id. The key itself is only compared to resolve hash collisions.
+ *
+ * A key that hasn't received a transaction for longer than the window only has buckets outside of the window left,
+ * so its entry can be reused. The entries are kept in a queue in order of their last transaction, so when a new key
+ * comes in and all entries are taken, only the least recently seen entry has to be looked at: when it is idle it is
+ * evicted, when it isn't all keys are active and the transaction is rejected. Idle keys are also evicted while
+ * scanning all keys for the top N.
+ *
+ * All operations are synchronised.
+ */
+@Service
+@Scope("singleton")
+public class KeyedStatisticsStore {
+    private static final int NO_ENTRY = -1;
+    private static final int INITIAL_SLAB_ENTRIES = 64;
+
+    private final Clock clock;
+    private final int maxKeys;
+
+    // Open-addressing table, holds entry id + 1 so 0 marks a free position
+    private final int[] table;
+    private final int tableMask;
+
+    private final String[] keys;
+    private final int[] hashes;
+    private final long[] lastSeen;
+    private final int[] freeEntries;
+    private int freeCount;
+    // Entries handed out so far, the ones below it are taken or on the free list
+    private int allocated;
+
+    // Queue of the taken entries in order of their last transaction, as a doubly linked list
+    private final int[] older;
+    private final int[] newer;
+    private int leastRecent = NO_ENTRY;
+    private int mostRecent = NO_ENTRY;
+
+    private double[] sum;
+    private double[] min;
+    private double[] max;
+    private long[] count;
+    private long[] bucketTimestamps;
+
+    private long evicted;
+    private long rejected;
+
+    @Autowired
+    public KeyedStatisticsStore(KeyedStoreProperties properties) {
+        this(Clock.systemUTC(), properties.getMaxKeys());
+    }
+
+    KeyedStatisticsStore(Clock clock, int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Maximum number of keys must be positive");
+        }
+
+        int tableSize = 2;
+        while (tableSize < maxKeys * 2) {
+            tableSize <<= 1;
+        }
+
+        this.clock = clock;
+        this.maxKeys = maxKeys;
+        this.table = new int[tableSize];
+        this.tableMask = tableSize - 1;
+        this.keys = new String[maxKeys];
+        this.hashes = new int[maxKeys];
+        this.lastSeen = new long[maxKeys];
+        this.freeEntries = new int[maxKeys];
+        this.older = new int[maxKeys];
+        this.newer = new int[maxKeys];
+
+        int slabSize = Math.min(maxKeys, INITIAL_SLAB_ENTRIES) * WINDOW_SIZE_SECONDS;
+        this.sum = new double[slabSize];
+        this.min = new double[slabSize];
+        this.max = new double[slabSize];
+        this.count = new long[slabSize];
+        this.bucketTimestamps = new long[slabSize];
+    }
+
+    /**
+     * Add a keyed transaction to the store. Transactions outside of the window are discarded, like in the
+     * StatisticsStore.
+     * @param transaction   Transaction to be added, must have a key
+     * @return Whether or not the transaction was stored, false when discarded or when no entry was free for its key
+     */
+    public synchronized boolean add(Transaction transaction) {
+        long now = clock.millis();
+
+        if (now - transaction.getTimestamp() > WINDOW_SIZE_MILLIS || now < transaction.getTimestamp()) {
+            return false;
+        }
+
+        int entry = findOrInsert(transaction.getKey(), now);
+
+        if (entry == NO_ENTRY) {
+            rejected++;
+            return false;
+        }
+
+        lastSeen[entry] = now;
+        moveToMostRecent(entry);
+
+        int index = entry * WINDOW_SIZE_SECONDS + getBucketIndex(transaction.getTimestamp());
+        long bucketTimestamp = floorToSecond(transaction.getTimestamp());
+        double amount = transaction.getAmount();
+
+        // The bucket already holds a newer second, so this one already left the window
+        if (count[index] != 0 && bucketTimestamps[index] > bucketTimestamp) {
+            return true;
+        }
+
+        if (count[index] == 0 || bucketTimestamps[index] != bucketTimestamp) {
+            bucketTimestamps[index] = bucketTimestamp;
+            sum[index] = amount;
+            min[index] = amount;
+            max[index] = amount;
+            count[index] = 1;
+        } else {
+            sum[index] += amount;
+            min[index] = Math.min(min[index], amount);
+            max[index] = Math.max(max[index], amount);
+            count[index]++;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get statistics over the transactions of given key in the last 60 seconds.
+     * @param key   Key to get the statistics for
+     * @return Statistics for the key, empty when the key is unknown
+     */
+    public synchronized Statistic getStatistic(String key) {
+        int entry = find(key);
+
+        if (entry == NO_ENTRY) {
+            return new Statistic();
+        }
+
+        return fold(entry, clock.millis() - WINDOW_SIZE_MILLIS);
+    }
+
+    /**
+     * Get the keys with the highest sum over the last 60 seconds, evicting idle keys along the way.
+     * @param n Maximum number of keys to return
+     * @return Statistics of the keys, ordered by decreasing sum
+     */
+    public synchronized List<KeyedStatistic> getTopBySum(int n) {
+        long now = clock.millis();
+        long windowStart = now - WINDOW_SIZE_MILLIS;
+        int limit = Math.max(0, Math.min(n, maxKeys));
+        int[] topEntries = new int[limit];
+        double[] topSums = new double[limit];
+        int size = 0;
+
+        for (int entry = 0; entry < allocated; entry++) {
+            if (keys[entry] == null) {
+                continue;
+            }
+
+            if (now - lastSeen[entry] > WINDOW_SIZE_MILLIS) {
+                remove(entry);
+                continue;
+            }
+
+            double entrySum = sumOf(entry, windowStart);
+
+            if (limit == 0 || (size == limit && entrySum <= topSums[size - 1])) {
+                continue;
+            }
+
+            // Insertion into the sorted top, dropping the last one when full
+            int position = size < limit ? size++ : size - 1;
+            while (position > 0 && topSums[position - 1] < entrySum) {
+                topSums[position] = topSums[position - 1];
+                topEntries[position] = topEntries[position - 1];
+                position--;
+            }
+            topSums[position] = entrySum;
+            topEntries[position] = entry;
+        }
+
+        List<KeyedStatistic> top = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            top.add(new KeyedStatistic(keys[topEntries[i]], fold(topEntries[i], windowStart)));
+        }
+
+        return top;
+    }
+
+    /**
+     * Number of keys currently holding an entry.
+     * @return Number of keys
+     */
+    public synchronized int size() {
+        return allocated - freeCount;
+    }
+
+    /**
+     * Number of keys evicted so far because they were idle for longer than the window.
+     * @return Number of evicted keys
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Number of transactions rejected so far because all entries were taken by active keys.
+     * @return Number of rejected transactions
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    private int find(String key) {
+        int hash = hash(key);
+        int position = hash & tableMask;
+
+        while (table[position] != 0) {
+            int entry = table[position] - 1;
+
+            if (hashes[entry] == hash && keys[entry].equals(key)) {
+                return entry;
+            }
+
+            position = (position + 1) & tableMask;
+        }
+
+        return NO_ENTRY;
+    }
+
+    private int findOrInsert(String key, long now) {
+        int entry = find(key);
+
+        if (entry != NO_ENTRY) {
+            return entry;
+        }
+
+        if (freeCount == 0 && allocated == maxKeys) {
+            // The least recently seen key is the only one that may be idle, when it isn't all keys are active
+            if (now - lastSeen[leastRecent] <= WINDOW_SIZE_MILLIS) {
+                return NO_ENTRY;
+            }
+
+            remove(leastRecent);
+        }
+
+        int hash = hash(key);
+        int position = hash & tableMask;
+        while (table[position] != 0) {
+            position = (position + 1) & tableMask;
+        }
+
+        if (freeCount > 0) {
+            entry = freeEntries[--freeCount];
+        } else {
+            entry = allocated++;
+            ensureSlabCapacity(allocated);
+        }
+
+        keys[entry] = key;
+        hashes[entry] = hash;
+        Arrays.fill(count, entry * WINDOW_SIZE_SECONDS, (entry + 1) * WINDOW_SIZE_SECONDS, 0);
+        table[position] = entry + 1;
+        older[entry] = NO_ENTRY;
+        newer[entry] = NO_ENTRY;
+
+        return entry;
+    }
+
+    /**
+     * Double the slab until it holds the buckets of the given number of entries, without going over the maximum.
+     * @param entries   Number of entries the slab has to hold
+     */
+    private void ensureSlabCapacity(int entries) {
+        int slabEntries = count.length / WINDOW_SIZE_SECONDS;
+
+        if (entries <= slabEntries) {
+            return;
+        }
+
+        int slabSize = (int) Math.min((long) maxKeys, 2L * slabEntries) * WINDOW_SIZE_SECONDS;
+        sum = Arrays.copyOf(sum, slabSize);
+        min = Arrays.copyOf(min, slabSize);
+        max = Arrays.copyOf(max, slabSize);
+        count = Arrays.copyOf(count, slabSize);
+        bucketTimestamps = Arrays.copyOf(bucketTimestamps, slabSize);
+    }
+
+    /**
+     * Move an entry to the end of the queue, as the most recently seen one.
+     * @param entry Entry that just received a transaction
+     */
+    private void moveToMostRecent(int entry) {
+        if (entry == mostRecent) {
+            return;
+        }
+
+        unlink(entry);
+        older[entry] = mostRecent;
+        newer[entry] = NO_ENTRY;
+
+        if (mostRecent != NO_ENTRY) {
+            newer[mostRecent] = entry;
+        } else {
+            leastRecent = entry;
+        }
+        mostRecent = entry;
+    }
+
+    /**
+     * Take an entry out of the queue, a new entry that isn't in it yet is left as is.
+     * @param entry Entry to take out
+     */
+    private void unlink(int entry) {
+        if (older[entry] != NO_ENTRY) {
+            newer[older[entry]] = newer[entry];
+        } else if (leastRecent == entry) {
+            leastRecent = newer[entry];
+        }
+
+        if (newer[entry] != NO_ENTRY) {
+            older[newer[entry]] = older[entry];
+        } else if (mostRecent == entry) {
+            mostRecent = older[entry];
+        }
+
+        older[entry] = NO_ENTRY;
+        newer[entry] = NO_ENTRY;
+    }
+
+    /**
+     * Remove an entry from the table, shifting back the entries following it in the same probe sequence so that no
+     * tombstones are needed.
+     * @param entry Entry to remove
+     */
+    private void remove(int entry) {
+        int position = hashes[entry] & tableMask;
+        while (table[position] != entry + 1) {
+            position = (position + 1) & tableMask;
+        }
+
+        table[position] = 0;
+        keys[entry] = null;
+        unlink(entry);
+        freeEntries[freeCount++] = entry;
+        evicted++;
+
+        int next = (position + 1) & tableMask;
+        while (table[next] != 0) {
+            int ideal = hashes[table[next] - 1] & tableMask;
+
+            // The entry at next may move into the hole when the hole lies between its ideal position and next
+            if (((next - ideal) & tableMask) >= ((next - position) & tableMask)) {
+                table[position] = table[next];
+                table[next] = 0;
+                position = next;
+            }
+
+            next = (next + 1) & tableMask;
+        }
+    }
+
+    private double sumOf(int entry, long windowStart) {
+        double total = 0;
+
+        for (int i = entry * WINDOW_SIZE_SECONDS; i < (entry + 1) * WINDOW_SIZE_SECONDS; i++) {
+            if (count[i] != 0 && bucketTimestamps[i] >= windowStart) {
+                total += sum[i];
+            }
+        }
+
+        return total;
+    }
+
+    private Statistic fold(int entry, long windowStart) {
+        long totalCount = 0;
+        double totalMax = Double.NEGATIVE_INFINITY;
+        double totalMin = Double.POSITIVE_INFINITY;
+        double totalSum = 0;
+
+        for (int i = entry * WINDOW_SIZE_SECONDS; i < (entry + 1) * WINDOW_SIZE_SECONDS; i++) {
+            if (count[i] == 0 || bucketTimestamps[i] < windowStart) {
+                continue;
+            }
+
+            totalCount += count[i];
+            totalMax = Math.max(totalMax, max[i]);
+            totalMin = Math.min(totalMin, min[i]);
+            totalSum += sum[i];
+        }
+
+        if (totalCount != 0) {
+            return new Statistic(totalSum, totalSum / totalCount, totalMax, totalMin, totalCount);
+        } else {
+            return new Statistic();
+        }
+    }
+
+    /**
+     * Spread the bits of the hash code of a key, so keys with similar hash codes don't end up in one probe sequence.
+     * @param key   Key to hash
+     * @return Hash of the key
+     */
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
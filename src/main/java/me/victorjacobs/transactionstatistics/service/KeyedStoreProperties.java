@@ -0,0 +1,19 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the KeyedStatisticsStore, bound from the "statistics.keyed" properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "statistics.keyed")
+public class KeyedStoreProperties {
+    /**
+     * Maximum number of keys tracked at the same time. The buckets take about 2.4 KB per key and grow with the number
+     * of keys seen, up to about 240 MB for the default.
+     */
+    private int maxKeys = 100000;
+}
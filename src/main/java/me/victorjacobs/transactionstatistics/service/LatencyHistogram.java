@@ -0,0 +1,78 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies, with fixed buckets from 1 µs up to 10 s in a 1-2-5 series plus one bucket for
+ * everything above. Every bucket and the sum are LongAdders, which spread concurrent increments over striped cells, so
+ * recording from many threads doesn't contend on a single counter. Reading sums the cells, which is only done when the
+ * metrics are scraped.
+ */
+public class LatencyHistogram {
+    private static final long[] BOUNDS_NANOS = {
+            1000L, 2000L, 5000L,
+            10000L, 20000L, 50000L,
+            100000L, 200000L, 500000L,
+            1000000L, 2000000L, 5000000L,
+            10000000L, 20000000L, 50000000L,
+            100000000L, 200000000L, 500000000L,
+            1000000000L, 2000000000L, 5000000000L,
+            10000000000L
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a latency.
+     * @param nanos Latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+            i++;
+        }
+
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Upper bounds of the buckets, inclusive. The last bucket has no upper bound and isn't included.
+     * @return Upper bounds, in nanoseconds
+     */
+    public static long[] getBoundsNanos() {
+        return BOUNDS_NANOS.clone();
+    }
+
+    /**
+     * Number of latencies recorded at or below every bound, followed by the total number of latencies recorded.
+     * Concurrent recordings may or may not be included.
+     * @return Cumulative counts, one longer than the bounds
+     */
+    public long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+
+        return counts;
+    }
+
+    /**
+     * Sum of all latencies recorded.
+     * @return Sum, in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+}
@@ -0,0 +1,49 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the TransactionLog, bound from the "statistics.log" properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "statistics.log")
+public class LogProperties {
+    /**
+     * Whether or not accepted transactions are written to the log and replayed on startup.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Directory the segments of the log are kept in.
+     */
+    private String directory = "data/log";
+
+    /**
+     * When an append returns: once written out in the background, once forced to disk together with concurrent
+     * appends, or once forced to disk on its own.
+     */
+    private Durability durability = Durability.BATCHED;
+
+    /**
+     * Size after which the log continues in a new segment.
+     */
+    private long segmentBytes = 64 * 1024 * 1024;
+
+    /**
+     * Size of the buffer appends are collected in before they are written out, appends wait when it's full.
+     */
+    private int bufferBytes = 1024 * 1024;
+
+    /**
+     * Interval at which the buffer is written out when the durability is NONE.
+     */
+    private long flushIntervalMillis = 10;
+
+    /**
+     * Interval at which segments that only hold transactions outside of the window are deleted.
+     */
+    private long cleanupIntervalMillis = 10000;
+}
@@ -0,0 +1,387 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_SECONDS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.floorToSecond;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.getBucketIndex;
+
+/**
+ * Storage keeping the buckets in a memory-mapped file, so they survive a restart of the application. The buckets are
+ * the same as in the PrimitiveBucketStorage, but instead of parallel arrays they are laid out in the file and updated
+ * in place. Writes only touch the page cache, the operating system writes the pages back to the file, so the buckets
+ * also survive the process being killed. On shutdown the file is forced to disk.
+ *
+ * The file has a fixed, little-endian layout:
+ *  - a header of 16 bytes: magic number, layout version and number of buckets as ints, followed by 4 unused bytes,
+ *  - 60 buckets of 40 bytes: bucket timestamp and count as longs, followed by sum, min and max as doubles.
+ *
+ * When the storage is created, an existing file with a matching header is used as is. Buckets in it that left the
+ * window while the application was down are skipped on read and reset on write by the usual bucket timestamp checks,
+ * so the statistics are correct right away. Buckets newer than the current time, left behind when the clock was set
+ * back while the application was down, are reset, as they would otherwise hold on to their slot until the clock caught
+ * up again. A missing file or a file with a different layout starts out empty.
+ *
+ * The storage holds an exclusive lock on the file until it is closed, so a second application started on the same file
+ * fails to start instead of both writing to the same buckets.
+ *
+ * A crash in the middle of an update can leave that single bucket partly updated.
+ *
+ * When percentiles are enabled, a PercentileRing holds a sketch next to every bucket, updated and merged under the same
+ * lock. The sketches are kept in memory, so after a restart they are rebuilt from the transaction log.
+ */
+class MappedBucketStorage implements BucketStorage {
+    static final int MAGIC = 0x54585354;
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int BUCKET_SIZE = 40;
+    private static final int FILE_SIZE = HEADER_SIZE + WINDOW_SIZE_SECONDS * BUCKET_SIZE;
+
+    private static final int TIMESTAMP = 0;
+    private static final int COUNT = 8;
+    private static final int SUM = 16;
+    private static final int MIN = 24;
+    private static final int MAX = 32;
+
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    private final MappedByteBuffer buffer;
+    private final ContendedLock lock = new ContendedLock();
+    // Only accessed while holding the lock
+    private long transactionCount;
+    private long bucketResets;
+    private final PercentileRing percentiles;
+
+    /**
+     * @param file  File to keep the buckets in, created when it doesn't exist
+     * @param now   Current time in milliseconds, buckets newer than this are reset
+     */
+    MappedBucketStorage(Path file, long now) {
+        this(file, false, now);
+    }
+
+    /**
+     * @param file              File to keep the buckets in, created when it doesn't exist
+     * @param keepPercentiles   Whether or not to keep a sketch next to every bucket to estimate percentiles from
+     * @param now               Current time in milliseconds, buckets newer than this are reset
+     * @throws IllegalStateException When the file is locked by another storage
+     */
+    MappedBucketStorage(Path file, boolean keepPercentiles, long now) {
+        this.percentiles = keepPercentiles ? new PercentileRing(WINDOW_SIZE_SECONDS) : null;
+
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open bucket file " + file, e);
+        }
+
+        boolean valid;
+        try {
+            fileLock = tryLock(channel);
+            if (fileLock == null) {
+                throw new IllegalStateException("Bucket file " + file + " is in use by another process");
+            }
+
+            valid = channel.size() == FILE_SIZE;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            closeChannel();
+            throw new UncheckedIOException("Could not map bucket file " + file, e);
+        } catch (RuntimeException e) {
+            closeChannel();
+            throw e;
+        }
+
+        if (!valid || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION ||
+                buffer.getInt(8) != WINDOW_SIZE_SECONDS) {
+            initialise();
+        } else {
+            resetBucketsAfter(floorToSecond(now));
+        }
+    }
+
+    /**
+     * Create a storage on the file configured for the store.
+     * @param properties    Configuration of the store
+     * @param clock         Clock of the store, buckets newer than its current time are reset
+     * @return New storage, holding the buckets left in the file
+     * @throws IllegalStateException When the file is locked by another storage
+     */
+    static MappedBucketStorage create(StoreProperties properties, Clock clock) {
+        Path file = Paths.get(properties.getBucketFile());
+
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create directory of bucket file " + file, e);
+        }
+
+        return new MappedBucketStorage(file, !properties.getPercentiles().isEmpty(), clock.millis());
+    }
+
+    @Override
+    public boolean add(double amount, long timestamp) {
+        lock.acquire();
+        try {
+            addUnsynchronized(amount, timestamp);
+        } finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    @Override
+    public int addAll(TransactionBatch batch) {
+        lock.acquire();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                addUnsynchronized(batch.getAmount(i), batch.getTimestamp(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return 0;
+    }
+
+    @Override
+    public Statistic getStatistic(long now, long windowMillis, QuantileSketch sketch) {
+        lock.acquire();
+        try {
+            return fold(now - windowMillis, sketch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void exportBuckets(BucketSnapshot snapshot, long windowStart) {
+        lock.acquire();
+        try {
+            for (int offset = HEADER_SIZE; offset < FILE_SIZE; offset += BUCKET_SIZE) {
+                long count = buffer.getLong(offset + COUNT);
+                long bucketTimestamp = buffer.getLong(offset + TIMESTAMP);
+
+                if (count != 0 && bucketTimestamp >= windowStart) {
+                    snapshot.add(bucketTimestamp, buffer.getDouble(offset + SUM), buffer.getDouble(offset + MIN),
+                            buffer.getDouble(offset + MAX), count);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTransactionCount() {
+        lock.acquire();
+        try {
+            return transactionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getBucketResets() {
+        lock.acquire();
+        try {
+            return bucketResets;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LatencyHistogram getLockWaits() {
+        return lock.getWaits();
+    }
+
+    /**
+     * Add the transactions to the sketches of the buckets in the file that still hold their second.
+     * @param batch Transactions to add, all within the window
+     */
+    @Override
+    public void restorePercentiles(TransactionBatch batch) {
+        if (percentiles == null) {
+            return;
+        }
+
+        lock.acquire();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                int index = getBucketIndex(batch.getTimestamp(i));
+                int offset = HEADER_SIZE + index * BUCKET_SIZE;
+                long bucketTimestamp = floorToSecond(batch.getTimestamp(i));
+
+                if (buffer.getLong(offset + COUNT) != 0 && buffer.getLong(offset + TIMESTAMP) == bucketTimestamp) {
+                    percentiles.add(index, bucketTimestamp, batch.getAmount(i));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    /**
+     * Force the buckets to the file and release the lock on it.
+     */
+    @Override
+    public void close() {
+        lock.acquire();
+        try {
+            buffer.force();
+            fileLock.release();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close bucket file", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take an exclusive lock on the whole file.
+     * @param channel   Channel of the file
+     * @return The lock, or null when another process or another storage in this process holds it
+     * @throws IOException When the lock could not be requested
+     */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already failing to open the storage, that error is the one to report
+        }
+    }
+
+    /**
+     * Reset the buckets that are newer than the given second, they can only be left there by a clock set back.
+     * @param second    Start of the current second, in milliseconds
+     */
+    private void resetBucketsAfter(long second) {
+        for (int offset = HEADER_SIZE; offset < FILE_SIZE; offset += BUCKET_SIZE) {
+            if (buffer.getLong(offset + TIMESTAMP) > second) {
+                buffer.putLong(offset + COUNT, 0);
+            }
+        }
+    }
+
+    private void addUnsynchronized(double amount, long timestamp) {
+        int index = getBucketIndex(timestamp);
+        int offset = HEADER_SIZE + index * BUCKET_SIZE;
+        long bucketTimestamp = floorToSecond(timestamp);
+        long count = buffer.getLong(offset + COUNT);
+
+        // The bucket already holds a newer second, so this one already left the window
+        if (count != 0 && buffer.getLong(offset + TIMESTAMP) > bucketTimestamp) {
+            return;
+        }
+
+        transactionCount++;
+
+        if (percentiles != null) {
+            percentiles.add(index, bucketTimestamp, amount);
+        }
+
+        if (count == 0 || buffer.getLong(offset + TIMESTAMP) != bucketTimestamp) {
+            if (count != 0) {
+                bucketResets++;
+            }
+
+            buffer.putLong(offset + TIMESTAMP, bucketTimestamp);
+            buffer.putDouble(offset + SUM, amount);
+            buffer.putDouble(offset + MIN, amount);
+            buffer.putDouble(offset + MAX, amount);
+            buffer.putLong(offset + COUNT, 1);
+            return;
+        }
+
+        buffer.putDouble(offset + SUM, buffer.getDouble(offset + SUM) + amount);
+        buffer.putDouble(offset + MIN, Math.min(buffer.getDouble(offset + MIN), amount));
+        buffer.putDouble(offset + MAX, Math.max(buffer.getDouble(offset + MAX), amount));
+        buffer.putLong(offset + COUNT, count + 1);
+    }
+
+    private Statistic fold(long windowStart, QuantileSketch sketch) {
+        long totalCount = 0;
+        double totalMax = Double.NEGATIVE_INFINITY;
+        double totalMin = Double.POSITIVE_INFINITY;
+        double totalSum = 0;
+
+        for (int offset = HEADER_SIZE; offset < FILE_SIZE; offset += BUCKET_SIZE) {
+            long count = buffer.getLong(offset + COUNT);
+            long bucketTimestamp = buffer.getLong(offset + TIMESTAMP);
+
+            if (count == 0 || bucketTimestamp < windowStart) {
+                continue;
+            }
+
+            totalCount += count;
+            totalMax = Math.max(totalMax, buffer.getDouble(offset + MAX));
+            totalMin = Math.min(totalMin, buffer.getDouble(offset + MIN));
+            totalSum += buffer.getDouble(offset + SUM);
+
+            if (sketch != null && percentiles != null) {
+                percentiles.merge((offset - HEADER_SIZE) / BUCKET_SIZE, bucketTimestamp, sketch);
+            }
+        }
+
+        if (totalCount != 0) {
+            return new Statistic(totalSum, totalSum / totalCount, totalMax, totalMin, totalCount);
+        } else {
+            return new Statistic();
+        }
+    }
+
+    /**
+     * Clear all buckets and write the header, the header last so a crash in between leaves a file that is initialised
+     * again on the next start.
+     */
+    private void initialise() {
+        buffer.putInt(0, 0);
+
+        for (int offset = HEADER_SIZE; offset < FILE_SIZE; offset += 8) {
+            buffer.putLong(offset, 0);
+        }
+
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, WINDOW_SIZE_SECONDS);
+        buffer.putInt(12, 0);
+        buffer.putInt(0, MAGIC);
+    }
+}
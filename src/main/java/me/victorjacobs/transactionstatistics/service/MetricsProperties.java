@@ -0,0 +1,19 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the metrics, bound from the "statistics.metrics" properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "statistics.metrics")
+public class MetricsProperties {
+    /**
+     * Whether or not to count transactions and record latencies. Bucket resets and waits for the lock of the storage
+     * are always recorded, since they cost nothing on the common path.
+     */
+    private boolean enabled = false;
+}
@@ -0,0 +1,58 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+
+/**
+ * Ring of one QuantileSketch per bucket, kept by a bucket storage when percentiles are enabled. The ring has a slot for
+ * every bucket of the storage, indexed the same way and tagged with the timestamp of the bucket, so the storage folds
+ * the sketches of exactly the buckets it folds the statistics of. A sketch is reset when its slot is written for a
+ * newer bucket, and a write for an older bucket than the one in its slot is dropped, like the storages do. Sketches
+ * are only created once their slot is first written, and have a fixed size, so the memory of the ring is bounded by
+ * the number of buckets.
+ *
+ * Not thread-safe: storages taking a lock only touch the ring while holding it, lock-free storages keep a ring per
+ * stripe guarded by a lock of its own.
+ */
+class PercentileRing {
+    private final QuantileSketch[] sketches;
+    private final long[] bucketTimestamps;
+
+    /**
+     * @param slots Number of buckets of the storage keeping the ring
+     */
+    PercentileRing(int slots) {
+        this.sketches = new QuantileSketch[slots];
+        this.bucketTimestamps = new long[slots];
+    }
+
+    /**
+     * Add an amount to the sketch of a bucket, resetting the sketch first when it still holds an older bucket.
+     * @param index             Index of the bucket
+     * @param bucketTimestamp   Start of the bucket, in milliseconds
+     * @param amount            Amount of the transaction
+     */
+    void add(int index, long bucketTimestamp, double amount) {
+        if (sketches[index] == null) {
+            sketches[index] = new QuantileSketch();
+        } else if (bucketTimestamps[index] > bucketTimestamp) {
+            return;
+        } else if (bucketTimestamps[index] != bucketTimestamp) {
+            sketches[index].clear();
+        }
+
+        bucketTimestamps[index] = bucketTimestamp;
+        sketches[index].add(amount);
+    }
+
+    /**
+     * Merge the sketch of a bucket into another sketch, when the slot still holds that bucket.
+     * @param index             Index of the bucket
+     * @param bucketTimestamp   Start of the bucket, in milliseconds
+     * @param target            Sketch to merge into
+     */
+    void merge(int index, long bucketTimestamp, QuantileSketch target) {
+        if (sketches[index] != null && bucketTimestamps[index] == bucketTimestamp) {
+            target.merge(sketches[index]);
+        }
+    }
+}
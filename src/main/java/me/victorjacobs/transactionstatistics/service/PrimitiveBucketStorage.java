@@ -0,0 +1,201 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_SECONDS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.floorToSecond;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.getBucketIndex;
+
+/**
+ * Storage keeping the buckets as parallel primitive arrays instead of an array of Statistic objects. Bucket N is made
+ * up of sum[N], min[N], max[N] and count[N], indexed the same way as in the SynchronizedBucketStorage. Adding updates
+ * the arrays in place, so the write path doesn't allocate anything. Reading folds the arrays directly into a single
+ * Statistic, without building an intermediate list.
+ *
+ * Since a bucket is spread over several arrays, both writes and reads take the lock so a read never sees a bucket
+ * that is only partly updated. When percentiles are enabled, a PercentileRing holds a sketch next to every bucket,
+ * updated and merged under the same lock.
+ */
+class PrimitiveBucketStorage implements BucketStorage {
+    private final double[] sum = new double[WINDOW_SIZE_SECONDS];
+    private final double[] min = new double[WINDOW_SIZE_SECONDS];
+    private final double[] max = new double[WINDOW_SIZE_SECONDS];
+    private final long[] count = new long[WINDOW_SIZE_SECONDS];
+    private final long[] bucketTimestamps = new long[WINDOW_SIZE_SECONDS];
+    private final ContendedLock lock = new ContendedLock();
+    // Only accessed while holding the lock
+    private long transactionCount;
+    private long bucketResets;
+    private final PercentileRing percentiles;
+
+    PrimitiveBucketStorage() {
+        this(false);
+    }
+
+    /**
+     * @param keepPercentiles   Whether or not to keep a sketch next to every bucket to estimate percentiles from
+     */
+    PrimitiveBucketStorage(boolean keepPercentiles) {
+        this.percentiles = keepPercentiles ? new PercentileRing(WINDOW_SIZE_SECONDS) : null;
+    }
+
+    @Override
+    public boolean add(double amount, long timestamp) {
+        lock.acquire();
+        try {
+            addUnsynchronized(amount, timestamp);
+        } finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    @Override
+    public int addAll(TransactionBatch batch) {
+        lock.acquire();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                addUnsynchronized(batch.getAmount(i), batch.getTimestamp(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return 0;
+    }
+
+    private void addUnsynchronized(double amount, long timestamp) {
+        int index = getBucketIndex(timestamp);
+        long bucketTimestamp = floorToSecond(timestamp);
+
+        // The bucket already holds a newer second, so this one already left the window
+        if (count[index] != 0 && bucketTimestamps[index] > bucketTimestamp) {
+            return;
+        }
+
+        transactionCount++;
+
+        if (percentiles != null) {
+            percentiles.add(index, bucketTimestamp, amount);
+        }
+
+        if (count[index] == 0 || bucketTimestamps[index] != bucketTimestamp) {
+            if (count[index] != 0) {
+                bucketResets++;
+            }
+
+            bucketTimestamps[index] = bucketTimestamp;
+            sum[index] = amount;
+            min[index] = amount;
+            max[index] = amount;
+            count[index] = 1;
+            return;
+        }
+
+        sum[index] += amount;
+        min[index] = Math.min(min[index], amount);
+        max[index] = Math.max(max[index], amount);
+        count[index]++;
+    }
+
+    /**
+     * Empty the bucket of the new second, so its first writer takes the cheaper path of an empty bucket.
+     * @param now   Current time, in milliseconds, past the start of its second
+     */
+    @Override
+    public void resetExpired(long now) {
+        int index = getBucketIndex(now);
+        long bucketTimestamp = floorToSecond(now);
+
+        lock.acquire();
+        try {
+            if (count[index] != 0 && bucketTimestamps[index] < bucketTimestamp) {
+                bucketResets++;
+                count[index] = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Statistic getStatistic(long now, long windowMillis, QuantileSketch sketch) {
+        lock.acquire();
+        try {
+            return fold(now - windowMillis, sketch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void exportBuckets(BucketSnapshot snapshot, long windowStart) {
+        lock.acquire();
+        try {
+            for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+                if (count[i] != 0 && bucketTimestamps[i] >= windowStart) {
+                    snapshot.add(bucketTimestamps[i], sum[i], min[i], max[i], count[i]);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTransactionCount() {
+        lock.acquire();
+        try {
+            return transactionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getBucketResets() {
+        lock.acquire();
+        try {
+            return bucketResets;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LatencyHistogram getLockWaits() {
+        return lock.getWaits();
+    }
+
+    private Statistic fold(long windowStart, QuantileSketch sketch) {
+        long totalCount = 0;
+        double totalMax = Double.NEGATIVE_INFINITY;
+        double totalMin = Double.POSITIVE_INFINITY;
+        double totalSum = 0;
+
+        for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+            if (count[i] == 0 || bucketTimestamps[i] < windowStart) {
+                continue;
+            }
+
+            totalCount += count[i];
+            totalMax = Math.max(totalMax, max[i]);
+            totalMin = Math.min(totalMin, min[i]);
+            totalSum += sum[i];
+
+            if (sketch != null && percentiles != null) {
+                percentiles.merge(i, bucketTimestamps[i], sketch);
+            }
+        }
+
+        if (totalCount != 0) {
+            return new Statistic(totalSum, totalSum / totalCount, totalMax, totalMin, totalCount);
+        } else {
+            return new Statistic();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+import java.util.Arrays;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_MILLIS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_SECONDS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.floorToSecond;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.getBucketIndex;
+
+/**
+ * Storage that keeps the statistics over the whole window up to date while writing, so reading them is constant time.
+ * The buckets are kept like in the PrimitiveBucketStorage. Next to them the storage maintains:
+ *  - the running count and sum of all live buckets,
+ *  - a segment tree over the buckets holding the minimum, the maximum and the oldest bucket timestamp, so that
+ *    removing an expired bucket only updates its path to the root instead of rescanning all buckets.
+ *
+ * After every write, the resulting statistics are published as an immutable snapshot through a volatile field. The
+ * snapshot also records until when it is valid: the moment its oldest bucket leaves the window. Reading the full
+ * window just checks that and returns the published statistics, without taking the lock writers use. Only the first
+ * read after a bucket expired takes the lock to drop the bucket and publish a new snapshot, which happens at most once
+ * per second. Windows shorter than the full one are computed by scanning the buckets under the lock.
+ *
+ * When percentiles are enabled, a PercentileRing holds a sketch next to every bucket. Reads requesting them scan the
+ * buckets under the lock as well, merging the sketches of the buckets they fold.
+ *
+ * The sum is recomputed from the live buckets whenever a bucket is dropped, instead of subtracting it, so no rounding
+ * error builds up in the running sum.
+ */
+class RollingBucketStorage implements BucketStorage {
+    private static final int LEAVES = Integer.highestOneBit(WINDOW_SIZE_SECONDS - 1) << 1;
+
+    private final double[] sum = new double[WINDOW_SIZE_SECONDS];
+    private final double[] min = new double[WINDOW_SIZE_SECONDS];
+    private final double[] max = new double[WINDOW_SIZE_SECONDS];
+    private final long[] count = new long[WINDOW_SIZE_SECONDS];
+    private final long[] bucketTimestamps = new long[WINDOW_SIZE_SECONDS];
+
+    // Segment tree with the root at 1 and leaf i at LEAVES + i, empty leaves hold the identity of their operation
+    private final double[] treeMin = new double[2 * LEAVES];
+    private final double[] treeMax = new double[2 * LEAVES];
+    private final long[] treeOldest = new long[2 * LEAVES];
+
+    private final ContendedLock lock = new ContendedLock();
+    private double windowSum;
+    private long windowCount;
+    // Only accessed while holding the lock
+    private long transactionCount;
+    private long bucketResets;
+
+    private volatile Snapshot snapshot = new Snapshot(new Statistic(), Long.MAX_VALUE);
+    private final PercentileRing percentiles;
+
+    RollingBucketStorage() {
+        this(false);
+    }
+
+    /**
+     * @param keepPercentiles   Whether or not to keep a sketch next to every bucket to estimate percentiles from
+     */
+    RollingBucketStorage(boolean keepPercentiles) {
+        this.percentiles = keepPercentiles ? new PercentileRing(WINDOW_SIZE_SECONDS) : null;
+
+        Arrays.fill(treeMin, Double.POSITIVE_INFINITY);
+        Arrays.fill(treeMax, Double.NEGATIVE_INFINITY);
+        Arrays.fill(treeOldest, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean add(double amount, long timestamp) {
+        lock.acquire();
+        try {
+            if (addUnsynchronized(amount, timestamp)) {
+                publish();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    @Override
+    public int addAll(TransactionBatch batch) {
+        lock.acquire();
+        try {
+            boolean added = false;
+
+            for (int i = 0; i < batch.size(); i++) {
+                added |= addUnsynchronized(batch.getAmount(i), batch.getTimestamp(i));
+            }
+
+            // Nothing changed when every transaction was skipped, so the current snapshot still holds
+            if (added) {
+                publish();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return 0;
+    }
+
+    @Override
+    public Statistic getStatistic(long now, long windowMillis, QuantileSketch sketch) {
+        if (windowMillis != WINDOW_SIZE_MILLIS || sketch != null) {
+            return scan(now - windowMillis, sketch);
+        }
+
+        return getSnapshot(now).statistic;
+    }
+
+    @Override
+    public void exportBuckets(BucketSnapshot snapshot, long windowStart) {
+        lock.acquire();
+        try {
+            for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+                if (count[i] != 0 && bucketTimestamps[i] >= windowStart) {
+                    snapshot.add(bucketTimestamps[i], sum[i], min[i], max[i], count[i]);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTransactionCount() {
+        lock.acquire();
+        try {
+            return transactionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getBucketResets() {
+        lock.acquire();
+        try {
+            return bucketResets;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LatencyHistogram getLockWaits() {
+        return lock.getWaits();
+    }
+
+    private Snapshot getSnapshot(long now) {
+        Snapshot current = snapshot;
+
+        if (now < current.validUntil) {
+            return current;
+        }
+
+        return expire(now);
+    }
+
+    /**
+     * Drop all buckets that left the window and publish a new snapshot. Checks the snapshot again once holding the lock,
+     * since another reader or a writer might have done this already.
+     * @param now   Current time, in milliseconds
+     * @return Snapshot valid at the given time
+     */
+    private Snapshot expire(long now) {
+        lock.acquire();
+        try {
+            if (now < snapshot.validUntil) {
+                return snapshot;
+            }
+
+            long windowStart = now - WINDOW_SIZE_MILLIS;
+
+            for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+                if (count[i] != 0 && bucketTimestamps[i] < windowStart) {
+                    count[i] = 0;
+                    updateLeaf(i);
+                }
+            }
+
+            recomputeWindow();
+            publish();
+
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a transaction to its bucket and the running window, without publishing a new snapshot.
+     * @param amount    Amount of the transaction
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     * @return Whether or not the transaction was added, false when its slot already holds a newer second
+     */
+    private boolean addUnsynchronized(double amount, long timestamp) {
+        int index = getBucketIndex(timestamp);
+        long bucketTimestamp = floorToSecond(timestamp);
+
+        // The slot already holds a newer second, so this one already left the window
+        if (count[index] != 0 && bucketTimestamps[index] > bucketTimestamp) {
+            return false;
+        }
+
+        transactionCount++;
+
+        if (percentiles != null) {
+            percentiles.add(index, bucketTimestamp, amount);
+        }
+
+        if (count[index] != 0 && bucketTimestamps[index] != bucketTimestamp) {
+            count[index] = 0;
+            bucketResets++;
+            recomputeWindow();
+        }
+
+        if (count[index] == 0) {
+            bucketTimestamps[index] = bucketTimestamp;
+            sum[index] = amount;
+            min[index] = amount;
+            max[index] = amount;
+            count[index] = 1;
+        } else {
+            sum[index] += amount;
+            min[index] = Math.min(min[index], amount);
+            max[index] = Math.max(max[index], amount);
+            count[index]++;
+        }
+
+        windowSum += amount;
+        windowCount++;
+        updateLeaf(index);
+        return true;
+    }
+
+    /**
+     * Recompute the running sum and count from the live buckets, after one was dropped.
+     */
+    private void recomputeWindow() {
+        windowSum = 0;
+        windowCount = 0;
+
+        for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+            if (count[i] != 0) {
+                windowSum += sum[i];
+                windowCount += count[i];
+            }
+        }
+    }
+
+    /**
+     * Update the leaf of a bucket and all nodes on the path from it to the root.
+     * @param index Index of the bucket
+     */
+    private void updateLeaf(int index) {
+        int node = LEAVES + index;
+
+        if (count[index] != 0) {
+            treeMin[node] = min[index];
+            treeMax[node] = max[index];
+            treeOldest[node] = bucketTimestamps[index];
+        } else {
+            treeMin[node] = Double.POSITIVE_INFINITY;
+            treeMax[node] = Double.NEGATIVE_INFINITY;
+            treeOldest[node] = Long.MAX_VALUE;
+        }
+
+        for (node >>= 1; node > 0; node >>= 1) {
+            treeMin[node] = Math.min(treeMin[2 * node], treeMin[2 * node + 1]);
+            treeMax[node] = Math.max(treeMax[2 * node], treeMax[2 * node + 1]);
+            treeOldest[node] = Math.min(treeOldest[2 * node], treeOldest[2 * node + 1]);
+        }
+    }
+
+    private void publish() {
+        Statistic statistic = windowCount != 0
+                ? new Statistic(windowSum, windowSum / windowCount, treeMax[1], treeMin[1], windowCount)
+                : new Statistic();
+        // The oldest bucket is part of the window up to and including its timestamp + the window size
+        long validUntil = treeOldest[1] == Long.MAX_VALUE ? Long.MAX_VALUE : treeOldest[1] + WINDOW_SIZE_MILLIS + 1;
+
+        snapshot = new Snapshot(statistic, validUntil);
+    }
+
+    private Statistic scan(long windowStart, QuantileSketch sketch) {
+        lock.acquire();
+        try {
+            return fold(windowStart, sketch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Statistic fold(long windowStart, QuantileSketch sketch) {
+        long totalCount = 0;
+        double totalMax = Double.NEGATIVE_INFINITY;
+        double totalMin = Double.POSITIVE_INFINITY;
+        double totalSum = 0;
+
+        for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+            if (count[i] == 0 || bucketTimestamps[i] < windowStart) {
+                continue;
+            }
+
+            totalCount += count[i];
+            totalMax = Math.max(totalMax, max[i]);
+            totalMin = Math.min(totalMin, min[i]);
+            totalSum += sum[i];
+
+            if (sketch != null && percentiles != null) {
+                percentiles.merge(i, bucketTimestamps[i], sketch);
+            }
+        }
+
+        if (totalCount != 0) {
+            return new Statistic(totalSum, totalSum / totalCount, totalMax, totalMin, totalCount);
+        } else {
+            return new Statistic();
+        }
+    }
+
+    /**
+     * Statistics over the full window as published by the last write or expiry.
+     */
+    private static class Snapshot {
+        private final Statistic statistic;
+        private final long validUntil;
+
+        Snapshot(Statistic statistic, long validUntil) {
+            this.statistic = statistic;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.Statistic;
+
+import java.util.Arrays;
+
+/**
+ * Ring of buckets of a fixed resolution, e.g. one per minute, covering the last capacity buckets up to the newest one
+ * written. Bucket N holds the statistics of the interval for which (timestamp / resolution) % capacity == N. When the
+ * newest bucket moves forward, the buckets it skips over are cleared, so every slot either holds an interval within the
+ * retained range or is empty.
+ *
+ * The buckets are the leaves of a segment tree, every inner node holding the sum, count, minimum and maximum of its
+ * two children. Updating a bucket updates its path to the root, and the statistics over any range of buckets are
+ * folded from at most two nodes per level, so both take logarithmic time in the capacity. A range that wraps around the
+ * end of the ring is split in two.
+ *
+ * Not thread-safe, the HistoryStore serializes all access.
+ */
+class RollupTier {
+    private final long resolutionMillis;
+    private final int capacity;
+    private final double[] sum;
+    private final double[] min;
+    private final double[] max;
+    private final long[] count;
+    private long newest = Long.MIN_VALUE;
+
+    /**
+     * @param resolutionMillis  Length of the interval of a bucket, in milliseconds
+     * @param capacity          Number of buckets retained
+     */
+    RollupTier(long resolutionMillis, int capacity) {
+        if (resolutionMillis <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Resolution and capacity of a tier must be positive");
+        }
+
+        this.resolutionMillis = resolutionMillis;
+        this.capacity = capacity;
+        this.sum = new double[2 * capacity];
+        this.min = new double[2 * capacity];
+        this.max = new double[2 * capacity];
+        this.count = new long[2 * capacity];
+
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Add the statistics of a finer bucket to the bucket of its interval. Moves the ring forward when it is newer than
+     * the newest bucket, and is dropped when it is older than the oldest retained one.
+     * @param timestamp Timestamp within the interval, in milliseconds
+     * @param sum       Sum of the amounts
+     * @param min       Minimum amount
+     * @param max       Maximum amount
+     * @param count     Number of transactions
+     */
+    void add(long timestamp, double sum, double min, double max, long count) {
+        long bucket = Math.floorDiv(timestamp, resolutionMillis);
+
+        if (count == 0 || (newest != Long.MIN_VALUE && bucket <= newest - capacity)) {
+            return;
+        }
+
+        if (bucket > newest) {
+            // Clear the slots skipped over, at most the whole ring
+            long first = newest == Long.MIN_VALUE ? bucket : Math.max(newest + 1, bucket - capacity + 1);
+            for (long skipped = first; skipped < bucket; skipped++) {
+                set(slot(skipped), 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0);
+            }
+
+            set(slot(bucket), sum, min, max, count);
+            newest = bucket;
+            return;
+        }
+
+        int leaf = slot(bucket) + capacity;
+        set(slot(bucket), this.sum[leaf] + sum, Math.min(this.min[leaf], min), Math.max(this.max[leaf], max),
+                this.count[leaf] + count);
+    }
+
+    /**
+     * Get statistics over all retained buckets whose interval starts at or after from and before to.
+     * @param from  Lower bound, inclusive, in milliseconds
+     * @param to    Upper bound, exclusive, in milliseconds
+     * @return Statistics over the buckets in the range
+     */
+    Statistic getStatistic(long from, long to) {
+        if (newest == Long.MIN_VALUE || from >= to) {
+            return new Statistic();
+        }
+
+        long first = Math.max(Math.floorDiv(from + resolutionMillis - 1, resolutionMillis), newest - capacity + 1);
+        long last = Math.min(Math.floorDiv(to - 1, resolutionMillis), newest);
+
+        if (first > last) {
+            return new Statistic();
+        }
+
+        Range range = new Range();
+        int firstSlot = slot(first);
+        int lastSlot = slot(last);
+
+        if (firstSlot <= lastSlot) {
+            fold(firstSlot, lastSlot + 1, range);
+        } else {
+            fold(firstSlot, capacity, range);
+            fold(0, lastSlot + 1, range);
+        }
+
+        return range.toStatistic();
+    }
+
+    /**
+     * Start of the oldest interval that is retained, whether or not it holds transactions.
+     * @return Start of the oldest retained bucket in milliseconds, Long.MIN_VALUE when nothing was added yet
+     */
+    long getRetainedFrom() {
+        return newest == Long.MIN_VALUE ? Long.MIN_VALUE : (newest - capacity + 1) * resolutionMillis;
+    }
+
+    private int slot(long bucket) {
+        return (int) Math.floorMod(bucket, (long) capacity);
+    }
+
+    /**
+     * Overwrite a leaf and update its path to the root.
+     */
+    private void set(int slot, double sum, double min, double max, long count) {
+        int node = slot + capacity;
+        this.sum[node] = sum;
+        this.min[node] = min;
+        this.max[node] = max;
+        this.count[node] = count;
+
+        for (node >>= 1; node >= 1; node >>= 1) {
+            int left = 2 * node;
+            int right = left + 1;
+
+            this.sum[node] = this.sum[left] + this.sum[right];
+            this.min[node] = Math.min(this.min[left], this.min[right]);
+            this.max[node] = Math.max(this.max[left], this.max[right]);
+            this.count[node] = this.count[left] + this.count[right];
+        }
+    }
+
+    /**
+     * Fold the leaves from start, inclusive, to end, exclusive, into the range, bottom-up.
+     */
+    private void fold(int start, int end, Range range) {
+        for (int left = start + capacity, right = end + capacity; left < right; left >>= 1, right >>= 1) {
+            if ((left & 1) == 1) {
+                range.add(left++);
+            }
+            if ((right & 1) == 1) {
+                range.add(--right);
+            }
+        }
+    }
+
+    /**
+     * Statistics folded from nodes of the tree.
+     */
+    private class Range {
+        private double rangeSum;
+        private double rangeMin = Double.POSITIVE_INFINITY;
+        private double rangeMax = Double.NEGATIVE_INFINITY;
+        private long rangeCount;
+
+        void add(int node) {
+            rangeSum += sum[node];
+            rangeMin = Math.min(rangeMin, min[node]);
+            rangeMax = Math.max(rangeMax, max[node]);
+            rangeCount += count[node];
+        }
+
+        Statistic toStatistic() {
+            if (rangeCount == 0) {
+                return new Statistic();
+            }
+
+            return new Statistic(rangeSum, rangeSum / rangeCount, rangeMax, rangeMin, rangeCount);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.Statistic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics per second over any span of time, for aggregating transactions offline. The seconds are kept in pages of
+ * PAGE_SECONDS consecutive seconds, each page a set of parallel primitive arrays like in the PrimitiveBucketStorage,
+ * created when the first transaction of one of its seconds is added. A stray timestamp years away from the others
+ * therefore costs a single page, instead of arrays spanning all seconds in between. Dumps are mostly ordered by time,
+ * so the page of the previous transaction is kept at hand and the map of pages is rarely looked in.
+ *
+ * Not thread-safe: every thread aggregates into an instance of its own, and the instances are merged afterwards.
+ */
+public class SecondBuckets {
+    private static final int PAGE_BITS = 10;
+    static final int PAGE_SECONDS = 1 << PAGE_BITS;
+
+    private final Map<Long, Page> pages = new HashMap<>();
+    private long lastPageIndex;
+    private Page lastPage;
+    private long transactionCount;
+
+    /**
+     * Add a transaction to the bucket of its second.
+     * @param amount    Amount of the transaction
+     * @param timestamp Time of the transaction in milliseconds since the epoch
+     */
+    public void add(double amount, long timestamp) {
+        long second = Math.floorDiv(timestamp, 1000);
+        long pageIndex = second >> PAGE_BITS;
+        Page page = lastPage != null && lastPageIndex == pageIndex ? lastPage : getPage(pageIndex);
+
+        page.add((int) (second & (PAGE_SECONDS - 1)), amount);
+        transactionCount++;
+    }
+
+    /**
+     * Add all buckets of another instance to the ones of this instance, like Statistic.combine would combine them.
+     * @param other Buckets to merge in, left unchanged
+     */
+    public void merge(SecondBuckets other) {
+        for (Map.Entry<Long, Page> entry : other.pages.entrySet()) {
+            Page page = getPage(entry.getKey());
+            Page otherPage = entry.getValue();
+
+            for (int i = 0; i < PAGE_SECONDS; i++) {
+                if (otherPage.count[i] != 0) {
+                    page.merge(i, otherPage.sum[i], otherPage.min[i], otherPage.max[i], otherPage.count[i]);
+                }
+            }
+        }
+
+        transactionCount += other.transactionCount;
+    }
+
+    /**
+     * @return Number of transactions added, including those merged in
+     */
+    public long getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * Hand the statistics of every second with transactions to the consumer, in order of time.
+     * @param consumer  Receives the start of each second in milliseconds since the epoch and its statistics
+     */
+    public void forEachSecond(SecondConsumer consumer) {
+        for (long pageIndex : getPageIndices()) {
+            Page page = pages.get(pageIndex);
+
+            for (int i = 0; i < PAGE_SECONDS; i++) {
+                if (page.count[i] != 0) {
+                    consumer.accept((pageIndex * PAGE_SECONDS + i) * 1000,
+                            new Statistic(page.sum[i], page.sum[i] / page.count[i], page.max[i], page.min[i],
+                                    page.count[i]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Hand the statistics over the sliding window ending at every second to the consumer, in order of time. The
+     * window ending at second T holds the seconds T - windowSeconds + 1 up to and including T, which is what the
+     * StatisticsStore reports for a window of that size at any time during second T but its very first millisecond.
+     * Seconds whose window holds no transactions at all are skipped. Every window is summed bucket by bucket in order
+     * of time, like the store does, instead of adding and subtracting a running sum, so rounding errors don't build
+     * up over a day of windows.
+     * @param windowSeconds Size of the window in seconds
+     * @param consumer      Receives the start of each second in milliseconds since the epoch and the statistics
+     *                      over the window ending at it
+     */
+    public void forEachWindow(int windowSeconds, SecondConsumer consumer) {
+        if (windowSeconds <= 0) {
+            throw new IllegalArgumentException("The window must span at least one second");
+        }
+
+        // The seconds with transactions in order of time, with the page and offset of their bucket
+        List<Long> seconds = new ArrayList<>();
+        List<Page> secondPages = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+
+        for (long pageIndex : getPageIndices()) {
+            Page page = pages.get(pageIndex);
+
+            for (int i = 0; i < PAGE_SECONDS; i++) {
+                if (page.count[i] != 0) {
+                    seconds.add(pageIndex * PAGE_SECONDS + i);
+                    secondPages.add(page);
+                    offsets.add(i);
+                }
+            }
+        }
+
+        if (seconds.isEmpty()) {
+            return;
+        }
+
+        // The window ending at second holds the entries from first up to but excluding next
+        int first = 0;
+        int next = 0;
+        long second = seconds.get(0);
+
+        while (true) {
+            while (next < seconds.size() && seconds.get(next) <= second) {
+                next++;
+            }
+
+            while (first < next && seconds.get(first) <= second - windowSeconds) {
+                first++;
+            }
+
+            if (first == next) {
+                if (next == seconds.size()) {
+                    return;
+                }
+
+                // Skip the seconds without transactions in their window
+                second = seconds.get(next);
+                continue;
+            }
+
+            long count = 0;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+
+            for (int i = first; i < next; i++) {
+                Page page = secondPages.get(i);
+                int offset = offsets.get(i);
+
+                count += page.count[offset];
+                sum += page.sum[offset];
+                min = Math.min(min, page.min[offset]);
+                max = Math.max(max, page.max[offset]);
+            }
+
+            consumer.accept(second * 1000, new Statistic(sum, sum / count, max, min, count));
+            second++;
+        }
+    }
+
+    private long[] getPageIndices() {
+        long[] indices = new long[pages.size()];
+        int i = 0;
+
+        for (long pageIndex : pages.keySet()) {
+            indices[i++] = pageIndex;
+        }
+
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    private Page getPage(long pageIndex) {
+        Page page = pages.computeIfAbsent(pageIndex, index -> new Page());
+
+        lastPageIndex = pageIndex;
+        lastPage = page;
+        return page;
+    }
+
+    /**
+     * Receives the statistics of a second or of the window ending at it.
+     */
+    @FunctionalInterface
+    public interface SecondConsumer {
+        void accept(long timestamp, Statistic statistic);
+    }
+
+    /**
+     * Buckets of PAGE_SECONDS consecutive seconds, as parallel arrays.
+     */
+    private static class Page {
+        private final double[] sum = new double[PAGE_SECONDS];
+        private final double[] min = new double[PAGE_SECONDS];
+        private final double[] max = new double[PAGE_SECONDS];
+        private final long[] count = new long[PAGE_SECONDS];
+
+        private void add(int offset, double amount) {
+            if (count[offset] == 0) {
+                sum[offset] = amount;
+                min[offset] = amount;
+                max[offset] = amount;
+            } else {
+                sum[offset] += amount;
+                min[offset] = Math.min(min[offset], amount);
+                max[offset] = Math.max(max[offset], amount);
+            }
+
+            count[offset]++;
+        }
+
+        private void merge(int offset, double otherSum, double otherMin, double otherMax, long otherCount) {
+            if (count[offset] == 0) {
+                sum[offset] = otherSum;
+                min[offset] = otherMin;
+                max[offset] = otherMax;
+            } else {
+                sum[offset] += otherSum;
+                min[offset] = Math.min(min[offset], otherMin);
+                max[offset] = Math.max(max[offset], otherMax);
+            }
+
+            count[offset] += otherCount;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package me.victorjacobs.transactionstatistics.service;
+
+/**
+ * What the AsyncIngester does with a transaction when its queue is full. Selected through the
+ * "statistics.async.shed-policy" property.
+ */
+public enum ShedPolicy {
+    /**
+     * The new transaction is rejected, the client is told to retry later.
+     */
+    REJECT,
+    /**
+     * The oldest transaction in the queue is dropped to make room for the new one, which is accepted.
+     */
+    DROP_OLDEST,
+    /**
+     * The request waits until there is room in the queue, up to a timeout after which the transaction is rejected.
+     */
+    BLOCK
+}
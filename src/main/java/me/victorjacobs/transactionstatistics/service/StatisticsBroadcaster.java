@@ -0,0 +1,348 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the statistics to subscribers as Server-Sent Events. A single scheduled task reads the statistics from the
+ * store and serialises them once, after which the same JSON is handed to every subscriber. This way the cost of
+ * computing the statistics doesn't grow with the number of subscribers.
+ *
+ * The statistics are checked every "checkMillis" and pushed when they changed, so changes in between are coalesced
+ * into one push. When nothing changed they are still pushed every "intervalMillis". Nothing is computed while there
+ * are no subscribers.
+ *
+ * Pushes are written to subscribers by a small pool of sender threads, so a slow subscriber never holds up the
+ * scheduled task or the other subscribers. Every subscriber has a bounded buffer of pending pushes, when it's full the
+ * oldest push is dropped: only the latest statistics matter to a subscriber that fell behind.
+ *
+ * A send to a subscriber that stopped reading blocks its sender thread until the connection times out. Every check, a
+ * subscriber whose send takes longer than "sendTimeoutMillis" is dropped and its sender thread interrupted. The pool
+ * gets an extra thread for as long as the stuck one stays in the send, so the other subscribers are never held up by
+ * more than the send timeout. The emitter is completed by the stuck thread once it gets out, completing it before
+ * would block on the send in progress.
+ *
+ * A check that fails, e.g. because the store can't be read or the senders reject a push, is skipped and retried on the
+ * next check. A push that fails only misses that subscriber, the others still get it.
+ */
+@Service
+public class StatisticsBroadcaster {
+    private final StatisticsStore statisticsStore;
+    private final ObjectMapper objectMapper;
+    private final StreamProperties properties;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(daemon("stream-tick"));
+    private final ThreadPoolExecutor senders;
+
+    private Statistic lastStatistic;
+    private String lastJson;
+    private long lastPush;
+
+    @Autowired
+    public StatisticsBroadcaster(StatisticsStore statisticsStore, ObjectMapper objectMapper,
+                                 StreamProperties properties) {
+        this.statisticsStore = statisticsStore;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.senders = new ThreadPoolExecutor(properties.getSenderThreads(), properties.getSenderThreads(), 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), daemon("stream-sender"));
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                tick(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                // Escaping, it would cancel the task and end the stream of every subscriber
+            }
+        }, properties.getCheckMillis(), properties.getCheckMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        senders.shutdownNow();
+
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+    }
+
+    /**
+     * Subscribe to the statistics with a new SSE emitter. The current statistics are pushed right away.
+     * @return Emitter to return from the controller
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(properties.getTimeoutMillis());
+        Subscriber subscriber = new EmitterSubscriber(emitter);
+
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        subscribe(subscriber);
+
+        return emitter;
+    }
+
+    /**
+     * Number of subscribers currently connected.
+     * @return Number of subscribers
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    void subscribe(Subscriber subscriber) {
+        subscribers.add(subscriber);
+        subscriber.offer(serialise(statisticsStore.getStatistic()));
+    }
+
+    /**
+     * Drop the subscribers stuck in a send, then read the statistics and push them to all subscribers when they changed
+     * or the interval passed.
+     * @param now   Current time, in milliseconds
+     */
+    synchronized void tick(long now) {
+        for (Subscriber subscriber : subscribers) {
+            long sendStart = subscriber.sendStart;
+
+            if (sendStart != 0 && now - sendStart > properties.getSendTimeoutMillis()) {
+                subscriber.abandon();
+            }
+        }
+
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        Statistic statistic = statisticsStore.getStatistic();
+
+        if (statistic.equals(lastStatistic) && now - lastPush < properties.getIntervalMillis()) {
+            return;
+        }
+
+        if (!statistic.equals(lastStatistic)) {
+            lastStatistic = statistic;
+            lastJson = serialise(statistic);
+        }
+        lastPush = now;
+
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.offer(lastJson);
+            } catch (RuntimeException e) {
+                // Only this subscriber misses the push
+            }
+        }
+    }
+
+    private String serialise(Statistic statistic) {
+        try {
+            return objectMapper.writeValueAsString(statistic);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialise statistics", e);
+        }
+    }
+
+    /**
+     * Grow or shrink the pool of sender threads, for a thread that is stuck in a send.
+     * @param delta Number of threads to add, negative to remove
+     */
+    private void resizeSenders(int delta) {
+        synchronized (senders) {
+            // The maximum may never drop below the core size
+            if (delta > 0) {
+                senders.setMaximumPoolSize(senders.getMaximumPoolSize() + delta);
+                senders.setCorePoolSize(senders.getCorePoolSize() + delta);
+            } else {
+                senders.setCorePoolSize(senders.getCorePoolSize() + delta);
+                senders.setMaximumPoolSize(senders.getMaximumPoolSize() + delta);
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A subscriber with its buffer of pending pushes. Delivery happens on the sender threads, at most one at a time per
+     * subscriber so pushes arrive in order.
+     */
+    abstract class Subscriber {
+        private final ArrayDeque<String> pending = new ArrayDeque<>();
+        private boolean draining;
+        private boolean abandoned;
+        // Whether the pool got an extra thread in place of the one stuck in a send
+        private boolean replaced;
+        private long dropped;
+        // Start of the send in progress, 0 while not sending
+        private volatile long sendStart;
+        // Thread draining the buffer, only accessed while holding the lock
+        private Thread sender;
+
+        /**
+         * Write a push to the subscriber, may block when the subscriber is slow.
+         * @param json  Serialised statistics
+         * @throws IOException When the subscriber is gone
+         */
+        abstract void send(String json) throws IOException;
+
+        abstract void close();
+
+        void offer(String json) {
+            synchronized (this) {
+                if (abandoned) {
+                    return;
+                }
+
+                if (pending.size() >= properties.getBufferSize()) {
+                    pending.pollFirst();
+                    dropped++;
+                }
+
+                pending.addLast(json);
+
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+
+            try {
+                senders.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Nothing is draining the buffer, so the next push has to try again
+                synchronized (this) {
+                    draining = false;
+                }
+                throw e;
+            }
+        }
+
+        synchronized long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * Drop the subscriber because its send takes too long. The sender thread is interrupted, and replaced in the
+         * pool until it gets out of the send and completes the subscriber.
+         */
+        void abandon() {
+            synchronized (this) {
+                if (abandoned) {
+                    return;
+                }
+
+                abandoned = true;
+                pending.clear();
+                subscribers.remove(this);
+
+                if (!draining) {
+                    // The send finished in the meantime, nothing blocks completing it right away
+                    close();
+                    return;
+                }
+
+                replaced = true;
+                resizeSenders(1);
+
+                // The sender only leaves the drain while holding the lock, so it's still sending for this subscriber
+                if (sender != null) {
+                    sender.interrupt();
+                }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                String json;
+
+                synchronized (this) {
+                    json = pending.pollFirst();
+
+                    if (json == null) {
+                        finishDrain();
+                        return;
+                    }
+
+                    sender = Thread.currentThread();
+                }
+
+                sendStart = System.currentTimeMillis();
+
+                try {
+                    send(json);
+                } catch (IOException | IllegalStateException e) {
+                    synchronized (this) {
+                        subscribers.remove(this);
+                        abandoned = true;
+                        finishDrain();
+                    }
+                    return;
+                } finally {
+                    sendStart = 0;
+                }
+            }
+        }
+
+        /**
+         * Stop draining, and complete the subscriber when it was dropped. An interrupt left behind by abandon is
+         * cleared by the pool before the next task. Called while holding the lock.
+         */
+        private void finishDrain() {
+            draining = false;
+            sender = null;
+
+            if (abandoned) {
+                if (replaced) {
+                    replaced = false;
+                    resizeSenders(-1);
+                }
+
+                close();
+            }
+        }
+    }
+
+    private class EmitterSubscriber extends Subscriber {
+        private final SseEmitter emitter;
+
+        EmitterSubscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        void send(String json) throws IOException {
+            emitter.send(SseEmitter.event().name("statistics").data(json, MediaType.APPLICATION_JSON));
+        }
+
+        @Override
+        void close() {
+            emitter.complete();
+        }
+    }
+}
@@ -1,31 +1,48 @@
 package me.victorjacobs.transactionstatistics.service;
 
+import me.victorjacobs.transactionstatistics.model.BatchResult;
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
 import me.victorjacobs.transactionstatistics.model.Statistic;
 import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.time.Clock;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represents the store of the time-series transaction statistics. Storage happens by dividing incoming transactions
- * over buckets. There are 60 buckets, one for every second in the requested time-series window. Bucket N contains the
- * statistics for all transactions for which the timestamp (in seconds) % 60 == N. When a values comes in, it is combined
- * with the statistics object in the bucket and the actual value discarded. This ensures constant memory complexity.
+ * over buckets, one for every second in the requested time-series window. Bucket N contains the statistics for all
+ * transactions for which the timestamp (in seconds) % 60 == N. How the buckets are kept is up to the BucketStorage the
+ * store is backed by, which is selected through the "statistics.store.mode" property. The time wheel storage uses its
+ * own, configurable, bucket resolution.
  *
- * To link the buckets with the actual time window they are representing, a second list of "bucketTimestamps" is kept.
- * Here every entry is the lower bound timestamp of the window the bucket represents. This is to make sure that when the
- * buckets wrap around, that it can be detected and properly reset.
+ * The store itself is responsible for discarding transactions that lie outside of the window and for determining the
+ * start of the window when reading. The window defaults to 60 seconds, but storages can keep a longer one, in which
+ * case shorter windows can be requested as well. When percentiles are configured, the storage keeps a sketch next to
+ * every bucket and merges the sketches of the window while folding its buckets, into a sketch every reading thread
+ * reuses, from which the percentiles are estimated. A storage can reject a transaction for its amount, e.g. when a
+ * fixed-point amount overflows, which is reported back to the caller instead of counting the transaction as accepted.
  *
- * When the statistics for the entire window are requested, all statistics objects in the buckets are combined with
- * each other. Since there are only 60 buckets, this ensures constant time complexity for reading the statistics.
- * However, here we need to make sure that the data in all the buckets is really from the last 60 seconds. In the case
- * where a bucket isn't written to for a long time, it will contain statistics that have nothing to do with the window,
- * but will be included in the total statistics if not properly managed. This is done by only using the buckets used
- * for data in the last 60 seconds to calculate the overall statistics. This is favorable over pruning the buckets on
- * read because would introduce unneeded complexity in synchronising writes to the backing data store.
+ * When the TransactionLog is enabled, accepted transactions are appended to it before they are added to the storage,
+ * and on startup the transactions of the last window are replayed from it. Storages that survive a restart by
+ * themselves are not replayed into, only their sketches are. A transaction rejected by the storage is already in the
+ * log by then, and is rejected again when replayed.
+ *
+ * With the ticker enabled, the store reads a TickingClock instead of its clock, advanced by the StoreTicker, and right
+ * after every second boundary the bucket of the new second is reset ahead of the writers. Transactions are then checked
+ * against a time that lags behind by up to the tick interval, so transactions up to the tick interval ahead of it are
+ * not in the future yet and are accepted.
+ *
+ * The statistics over the last 60 seconds carry a version, which increases whenever they may have changed: after an
+ * accepted add, or once the start of the window crossed the start of a bucket. Readers can use it to reuse what they
+ * derived from the statistics without reading the buckets again.
  *
  * Clock can be injected, easy unit testing.
  * Created by Victor on 10/02/2017.
@@ -33,37 +50,146 @@ import java.util.List;
 @Service
 @Scope("singleton")
 public class StatisticsStore {
-    private static final int WINDOW_SIZE_MILLIS = 60000;
+    static final int WINDOW_SIZE_MILLIS = 60000;
 
-    private static final int WINDOW_SIZE_SECONDS = WINDOW_SIZE_MILLIS / 1000;
+    static final int WINDOW_SIZE_SECONDS = WINDOW_SIZE_MILLIS / 1000;
 
-    private Statistic[] buckets = new Statistic[WINDOW_SIZE_SECONDS];
-    private long[] bucketTimestamps = new long[WINDOW_SIZE_SECONDS];
+    private final BucketStorage storage;
+    private final List<Double> percentiles;
+    private final ThreadLocal<QuantileSketch> sketches = ThreadLocal.withInitial(QuantileSketch::new);
+    private final long windowMillis;
+    private final StoreMetrics metrics;
+    private final TransactionLog transactionLog;
     private final Clock clock;
+    private final TickingClock tickingClock;
+    private final long futureToleranceMillis;
+    // Only accessed by the ticker
+    private long resetSecond = Long.MIN_VALUE;
+    private final LongAdder writes = new LongAdder();
+    private final long versionResolution;
+    private final Object versionLock = new Object();
+    // Only accessed while holding the version lock
+    private long version;
+    private long versionWrites;
+    private long versionEpoch = Long.MIN_VALUE;
 
-    public StatisticsStore() {
-        this.clock = Clock.systemUTC();
+    @Autowired
+    public StatisticsStore(StoreProperties properties, MetricsProperties metricsProperties,
+                           TransactionLog transactionLog) {
+        this(Clock.systemUTC(), properties, metricsProperties.isEnabled(),
+                transactionLog.isEnabled() ? transactionLog : null);
     }
 
     StatisticsStore(Clock clock) {
-        this.clock = clock;
+        this(clock, StorageMode.SYNCHRONIZED);
+    }
+
+    StatisticsStore(Clock clock, StorageMode mode) {
+        this(clock, propertiesFor(mode));
+    }
+
+    StatisticsStore(Clock clock, StoreProperties properties) {
+        this(clock, properties, true);
+    }
+
+    StatisticsStore(Clock clock, StoreProperties properties, boolean metricsEnabled) {
+        this(clock, properties, metricsEnabled, null);
+    }
+
+    StatisticsStore(Clock clock, StoreProperties properties, boolean metricsEnabled, TransactionLog transactionLog) {
+        this.tickingClock = properties.isTickerEnabled() ? new TickingClock(clock) : null;
+        this.clock = tickingClock != null ? tickingClock : clock;
+        this.futureToleranceMillis = tickingClock != null ? properties.getTickMillis() : 0;
+        this.transactionLog = transactionLog;
+        this.storage = properties.getMode().createStorage(properties, clock);
+        this.windowMillis = storage.getWindowMillis();
+        this.metrics = new StoreMetrics(storage, metricsEnabled);
+        this.percentiles = properties.getPercentiles();
+        this.versionResolution = storage.getResolutionMillis(Math.min(WINDOW_SIZE_MILLIS, windowMillis));
+
+        for (Double percentile : percentiles) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentiles must be between 0 and 100, got " + percentile);
+            }
+        }
     }
 
     /**
-     * Add a transaction to the store. This entire method is synchronised to ensure no dirty reads can happen.
+     * Add a transaction to the store, unless it lies outside of the window or its timestamp is in the future. Either
+     * way it is counted in the metrics. Thread-safety is provided by the underlying bucket storage.
      * @param transaction   Transaction to be added
+     * @return False when the storage rejected the amount of the transaction, true otherwise, also when it was
+     * discarded for lying outside of the window
      */
-    public synchronized void add(Transaction transaction) {
-        if (shouldDiscardTransaction(transaction)) {
-            return;
+    public boolean add(Transaction transaction) {
+        long start = metrics.startAdd();
+        long now = clock.millis();
+
+        if (isTooOld(now, transaction.getTimestamp())) {
+            metrics.discarded(1, 0);
+            metrics.endAdd(start);
+            return true;
+        }
+
+        if (isInFuture(now, transaction.getTimestamp())) {
+            metrics.discarded(0, 1);
+            metrics.endAdd(start);
+            return true;
+        }
+
+        if (transactionLog != null) {
+            transactionLog.append(transaction.getAmount(), transaction.getTimestamp());
         }
 
-        if (shouldResetBucketFor(transaction)) {
-            setBucket(transaction, new Statistic());
+        boolean added = storage.add(transaction.getAmount(), transaction.getTimestamp());
+
+        if (added) {
+            writes.increment();
         }
 
-        updateBucketTimestamp(transaction);
-        setBucket(transaction, getBucket(transaction).add(transaction));
+        metrics.endAdd(start);
+        return added;
+    }
+
+    /**
+     * Add a batch of transactions to the store. The clock is read once for the entire batch, transactions outside of
+     * the window are dropped from the batch by compacting it in place, after which the rest is handed to the storage
+     * in one go.
+     * @param batch Transactions to be added, is modified to only contain the transactions within the window
+     * @return How many transactions were accepted, how many were discarded and how many the storage rejected
+     */
+    public BatchResult addAll(TransactionBatch batch) {
+        long start = metrics.startAddAll();
+        long now = clock.millis();
+        int accepted = 0;
+        long tooOld = 0;
+        long inFuture = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+            long timestamp = batch.getTimestamp(i);
+
+            if (isTooOld(now, timestamp)) {
+                tooOld++;
+            } else if (isInFuture(now, timestamp)) {
+                inFuture++;
+            } else {
+                batch.set(accepted++, batch.getAmount(i), timestamp);
+            }
+        }
+
+        batch.truncate(accepted);
+
+        if (transactionLog != null) {
+            transactionLog.appendAll(batch);
+        }
+
+        int rejected = storage.addAll(batch);
+
+        writes.add(accepted - rejected);
+        metrics.discarded(tooOld, inFuture);
+        metrics.endAdd(start);
+
+        return new BatchResult(accepted - rejected, tooOld, inFuture, rejected, false);
     }
 
     /**
@@ -71,97 +197,194 @@ public class StatisticsStore {
      * @return Statistics over all transaction received in the last 60 seconds
      */
     public Statistic getStatistic() {
-        return Statistic.combine(getRelevantBuckets());
+        return getStatistic(WINDOW_SIZE_MILLIS);
     }
 
     /**
-     * Filters the buckets to the ones that are relevant in statistics calculation. I.e. only buckets that are marked
-     * as having a timestamp within the last 60 seconds.
-     * @return Buckets for the last 60 seconds
+     * Get statistics over all transactions that were stored in a window of given length.
+     * @param windowMillis  Length of the window, in milliseconds
+     * @return Statistics over all transactions received in the window
+     * @throws IllegalArgumentException When the window isn't positive, longer than the one kept by the storage, or not
+     *                                  a multiple of the resolution the storage serves it at
      */
-    private List<Statistic> getRelevantBuckets() {
+    public Statistic getStatistic(long windowMillis) {
+        if (windowMillis <= 0 || windowMillis > this.windowMillis) {
+            throw new IllegalArgumentException("Window must be between 1 and " + this.windowMillis + " ms");
+        }
+
+        long start = metrics.startGetStatistic();
         // Ensure that the window start is consistent over the filtering of the buckets by fixing it in a variable
-        long windowStart = clock.millis() - WINDOW_SIZE_MILLIS;
-        LinkedList<Statistic> relevantBuckets = new LinkedList<>();
+        long now = clock.millis();
+        Statistic statistic;
 
-        for (int i = 0; i < buckets.length; i++) {
-            if (buckets[i] == null) {
-                continue;
-            }
+        if (percentiles.isEmpty()) {
+            statistic = storage.getStatistic(now, windowMillis);
+        } else {
+            QuantileSketch sketch = sketches.get();
+            sketch.clear();
+            statistic = storage.getStatistic(now, windowMillis, sketch).withPercentiles(sketch, percentiles);
+        }
 
-            if (bucketTimestamps[i] >= windowStart) {
-                relevantBuckets.push(buckets[i]);
+        metrics.endGetStatistic(start);
+
+        return statistic;
+    }
+
+    /**
+     * Version of the statistics over the last 60 seconds. Statistics read after getting a version reflect at least the
+     * transactions counted in that version, so as long as the version stays the same they need not be read again.
+     * @return Version of the statistics, increasing every time they may have changed
+     */
+    public long getVersion() {
+        // Transactions are counted once they were added to the storage, so the statistics are at least this recent
+        long writeCount = writes.sum();
+        long epoch = Math.floorDiv(clock.millis() - WINDOW_SIZE_MILLIS - 1, versionResolution);
+
+        synchronized (versionLock) {
+            // Concurrent readers may have observed newer writes or a later epoch already
+            if (writeCount > versionWrites || epoch > versionEpoch) {
+                versionWrites = Math.max(versionWrites, writeCount);
+                versionEpoch = Math.max(versionEpoch, epoch);
+                version++;
             }
+
+            return version;
         }
+    }
 
-        return relevantBuckets;
+    /**
+     * Advance the clock of the store, and reset the bucket of the new second once the clock passed its start. Called by
+     * the StoreTicker, does nothing when the ticker isn't enabled.
+     */
+    void tick() {
+        if (tickingClock == null) {
+            return;
+        }
+
+        long now = tickingClock.tick();
+        long second = floorToSecond(now);
+
+        // The bucket from a window ago is still in the window at the very start of the second
+        if (now > second && second != resetSecond) {
+            resetSecond = second;
+            storage.resetExpired(now);
+        }
     }
 
     /**
-     * Whether or not a transaction should be discarded and not added to storage. This is when it either lies outside of
-     * the window or when the timestamp is in the future.
-     * @param transaction   Transaction to consider
-     * @return Whether or not a transaction should be discarded
+     * Export the buckets of the last 60 seconds, so they can be merged with the buckets of other nodes.
+     * @return Buckets of the last 60 seconds
      */
-    private boolean shouldDiscardTransaction(Transaction transaction) {
-        return clock.millis() - transaction.getTimestamp() > WINDOW_SIZE_MILLIS ||
-                clock.millis() < transaction.getTimestamp();
+    public BucketSnapshot exportBuckets() {
+        BucketSnapshot snapshot = new BucketSnapshot();
+        storage.exportBuckets(snapshot, clock.millis() - WINDOW_SIZE_MILLIS);
+        return snapshot;
     }
 
     /**
-     * Whether or not the bucket in which a given transaction falls, should be reset to an empty value. This is the case
-     * when either there is not yet a bucket set for the transaction, or when the timestamp identifying the bucket is
-     * different from the one computed from the transaction.
-     * @param transaction   Transaction to consider
-     * @return Whether or not to reset the bucket for this transaction
+     * Current time of the store, the time add() and addAll() check transactions against. Lags behind the system clock
+     * by at most a tick when the ticker is enabled.
+     * @return Time in milliseconds
      */
-    private boolean shouldResetBucketFor(Transaction transaction) {
-        return getBucket(transaction) == null
-                || getBucketTimestamp(transaction) != transaction.getTimestampFlooredToSecond();
+    long millis() {
+        return clock.millis();
     }
 
     /**
-     * Get the bucket of which the transaction is part.
-     * @param transaction   Transaction for which to return the bucket
-     * @return Bucket related to given transaction
+     * Whether or not a transaction is too old to be added, the check used by add() and addAll().
+     * @param now       Time of the store, from millis()
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     * @return Whether or not the transaction already left the window
      */
-    private Statistic getBucket(Transaction transaction) {
-        return buckets[getBucketIndex(transaction)];
+    boolean isTooOld(long now, long timestamp) {
+        return now - timestamp > windowMillis;
     }
 
     /**
-     * Set bucket related to given transaction to given value
-     * @param transaction   Transaction for which set the bucket value
-     * @param statistic     Value to set the bucket to
+     * Whether or not a transaction lies too far in the future to be added, the check used by add() and addAll().
+     * Transactions up to a tick ahead of the time of the store are accepted when the ticker is enabled.
+     * @param now       Time of the store, from millis()
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     * @return Whether or not the transaction lies in the future
      */
-    private void setBucket(Transaction transaction, Statistic statistic) {
-        buckets[getBucketIndex(transaction)] = statistic;
+    boolean isInFuture(long now, long timestamp) {
+        return now + futureToleranceMillis < timestamp;
     }
 
     /**
-     * Get the timestamp identifying the bucket of which given transaction is part.
-     * @param transaction   Transaction for which to find timestamp
-     * @return Timestamp identifying the bucket
+     * Longest window that can be requested from this store.
+     * @return Length of the window, in milliseconds
      */
-    private long getBucketTimestamp(Transaction transaction) {
-        return bucketTimestamps[getBucketIndex(transaction)];
+    public long getWindowMillis() {
+        return windowMillis;
     }
 
     /**
-     * Update the timestamp identifying the bucket of which the given transaction is part to the value derived from the
-     * same transaction.
-     * @param transaction   Transaction for which to update the bucket timestamp
+     * Rebuild the store from the transactions of the last window in the transaction log, after which the log is opened
+     * for appending. Does nothing when there is no log.
      */
-    private void updateBucketTimestamp(Transaction transaction) {
-        bucketTimestamps[getBucketIndex(transaction)] = transaction.getTimestampFlooredToSecond();
+    @PostConstruct
+    public void recover() {
+        if (transactionLog == null) {
+            return;
+        }
+
+        boolean replayStorage = !storage.isPersistent();
+
+        if (replayStorage || !percentiles.isEmpty()) {
+            long now = clock.millis();
+
+            transactionLog.replay(now - windowMillis, now, batch -> {
+                if (replayStorage) {
+                    storage.addAll(batch);
+                } else {
+                    storage.restorePercentiles(batch);
+                }
+
+                writes.add(batch.size());
+            });
+        }
+
+        transactionLog.open(windowMillis);
+    }
+
+    /**
+     * Close the storage, so a storage kept in a file is written out before shutting down.
+     */
+    @PreDestroy
+    public void close() {
+        storage.close();
+    }
+
+    /**
+     * Metrics of this store, how many transactions were accepted and discarded and how long adding and reading take.
+     * @return Metrics of the store
+     */
+    public StoreMetrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * Derive array index of bucket for given transaction, used accessing backing arrays of the service.
-     * @param transaction   Transaction for which to find the bucket index
+     * Floor a timestamp to the nearest second.
+     * @param timestamp Timestamp in milliseconds
+     * @return Timestamp floored to the nearest second, in milliseconds
+     */
+    static long floorToSecond(long timestamp) {
+        return (timestamp / 1000) * 1000;
+    }
+
+    /**
+     * Derive array index of bucket for given timestamp, used accessing backing arrays of the storages.
+     * @param timestamp Timestamp of the transaction, in milliseconds
      * @return Index of bucket in backing arrays
      */
-    private int getBucketIndex(Transaction transaction) {
-        return (int) (transaction.getTimestamp() / 1000) % WINDOW_SIZE_SECONDS;
+    static int getBucketIndex(long timestamp) {
+        return (int) (timestamp / 1000) % WINDOW_SIZE_SECONDS;
+    }
+
+    private static StoreProperties propertiesFor(StorageMode mode) {
+        StoreProperties properties = new StoreProperties();
+        properties.setMode(mode);
+        return properties;
     }
 }
@@ -0,0 +1,85 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import java.time.Clock;
+
+/**
+ * The different bucket storages the StatisticsStore can be backed by. Selected through the "statistics.store.mode"
+ * property.
+ */
+public enum StorageMode {
+    /**
+     * Single array of buckets, writes are serialised on one lock.
+     */
+    SYNCHRONIZED {
+        @Override
+        BucketStorage createStorage(StoreProperties properties, Clock clock) {
+            return new SynchronizedBucketStorage(keepPercentiles(properties));
+        }
+    },
+    /**
+     * Buckets striped per writer thread, writes are lock-free.
+     */
+    STRIPED {
+        @Override
+        BucketStorage createStorage(StoreProperties properties, Clock clock) {
+            return new StripedBucketStorage(keepPercentiles(properties));
+        }
+    },
+    /**
+     * Buckets kept as parallel primitive arrays, writes don't allocate.
+     */
+    PRIMITIVE {
+        @Override
+        BucketStorage createStorage(StoreProperties properties, Clock clock) {
+            return new PrimitiveBucketStorage(keepPercentiles(properties));
+        }
+    },
+    /**
+     * Statistics over the window maintained while writing, reads are constant time and don't take the lock.
+     */
+    ROLLING {
+        @Override
+        BucketStorage createStorage(StoreProperties properties, Clock clock) {
+            return new RollingBucketStorage(keepPercentiles(properties));
+        }
+    },
+    /**
+     * Hierarchical time wheel with configurable resolution, serving windows of different lengths.
+     */
+    TIME_WHEEL {
+        @Override
+        BucketStorage createStorage(StoreProperties properties, Clock clock) {
+            return new TimeWheelBucketStorage(properties.getWheelLevels(), keepPercentiles(properties));
+        }
+    },
+    /**
+     * Amounts kept as fixed-point longs, sums are exact and writes are lock-free.
+     */
+    FIXED_POINT {
+        @Override
+        BucketStorage createStorage(StoreProperties properties, Clock clock) {
+            return new FixedPointBucketStorage(properties.getAmountScale(), keepPercentiles(properties));
+        }
+    },
+    /**
+     * Primitive buckets kept in a memory-mapped file, so the statistics survive a restart.
+     */
+    MAPPED {
+        @Override
+        BucketStorage createStorage(StoreProperties properties, Clock clock) {
+            return MappedBucketStorage.create(properties, clock);
+        }
+    };
+
+    /**
+     * Create a new storage of this kind, empty unless it is kept in a file.
+     * @param properties    Configuration of the store
+     * @param clock         Clock of the store
+     * @return New storage
+     */
+    abstract BucketStorage createStorage(StoreProperties properties, Clock clock);
+
+    private static boolean keepPercentiles(StoreProperties properties) {
+        return !properties.getPercentiles().isEmpty();
+    }
+}
@@ -0,0 +1,148 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a StatisticsStore: how many transactions were accepted and discarded, and how long adding and reading
+ * take. Discards are counted in LongAdders and latencies go into LatencyHistograms, so neither adds contention between
+ * writers.
+ *
+ * An add only takes around a hundred nanoseconds, so the metrics have to stay out of its way:
+ *  - accepted transactions are counted by the storage, which can do so with a plain increment under its lock,
+ *  - the latency of adds is only recorded for a sample of 1 in ADD_SAMPLE_RATE of them, picked at random with the
+ *    ThreadLocalRandom of the writer, so deciding whether to time an add costs no shared state and reading the clock
+ *    is skipped for the others. Unlike picking by the timestamp, this doesn't skew the sample when many transactions
+ *    share a timestamp.
+ * All counters are exact. Reads are expensive enough compared to reading the clock to always be timed. Bucket resets
+ * and waits for the lock are kept by the storage as well and only read from it here.
+ */
+public class StoreMetrics {
+    static final int ADD_SAMPLE_RATE = 64;
+
+    private final BucketStorage storage;
+    private final boolean enabled;
+    private final LongAdder tooOld = new LongAdder();
+    private final LongAdder inFuture = new LongAdder();
+    private final LatencyHistogram addLatencies = new LatencyHistogram();
+    private final LatencyHistogram getStatisticLatencies = new LatencyHistogram();
+
+    StoreMetrics(BucketStorage storage, boolean enabled) {
+        this.storage = storage;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Start timing the add of a transaction, when it is part of the sample.
+     * @return Start time in nanoseconds, 0 when the add isn't timed
+     */
+    long startAdd() {
+        if (!enabled || ThreadLocalRandom.current().nextInt(ADD_SAMPLE_RATE) != 0) {
+            return 0;
+        }
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Start timing the add of a batch, batches are always timed.
+     * @return Start time in nanoseconds, 0 when the metrics are disabled
+     */
+    long startAddAll() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the latency of an add, when it was timed.
+     * @param start Start time returned by startAdd() or startAddAll()
+     */
+    void endAdd(long start) {
+        if (start != 0) {
+            addLatencies.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Count discarded transactions.
+     * @param tooOld    Number of transactions discarded for being too old
+     * @param inFuture  Number of transactions discarded for being in the future
+     */
+    void discarded(long tooOld, long inFuture) {
+        if (!enabled) {
+            return;
+        }
+
+        if (tooOld != 0) {
+            this.tooOld.add(tooOld);
+        }
+        if (inFuture != 0) {
+            this.inFuture.add(inFuture);
+        }
+    }
+
+    long startGetStatistic() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void endGetStatistic(long start) {
+        if (enabled) {
+            getStatisticLatencies.record(System.nanoTime() - start);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Number of transactions accepted into the storage, always counted.
+     * @return Number of accepted transactions
+     */
+    public long getAccepted() {
+        return storage.getTransactionCount();
+    }
+
+    public long getTooOld() {
+        return tooOld.sum();
+    }
+
+    public long getInFuture() {
+        return inFuture.sum();
+    }
+
+    /**
+     * Latencies of a sample of the adds, of single transactions and of batches alike.
+     * @return Histogram of the latencies
+     */
+    public LatencyHistogram getAddLatencies() {
+        return addLatencies;
+    }
+
+    public LatencyHistogram getGetStatisticLatencies() {
+        return getStatisticLatencies;
+    }
+
+    /**
+     * Number of times a bucket was reset to be reused for a newer second or interval.
+     * @return Number of bucket resets
+     */
+    public long getBucketResets() {
+        return storage.getBucketResets();
+    }
+
+    /**
+     * Number of transactions rejected by the storage because their amount overflowed, only in fixed-point mode.
+     * @return Number of rejected transactions
+     */
+    public long getAmountOverflows() {
+        return storage.getAmountOverflows();
+    }
+
+    /**
+     * Time spent waiting for the lock of the storage.
+     * @return Histogram of the waits, null when the storage doesn't take a lock
+     */
+    public LatencyHistogram getLockWaits() {
+        return storage.getLockWaits();
+    }
+}
@@ -0,0 +1,55 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of the StatisticsStore, bound from the "statistics.store" properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "statistics.store")
+public class StoreProperties {
+    /**
+     * Bucket storage backing the store.
+     */
+    private StorageMode mode = StorageMode.SYNCHRONIZED;
+
+    /**
+     * Levels of the time wheel used in TIME_WHEEL mode, as comma separated "resolution:span" pairs in milliseconds.
+     * The longest span is the longest window that can be queried.
+     */
+    private String wheelLevels = "100:1000,1000:60000,60000:300000";
+
+    /**
+     * File the buckets are kept in, in MAPPED mode.
+     */
+    private String bucketFile = "data/buckets.bin";
+
+    /**
+     * Number of decimals amounts are kept with in FIXED_POINT mode, e.g. 2 to keep them in cents. Amounts with more
+     * decimals are rounded to the nearest minor unit.
+     */
+    private int amountScale = 2;
+
+    /**
+     * Percentiles, between 0 and 100, to estimate for every read of the statistics. None are estimated when empty.
+     */
+    private List<Double> percentiles = new ArrayList<>();
+
+    /**
+     * Whether or not a ticker thread keeps the time for the store and resets the bucket of every new second ahead of
+     * the writers. Without it the clock is read for every add, and buckets are reset by the first writer of a second.
+     */
+    private boolean tickerEnabled = false;
+
+    /**
+     * Interval of the ticker, the time of the store lags behind by at most this much. Transactions up to this much ahead
+     * of the time of the store are therefore accepted.
+     */
+    private long tickMillis = 1;
+}
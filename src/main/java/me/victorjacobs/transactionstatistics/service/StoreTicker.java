@@ -0,0 +1,65 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread ticking the StatisticsStore at a fixed rate when the ticker is enabled, see
+ * StatisticsStore.tick(). Without it the store reads the clock itself.
+ *
+ * A tick that fails is skipped rather than stopping the ticker, since a ticker that stopped would freeze the time of
+ * the store and have it reject every transaction after the next tick as lying in the future.
+ */
+@Service
+public class StoreTicker {
+    private final StatisticsStore statisticsStore;
+    private final StoreProperties properties;
+    private ScheduledExecutorService ticker;
+
+    @Autowired
+    public StoreTicker(StatisticsStore statisticsStore, StoreProperties properties) {
+        if (properties.getTickMillis() <= 0) {
+            throw new IllegalArgumentException("Tick interval must be positive");
+        }
+
+        this.statisticsStore = statisticsStore;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isTickerEnabled()) {
+            return;
+        }
+
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "store-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = properties.getTickMillis();
+        ticker.scheduleAtFixedRate(this::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    private void tick() {
+        try {
+            statisticsStore.tick();
+        } catch (RuntimeException e) {
+            // The executor cancels the task on the first exception that escapes, the next tick tries again
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the StatisticsBroadcaster, bound from the "statistics.stream" properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "statistics.stream")
+public class StreamProperties {
+    /**
+     * Interval at which the statistics are pushed to subscribers, even when they didn't change.
+     */
+    private long intervalMillis = 1000;
+
+    /**
+     * Interval at which the statistics are checked for changes. Changes within one check are coalesced into one push.
+     */
+    private long checkMillis = 100;
+
+    /**
+     * Number of pushes buffered per subscriber, the oldest are dropped when a subscriber can't keep up.
+     */
+    private int bufferSize = 8;
+
+    /**
+     * Timeout of a subscription, 0 for none.
+     */
+    private long timeoutMillis = 0;
+
+    /**
+     * Number of threads writing pushes to subscribers.
+     */
+    private int senderThreads = 2;
+
+    /**
+     * Time a single push to a subscriber may take, after which the subscriber is dropped and its sender thread is
+     * replaced until it gets out of the push.
+     */
+    private long sendTimeoutMillis = 5000;
+}
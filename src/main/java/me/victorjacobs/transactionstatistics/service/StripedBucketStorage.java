@@ -0,0 +1,269 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_SECONDS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.floorToSecond;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.getBucketIndex;
+
+/**
+ * Lock-free storage where writers are spread over a number of stripes, each stripe having its own ring of 60 buckets
+ * indexed the same way as in the SynchronizedBucketStorage. A writer picks its stripe based on its thread id, so
+ * writers on different threads rarely touch the same memory. Reading merges the buckets of all stripes.
+ *
+ * A bucket is a cell tagged with the second it represents. Cells are never reused: when a bucket wraps around, a fresh
+ * cell for the new second is swapped in with a CAS on the slot. The rule for resetting is:
+ *  - the cell in the slot is for the same second: update it in place with CAS loops,
+ *  - the cell in the slot is for an older second (or missing): replace it by a new cell already holding the amount,
+ *  - the cell in the slot is for a newer second: the transaction's second already left the window, drop it.
+ * Since the second of a cell only moves forward, concurrent writers converge on the same cell. A writer that loaded a
+ * cell right before it got replaced may still update the old cell, but that cell is only replaced once a transaction
+ * 60 seconds newer was seen, so that update lands in a second that has already left the window anyway.
+ *
+ * Fields of a cell are updated independently, so a concurrent read can see an update to the count before the one to
+ * the sum. Every field on its own is never torn.
+ *
+ * When percentiles are enabled, every stripe also keeps a PercentileRing with a sketch next to each of its buckets.
+ * A sketch can't be updated lock-free, so the ring of a stripe has a lock of its own, only contended by the writers
+ * sharing the stripe and by readers. Readers merge the sketches of the same cells they fold, but like the fields of a
+ * cell, a sketch can be a concurrent write ahead of or behind its cell.
+ */
+class StripedBucketStorage implements BucketStorage {
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final LongAdder transactionCount = new LongAdder();
+    private final LongAdder bucketResets = new LongAdder();
+
+    StripedBucketStorage() {
+        this(false);
+    }
+
+    /**
+     * @param keepPercentiles   Whether or not to keep a sketch next to every bucket to estimate percentiles from
+     */
+    StripedBucketStorage(boolean keepPercentiles) {
+        this(Runtime.getRuntime().availableProcessors() * 2, keepPercentiles);
+    }
+
+    StripedBucketStorage(int minimumStripes) {
+        this(minimumStripes, false);
+    }
+
+    /**
+     * @param minimumStripes    Number of stripes to create at least, rounded up to a power of two
+     * @param keepPercentiles   Whether or not to keep a sketch next to every bucket to estimate percentiles from
+     */
+    StripedBucketStorage(int minimumStripes, boolean keepPercentiles) {
+        int stripeCount = 1;
+
+        while (stripeCount < minimumStripes) {
+            stripeCount <<= 1;
+        }
+
+        this.stripes = new Stripe[stripeCount];
+        this.stripeMask = stripeCount - 1;
+
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(keepPercentiles);
+        }
+    }
+
+    @Override
+    public boolean add(double amount, long timestamp) {
+        add(getStripe(), amount, timestamp);
+        return true;
+    }
+
+    /**
+     * Add all transactions of the batch to the stripe of the current thread, looking up the stripe only once.
+     * @param batch Transactions to add, all within the window
+     * @return Always 0, every amount is accepted
+     */
+    @Override
+    public int addAll(TransactionBatch batch) {
+        Stripe stripe = getStripe();
+
+        for (int i = 0; i < batch.size(); i++) {
+            add(stripe, batch.getAmount(i), batch.getTimestamp(i));
+        }
+
+        return 0;
+    }
+
+    private void add(Stripe stripe, double amount, long timestamp) {
+        AtomicReferenceArray<Cell> cells = stripe.cells;
+        int index = getBucketIndex(timestamp);
+        long bucketTimestamp = floorToSecond(timestamp);
+
+        while (true) {
+            Cell cell = cells.get(index);
+
+            if (cell != null && cell.timestamp == bucketTimestamp) {
+                cell.add(amount);
+                break;
+            }
+
+            if (cell != null && cell.timestamp > bucketTimestamp) {
+                return;
+            }
+
+            if (cells.compareAndSet(index, cell, new Cell(bucketTimestamp, amount))) {
+                if (cell != null) {
+                    bucketResets.increment();
+                }
+                break;
+            }
+        }
+
+        transactionCount.increment();
+
+        if (stripe.percentiles != null) {
+            synchronized (stripe.percentiles) {
+                stripe.percentiles.add(index, bucketTimestamp, amount);
+            }
+        }
+    }
+
+    @Override
+    public Statistic getStatistic(long now, long windowMillis, QuantileSketch sketch) {
+        long windowStart = now - windowMillis;
+
+        List<Statistic> relevantBuckets = new ArrayList<>();
+
+        for (Stripe stripe : stripes) {
+            if (sketch != null && stripe.percentiles != null) {
+                synchronized (stripe.percentiles) {
+                    fold(stripe, windowStart, relevantBuckets, sketch);
+                }
+            } else {
+                fold(stripe, windowStart, relevantBuckets, null);
+            }
+        }
+
+        return Statistic.combine(relevantBuckets);
+    }
+
+    private static void fold(Stripe stripe, long windowStart, List<Statistic> relevantBuckets, QuantileSketch sketch) {
+        for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+            Cell cell = stripe.cells.get(i);
+
+            if (cell != null && cell.timestamp >= windowStart) {
+                relevantBuckets.add(cell.toStatistic());
+
+                if (sketch != null) {
+                    stripe.percentiles.merge(i, cell.timestamp, sketch);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void exportBuckets(BucketSnapshot snapshot, long windowStart) {
+        for (Stripe stripe : stripes) {
+            for (int i = 0; i < WINDOW_SIZE_SECONDS; i++) {
+                Cell cell = stripe.cells.get(i);
+
+                if (cell != null && cell.timestamp >= windowStart) {
+                    snapshot.add(cell.timestamp, cell.toStatistic());
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getTransactionCount() {
+        return transactionCount.sum();
+    }
+
+    @Override
+    public long getBucketResets() {
+        return bucketResets.sum();
+    }
+
+    /**
+     * Get the stripe the current thread writes to.
+     * @return Stripe for the current thread
+     */
+    private Stripe getStripe() {
+        return stripes[(int) Thread.currentThread().getId() & stripeMask];
+    }
+
+    /**
+     * One ring of buckets, with the sketches of its buckets when percentiles are enabled, guarded by their own monitor.
+     */
+    private static class Stripe {
+        private final AtomicReferenceArray<Cell> cells = new AtomicReferenceArray<>(WINDOW_SIZE_SECONDS);
+        private final PercentileRing percentiles;
+
+        Stripe(boolean keepPercentiles) {
+            this.percentiles = keepPercentiles ? new PercentileRing(WINDOW_SIZE_SECONDS) : null;
+        }
+    }
+
+    /**
+     * Mutable statistics for a single second. Doubles are stored as their raw long bits so they can be updated with CAS.
+     */
+    private static class Cell {
+        private static final AtomicLongFieldUpdater<Cell> COUNT = AtomicLongFieldUpdater.newUpdater(Cell.class, "count");
+        private static final AtomicLongFieldUpdater<Cell> SUM = AtomicLongFieldUpdater.newUpdater(Cell.class, "sum");
+        private static final AtomicLongFieldUpdater<Cell> MAX = AtomicLongFieldUpdater.newUpdater(Cell.class, "max");
+        private static final AtomicLongFieldUpdater<Cell> MIN = AtomicLongFieldUpdater.newUpdater(Cell.class, "min");
+
+        private final long timestamp;
+        private volatile long count;
+        private volatile long sum;
+        private volatile long max;
+        private volatile long min;
+
+        Cell(long timestamp, double amount) {
+            this.timestamp = timestamp;
+            this.count = 1;
+            this.sum = Double.doubleToRawLongBits(amount);
+            this.max = Double.doubleToRawLongBits(amount);
+            this.min = Double.doubleToRawLongBits(amount);
+        }
+
+        void add(double amount) {
+            long current;
+
+            do {
+                current = sum;
+            } while (!SUM.compareAndSet(this, current,
+                    Double.doubleToRawLongBits(Double.longBitsToDouble(current) + amount)));
+
+            do {
+                current = max;
+            } while (amount > Double.longBitsToDouble(current)
+                    && !MAX.compareAndSet(this, current, Double.doubleToRawLongBits(amount)));
+
+            do {
+                current = min;
+            } while (amount < Double.longBitsToDouble(current)
+                    && !MIN.compareAndSet(this, current, Double.doubleToRawLongBits(amount)));
+
+            COUNT.incrementAndGet(this);
+        }
+
+        Statistic toStatistic() {
+            long currentCount = count;
+            double currentSum = Double.longBitsToDouble(sum);
+
+            return new Statistic(
+                    currentSum,
+                    currentSum / currentCount,
+                    Double.longBitsToDouble(max),
+                    Double.longBitsToDouble(min),
+                    currentCount
+            );
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_SECONDS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.floorToSecond;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.getBucketIndex;
+
+/**
+ * Storage dividing incoming transactions over buckets. There are 60 buckets, one for every second in the requested
+ * time-series window. Bucket N contains the statistics for all transactions for which the timestamp (in seconds) % 60
+ * == N. When a values comes in, it is combined with the statistics object in the bucket and the actual value discarded.
+ * This ensures constant memory complexity.
+ *
+ * To link the buckets with the actual time window they are representing, a second list of "bucketTimestamps" is kept.
+ * Here every entry is the lower bound timestamp of the window the bucket represents. This is to make sure that when the
+ * buckets wrap around, that it can be detected and properly reset.
+ *
+ * When the statistics for the entire window are requested, all statistics objects in the buckets are combined with
+ * each other. Since there are only 60 buckets, this ensures constant time complexity for reading the statistics.
+ * However, here we need to make sure that the data in all the buckets is really from the last 60 seconds. In the case
+ * where a bucket isn't written to for a long time, it will contain statistics that have nothing to do with the window,
+ * but will be included in the total statistics if not properly managed. This is done by only using the buckets used
+ * for data in the last 60 seconds to calculate the overall statistics. This is favorable over pruning the buckets on
+ * read because would introduce unneeded complexity in synchronising writes to the backing data store.
+ *
+ * When percentiles are enabled, a PercentileRing holds a sketch next to every bucket. Reads requesting them take the
+ * lock, so the sketches are merged over exactly the buckets that are combined.
+ * Created by Victor on 10/02/2017.
+ */
+class SynchronizedBucketStorage implements BucketStorage {
+    private final ContendedLock lock = new ContendedLock();
+    private Statistic[] buckets = new Statistic[WINDOW_SIZE_SECONDS];
+    private long[] bucketTimestamps = new long[WINDOW_SIZE_SECONDS];
+    // Only accessed while holding the lock
+    private long transactionCount;
+    private long bucketResets;
+    private final PercentileRing percentiles;
+
+    SynchronizedBucketStorage() {
+        this(false);
+    }
+
+    /**
+     * @param keepPercentiles   Whether or not to keep a sketch next to every bucket to estimate percentiles from
+     */
+    SynchronizedBucketStorage(boolean keepPercentiles) {
+        this.percentiles = keepPercentiles ? new PercentileRing(WINDOW_SIZE_SECONDS) : null;
+    }
+
+    /**
+     * Add a transaction to the storage. This entire method holds the lock to ensure no dirty reads can happen.
+     * @param amount    Amount of the transaction
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     * @return Always true, every amount is accepted
+     */
+    @Override
+    public boolean add(double amount, long timestamp) {
+        lock.acquire();
+        try {
+            addUnsynchronized(amount, timestamp);
+        } finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    /**
+     * Add all transactions of the batch while holding the lock once.
+     * @param batch Transactions to add, all within the window
+     * @return Always 0, every amount is accepted
+     */
+    @Override
+    public int addAll(TransactionBatch batch) {
+        lock.acquire();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                addUnsynchronized(batch.getAmount(i), batch.getTimestamp(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return 0;
+    }
+
+    private void addUnsynchronized(double amount, long timestamp) {
+        int index = getBucketIndex(timestamp);
+
+        // The bucket already holds a newer second, so this one already left the window
+        if (buckets[index] != null && bucketTimestamps[index] > floorToSecond(timestamp)) {
+            return;
+        }
+
+        if (shouldResetBucket(index, timestamp)) {
+            if (buckets[index] != null) {
+                bucketResets++;
+            }
+            buckets[index] = new Statistic();
+        }
+
+        bucketTimestamps[index] = floorToSecond(timestamp);
+        buckets[index] = buckets[index].add(amount);
+        transactionCount++;
+
+        if (percentiles != null) {
+            percentiles.add(index, bucketTimestamps[index], amount);
+        }
+    }
+
+    /**
+     * Put an empty statistics object in the bucket of the new second, so its first writer only has to add to it.
+     * @param now   Current time, in milliseconds, past the start of its second
+     */
+    @Override
+    public void resetExpired(long now) {
+        int index = getBucketIndex(now);
+
+        lock.acquire();
+        try {
+            if (shouldResetBucket(index, now)) {
+                if (buckets[index] != null) {
+                    bucketResets++;
+                }
+
+                buckets[index] = new Statistic();
+                bucketTimestamps[index] = floorToSecond(now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Statistic getStatistic(long now, long windowMillis, QuantileSketch sketch) {
+        if (sketch == null || percentiles == null) {
+            return Statistic.combine(getRelevantBuckets(now - windowMillis, null));
+        }
+
+        lock.acquire();
+        try {
+            return Statistic.combine(getRelevantBuckets(now - windowMillis, sketch));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void exportBuckets(BucketSnapshot snapshot, long windowStart) {
+        lock.acquire();
+        try {
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] != null && buckets[i].getCount() != 0 && bucketTimestamps[i] >= windowStart) {
+                    snapshot.add(bucketTimestamps[i], buckets[i]);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTransactionCount() {
+        lock.acquire();
+        try {
+            return transactionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getBucketResets() {
+        lock.acquire();
+        try {
+            return bucketResets;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LatencyHistogram getLockWaits() {
+        return lock.getWaits();
+    }
+
+    /**
+     * Filters the buckets to the ones that are relevant in statistics calculation. I.e. only buckets that are marked
+     * as having a timestamp within the window.
+     * @param windowStart   Lower bound of the window, in milliseconds
+     * @param sketch        Sketch to merge the sketches of the buckets into, null to leave them out
+     * @return Buckets for the window
+     */
+    private List<Statistic> getRelevantBuckets(long windowStart, QuantileSketch sketch) {
+        LinkedList<Statistic> relevantBuckets = new LinkedList<>();
+
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == null) {
+                continue;
+            }
+
+            if (bucketTimestamps[i] >= windowStart) {
+                relevantBuckets.push(buckets[i]);
+
+                if (sketch != null) {
+                    percentiles.merge(i, bucketTimestamps[i], sketch);
+                }
+            }
+        }
+
+        return relevantBuckets;
+    }
+
+    /**
+     * Whether or not the bucket at given index should be reset to an empty value before adding a transaction with the
+     * given timestamp. This is the case when either there is not yet a bucket set, or when the timestamp identifying
+     * the bucket is different from the one computed from the transaction.
+     * @param index     Index of the bucket
+     * @param timestamp Timestamp of the transaction to add
+     * @return Whether or not to reset the bucket
+     */
+    private boolean shouldResetBucket(int index, long timestamp) {
+        return buckets[index] == null || bucketTimestamps[index] != floorToSecond(timestamp);
+    }
+}
@@ -0,0 +1,417 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Listener accepting transactions as binary frames over TCP, for producers for which JSON over HTTP is too costly.
+ * Runs next to the REST endpoints when enabled.
+ *
+ * Every frame is a length prefix followed by that many bytes of records, all big-endian: the length as an int, then per
+ * record the amount as a double and the timestamp as a long. The length has to be a multiple of 16 and at most the
+ * configured number of records, otherwise the connection is closed. Every frame is answered with an ack of 12 bytes:
+ * the number of records accepted, too old and in the future, as ints. Clients may send frames without waiting for their
+ * acks, the acks come back in the same order.
+ *
+ * One selector thread reads all connections into a direct buffer per connection and decodes the records in place.
+ * Records outside of the window are discarded right away and counted in the metrics of the store, like discards over
+ * HTTP. The others are put in a preallocated TransactionRing, from which a single drainer thread moves them to the
+ * StatisticsStore in batches, so no objects are created per record. A frame is only taken once the whole frame fits in
+ * the ring. Until then, reading from that connection pauses, which pushes back on the client through TCP flow control.
+ * Reading also pauses while acks can't be written because the client isn't reading them.
+ *
+ * An ack means the records were handed to the store, not that they are visible in the statistics yet: that happens
+ * once the drainer caught up, normally within a fraction of a millisecond. A batch the store fails to take is counted
+ * as failed and dropped, so the drainer keeps emptying the ring.
+ *
+ * A failure to accept a connection or to serve one only closes that connection, the selector thread keeps serving the
+ * others. Only a failure of the selector itself stops the listener.
+ */
+@Service
+public class TcpIngestServer {
+    static final int RECORD_SIZE = 16;
+    static final int ACK_SIZE = 12;
+
+    private static final int LENGTH_SIZE = 4;
+    private static final int PENDING_ACKS = 64;
+    private static final long IDLE_PARK_NANOS = 100000;
+
+    private final StatisticsStore statisticsStore;
+    private final IngestProperties properties;
+    private final TransactionRing ring;
+    private final int maxFrameBytes;
+    private final Set<Connection> stalled = new LinkedHashSet<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private Thread drainerThread;
+    private volatile boolean running;
+    private volatile boolean draining;
+
+    // Only written by the selector thread
+    private volatile long frames;
+    private volatile long accepted;
+    private volatile long discarded;
+    // Only written by the drainer thread
+    private volatile long failed;
+
+    @Autowired
+    public TcpIngestServer(StatisticsStore statisticsStore, IngestProperties properties) {
+        if (properties.getMaxFrameRecords() <= 0 || properties.getMaxFrameRecords() > properties.getRingCapacity()) {
+            throw new IllegalArgumentException("Maximum number of records in a frame must be between 1 and the ring " +
+                    "capacity");
+        }
+
+        this.statisticsStore = statisticsStore;
+        this.properties = properties;
+        this.maxFrameBytes = properties.getMaxFrameRecords() * RECORD_SIZE;
+        this.ring = properties.isEnabled() ? new TransactionRing(properties.getRingCapacity()) : null;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(properties.getPort()));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not listen on port " + properties.getPort(), e);
+        }
+
+        running = true;
+        draining = true;
+        selectorThread = new Thread(this::select, "ingest-selector");
+        drainerThread = new Thread(this::drain, "ingest-drainer");
+        selectorThread.setDaemon(true);
+        drainerThread.setDaemon(true);
+        selectorThread.start();
+        drainerThread.start();
+    }
+
+    /**
+     * Stop accepting frames and close all connections, after which the transactions left in the ring are handed to the
+     * store.
+     */
+    @PreDestroy
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        selector.wakeup();
+        join(selectorThread);
+        draining = false;
+        join(drainerThread);
+    }
+
+    /**
+     * Port the listener is bound to, useful when configured to take any free port.
+     * @return Local port, -1 when not listening
+     */
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * Number of accepted records that were lost because the store failed to take the batch they were drained in.
+     * @return Number of failed records
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Loop of the selector thread: accept connections, read and decode frames, write acks, and retry connections that
+     * paused because the ring was full.
+     */
+    private void select() {
+        try {
+            while (running) {
+                selector.select(stalled.isEmpty() ? 0 : 1);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        ((Connection) key.attachment()).serve(key);
+                    }
+                }
+
+                if (!stalled.isEmpty()) {
+                    List<Connection> retry = new ArrayList<>(stalled);
+                    stalled.clear();
+
+                    for (Connection connection : retry) {
+                        connection.retry();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ingest selector failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key.channel());
+            }
+            close(selector);
+        }
+    }
+
+    /**
+     * Accept a pending connection. A failure, e.g. running out of file descriptors or a peer resetting right after
+     * connecting, only loses that connection.
+     */
+    private void accept() {
+        SocketChannel channel = null;
+
+        try {
+            channel = serverChannel.accept();
+
+            if (channel == null) {
+                return;
+            }
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                close(channel);
+            }
+        }
+    }
+
+    /**
+     * Loop of the drainer thread: move transactions from the ring to the store, parking briefly when it's empty. Stops
+     * once the selector thread stopped and the ring is empty.
+     */
+    private void drain() {
+        int batchSize = properties.getDrainBatchSize();
+        TransactionBatch batch = new TransactionBatch(batchSize);
+
+        while (true) {
+            batch.clear();
+
+            if (ring.drainTo(batch, batchSize) != 0) {
+                int size = batch.size();
+
+                try {
+                    statisticsStore.addAll(batch);
+                } catch (RuntimeException e) {
+                    // Dying here would leave the ring full and stall every connection for good
+                    failed += size;
+                }
+            } else if (!draining) {
+                return;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void close(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Closing anyway
+        }
+    }
+
+    /**
+     * A client connection with its buffers. Only accessed by the selector thread.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(LENGTH_SIZE + maxFrameBytes);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(PENDING_ACKS * ACK_SIZE);
+        private SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Write pending acks and read from the connection, as far as the selector reported it ready. A failure closes
+         * only this connection.
+         * @param key   Selected key of the connection
+         */
+        void serve(SelectionKey key) {
+            try {
+                if (key.isWritable()) {
+                    process();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+            } catch (RuntimeException e) {
+                close();
+            }
+        }
+
+        /**
+         * Process the frames that were waiting for room in the ring. A failure closes only this connection.
+         */
+        void retry() {
+            try {
+                process();
+            } catch (RuntimeException e) {
+                close();
+            }
+        }
+
+        void read() {
+            try {
+                if (channel.read(in) == -1) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+
+            process();
+        }
+
+        /**
+         * Decode all complete frames in the input buffer that fit in the ring, write their acks, and only keep reading
+         * when nothing holds back the next frame.
+         */
+        void process() {
+            boolean waitForRing = false;
+            in.flip();
+
+            while (in.remaining() >= LENGTH_SIZE) {
+                int length = in.getInt(in.position());
+
+                if (length < 0 || length > maxFrameBytes || length % RECORD_SIZE != 0) {
+                    close();
+                    return;
+                }
+
+                if (in.remaining() < LENGTH_SIZE + length || out.remaining() < ACK_SIZE) {
+                    break;
+                }
+
+                if (!ring.hasRoom(length / RECORD_SIZE)) {
+                    waitForRing = true;
+                    break;
+                }
+
+                in.position(in.position() + LENGTH_SIZE);
+                decodeFrame(length / RECORD_SIZE);
+            }
+
+            in.compact();
+            ring.publish();
+
+            try {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            } catch (IOException e) {
+                close();
+                return;
+            }
+
+            if (waitForRing) {
+                stalled.add(this);
+            }
+
+            boolean acksPending = out.position() != 0;
+            boolean readable = !waitForRing && out.remaining() >= ACK_SIZE;
+            key.interestOps((readable ? SelectionKey.OP_READ : 0) | (acksPending ? SelectionKey.OP_WRITE : 0));
+        }
+
+        private void decodeFrame(int records) {
+            long now = statisticsStore.millis();
+            int frameAccepted = 0;
+            int tooOld = 0;
+            int inFuture = 0;
+
+            for (int i = 0; i < records; i++) {
+                double amount = in.getDouble();
+                long timestamp = in.getLong();
+
+                if (statisticsStore.isTooOld(now, timestamp)) {
+                    tooOld++;
+                } else if (statisticsStore.isInFuture(now, timestamp)) {
+                    inFuture++;
+                } else {
+                    ring.put(amount, timestamp);
+                    frameAccepted++;
+                }
+            }
+
+            out.putInt(frameAccepted).putInt(tooOld).putInt(inFuture);
+
+            if (tooOld != 0 || inFuture != 0) {
+                statisticsStore.getMetrics().discarded(tooOld, inFuture);
+            }
+
+            frames++;
+            accepted += frameAccepted;
+            discarded += tooOld + inFuture;
+        }
+
+        void close() {
+            stalled.remove(this);
+            key.cancel();
+            TcpIngestServer.close(channel);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * Coarse clock that only moves when it is ticked: reading it returns the time of the source clock at the last tick,
+ * which costs a volatile read instead of a call into the source clock. It never moves backwards, even when the source
+ * clock does. Ticked by the StoreTicker in production, and by hand with a mocked source clock in tests.
+ */
+class TickingClock extends Clock {
+    private final Clock source;
+    private volatile long millis;
+
+    /**
+     * @param source    Clock to take the time from on every tick
+     */
+    TickingClock(Clock source) {
+        this.source = source;
+        this.millis = source.millis();
+    }
+
+    /**
+     * Advance the clock to the time of the source clock. Only called by one thread at a time.
+     * @return New time of the clock, in milliseconds
+     */
+    long tick() {
+        long now = Math.max(millis, source.millis());
+        millis = now;
+        return now;
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return source.getZone();
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(getZone()) ? this : new ZonedView(zone);
+    }
+
+    /**
+     * The time of this clock in another zone, which moves along with it on every tick.
+     */
+    private class ZonedView extends Clock {
+        private final ZoneId zone;
+
+        private ZonedView(ZoneId zone) {
+            this.zone = zone;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return TickingClock.this.withZone(zone);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_MILLIS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.floorToSecond;
+
+/**
+ * Hierarchical time wheel, serving windows of different lengths from one structure. The wheel consists of a number of
+ * levels, each a ring of buckets with its own resolution, e.g. 100 ms buckets covering the last second, 1 s buckets
+ * covering the last minute and 1 min buckets covering the last five minutes. Every level is a ring like the one of the
+ * PrimitiveBucketStorage: parallel primitive arrays tagged with the start timestamp of the bucket, reset when wrapping
+ * around.
+ *
+ * Transactions are written through to the current bucket of every level, so a coarser level always holds the roll-up
+ * of the finer ones without needing a background job to move data between levels. A transaction older than the span
+ * of a fine level is skipped on that level, so it never overwrites a newer bucket sharing its slot. A window is served
+ * from the finest level that still covers it, folding only the buckets of that level that start within the window.
+ * The cost of a read is therefore bounded by the number of buckets per level and doesn't grow with the length of the
+ * window, and memory stays constant.
+ *
+ * As with the flat storages, the start of the window is only as precise as the resolution of the level serving it. A
+ * level only holds its own buckets, so the part of a coarse bucket at the far edge of a window can't be taken from a
+ * finer level either: that level no longer reaches back that far. A window therefore has to be a multiple of the
+ * resolution of the level serving it, otherwise it is rejected rather than cut short by up to a whole coarse bucket.
+ * When percentiles are enabled, every level keeps a PercentileRing with a sketch next to each of its buckets, so the
+ * percentiles of a window are merged from the same buckets as its statistics.
+ */
+class TimeWheelBucketStorage implements BucketStorage {
+    private final Level[] levels;
+    private final ContendedLock lock = new ContendedLock();
+    // Only accessed while holding the lock
+    private long transactionCount;
+
+    /**
+     * @param levels    Comma separated "resolution:span" pairs in milliseconds, ordered from fine to coarse
+     */
+    TimeWheelBucketStorage(String levels) {
+        this(levels, false);
+    }
+
+    /**
+     * @param levels            Comma separated "resolution:span" pairs in milliseconds, ordered from fine to coarse
+     * @param keepPercentiles   Whether or not to keep a sketch next to every bucket to estimate percentiles from
+     */
+    TimeWheelBucketStorage(String levels, boolean keepPercentiles) {
+        String[] specs = levels.split(",");
+        this.levels = new Level[specs.length];
+
+        for (int i = 0; i < specs.length; i++) {
+            String[] parts = specs[i].trim().split(":");
+
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid time wheel level \"" + specs[i] + "\"");
+            }
+
+            this.levels[i] = new Level(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()),
+                    keepPercentiles);
+
+            if (i > 0 && this.levels[i].span <= this.levels[i - 1].span) {
+                throw new IllegalArgumentException("Time wheel levels must be ordered by increasing span");
+            }
+        }
+    }
+
+    @Override
+    public boolean add(double amount, long timestamp) {
+        lock.acquire();
+        try {
+            addUnsynchronized(amount, timestamp);
+        } finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    @Override
+    public int addAll(TransactionBatch batch) {
+        lock.acquire();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                addUnsynchronized(batch.getAmount(i), batch.getTimestamp(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return 0;
+    }
+
+    @Override
+    public Statistic getStatistic(long now, long windowMillis, QuantileSketch sketch) {
+        for (Level level : levels) {
+            if (level.span >= windowMillis) {
+                if (windowMillis % level.resolution != 0) {
+                    throw new IllegalArgumentException("Window of " + windowMillis + " ms is not a multiple of " +
+                            level.resolution + " ms, the resolution of the level serving it");
+                }
+
+                lock.acquire();
+                try {
+                    return level.getStatistic(now - windowMillis, sketch);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("Window of " + windowMillis + " ms exceeds the longest level of the wheel");
+    }
+
+    @Override
+    public long getResolutionMillis(long windowMillis) {
+        for (Level level : levels) {
+            if (level.span >= windowMillis) {
+                return level.resolution;
+            }
+        }
+
+        throw new IllegalArgumentException("Window of " + windowMillis + " ms exceeds the longest level of the wheel");
+    }
+
+    /**
+     * Export the buckets of the finest level covering the default window, or of the longest level when none does. They
+     * are floored to the second they start in, so buckets finer than a second are combined into seconds.
+     */
+    @Override
+    public void exportBuckets(BucketSnapshot snapshot, long windowStart) {
+        Level exported = levels[levels.length - 1];
+
+        for (Level level : levels) {
+            if (level.span >= WINDOW_SIZE_MILLIS) {
+                exported = level;
+                break;
+            }
+        }
+
+        lock.acquire();
+        try {
+            exported.exportBuckets(snapshot, windowStart);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTransactionCount() {
+        lock.acquire();
+        try {
+            return transactionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getBucketResets() {
+        lock.acquire();
+        try {
+            long bucketResets = 0;
+
+            for (Level level : levels) {
+                bucketResets += level.resets;
+            }
+
+            return bucketResets;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LatencyHistogram getLockWaits() {
+        return lock.getWaits();
+    }
+
+    private void addUnsynchronized(double amount, long timestamp) {
+        boolean added = false;
+
+        for (Level level : levels) {
+            added |= level.add(amount, timestamp);
+        }
+
+        // Only skipped when every level already moved past it, counted once however many levels took it
+        if (added) {
+            transactionCount++;
+        }
+    }
+
+    @Override
+    public long getWindowMillis() {
+        return levels[levels.length - 1].span;
+    }
+
+    /**
+     * One level of the wheel, a ring of buckets of a fixed resolution.
+     */
+    private static class Level {
+        private final long resolution;
+        private final long span;
+        private final double[] sum;
+        private final double[] min;
+        private final double[] max;
+        private final long[] count;
+        private final long[] bucketTimestamps;
+        private final PercentileRing percentiles;
+        // Only accessed while holding the lock of the storage
+        private long resets;
+
+        Level(long resolution, long span, boolean keepPercentiles) {
+            if (resolution <= 0 || span < resolution) {
+                throw new IllegalArgumentException("Invalid time wheel level " + resolution + ":" + span);
+            }
+
+            // One extra bucket, a window that starts exactly on a bucket boundary touches span / resolution + 1 buckets
+            int slots = (int) (span / resolution) + 1;
+
+            this.resolution = resolution;
+            this.span = span;
+            this.sum = new double[slots];
+            this.min = new double[slots];
+            this.max = new double[slots];
+            this.count = new long[slots];
+            this.bucketTimestamps = new long[slots];
+            this.percentiles = keepPercentiles ? new PercentileRing(slots) : null;
+        }
+
+        /**
+         * Add a transaction to its bucket on this level.
+         * @param amount    Amount of the transaction
+         * @param timestamp Timestamp of the transaction, in milliseconds
+         * @return Whether or not the transaction was added, false when the slot already holds a newer bucket
+         */
+        boolean add(double amount, long timestamp) {
+            int index = (int) ((timestamp / resolution) % count.length);
+            long bucketTimestamp = (timestamp / resolution) * resolution;
+
+            // The slot already holds a newer bucket, so the transaction lies beyond the span of this level
+            if (count[index] != 0 && bucketTimestamps[index] > bucketTimestamp) {
+                return false;
+            }
+
+            if (percentiles != null) {
+                percentiles.add(index, bucketTimestamp, amount);
+            }
+
+            if (count[index] == 0 || bucketTimestamps[index] != bucketTimestamp) {
+                if (count[index] != 0) {
+                    resets++;
+                }
+
+                bucketTimestamps[index] = bucketTimestamp;
+                sum[index] = amount;
+                min[index] = amount;
+                max[index] = amount;
+                count[index] = 1;
+                return true;
+            }
+
+            sum[index] += amount;
+            min[index] = Math.min(min[index], amount);
+            max[index] = Math.max(max[index], amount);
+            count[index]++;
+            return true;
+        }
+
+        void exportBuckets(BucketSnapshot snapshot, long windowStart) {
+            for (int i = 0; i < count.length; i++) {
+                if (count[i] != 0 && bucketTimestamps[i] >= windowStart) {
+                    snapshot.add(floorToSecond(bucketTimestamps[i]), sum[i], min[i], max[i], count[i]);
+                }
+            }
+        }
+
+        Statistic getStatistic(long windowStart, QuantileSketch sketch) {
+            long totalCount = 0;
+            double totalMax = Double.NEGATIVE_INFINITY;
+            double totalMin = Double.POSITIVE_INFINITY;
+            double totalSum = 0;
+
+            for (int i = 0; i < count.length; i++) {
+                if (count[i] == 0 || bucketTimestamps[i] < windowStart) {
+                    continue;
+                }
+
+                totalCount += count[i];
+                totalMax = Math.max(totalMax, max[i]);
+                totalMin = Math.min(totalMin, min[i]);
+                totalSum += sum[i];
+
+                if (sketch != null && percentiles != null) {
+                    percentiles.merge(i, bucketTimestamps[i], sketch);
+                }
+            }
+
+            if (totalCount != 0) {
+                return new Statistic(totalSum, totalSum / totalCount, totalMax, totalMin, totalCount);
+            } else {
+                return new Statistic();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package me.victorjacobs.transactionstatistics.service;
+
+/**
+ * Format of the files of transactions read by the BackfillAggregator.
+ */
+public enum TransactionFileFormat {
+    /**
+     * A line per transaction holding the amount and the timestamp in milliseconds, separated by a comma. Any further
+     * columns are ignored, and so are lines that aren't a transaction, like a header.
+     */
+    CSV,
+    /**
+     * Records of 16 bytes, the amount as a double followed by the timestamp as a long, both little-endian. The same
+     * records as the packed binary bodies of POST /transactions.
+     */
+    PACKED
+}
@@ -0,0 +1,615 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the transactions accepted by the StatisticsStore, from which the store is rebuilt on startup.
+ *
+ * The log is a directory of append-only segments. Every segment starts with a header of 16 bytes: magic number and
+ * layout version as ints, followed by the time the segment was created as a long. After that come records of 20 bytes:
+ * timestamp as a long, amount as a double and the CRC32 of both as an int, all little-endian. Segments are named after
+ * the time they were created, once a segment reaches the configured size the log continues in a new one.
+ *
+ * Appends are collected in a buffer. How they reach the disk depends on the durability:
+ *  - NONE: a background flusher writes the buffer out every flush interval, without forcing it to disk,
+ *  - BATCHED: the flusher writes out and forces whatever is in the buffer, while appends wait for their records to be
+ *    forced. Appends coming in while the flusher is busy end up in the next force, so concurrent appends share one
+ *    force (group commit) and the number of forces doesn't grow with the number of appends,
+ *  - PER_REQUEST: every append writes out and forces the buffer itself while holding the lock.
+ * When the buffer is full, appends wait until the flusher has taken it.
+ *
+ * All records in a segment were appended before the next segment was created, and transactions are only accepted
+ * within the window. So once the next segment is older than the window, none of the transactions in a segment can be
+ * in the window anymore: such segments are deleted in the background and skipped on replay. A record that was only
+ * partly written when the application stopped fails its checksum, replaying a segment stops there.
+ */
+@Service
+public class TransactionLog {
+    static final int MAGIC = 0x5458574C;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 20;
+
+    private static final String SUFFIX = ".log";
+    private static final int REPLAY_BATCH_SIZE = 65536;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final Durability durability;
+    private final long segmentBytes;
+    private final int bufferBytes;
+    private final long flushIntervalMillis;
+    private final long cleanupIntervalMillis;
+    private final Clock clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataAvailable = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    // Only accessed while holding the lock
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending;
+    private long appendedRecords;
+    private long writtenRecords;
+    private IOException failure;
+    private boolean open;
+    private boolean closing;
+
+    // Only accessed by the flusher, or while holding the lock when the durability is PER_REQUEST
+    private ByteBuffer writing;
+    private FileChannel channel;
+    private long segmentSize;
+    private long segmentCreated;
+
+    private volatile Path activeSegment;
+    private volatile long syncs;
+    private Thread flusher;
+    private ScheduledExecutorService cleaner;
+
+    @Autowired
+    public TransactionLog(LogProperties properties) {
+        this(Clock.systemUTC(), properties);
+    }
+
+    TransactionLog(Clock clock, LogProperties properties) {
+        if (properties.getBufferBytes() < RECORD_SIZE) {
+            throw new IllegalArgumentException("Buffer must hold at least one record of " + RECORD_SIZE + " bytes");
+        }
+
+        this.clock = clock;
+        this.enabled = properties.isEnabled();
+        this.directory = Paths.get(properties.getDirectory());
+        this.durability = properties.getDurability();
+        this.segmentBytes = properties.getSegmentBytes();
+        this.bufferBytes = properties.getBufferBytes() / RECORD_SIZE * RECORD_SIZE;
+        this.flushIntervalMillis = properties.getFlushIntervalMillis();
+        this.cleanupIntervalMillis = properties.getCleanupIntervalMillis();
+    }
+
+    /**
+     * Whether or not the store should write to this log, as configured.
+     * @return Whether or not the log is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Read back the transactions in the log with a timestamp in given range, skipping the segments that can't hold any.
+     * Meant to be called before the log is opened, a new segment is started on opening so the segments read here are
+     * never written to again.
+     * @param from      Lower bound of the timestamps, inclusive, in milliseconds
+     * @param to        Upper bound of the timestamps, inclusive, in milliseconds
+     * @param consumer  Receives the transactions in batches, a batch is reused after the consumer returns
+     */
+    public void replay(long from, long to, Consumer<TransactionBatch> consumer) {
+        List<Segment> segments = listSegments();
+        TransactionBatch batch = new TransactionBatch(REPLAY_BATCH_SIZE);
+
+        for (int i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && segments.get(i + 1).created < from) {
+                continue;
+            }
+
+            replaySegment(segments.get(i).path, from, to, batch, consumer);
+        }
+
+        if (batch.size() != 0) {
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * Start a new segment and the background threads, after which transactions can be appended.
+     * @param retentionMillis   How long transactions are kept, segments are deleted once they only hold older ones
+     */
+    public void open(long retentionMillis) {
+        lock.lock();
+        try {
+            if (open || closing) {
+                throw new IllegalStateException("Transaction log was already opened");
+            }
+
+            Files.createDirectories(directory);
+            pending = ByteBuffer.allocate(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+            writing = ByteBuffer.allocate(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+            startSegment();
+            open = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open transaction log in " + directory, e);
+        } finally {
+            lock.unlock();
+        }
+
+        if (durability != Durability.PER_REQUEST) {
+            flusher = new Thread(this::flush, "log-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(() -> deleteSegments(clock.millis() - retentionMillis),
+                cleanupIntervalMillis, cleanupIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append a transaction, returns once it's as durable as configured.
+     * @param amount    Amount of the transaction
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     * @throws UncheckedIOException When writing to the log failed, the log accepts no appends after that
+     */
+    public void append(double amount, long timestamp) {
+        lock.lock();
+        try {
+            boolean wasEmpty = reserve();
+            putRecord(amount, timestamp);
+            commit(wasEmpty);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append all transactions in a batch, returns once all of them are as durable as configured.
+     * @param batch Transactions to append
+     * @throws UncheckedIOException When writing to the log failed, the log accepts no appends after that
+     */
+    public void appendAll(TransactionBatch batch) {
+        if (batch.size() == 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            boolean wasEmpty = false;
+
+            for (int i = 0; i < batch.size(); i++) {
+                wasEmpty |= reserve();
+                putRecord(batch.getAmount(i), batch.getTimestamp(i));
+            }
+
+            commit(wasEmpty);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of records appended since the log was opened.
+     * @return Number of records
+     */
+    public long getAppended() {
+        lock.lock();
+        try {
+            return appendedRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of times the log was forced to disk since it was opened.
+     * @return Number of forces
+     */
+    public long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * Write out everything that was appended, stop the background threads and close the segment. Appends fail after
+     * this.
+     */
+    @PreDestroy
+    public void close() {
+        lock.lock();
+        try {
+            if (!open) {
+                return;
+            }
+
+            closing = true;
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        cleaner.shutdownNow();
+
+        lock.lock();
+        try {
+            open = false;
+            written.signalAll();
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close transaction log segment " + activeSegment, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete the segments that only hold transactions appended before given time, never the one being written to.
+     * @param before    Time before which the transactions are no longer needed, in milliseconds
+     * @return Number of deleted segments
+     */
+    int deleteSegments(long before) {
+        List<Segment> segments = listSegments();
+        int deleted = 0;
+
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            Segment segment = segments.get(i);
+
+            if (segments.get(i + 1).created >= before || segment.path.equals(activeSegment)) {
+                break;
+            }
+
+            try {
+                Files.deleteIfExists(segment.path);
+                deleted++;
+            } catch (IOException e) {
+                // Tried again on the next run
+                break;
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Wait until the buffer has room for another record.
+     * @return Whether or not the buffer was empty, so the flusher might have to be woken up
+     */
+    private boolean reserve() {
+        checkOpen();
+
+        while (pending.remaining() < RECORD_SIZE) {
+            if (durability == Durability.PER_REQUEST) {
+                writePending();
+            } else {
+                dataAvailable.signal();
+                written.awaitUninterruptibly();
+                checkOpen();
+            }
+        }
+
+        return pending.position() == 0;
+    }
+
+    private void putRecord(double amount, long timestamp) {
+        int start = pending.position();
+
+        pending.putLong(timestamp);
+        pending.putDouble(amount);
+        pending.putInt(checksum(crc, pending, start));
+        appendedRecords++;
+    }
+
+    /**
+     * Make the records appended so far as durable as configured.
+     * @param wasEmpty  Whether or not the buffer was empty before these records
+     */
+    private void commit(boolean wasEmpty) {
+        switch (durability) {
+            case NONE:
+                if (wasEmpty) {
+                    dataAvailable.signal();
+                }
+                break;
+            case BATCHED:
+                long records = appendedRecords;
+                dataAvailable.signal();
+
+                // Records appended before closing are still written out by the flusher
+                while (writtenRecords < records) {
+                    checkWritable();
+                    written.awaitUninterruptibly();
+                }
+                break;
+            case PER_REQUEST:
+                writePending();
+                sync();
+                writtenRecords = appendedRecords;
+                break;
+        }
+    }
+
+    private void writePending() {
+        try {
+            pending.flip();
+            write(pending);
+            pending.clear();
+        } catch (IOException e) {
+            failure = e;
+            checkOpen();
+        }
+    }
+
+    private void sync() {
+        try {
+            channel.force(false);
+            syncs++;
+        } catch (IOException e) {
+            failure = e;
+            checkOpen();
+        }
+    }
+
+    private void checkOpen() {
+        checkWritable();
+
+        if (closing) {
+            throw new IllegalStateException("Transaction log is not open");
+        }
+    }
+
+    private void checkWritable() {
+        if (failure != null) {
+            throw new UncheckedIOException("Transaction log failed", failure);
+        }
+
+        if (!open) {
+            throw new IllegalStateException("Transaction log is not open");
+        }
+    }
+
+    /**
+     * Loop of the flusher: take the buffer once appends are waiting in it and write it out, forced when the durability
+     * is BATCHED. Stops once the log is closing and everything is written out.
+     */
+    private void flush() {
+        while (true) {
+            long records;
+
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !closing) {
+                    dataAvailable.awaitUninterruptibly();
+                }
+
+                if (durability == Durability.NONE && !closing) {
+                    // Collect appends for the rest of the interval, woken early when the buffer fills up
+                    dataAvailable.awaitNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+                }
+
+                if (pending.position() == 0) {
+                    return;
+                }
+
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                records = appendedRecords;
+                written.signalAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                writing.flip();
+                write(writing);
+                writing.clear();
+
+                if (durability == Durability.BATCHED) {
+                    channel.force(false);
+                    syncs++;
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            lock.lock();
+            try {
+                writtenRecords = records;
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        if (segmentSize > HEADER_SIZE && segmentSize + buffer.remaining() > segmentBytes) {
+            startSegment();
+        }
+
+        while (buffer.hasRemaining()) {
+            segmentSize += channel.write(buffer);
+        }
+    }
+
+    /**
+     * Close the current segment, if any, and continue in a new one. Segments are created at least a millisecond apart,
+     * so their names are unique and sort in the order they were created.
+     */
+    private void startSegment() throws IOException {
+        if (channel != null) {
+            if (durability != Durability.NONE) {
+                channel.force(false);
+            }
+            channel.close();
+        }
+
+        long created = Math.max(clock.millis(), segmentCreated + 1);
+        for (Segment segment : listSegments()) {
+            created = Math.max(created, segment.created + 1);
+        }
+
+        Path path = directory.resolve(String.format("%020d%s", created, SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(created).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+
+        segmentSize = HEADER_SIZE;
+        segmentCreated = created;
+        activeSegment = path;
+    }
+
+    private List<Segment> listSegments() {
+        List<Segment> segments = new ArrayList<>();
+
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.forEach(path -> {
+                String name = path.getFileName().toString();
+
+                if (name.endsWith(SUFFIX)) {
+                    try {
+                        long created = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                        segments.add(new Segment(path, created));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list transaction log segments in " + directory, e);
+        }
+
+        segments.sort(Comparator.comparingLong(segment -> segment.created));
+        return segments;
+    }
+
+    private static void replaySegment(Path path, long from, long to, TransactionBatch batch,
+                                      Consumer<TransactionBatch> consumer) {
+        CRC32 crc = new CRC32();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096 * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            while (buffer.position() < HEADER_SIZE && channel.read(buffer) != -1) {
+                // Read until the header is complete
+            }
+
+            buffer.flip();
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return;
+            }
+            buffer.getLong();
+            buffer.compact();
+
+            while (channel.read(buffer) != -1 || buffer.position() != 0) {
+                buffer.flip();
+
+                if (buffer.remaining() < RECORD_SIZE) {
+                    // Partly written record at the end of the segment
+                    return;
+                }
+
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    int start = buffer.position();
+                    long timestamp = buffer.getLong();
+                    double amount = buffer.getDouble();
+
+                    if (buffer.getInt() != checksum(crc, buffer, start)) {
+                        return;
+                    }
+
+                    if (timestamp >= from && timestamp <= to) {
+                        batch.add(amount, timestamp);
+
+                        if (batch.size() == REPLAY_BATCH_SIZE) {
+                            consumer.accept(batch);
+                            batch.clear();
+                        }
+                    }
+                }
+
+                buffer.compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not replay transaction log segment " + path, e);
+        }
+    }
+
+    /**
+     * CRC32 of the timestamp and amount of the record starting at given position of a heap buffer.
+     */
+    private static int checksum(CRC32 crc, ByteBuffer buffer, int start) {
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, RECORD_SIZE - 4);
+        return (int) crc.getValue();
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final long created;
+
+        Segment(Path path, long created) {
+            this.path = path;
+            this.created = created;
+        }
+    }
+}
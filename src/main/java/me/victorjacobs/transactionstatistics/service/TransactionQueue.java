@@ -0,0 +1,124 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free queue of transactions from any number of producer threads to any number of consumers. Like the
+ * TransactionRing, amounts and timestamps are kept in preallocated primitive arrays, so queueing allocates nothing.
+ *
+ * Every slot has a sequence number telling whose turn it is: a slot can be written for position P when its sequence is
+ * P, and read when it is P + 1, after which the reader sets it to P + capacity for the next lap. Producers and
+ * consumers claim a position by a CAS on the enqueue or dequeue index, then write or read the slot and hand it over by
+ * setting its sequence. Since the arrays are written before the ordered write of the sequence and read after reading
+ * it, a consumer always sees a complete transaction. Supporting several consumers lets producers drop the oldest
+ * transaction themselves when the queue is full.
+ */
+class TransactionQueue {
+    private final double[] amounts;
+    private final long[] timestamps;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong enqueueIndex = new AtomicLong();
+    private final AtomicLong dequeueIndex = new AtomicLong();
+
+    /**
+     * @param capacity  Number of transactions the queue holds, a power of two
+     */
+    TransactionQueue(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity of the queue must be a power of two, got " + capacity);
+        }
+
+        this.amounts = new double[capacity];
+        this.timestamps = new long[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Add a transaction to the queue, unless it is full.
+     * @param amount    Amount of the transaction
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     * @return Whether or not the transaction was added
+     */
+    boolean offer(double amount, long timestamp) {
+        long position = enqueueIndex.get();
+
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (enqueueIndex.compareAndSet(position, position + 1)) {
+                    amounts[index] = amount;
+                    timestamps[index] = timestamp;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = enqueueIndex.get();
+            } else if (difference < 0) {
+                // The slot still holds the transaction of the previous lap
+                return false;
+            } else {
+                position = enqueueIndex.get();
+            }
+        }
+    }
+
+    /**
+     * Move transactions from the head of the queue into a batch.
+     * @param batch Batch to add the transactions to, null to drop them
+     * @param max   Maximum number of transactions to move
+     * @return Number of transactions moved
+     */
+    int drainTo(TransactionBatch batch, int max) {
+        int count = 0;
+        long position = dequeueIndex.get();
+
+        while (count < max) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+
+            if (difference == 0) {
+                if (dequeueIndex.compareAndSet(position, position + 1)) {
+                    if (batch != null) {
+                        batch.add(amounts[index], timestamps[index]);
+                    }
+                    sequences.lazySet(index, position + mask + 1);
+                    count++;
+                    position++;
+                } else {
+                    position = dequeueIndex.get();
+                }
+            } else if (difference < 0) {
+                // Nothing was written to the slot yet
+                return count;
+            } else {
+                position = dequeueIndex.get();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Number of transactions in the queue, including the ones being written or read.
+     * @return Number of transactions in the queue
+     */
+    int size() {
+        long dequeued = dequeueIndex.get();
+        return (int) Math.max(0, Math.min(enqueueIndex.get() - dequeued, capacity()));
+    }
+}
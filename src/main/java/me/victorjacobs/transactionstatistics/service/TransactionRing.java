@@ -0,0 +1,105 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated ring of transactions passed from a single producer thread to a single consumer thread. Amounts and
+ * timestamps are kept in parallel primitive arrays, so passing a transaction through the ring allocates nothing.
+ *
+ * Head and tail only ever increase and are masked to find the slot. The producer writes transactions after the tail
+ * and then publishes them by advancing the tail, the consumer reads from the head and releases the slots by advancing
+ * the head. Each index is written by one thread only, so an ordered write of the index is enough to make the slots
+ * before it visible to the other thread. The producer caches the head and only reads it again when the ring looks full.
+ */
+class TransactionRing {
+    private final double[] amounts;
+    private final long[] timestamps;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // Only accessed by the producer
+    private long producerTail;
+    private long cachedHead;
+
+    /**
+     * @param capacity  Number of transactions the ring holds, a power of two
+     */
+    TransactionRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity of the ring must be a power of two, got " + capacity);
+        }
+
+        this.amounts = new double[capacity];
+        this.timestamps = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Whether or not the given number of transactions fit in the ring, called by the producer.
+     * @param count Number of transactions to put
+     * @return Whether or not they fit
+     */
+    boolean hasRoom(int count) {
+        if (producerTail + count - cachedHead <= capacity()) {
+            return true;
+        }
+
+        cachedHead = head.get();
+        return producerTail + count - cachedHead <= capacity();
+    }
+
+    /**
+     * Write a transaction after the tail, called by the producer after checking there is room. Not visible to the
+     * consumer until published.
+     * @param amount    Amount of the transaction
+     * @param timestamp Timestamp of the transaction, in milliseconds
+     */
+    void put(double amount, long timestamp) {
+        int index = (int) producerTail & mask;
+
+        amounts[index] = amount;
+        timestamps[index] = timestamp;
+        producerTail++;
+    }
+
+    /**
+     * Make all transactions put so far visible to the consumer.
+     */
+    void publish() {
+        tail.lazySet(producerTail);
+    }
+
+    /**
+     * Move published transactions into a batch and release their slots, called by the consumer.
+     * @param batch Batch to add the transactions to
+     * @param max   Maximum number of transactions to move
+     * @return Number of transactions moved
+     */
+    int drainTo(TransactionBatch batch, int max) {
+        long current = head.get();
+        int count = (int) Math.min(tail.get() - current, max);
+
+        for (int i = 0; i < count; i++) {
+            int index = (int) (current + i) & mask;
+            batch.add(amounts[index], timestamps[index]);
+        }
+
+        head.lazySet(current + count);
+        return count;
+    }
+
+    /**
+     * Number of published transactions not yet drained.
+     * @return Number of transactions in the ring
+     */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+}
@@ -0,0 +1,71 @@
+package me.victorjacobs.transactionstatistics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackfillApplicationTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void run_windows() throws Exception {
+        File input = folder.newFile("transactions.csv");
+        Files.write(input.toPath(), ("amount,timestamp\n10,1478192204000\n4,1478192205500\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        File output = new File(folder.getRoot(), "windows.csv");
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+
+        BackfillApplication.run(new String[]{"--window-seconds=2", "--output=" + output, input.toString()},
+                new PrintStream(summary, true, "UTF-8"));
+
+        assertEquals(Arrays.asList(BackfillApplication.HEADER,
+                "1478192204000,10.0,10.0,10.0,10.0,1",
+                "1478192205000,14.0,7.0,10.0,4.0,2",
+                "1478192206000,4.0,4.0,4.0,4.0,1"), Files.readAllLines(output.toPath()));
+        assertTrue(summary.toString("UTF-8").startsWith("Aggregated 2 transactions"));
+        assertTrue(summary.toString("UTF-8").contains("skipped 1 lines"));
+    }
+
+    @Test
+    public void run_bucketsOfPackedFile() throws Exception {
+        File input = folder.newFile("transactions.bin");
+        ByteBuffer buffer = ByteBuffer.allocate(48).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putDouble(10.0).putLong(1478192204000L).putDouble(4.0).putLong(1478192204999L)
+                .putDouble(1.5).putLong(1478192300000L);
+        Files.write(input.toPath(), buffer.array());
+        File output = new File(folder.getRoot(), "buckets.csv");
+
+        BackfillApplication.run(new String[]{"--buckets=true", "--threads=2", "--output=" + output,
+                input.toString()}, new PrintStream(new ByteArrayOutputStream()));
+
+        List<String> lines = Files.readAllLines(output.toPath());
+        assertEquals(Arrays.asList(BackfillApplication.HEADER,
+                "1478192204000,14.0,7.0,10.0,4.0,2",
+                "1478192300000,1.5,1.5,1.5,1.5,1"), lines);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void run_noFiles() throws Exception {
+        BackfillApplication.run(new String[]{"--threads=2"}, new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void run_invalidOption() throws Exception {
+        BackfillApplication.run(new String[]{"--format=json", "transactions.json"},
+                new PrintStream(new ByteArrayOutputStream()));
+    }
+}
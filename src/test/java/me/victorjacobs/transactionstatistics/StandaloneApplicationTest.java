@@ -0,0 +1,62 @@
+package me.victorjacobs.transactionstatistics;
+
+import me.victorjacobs.transactionstatistics.service.Durability;
+import me.victorjacobs.transactionstatistics.service.LogProperties;
+import me.victorjacobs.transactionstatistics.service.StorageMode;
+import me.victorjacobs.transactionstatistics.service.StoreProperties;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StandaloneApplicationTest {
+    @Test
+    public void loadProperties_argumentsOverrideApplicationProperties() throws Exception {
+        Properties properties = StandaloneApplication.loadProperties(new String[]{
+                "--statistics.store.mode=ROLLING", "--server.port=9090"});
+
+        assertEquals("ROLLING", properties.getProperty("statistics.store.mode"));
+        assertEquals("9090", properties.getProperty("server.port"));
+        // From application.properties
+        assertEquals("100000", properties.getProperty("statistics.keyed.max-keys"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void loadProperties_invalidArgument() throws Exception {
+        StandaloneApplication.loadProperties(new String[]{"statistics.store.mode"});
+    }
+
+    @Test
+    public void bind_relaxedNames() {
+        Properties properties = new Properties();
+        properties.setProperty("statistics.store.mode", "time-wheel");
+        properties.setProperty("statistics.store.wheel-levels", "100:1000,1000:60000");
+        properties.setProperty("statistics.store.tickerEnabled", "true");
+        properties.setProperty("statistics.store.tick_millis", "5");
+        properties.setProperty("statistics.store.percentiles", "50, 99.9");
+        properties.setProperty("statistics.store.unknown", "ignored");
+        properties.setProperty("statistics.log.durability", "per_request");
+
+        StoreProperties storeProperties = StandaloneApplication.bind(new StoreProperties(), "statistics.store",
+                properties);
+        LogProperties logProperties = StandaloneApplication.bind(new LogProperties(), "statistics.log", properties);
+
+        assertEquals(StorageMode.TIME_WHEEL, storeProperties.getMode());
+        assertEquals("100:1000,1000:60000", storeProperties.getWheelLevels());
+        assertTrue(storeProperties.isTickerEnabled());
+        assertEquals(5, storeProperties.getTickMillis());
+        assertEquals(Arrays.asList(50.0, 99.9), storeProperties.getPercentiles());
+        assertEquals(Durability.PER_REQUEST, logProperties.getDurability());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bind_invalidValue() {
+        Properties properties = new Properties();
+        properties.setProperty("statistics.store.tick-millis", "often");
+
+        StandaloneApplication.bind(new StoreProperties(), "statistics.store", properties);
+    }
+}
@@ -0,0 +1,114 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import me.victorjacobs.transactionstatistics.service.AsyncIngester;
+import me.victorjacobs.transactionstatistics.service.KeyedStatisticsStore;
+import me.victorjacobs.transactionstatistics.service.LatencyHistogram;
+import me.victorjacobs.transactionstatistics.service.StatisticsBroadcaster;
+import me.victorjacobs.transactionstatistics.service.StatisticsStore;
+import me.victorjacobs.transactionstatistics.service.StoreMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standaloneSetup;
+
+public class MetricsControllerTest {
+    private MockMvc mockMvc;
+    private StoreMetrics metrics;
+    private AsyncIngester asyncIngester;
+
+    @Before
+    public void setup() {
+        StatisticsStore statisticsStore = mock(StatisticsStore.class);
+        KeyedStatisticsStore keyedStatisticsStore = mock(KeyedStatisticsStore.class);
+        StatisticsBroadcaster statisticsBroadcaster = mock(StatisticsBroadcaster.class);
+        metrics = mock(StoreMetrics.class);
+        asyncIngester = mock(AsyncIngester.class);
+        LatencyHistogram addLatencies = new LatencyHistogram();
+        addLatencies.record(1500);
+        addLatencies.record(2500);
+
+        when(statisticsStore.getMetrics()).thenReturn(metrics);
+        when(metrics.getAccepted()).thenReturn(12L);
+        when(metrics.getTooOld()).thenReturn(3L);
+        when(metrics.getInFuture()).thenReturn(1L);
+        when(metrics.getBucketResets()).thenReturn(7L);
+        when(metrics.getAmountOverflows()).thenReturn(2L);
+        when(metrics.getAddLatencies()).thenReturn(addLatencies);
+        when(metrics.getGetStatisticLatencies()).thenReturn(new LatencyHistogram());
+        when(keyedStatisticsStore.size()).thenReturn(2);
+        when(statisticsBroadcaster.getSubscriberCount()).thenReturn(1);
+
+        MetricsInterceptor metricsInterceptor = new MetricsInterceptor();
+        mockMvc = standaloneSetup(new MetricsController(statisticsStore, keyedStatisticsStore, statisticsBroadcaster,
+                metricsInterceptor, asyncIngester)).addInterceptors(metricsInterceptor).build();
+    }
+
+    @Test
+    public void getMetrics() throws Exception {
+        mockMvc.perform(get("/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("text/plain"))
+                .andExpect(content().string(containsString(
+                        "# TYPE transaction_statistics_transactions_total counter\n" +
+                        "transaction_statistics_transactions_total{result=\"accepted\"} 12\n" +
+                        "transaction_statistics_transactions_total{result=\"too_old\"} 3\n" +
+                        "transaction_statistics_transactions_total{result=\"in_future\"} 1\n")))
+                .andExpect(content().string(containsString(
+                        "transaction_statistics_store_operation_seconds_bucket{operation=\"add\",le=\"1.0E-6\"} 0\n" +
+                        "transaction_statistics_store_operation_seconds_bucket{operation=\"add\",le=\"2.0E-6\"} 1\n" +
+                        "transaction_statistics_store_operation_seconds_bucket{operation=\"add\",le=\"5.0E-6\"} 2\n")))
+                .andExpect(content().string(containsString(
+                        "transaction_statistics_store_operation_seconds_bucket{operation=\"add\",le=\"+Inf\"} 2\n" +
+                        "transaction_statistics_store_operation_seconds_sum{operation=\"add\"} 4.0E-6\n" +
+                        "transaction_statistics_store_operation_seconds_count{operation=\"add\"} 2\n")))
+                .andExpect(content().string(containsString("transaction_statistics_bucket_resets_total 7\n")))
+                .andExpect(content().string(containsString("transaction_statistics_amount_overflows_total 2\n")))
+                .andExpect(content().string(containsString("transaction_statistics_keyed_keys 2\n")))
+                .andExpect(content().string(containsString("transaction_statistics_stream_subscribers 1\n")))
+                .andExpect(content().string(not(containsString("store_lock_wait_seconds"))))
+                .andExpect(content().string(not(containsString("async_queue_depth"))));
+    }
+
+    @Test
+    public void getMetrics_async() throws Exception {
+        when(asyncIngester.isEnabled()).thenReturn(true);
+        when(asyncIngester.getQueueDepth()).thenReturn(42);
+        when(asyncIngester.getQueueCapacity()).thenReturn(1024);
+        when(asyncIngester.getRejected()).thenReturn(5L);
+        when(asyncIngester.getDropped()).thenReturn(0L);
+        when(asyncIngester.getFailed()).thenReturn(3L);
+
+        mockMvc.perform(get("/metrics"))
+                .andExpect(content().string(containsString("transaction_statistics_async_queue_depth 42\n")))
+                .andExpect(content().string(containsString("transaction_statistics_async_queue_capacity 1024\n")))
+                .andExpect(content().string(containsString(
+                        "transaction_statistics_async_shed_total{result=\"rejected\"} 5\n" +
+                        "transaction_statistics_async_shed_total{result=\"dropped\"} 0\n")))
+                .andExpect(content().string(containsString("transaction_statistics_async_failed_total 3\n")));
+    }
+
+    @Test
+    public void getMetrics_lockWaitsAndRequests() throws Exception {
+        LatencyHistogram lockWaits = new LatencyHistogram();
+        lockWaits.record(20000);
+        when(metrics.getLockWaits()).thenReturn(lockWaits);
+
+        mockMvc.perform(get("/metrics"));
+
+        mockMvc.perform(get("/metrics"))
+                .andExpect(content().string(containsString(
+                        "transaction_statistics_store_lock_wait_seconds_bucket{le=\"2.0E-5\"} 1\n")))
+                .andExpect(content().string(containsString(
+                        "transaction_statistics_store_lock_wait_seconds_count 1\n")))
+                .andExpect(content().string(containsString(
+                        "transaction_statistics_http_request_seconds_count{handler=\"getMetrics\"} 1\n")));
+    }
+}
@@ -0,0 +1,55 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.victorjacobs.transactionstatistics.model.BatchResult;
+import me.victorjacobs.transactionstatistics.model.QuantileSketch;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The ResponseWriter has to write exactly what the ObjectMapper writes for the Spring controllers.
+ */
+public class ResponseWriterTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void write_statistic() throws Exception {
+        assertSameAsObjectMapper(new Statistic());
+        assertSameAsObjectMapper(new Statistic(14.0, 7.0, 10.0, 4.0, 2));
+        assertSameAsObjectMapper(new Statistic(0.1 + 0.2, 1e-7, 1e21, -3.5, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void write_statisticWithPercentiles() throws Exception {
+        QuantileSketch sketch = new QuantileSketch();
+
+        for (int i = 1; i <= 100; i++) {
+            sketch.add(i);
+        }
+
+        assertSameAsObjectMapper(new Statistic(5050.0, 50.5, 100.0, 1.0, 100)
+                .withPercentiles(sketch, Arrays.asList(50.0, 99.9)));
+    }
+
+    @Test
+    public void write_batchResult() throws Exception {
+        BatchResult result = new BatchResult(10, 2, 1);
+
+        assertEquals(objectMapper.writeValueAsString(result), new String(ResponseWriter.write(result), "UTF-8"));
+    }
+
+    @Test
+    public void write_batchResultRejectedAndTruncated() throws Exception {
+        BatchResult result = new BatchResult(10, 2, 1, 3, true);
+
+        assertEquals(objectMapper.writeValueAsString(result), new String(ResponseWriter.write(result), "UTF-8"));
+    }
+
+    private void assertSameAsObjectMapper(Statistic statistic) throws Exception {
+        assertEquals(objectMapper.writeValueAsString(statistic), new String(ResponseWriter.write(statistic), "UTF-8"));
+    }
+}
@@ -0,0 +1,248 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import me.victorjacobs.transactionstatistics.model.BatchResult;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import me.victorjacobs.transactionstatistics.service.StatisticsStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test the StandaloneServer over HTTP, against the responses of the TransactionController and StatisticsController.
+ */
+public class StandaloneServerTest {
+    private StatisticsStore statisticsStore;
+    private StandaloneServer server;
+
+    @Before
+    public void setup() throws IOException {
+        statisticsStore = mock(StatisticsStore.class);
+        when(statisticsStore.getStatistic()).thenReturn(new Statistic(14.0, 7.0, 10.0, 4.0, 2));
+        when(statisticsStore.getStatistic(10000)).thenReturn(new Statistic(10.0, 10.0, 10.0, 10.0, 1));
+        when(statisticsStore.getStatistic(600000)).thenThrow(new IllegalArgumentException());
+        when(statisticsStore.add(any(Transaction.class))).thenReturn(true);
+        when(statisticsStore.addAll(any(TransactionBatch.class))).thenAnswer(invocation ->
+                new BatchResult(((TransactionBatch) invocation.getArguments()[0]).size(), 0, 0));
+
+        server = new StandaloneServer(statisticsStore, 0, 2);
+        server.start();
+    }
+
+    @After
+    public void teardown() {
+        server.stop();
+    }
+
+    @Test
+    public void postTransaction() throws Exception {
+        HttpURLConnection connection = request("POST", "/transactions", "application/json",
+                "{\"amount\": 12.3, \"timestamp\": 1478192204000}");
+
+        assertEquals(201, connection.getResponseCode());
+        assertEquals("", read(connection));
+        verify(statisticsStore).add(new Transaction(12.3, 1478192204000L));
+    }
+
+    @Test
+    public void postTransaction_unusualBody() throws Exception {
+        HttpURLConnection connection = request("POST", "/transactions", "application/json;charset=UTF-8",
+                "{\"amount\": \"12.3\", \"timestamp\": 1478192204000, \"unknown\": true}");
+
+        assertEquals(201, connection.getResponseCode());
+        verify(statisticsStore).add(new Transaction(12.3, 1478192204000L));
+    }
+
+    @Test
+    public void postTransaction_amountRejected() throws Exception {
+        when(statisticsStore.add(any(Transaction.class))).thenReturn(false);
+
+        assertEquals(422, request("POST", "/transactions", "application/json",
+                "{\"amount\": 1e300, \"timestamp\": 1478192204000}").getResponseCode());
+    }
+
+    @Test
+    public void postTransaction_invalid() throws Exception {
+        assertEquals(400, request("POST", "/transactions", "application/json", "{\"amount\": ").getResponseCode());
+        assertEquals(400, request("POST", "/transactions", "application/json", "").getResponseCode());
+        assertEquals(415, request("POST", "/transactions", "text/plain", "12.3").getResponseCode());
+        verify(statisticsStore, never()).add(any(Transaction.class));
+    }
+
+    @Test
+    public void postTransaction_wrongMethodOrPath() throws Exception {
+        HttpURLConnection connection = get("/transactions");
+
+        assertEquals(405, connection.getResponseCode());
+        assertEquals("POST", connection.getHeaderField("Allow"));
+        assertEquals(404, request("POST", "/transactionsfoo", "application/json", "{}").getResponseCode());
+    }
+
+    @Test
+    public void postTransactions_batch() throws Exception {
+        HttpURLConnection connection = request("POST", "/transactions/batch", "application/json",
+                "[{\"amount\": 12.3, \"timestamp\": 1478192204000}, {\"amount\": 4.0, \"timestamp\": 1478192205000}]");
+
+        assertEquals(201, connection.getResponseCode());
+        assertEquals("application/json;charset=UTF-8", connection.getContentType());
+        assertEquals("{\"accepted\":2,\"tooOld\":0,\"inFuture\":0}", read(connection));
+    }
+
+    @Test
+    public void postTransactions_packed() throws Exception {
+        ByteBuffer body = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        body.putDouble(12.3).putLong(1478192204000L).putDouble(4.0).putLong(1478192205000L);
+
+        HttpURLConnection connection = request("POST", "/transactions", "application/octet-stream", body.array());
+
+        assertEquals(201, connection.getResponseCode());
+        assertEquals("{\"accepted\":2,\"tooOld\":0,\"inFuture\":0}", read(connection));
+
+        // Truncated in the middle of a record, rejected before anything is added
+        assertEquals(400, request("POST", "/transactions", "application/octet-stream", new byte[20])
+                .getResponseCode());
+        verify(statisticsStore).addAll(any(TransactionBatch.class));
+    }
+
+    @Test
+    public void postTransactions_deltasTruncatedAfterChunk() throws Exception {
+        int records = BinaryBatchReader.CHUNK_SIZE + 10;
+        ByteBuffer body = ByteBuffer.allocate(records * 9 + 9).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < records; i++) {
+            body.putDouble(i).put((byte) 0x02);
+        }
+        body.putDouble(0).put((byte) 0x80);
+
+        HttpURLConnection connection = request("POST", "/transactions", TransactionController.DELTAS_CONTENT_TYPE,
+                body.array());
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("{\"accepted\":" + records + ",\"tooOld\":0,\"inFuture\":0,\"truncated\":true}",
+                read(connection));
+    }
+
+    @Test
+    public void getStatistics() throws Exception {
+        HttpURLConnection connection = get("/statistics");
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("application/json;charset=UTF-8", connection.getContentType());
+        assertNotNull(connection.getHeaderField("ETag"));
+        assertEquals("{\"sum\":14.0,\"avg\":7.0,\"max\":10.0,\"min\":4.0,\"count\":2}", read(connection));
+    }
+
+    @Test
+    public void getStatistics_eTag() throws Exception {
+        String eTag = get("/statistics").getHeaderField("ETag");
+
+        HttpURLConnection connection = get("/statistics", "If-None-Match", eTag);
+        assertEquals(304, connection.getResponseCode());
+        assertEquals(eTag, connection.getHeaderField("ETag"));
+
+        assertEquals(304, get("/statistics", "If-None-Match", "\"other\", W/" + eTag)
+                .getResponseCode());
+        assertEquals(200, get("/statistics", "If-None-Match", "\"other\"")
+                .getResponseCode());
+
+        // A newer version of the statistics
+        when(statisticsStore.getVersion()).thenReturn(1L);
+        connection = get("/statistics", "If-None-Match", eTag);
+        assertEquals(200, connection.getResponseCode());
+        assertNotEquals(eTag, connection.getHeaderField("ETag"));
+    }
+
+    @Test
+    public void getStatistics_window() throws Exception {
+        HttpURLConnection connection = get("/statistics?window=10s");
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("{\"sum\":10.0,\"avg\":10.0,\"max\":10.0,\"min\":10.0,\"count\":1}", read(connection));
+        assertEquals(400, get("/statistics?window=10d").getResponseCode());
+        assertEquals(400, get("/statistics?window=10m").getResponseCode());
+    }
+
+    @Test
+    public void getStatistics_range() throws Exception {
+        // No history is kept
+        assertEquals(404, get("/statistics?from=1000").getResponseCode());
+        assertEquals(400, get("/statistics?to=1000").getResponseCode());
+        assertEquals(400, get("/statistics?from=abc").getResponseCode());
+    }
+
+    @Test
+    public void getStatistics_otherEndpoints() throws Exception {
+        assertEquals(404, get("/statistics/merchant").getResponseCode());
+        assertEquals(405, request("POST", "/statistics", "application/json", "{}").getResponseCode());
+    }
+
+    private HttpURLConnection get(String path, String... headers) throws IOException {
+        return request("GET", path, null, (byte[]) null, headers);
+    }
+
+    private HttpURLConnection request(String method, String path, String contentType, String body,
+                                      String... headers) throws IOException {
+        return request(method, path, contentType, body == null ? null : body.getBytes(StandardCharsets.UTF_8),
+                headers);
+    }
+
+    private HttpURLConnection request(String method, String path, String contentType, byte[] body,
+                                      String... headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path)
+                .openConnection();
+        connection.setRequestMethod(method);
+
+        for (int i = 0; i < headers.length; i += 2) {
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        }
+
+        if (contentType != null) {
+            connection.setRequestProperty("Content-Type", contentType);
+        }
+
+        if (body != null) {
+            connection.setDoOutput(true);
+
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
+            }
+        }
+
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try (InputStream inputStream = connection.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            int read;
+
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -1,14 +1,35 @@
 package me.victorjacobs.transactionstatistics.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.KeyedStatistic;
 import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.service.ClusterAggregator;
+import me.victorjacobs.transactionstatistics.service.HistoryStore;
+import me.victorjacobs.transactionstatistics.service.KeyedStatisticsStore;
+import me.victorjacobs.transactionstatistics.service.StatisticsBroadcaster;
 import me.victorjacobs.transactionstatistics.service.StatisticsStore;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standaloneSetup;
 
@@ -20,12 +41,28 @@ import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standal
 public class StatisticsControllerTest {
     private MockMvc mockMvc;
     private StatisticsStore statisticsStore;
+    private KeyedStatisticsStore keyedStatisticsStore;
+    private StatisticsBroadcaster statisticsBroadcaster;
+    private ClusterAggregator clusterAggregator;
+    private HistoryStore historyStore;
 
     @Before
     public void setup() {
         statisticsStore = mock(StatisticsStore.class);
+        keyedStatisticsStore = mock(KeyedStatisticsStore.class);
+        statisticsBroadcaster = mock(StatisticsBroadcaster.class);
+        clusterAggregator = mock(ClusterAggregator.class);
+        historyStore = mock(HistoryStore.class);
+        when(historyStore.isEnabled()).thenReturn(true);
+        when(statisticsBroadcaster.subscribe()).thenReturn(new SseEmitter());
         when(statisticsStore.getStatistic()).thenReturn(new Statistic());
-        mockMvc = standaloneSetup(new StatisticsController(statisticsStore)).build();
+        when(statisticsStore.getStatistic(10000)).thenReturn(new Statistic());
+        when(statisticsStore.getStatistic(600000)).thenThrow(new IllegalArgumentException());
+        when(keyedStatisticsStore.getStatistic("merchant")).thenReturn(new Statistic(10.0, 10.0, 10.0, 10.0, 1));
+        when(keyedStatisticsStore.getTopBySum(1)).thenReturn(Collections.singletonList(
+                new KeyedStatistic("merchant", new Statistic(10.0, 10.0, 10.0, 10.0, 1))));
+        mockMvc = standaloneSetup(new StatisticsController(statisticsStore, keyedStatisticsStore,
+                statisticsBroadcaster, clusterAggregator, historyStore, new ObjectMapper())).build();
     }
 
     @Test
@@ -33,4 +70,198 @@ public class StatisticsControllerTest {
         mockMvc.perform(get("/statistics"))
                 .andExpect(status().isOk());
     }
+
+    @Test
+    public void getStatistics_eTag() throws Exception {
+        when(statisticsStore.getVersion()).thenReturn(7L);
+        when(statisticsStore.getStatistic()).thenReturn(new Statistic(10.0, 10.0, 10.0, 10.0, 1));
+
+        String eTag = mockMvc.perform(get("/statistics"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.sum").value(10.0))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/statistics").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", eTag));
+
+        // Same version without a matching ETag, answered from the cache
+        mockMvc.perform(get("/statistics").header("If-None-Match", "\"other\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", eTag))
+                .andExpect(jsonPath("$.count").value(1));
+
+        verify(statisticsStore, times(1)).getStatistic();
+    }
+
+    @Test
+    public void getStatistics_eTagVersionChanged() throws Exception {
+        when(statisticsStore.getVersion()).thenReturn(7L);
+        String eTag = mockMvc.perform(get("/statistics"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        when(statisticsStore.getVersion()).thenReturn(8L);
+        when(statisticsStore.getStatistic()).thenReturn(new Statistic(4.0, 4.0, 4.0, 4.0, 1));
+
+        mockMvc.perform(get("/statistics").header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(eTag)))
+                .andExpect(jsonPath("$.sum").value(4.0));
+
+        verify(statisticsStore, times(2)).getStatistic();
+    }
+
+    @Test
+    public void getStatistics_eTagInList() throws Exception {
+        when(statisticsStore.getVersion()).thenReturn(7L);
+        String eTag = mockMvc.perform(get("/statistics"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/statistics").header("If-None-Match", "\"other\", W/" + eTag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/statistics").header("If-None-Match", "*"))
+                .andExpect(status().isNotModified());
+
+        verify(statisticsStore, times(1)).getStatistic();
+    }
+
+    @Test
+    public void getStatistics_window() throws Exception {
+        mockMvc.perform(get("/statistics").param("window", "10s"))
+                .andExpect(status().isOk());
+
+        verify(statisticsStore).getStatistic(10000);
+    }
+
+    @Test
+    public void getStatistics_windowTooLong() throws Exception {
+        mockMvc.perform(get("/statistics").param("window", "10m"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getStatistics_invalidWindow() throws Exception {
+        mockMvc.perform(get("/statistics").param("window", "foobar"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getStatistics_overflowingWindow() throws Exception {
+        mockMvc.perform(get("/statistics").param("window", "2562047788016h"))
+                .andExpect(status().isBadRequest());
+
+        verify(statisticsStore, never()).getStatistic(anyLong());
+    }
+
+    @Test
+    public void getStatistics_range() throws Exception {
+        when(historyStore.getStatistic(1000, 2000)).thenReturn(new Statistic(10.0, 10.0, 10.0, 10.0, 1));
+
+        mockMvc.perform(get("/statistics").param("from", "1000").param("to", "2000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sum").value(10.0));
+    }
+
+    @Test
+    public void getStatistics_rangeUpToNow() throws Exception {
+        when(historyStore.getStatistic(1000)).thenReturn(new Statistic(10.0, 10.0, 10.0, 10.0, 1));
+
+        mockMvc.perform(get("/statistics").param("from", "1000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(1));
+    }
+
+    @Test
+    public void getStatistics_invalidRange() throws Exception {
+        when(historyStore.getStatistic(2000, 1000)).thenThrow(new IllegalArgumentException());
+
+        mockMvc.perform(get("/statistics").param("from", "2000").param("to", "1000"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/statistics").param("to", "1000"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/statistics").param("from", "1000").param("window", "10s"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getStatistics_rangeWithoutHistory() throws Exception {
+        when(historyStore.isEnabled()).thenReturn(false);
+
+        mockMvc.perform(get("/statistics").param("from", "1000"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getStatistics_key() throws Exception {
+        mockMvc.perform(get("/statistics/merchant"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sum").value(10.0));
+    }
+
+    @Test
+    public void getTopStatistics() throws Exception {
+        mockMvc.perform(get("/statistics/top").param("n", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].key").value("merchant"))
+                .andExpect(jsonPath("$[0].statistic.count").value(1));
+    }
+
+    @Test
+    public void streamStatistics() throws Exception {
+        mockMvc.perform(get("/statistics/stream"))
+                .andExpect(request().asyncStarted());
+
+        verify(statisticsBroadcaster).subscribe();
+    }
+
+    @Test
+    public void getBuckets() throws Exception {
+        BucketSnapshot snapshot = new BucketSnapshot();
+        snapshot.add(1486728000000L, 10.0, 10.0, 10.0, 1);
+        when(statisticsStore.exportBuckets()).thenReturn(snapshot);
+
+        mockMvc.perform(get("/statistics/buckets"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/octet-stream"))
+                .andExpect(content().bytes(snapshot.toBytes()));
+    }
+
+    @Test
+    public void getClusterStatistics() throws Exception {
+        when(clusterAggregator.isEnabled()).thenReturn(true);
+        when(clusterAggregator.getPeerCount()).thenReturn(3);
+        when(clusterAggregator.getReachablePeerCount()).thenReturn(2);
+        when(clusterAggregator.getStatistic()).thenReturn(new Statistic(10.0, 10.0, 10.0, 10.0, 1));
+
+        mockMvc.perform(get("/statistics/cluster"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Peers-Reachable", "2/3"))
+                .andExpect(jsonPath("$.count").value(1));
+    }
+
+    @Test
+    public void getClusterStatistics_notAggregator() throws Exception {
+        mockMvc.perform(get("/statistics/cluster"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void parseWindow() {
+        assertEquals(500, StatisticsController.parseWindow("500"));
+        assertEquals(500, StatisticsController.parseWindow("500ms"));
+        assertEquals(10000, StatisticsController.parseWindow("10s"));
+        assertEquals(300000, StatisticsController.parseWindow("5m"));
+        assertEquals(3600000, StatisticsController.parseWindow("1h"));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void parseWindow_overflowingUnit() {
+        StatisticsController.parseWindow("2562047788016h");
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void parseWindow_tooManyDigits() {
+        StatisticsController.parseWindow("9223372036854775808");
+    }
 }
@@ -1,13 +1,31 @@
 package me.victorjacobs.transactionstatistics.controller;
 
+import me.victorjacobs.transactionstatistics.model.BatchResult;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import me.victorjacobs.transactionstatistics.service.AsyncIngester;
+import me.victorjacobs.transactionstatistics.service.KeyedStatisticsStore;
 import me.victorjacobs.transactionstatistics.service.StatisticsStore;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standaloneSetup;
 
@@ -18,11 +36,20 @@ import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standal
 public class TransactionControllerTest {
     private MockMvc mockMvc;
     private StatisticsStore statisticsStore;
+    private KeyedStatisticsStore keyedStatisticsStore;
+    private AsyncIngester asyncIngester;
 
     @Before
     public void setup() {
         statisticsStore = mock(StatisticsStore.class);
-        mockMvc = standaloneSetup(new TransactionController(statisticsStore)).build();
+        keyedStatisticsStore = mock(KeyedStatisticsStore.class);
+        asyncIngester = mock(AsyncIngester.class);
+        when(statisticsStore.add(any(Transaction.class))).thenReturn(true);
+        when(statisticsStore.addAll(any(TransactionBatch.class))).thenReturn(new BatchResult(1, 2, 3));
+        MappingJackson2HttpMessageConverter jackson = new MappingJackson2HttpMessageConverter();
+        mockMvc = standaloneSetup(new TransactionController(statisticsStore, keyedStatisticsStore, asyncIngester))
+                .setMessageConverters(new TransactionMessageConverter(jackson), jackson)
+                .build();
     }
 
     @Test
@@ -33,6 +60,73 @@ public class TransactionControllerTest {
             .andExpect(status().isCreated());
     }
 
+    @Test
+    public void postTransaction_withKey() throws Exception {
+        mockMvc.perform(post("/transactions")
+                .content("{\"timestamp\": 11111111, \"amount\": 12.1, \"key\": \"merchant\"}")
+                .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
+                .andExpect(status().isCreated());
+
+        verify(statisticsStore).add(new Transaction(12.1, 11111111, "merchant"));
+        verify(keyedStatisticsStore).add(new Transaction(12.1, 11111111, "merchant"));
+    }
+
+    @Test
+    public void postTransaction_withoutKey() throws Exception {
+        mockMvc.perform(post("/transactions")
+                .content("{\"timestamp\": 11111111, \"amount\": 12.1}")
+                .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
+                .andExpect(status().isCreated());
+
+        verify(keyedStatisticsStore, never()).add(any(Transaction.class));
+    }
+
+    @Test
+    public void postTransaction_amountRejected() throws Exception {
+        when(statisticsStore.add(any(Transaction.class))).thenReturn(false);
+
+        mockMvc.perform(post("/transactions")
+                .content("{\"timestamp\": 11111111, \"amount\": 1e300, \"key\": \"merchant\"}")
+                .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
+                .andExpect(status().isUnprocessableEntity());
+
+        verify(keyedStatisticsStore, never()).add(any(Transaction.class));
+    }
+
+    @Test
+    public void postTransaction_async() throws Exception {
+        when(asyncIngester.isEnabled()).thenReturn(true);
+        when(asyncIngester.offer(any(Transaction.class))).thenReturn(true);
+        when(asyncIngester.getQueueDepth()).thenReturn(3);
+
+        mockMvc.perform(post("/transactions")
+                .content("{\"timestamp\": 11111111, \"amount\": 12.1, \"key\": \"merchant\"}")
+                .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(TransactionController.QUEUE_DEPTH_HEADER, "3"));
+
+        verify(asyncIngester).offer(new Transaction(12.1, 11111111, "merchant"));
+        verify(statisticsStore, never()).add(any(Transaction.class));
+        verify(keyedStatisticsStore).add(new Transaction(12.1, 11111111, "merchant"));
+    }
+
+    @Test
+    public void postTransaction_asyncQueueFull() throws Exception {
+        when(asyncIngester.isEnabled()).thenReturn(true);
+        when(asyncIngester.offer(any(Transaction.class))).thenReturn(false);
+        when(asyncIngester.getQueueDepth()).thenReturn(1024);
+
+        mockMvc.perform(post("/transactions")
+                .content("{\"timestamp\": 11111111, \"amount\": 12.1, \"key\": \"merchant\"}")
+                .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"))
+                .andExpect(header().string(TransactionController.QUEUE_DEPTH_HEADER, "1024"));
+
+        verify(statisticsStore, never()).add(any(Transaction.class));
+        verify(keyedStatisticsStore, never()).add(any(Transaction.class));
+    }
+
     @Test
     public void postTransaction_invalidJson() throws Exception {
         mockMvc.perform(post("/transactions")
@@ -40,4 +134,229 @@ public class TransactionControllerTest {
                 .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
                 .andExpect(status().isBadRequest());
     }
+
+    @Test
+    public void postTransactions_array() throws Exception {
+        mockMvc.perform(post("/transactions/batch")
+                .content("[{\"timestamp\": 11111111, \"amount\": 12.1}, {\"amount\": 3, \"timestamp\": 22222222}]")
+                .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.accepted").value(1))
+                .andExpect(jsonPath("$.tooOld").value(2))
+                .andExpect(jsonPath("$.inFuture").value(3));
+
+        TransactionBatch batch = captureBatch();
+        assertEquals(2, batch.size());
+        assertEquals(12.1, batch.getAmount(0), 0.001);
+        assertEquals(11111111, batch.getTimestamp(0));
+        assertEquals(3.0, batch.getAmount(1), 0.001);
+        assertEquals(22222222, batch.getTimestamp(1));
+    }
+
+    @Test
+    public void postTransactions_newlineDelimited() throws Exception {
+        mockMvc.perform(post("/transactions/batch")
+                .content("{\"timestamp\": 11111111, \"amount\": 12.1}\n{\"timestamp\": 22222222, \"amount\": 3}\n"
+                        + "{\"timestamp\": 33333333, \"amount\": 4, \"currency\": {\"code\": \"EUR\"}}\n")
+                .contentType(MediaType.parseMediaType("application/x-ndjson")))
+                .andExpect(status().isCreated());
+
+        TransactionBatch batch = captureBatch();
+        assertEquals(3, batch.size());
+        assertEquals(33333333, batch.getTimestamp(2));
+    }
+
+    @Test
+    public void postTransactions_invalidJson() throws Exception {
+        mockMvc.perform(post("/transactions/batch")
+                .content("[{\"timestamp\": 11111111, \"amount\": 12.1}, foobar]")
+                .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
+                .andExpect(status().isBadRequest());
+
+        verify(statisticsStore, never()).addAll(any(TransactionBatch.class));
+    }
+
+    @Test
+    public void postTransactions_notTransactions() throws Exception {
+        mockMvc.perform(post("/transactions/batch")
+                .content("[1, 2, 3]")
+                .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void postTransactions_notNumbers() throws Exception {
+        String[] bodies = {"[{\"amount\": \"12.1\", \"timestamp\": 11111111}]",
+                "[{\"amount\": 12.1, \"timestamp\": \"11111111\"}]", "[{\"amount\": true, \"timestamp\": 11111111}]",
+                "[{\"amount\": null, \"timestamp\": 11111111}]"};
+
+        for (String body : bodies) {
+            mockMvc.perform(post("/transactions/batch")
+                    .content(body)
+                    .contentType(MediaType.parseMediaType("application/json;charset=UTF-8")))
+                    .andExpect(status().isBadRequest());
+        }
+
+        verify(statisticsStore, never()).addAll(any(TransactionBatch.class));
+    }
+
+    @Test
+    public void postTransactions_tooManyRecords() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i <= TransactionBatchReader.MAX_RECORDS; i++) {
+            body.append("{}\n");
+        }
+
+        mockMvc.perform(post("/transactions/batch")
+                .content(body.toString())
+                .contentType(MediaType.parseMediaType("application/x-ndjson")))
+                .andExpect(status().isPayloadTooLarge());
+
+        verify(statisticsStore, never()).addAll(any(TransactionBatch.class));
+    }
+
+    @Test
+    public void postTransactions_packed() throws Exception {
+        TransactionBatch received = recordBatches();
+        ByteBuffer body = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        body.putDouble(12.1).putLong(11111111).putDouble(3).putLong(22222222);
+
+        mockMvc.perform(post("/transactions")
+                .content(body.array())
+                .contentType(MediaType.APPLICATION_OCTET_STREAM))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.accepted").value(1))
+                .andExpect(jsonPath("$.tooOld").value(2));
+
+        assertEquals(2, received.size());
+        assertEquals(12.1, received.getAmount(0), 0.001);
+        assertEquals(11111111, received.getTimestamp(0));
+        assertEquals(3.0, received.getAmount(1), 0.001);
+        assertEquals(22222222, received.getTimestamp(1));
+    }
+
+    @Test
+    public void postTransactions_packedInChunks() throws Exception {
+        TransactionBatch received = recordBatches();
+        int records = 2 * BinaryBatchReader.CHUNK_SIZE + 10;
+        ByteBuffer body = ByteBuffer.allocate(records * 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < records; i++) {
+            body.putDouble(i).putLong(1000 + i);
+        }
+
+        // Every chunk is added separately, the mocked store returns 1 accepted per chunk
+        mockMvc.perform(post("/transactions")
+                .content(body.array())
+                .contentType(MediaType.APPLICATION_OCTET_STREAM))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.accepted").value(3))
+                .andExpect(jsonPath("$.inFuture").value(9));
+
+        assertEquals(records, received.size());
+        for (int i = 0; i < records; i++) {
+            assertEquals(1000 + i, received.getTimestamp(i));
+            assertEquals(i, received.getAmount(i), 0);
+        }
+    }
+
+    @Test
+    public void postTransactions_deltas() throws Exception {
+        TransactionBatch received = recordBatches();
+        ByteBuffer body = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        // 1486728000000 zigzag encoded, then +5 and -300
+        body.putDouble(12.1).put(new byte[] {(byte) 0x80, (byte) 0xC8, (byte) 0xA7, (byte) 0xFE, (byte) 0xC4,
+                0x56});
+        body.putDouble(3).put((byte) 0x0A);
+        body.putDouble(4).put((byte) 0xD7).put((byte) 0x04);
+
+        mockMvc.perform(post("/transactions")
+                .content(Arrays.copyOf(body.array(), body.position()))
+                .contentType(MediaType.parseMediaType(TransactionController.DELTAS_CONTENT_TYPE)))
+                .andExpect(status().isCreated());
+
+        assertEquals(3, received.size());
+        assertEquals(1486728000000L, received.getTimestamp(0));
+        assertEquals(1486728000005L, received.getTimestamp(1));
+        assertEquals(1486727999705L, received.getTimestamp(2));
+        assertEquals(4.0, received.getAmount(2), 0.001);
+    }
+
+    @Test
+    public void postTransactions_packedTruncated() throws Exception {
+        mockMvc.perform(post("/transactions")
+                .content(new byte[20])
+                .contentType(MediaType.APPLICATION_OCTET_STREAM))
+                .andExpect(status().isBadRequest());
+
+        verify(statisticsStore, never()).addAll(any(TransactionBatch.class));
+    }
+
+    @Test
+    public void postTransactions_deltasTruncatedAfterChunk() throws Exception {
+        TransactionBatch received = recordBatches();
+        int records = BinaryBatchReader.CHUNK_SIZE + 10;
+        ByteBuffer body = ByteBuffer.allocate(records * 9 + 9).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < records; i++) {
+            body.putDouble(i).put((byte) 0x02);
+        }
+        body.putDouble(0).put((byte) 0x80);
+
+        // The truncation is only noticed after the first chunk was added, so all complete records are added
+        mockMvc.perform(post("/transactions")
+                .content(body.array())
+                .contentType(MediaType.parseMediaType(TransactionController.DELTAS_CONTENT_TYPE)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.truncated").value(true));
+
+        assertEquals(records, received.size());
+        assertEquals(records, received.getTimestamp(records - 1));
+    }
+
+    @Test
+    public void postTransactions_packedComplete() throws Exception {
+        recordBatches();
+
+        mockMvc.perform(post("/transactions")
+                .content(new byte[16])
+                .contentType(MediaType.APPLICATION_OCTET_STREAM))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.truncated").doesNotExist());
+    }
+
+    @Test
+    public void postTransactions_deltasTruncated() throws Exception {
+        mockMvc.perform(post("/transactions")
+                .content(new byte[] {0, 0, 0, 0, 0, 0, 0, 0, (byte) 0x80})
+                .contentType(MediaType.parseMediaType(TransactionController.DELTAS_CONTENT_TYPE)))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Copy every batch added to the mocked store, since the binary readers reuse their batch.
+     * @return Batch receiving all added transactions
+     */
+    private TransactionBatch recordBatches() {
+        TransactionBatch received = new TransactionBatch();
+
+        when(statisticsStore.addAll(any(TransactionBatch.class))).thenAnswer(invocation -> {
+            TransactionBatch batch = invocation.getArgumentAt(0, TransactionBatch.class);
+
+            for (int i = 0; i < batch.size(); i++) {
+                received.add(batch.getAmount(i), batch.getTimestamp(i));
+            }
+
+            return new BatchResult(1, 2, 3);
+        });
+
+        return received;
+    }
+
+    private TransactionBatch captureBatch() {
+        ArgumentCaptor<TransactionBatch> captor = ArgumentCaptor.forClass(TransactionBatch.class);
+        verify(statisticsStore).addAll(captor.capture());
+        return captor.getValue();
+    }
 }
@@ -0,0 +1,224 @@
+package me.victorjacobs.transactionstatistics.controller;
+
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.junit.Test;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionMessageConverterTest {
+    private static final List<String> DECODED = Arrays.asList(
+            "{\"amount\": 12.1, \"timestamp\": 1486728000000}",
+            "{\"timestamp\":1486728000000,\"amount\":12.1,\"key\":\"merchant\"}",
+            " \r\n\t{ \"amount\" : -0.5 , \"timestamp\" : -1 } \n",
+            "{\"amount\": 12, \"timestamp\": 0}",
+            "{\"amount\": -0, \"timestamp\": -0}",
+            "{\"amount\": -0.0, \"timestamp\": 1}",
+            "{\"amount\": 1e5, \"timestamp\": 1}",
+            "{\"amount\": 1.25E-3, \"timestamp\": 1}",
+            "{\"amount\": 9007199254740.992, \"timestamp\": 1}",
+            "{\"amount\": 123456789012345678, \"timestamp\": 123456789012345678}",
+            "{\"amount\": 0.1, \"key\": null}",
+            "{\"key\": \"\"}",
+            "{}"
+    );
+
+    private static final List<String> FALLBACK = Arrays.asList(
+            "",
+            "foobar",
+            "[]",
+            "{\"amount\": 12.1, \"timestamp\": 1486728000000, \"currency\": \"EUR\"}",
+            "{\"amount\": 12.1, \"amount\": 13.1}",
+            "{\"amount\": \"12.1\", \"timestamp\": \"1486728000000\"}",
+            "{\"amount\": null, \"timestamp\": null}",
+            "{\"amount\": 012, \"timestamp\": 1}",
+            "{\"amount\": +12, \"timestamp\": 1}",
+            "{\"amount\": 12., \"timestamp\": 1}",
+            "{\"amount\": .5, \"timestamp\": 1}",
+            "{\"amount\": 1e, \"timestamp\": 1}",
+            "{\"amount\": 1e400, \"timestamp\": 1}",
+            "{\"amount\": 9007199254740.993, \"timestamp\": 1}",
+            "{\"amount\": 0.1234567890123456789, \"timestamp\": 1}",
+            "{\"amount\": 12345678901234567890, \"timestamp\": 1}",
+            "{\"amount\": 1, \"timestamp\": 1.5}",
+            "{\"amount\": 1, \"timestamp\": 1e3}",
+            "{\"amount\": 1, \"timestamp\": 9223372036854775807}",
+            "{\"amount\": 1, \"timestamp\": 1}x",
+            "{\"amount\": 1, \"timestamp\": 1}{}",
+            "{\"amount\": 1, \"timestamp\": 1,}",
+            "{\"amount\": 1 \"timestamp\": 1}",
+            "{\"amount\": 1, \"timestamp\": 1",
+            "{\"key\": \"m\\u00e9rchant\"}",
+            "{\"key\": \"mérchant\"}",
+            "{\"key\": 42}",
+            "{\"key\": \"unterminated}",
+            "{amount: 1}"
+    );
+
+    private final MappingJackson2HttpMessageConverter jackson =
+            new MappingJackson2HttpMessageConverter(Jackson2ObjectMapperBuilder.json().build());
+    private final TransactionMessageConverter converter = new TransactionMessageConverter(jackson);
+
+    @Test
+    public void decode_commonShapes() {
+        for (String body : DECODED) {
+            assertNotNull(body, decode(body));
+        }
+    }
+
+    @Test
+    public void decode_fallsBackOnAnythingElse() {
+        for (String body : FALLBACK) {
+            assertNull(body, decode(body));
+        }
+    }
+
+    @Test
+    public void read_equalsJackson() {
+        for (String body : DECODED) {
+            assertEquivalent(body);
+        }
+        for (String body : FALLBACK) {
+            assertEquivalent(body);
+        }
+    }
+
+    @Test
+    public void read_largeBodyFallsBack() {
+        StringBuilder body = new StringBuilder("{\"amount\": 1.5, \"timestamp\": 1");
+
+        while (body.length() < 4096) {
+            body.append(", \"unknown\": \"padding\"");
+        }
+        assertEquivalent(body.append("}").toString());
+    }
+
+    @Test
+    public void read_randomAmountsEqualJackson() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            String amount;
+
+            switch (random.nextInt(4)) {
+                case 0:
+                    amount = Double.toString(random.nextInt(100000000) / 100.0);
+                    break;
+                case 1:
+                    amount = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(30) - 10));
+                    break;
+                case 2:
+                    amount = Long.toString(random.nextLong() >> random.nextInt(64));
+                    break;
+                default:
+                    amount = random.nextInt(1000000) + "." + random.nextInt(1000) + "e" + (random.nextInt(50) - 25);
+            }
+
+            assertEquivalent("{\"amount\": " + amount + ", \"timestamp\": " + random.nextLong() / 10 + "}");
+        }
+    }
+
+    @Test
+    public void read_mutatedBodiesEqualJackson() {
+        Random random = new Random(42);
+        byte[] alphabet = "{}[]\":,.-+eE0123456789 \namountimestkey\\ul".getBytes(StandardCharsets.US_ASCII);
+        int decoded = 0;
+
+        for (int i = 0; i < 20000; i++) {
+            byte[] body = DECODED.get(random.nextInt(DECODED.size())).getBytes(StandardCharsets.UTF_8);
+            int length = body.length;
+
+            for (int m = random.nextInt(3) + 1; m > 0 && length > 0; m--) {
+                int position = random.nextInt(length);
+
+                switch (random.nextInt(3)) {
+                    case 0:
+                        body[position] = alphabet[random.nextInt(alphabet.length)];
+                        break;
+                    case 1:
+                        System.arraycopy(body, position + 1, body, position, length - position - 1);
+                        length--;
+                        break;
+                    default:
+                        length = position;
+                }
+            }
+
+            String mutated = new String(body, 0, length, StandardCharsets.US_ASCII);
+            if (decode(mutated) != null) {
+                decoded++;
+            }
+            assertEquivalent(mutated);
+        }
+
+        // Mutations of whitespace or digits leave some bodies valid, make sure those were decoded here
+        assertTrue(decoded > 500);
+    }
+
+    @Test
+    public void canRead_onlyTransactions() {
+        assertTrue(converter.canRead(Transaction.class, MediaType.APPLICATION_JSON));
+        assertFalse(converter.canRead(String.class, MediaType.APPLICATION_JSON));
+        assertFalse(converter.canRead(Transaction.class, MediaType.TEXT_PLAIN));
+        assertFalse(converter.canWrite(Transaction.class, MediaType.APPLICATION_JSON));
+    }
+
+    @Test
+    public void write_equalsJackson() throws IOException {
+        Transaction transaction = new Transaction(12.1, 1486728000000L, "merchant");
+        MockHttpOutputMessage expected = new MockHttpOutputMessage();
+        MockHttpOutputMessage actual = new MockHttpOutputMessage();
+
+        jackson.write(transaction, MediaType.APPLICATION_JSON_UTF8, expected);
+        converter.write(transaction, MediaType.APPLICATION_JSON_UTF8, actual);
+
+        assertEquals(expected.getBodyAsString(), actual.getBodyAsString());
+        assertEquals(expected.getHeaders().getContentType(), actual.getHeaders().getContentType());
+    }
+
+    private Transaction decode(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return TransactionMessageConverter.decode(bytes, bytes.length);
+    }
+
+    /**
+     * Both converters read the same transaction, or fail with the same message apart from the stream they read from.
+     */
+    private void assertEquivalent(String body) {
+        assertEquals(body, read(message -> jackson.read(Transaction.class, message), body),
+                read(message -> converter.read(Transaction.class, message), body));
+    }
+
+    private Object read(Reader reader, String body) {
+        MockHttpInputMessage message = new MockHttpInputMessage(body.getBytes(StandardCharsets.UTF_8));
+        message.getHeaders().setContentType(MediaType.APPLICATION_JSON_UTF8);
+
+        try {
+            return reader.read(message);
+        } catch (HttpMessageNotReadableException e) {
+            return e.getMessage().replaceAll("Source: [^;]*;", "Source: ;");
+        } catch (Exception e) {
+            return e.getClass().getName();
+        }
+    }
+
+    private interface Reader {
+        Object read(HttpInputMessage message) throws IOException;
+    }
+}
@@ -0,0 +1,69 @@
+package me.victorjacobs.transactionstatistics.model;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class BucketSnapshotTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    @Test
+    public void add_combinesSameSecond() {
+        BucketSnapshot snapshot = new BucketSnapshot();
+        snapshot.add(NOW, new Statistic(10.0, 10.0, 10.0, 10.0, 1));
+        snapshot.add(NOW, 6.0, 2.0, 4.0, 2);
+        snapshot.add(NOW - 1000, 1.0, 1.0, 1.0, 1);
+        snapshot.add(NOW - 2000, new Statistic());
+
+        assertEquals(2, snapshot.size());
+        assertStatistic(16.0, 5.333, 10.0, 2.0, 3, snapshot.getBuckets().get(NOW));
+        assertStatistic(17.0, 4.25, 10.0, 1.0, 4, snapshot.getStatistic(NOW - 1000));
+        assertStatistic(16.0, 5.333, 10.0, 2.0, 3, snapshot.getStatistic(NOW - 999));
+    }
+
+    @Test
+    public void merge() {
+        BucketSnapshot first = new BucketSnapshot();
+        first.add(NOW, 10.0, 10.0, 10.0, 1);
+        first.add(NOW - 1000, 4.0, 4.0, 4.0, 1);
+        BucketSnapshot second = new BucketSnapshot();
+        second.add(NOW, 3.0, 1.0, 2.0, 2);
+
+        first.merge(second);
+
+        assertStatistic(13.0, 4.333, 10.0, 1.0, 3, first.getBuckets().get(NOW));
+        assertStatistic(17.0, 4.25, 10.0, 1.0, 4, first.getStatistic(0));
+        assertEquals(1, second.size());
+    }
+
+    @Test
+    public void toBytes_roundTrip() {
+        BucketSnapshot snapshot = new BucketSnapshot();
+        snapshot.add(NOW, 10.0, 10.0, 10.0, 1);
+        snapshot.add(NOW - 1000, 6.0, 2.0, 4.0, 2);
+
+        byte[] bytes = snapshot.toBytes();
+        BucketSnapshot decoded = BucketSnapshot.fromBytes(bytes);
+
+        assertEquals(8 + 2 * 40, bytes.length);
+        assertEquals(snapshot.getBuckets(), decoded.getBuckets());
+        assertEquals(0, BucketSnapshot.fromBytes(new BucketSnapshot().toBytes()).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromBytes_wrongMagic() {
+        BucketSnapshot.fromBytes(new byte[8]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromBytes_truncated() {
+        BucketSnapshot snapshot = new BucketSnapshot();
+        snapshot.add(NOW, 10.0, 10.0, 10.0, 1);
+        byte[] bytes = snapshot.toBytes();
+
+        BucketSnapshot.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+}
@@ -0,0 +1,80 @@
+package me.victorjacobs.transactionstatistics.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the QuantileSketch model.
+ */
+public class QuantileSketchTest {
+    private QuantileSketch sketch;
+
+    @Before
+    public void setup() {
+        sketch = new QuantileSketch();
+    }
+
+    @Test
+    public void getQuantile_withinRelativeAccuracy() {
+        for (int i = 1; i <= 10000; i++) {
+            sketch.add(i);
+        }
+
+        assertRelative(5000, sketch.getQuantile(0.5));
+        assertRelative(9500, sketch.getQuantile(0.95));
+        assertRelative(9900, sketch.getQuantile(0.99));
+        assertRelative(1, sketch.getQuantile(0));
+        assertRelative(10000, sketch.getQuantile(1));
+    }
+
+    @Test
+    public void getQuantile_negativeAndZero() {
+        sketch.add(-100);
+        sketch.add(-10);
+        sketch.add(0);
+        sketch.add(10);
+        sketch.add(100);
+
+        assertRelative(-100, sketch.getQuantile(0));
+        assertRelative(-10, sketch.getQuantile(0.25));
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+        assertRelative(100, sketch.getQuantile(1));
+    }
+
+    @Test
+    public void merge() {
+        QuantileSketch other = new QuantileSketch();
+
+        for (int i = 1; i <= 50; i++) {
+            sketch.add(i);
+            other.add(i + 50);
+        }
+
+        sketch.merge(other);
+
+        assertEquals(100, sketch.getCount());
+        assertRelative(50, sketch.getQuantile(0.5));
+        assertEquals(50, other.getCount());
+    }
+
+    @Test
+    public void getQuantile_empty() {
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+    }
+
+    @Test
+    public void clear() {
+        sketch.add(10);
+        sketch.clear();
+
+        assertEquals(0, sketch.getCount());
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+    }
+
+    private static void assertRelative(double expected, double actual) {
+        assertEquals(expected, actual, Math.abs(expected) * QuantileSketch.RELATIVE_ACCURACY);
+    }
+}
@@ -7,6 +7,9 @@ import org.junit.Test;
 import java.util.Arrays;
 import java.util.LinkedList;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
 /**
  * Test the Statistic model.
  * Created by Victor on 10/02/2017.
@@ -36,4 +39,17 @@ public class StatisticTest extends BaseTest {
 
         assertStatistic(28.0, 4.666, 10.0, 1.0, 6, combined);
     }
+
+    @Test
+    public void withPercentiles() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(10.0);
+
+        Statistic withPercentiles = s1.withPercentiles(sketch, Arrays.asList(50.0, 99.9));
+
+        assertStatistic(10.0, 10.0, 10.0, 10.0, 1, withPercentiles);
+        assertEquals(10.0, withPercentiles.getPercentiles().get("p50"), 0.1);
+        assertEquals(10.0, withPercentiles.getPercentiles().get("p99.9"), 0.1);
+        assertNull(s1.getPercentiles());
+    }
 }
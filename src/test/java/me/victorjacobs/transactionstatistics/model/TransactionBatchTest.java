@@ -0,0 +1,44 @@
+package me.victorjacobs.transactionstatistics.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TransactionBatchTest {
+    @Test
+    public void add_growsBeyondCapacity() {
+        TransactionBatch batch = new TransactionBatch(1);
+
+        for (int i = 0; i < 10; i++) {
+            batch.add(i, i * 1000);
+        }
+
+        assertEquals(10, batch.size());
+        assertEquals(9.0, batch.getAmount(9), 0.001);
+        assertEquals(9000, batch.getTimestamp(9));
+    }
+
+    @Test
+    public void setAndTruncate() {
+        TransactionBatch batch = new TransactionBatch();
+        batch.add(1.0, 1000);
+        batch.add(2.0, 2000);
+        batch.add(3.0, 3000);
+
+        batch.set(0, 3.0, 3000);
+        batch.truncate(1);
+
+        assertEquals(1, batch.size());
+        assertEquals(3.0, batch.getAmount(0), 0.001);
+        assertEquals(3000, batch.getTimestamp(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getAmount_outOfBounds() {
+        TransactionBatch batch = new TransactionBatch();
+        batch.add(1.0, 1000);
+        batch.truncate(0);
+
+        batch.getAmount(0);
+    }
+}
@@ -0,0 +1,165 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class AsyncIngesterTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    private StatisticsStore statisticsStore;
+    private AsyncProperties properties;
+    private AsyncIngester ingester;
+
+    @Before
+    public void setup() {
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(NOW);
+        statisticsStore = new StatisticsStore(clock);
+
+        properties = new AsyncProperties();
+        properties.setEnabled(true);
+        properties.setQueueCapacity(4);
+        properties.setBlockTimeoutMillis(10);
+    }
+
+    @After
+    public void teardown() {
+        ingester.stop();
+    }
+
+    @Test
+    public void offer_drainedToStore() throws Exception {
+        ingester = new AsyncIngester(statisticsStore, properties);
+        ingester.start();
+
+        for (int i = 1; i <= 100; i++) {
+            while (!ingester.offer(new Transaction(i, NOW - i))) {
+                Thread.yield();
+            }
+        }
+
+        ingester.stop();
+        assertStatistic(5050, 50.5, 100, 1, 100, statisticsStore.getStatistic());
+        assertEquals(0, ingester.getQueueDepth());
+    }
+
+    @Test
+    public void offer_discardedWhenDrained() {
+        ingester = new AsyncIngester(statisticsStore, properties);
+        ingester.offer(new Transaction(1.0, NOW - 61000));
+        ingester.offer(new Transaction(2.0, NOW));
+
+        ingester.start();
+        ingester.stop();
+
+        assertStatistic(2.0, 2.0, 2.0, 2.0, 1, statisticsStore.getStatistic());
+        assertEquals(1, statisticsStore.getMetrics().getTooOld());
+    }
+
+    @Test
+    public void offer_queueFullRejects() {
+        properties.setShedPolicy(ShedPolicy.REJECT);
+        ingester = new AsyncIngester(statisticsStore, properties);
+
+        fillQueue();
+        assertFalse(ingester.offer(new Transaction(5.0, NOW)));
+        assertEquals(4, ingester.getQueueDepth());
+        assertEquals(1, ingester.getRejected());
+
+        ingester.start();
+        ingester.stop();
+        assertStatistic(10.0, 2.5, 4.0, 1.0, 4, statisticsStore.getStatistic());
+    }
+
+    @Test
+    public void offer_queueFullDropsOldest() {
+        properties.setShedPolicy(ShedPolicy.DROP_OLDEST);
+        ingester = new AsyncIngester(statisticsStore, properties);
+
+        fillQueue();
+        assertTrue(ingester.offer(new Transaction(5.0, NOW)));
+        assertTrue(ingester.offer(new Transaction(6.0, NOW)));
+        assertEquals(4, ingester.getQueueDepth());
+        assertEquals(2, ingester.getDropped());
+        assertEquals(0, ingester.getRejected());
+
+        ingester.start();
+        ingester.stop();
+        assertStatistic(18.0, 4.5, 6.0, 3.0, 4, statisticsStore.getStatistic());
+    }
+
+    @Test
+    public void offer_queueFullBlocksUntilTimeout() {
+        properties.setShedPolicy(ShedPolicy.BLOCK);
+        ingester = new AsyncIngester(statisticsStore, properties);
+
+        fillQueue();
+        long start = System.nanoTime();
+        assertFalse(ingester.offer(new Transaction(5.0, NOW)));
+        assertTrue(System.nanoTime() - start >= 10000000);
+        assertEquals(1, ingester.getRejected());
+    }
+
+    @Test
+    public void offer_queueFullBlocksUntilDrained() {
+        properties.setShedPolicy(ShedPolicy.BLOCK);
+        properties.setBlockTimeoutMillis(10000);
+        ingester = new AsyncIngester(statisticsStore, properties);
+        ingester.start();
+
+        for (int i = 1; i <= 100; i++) {
+            assertTrue(ingester.offer(new Transaction(i, NOW)));
+        }
+
+        ingester.stop();
+        assertEquals(0, ingester.getRejected());
+        assertEquals(100, statisticsStore.getStatistic().getCount());
+    }
+
+    @Test
+    public void drain_keepsGoingWhenStoreFails() {
+        statisticsStore = spy(statisticsStore);
+        doThrow(new IllegalStateException()).doCallRealMethod().when(statisticsStore).addAll(any());
+        ingester = new AsyncIngester(statisticsStore, properties);
+
+        fillQueue();
+        ingester.start();
+        while (!ingester.offer(new Transaction(5.0, NOW))) {
+            Thread.yield();
+        }
+        ingester.stop();
+
+        assertEquals(4, ingester.getFailed());
+        assertStatistic(5.0, 5.0, 5.0, 5.0, 1, statisticsStore.getStatistic());
+    }
+
+    @Test
+    public void disabled() {
+        properties.setEnabled(false);
+        ingester = new AsyncIngester(statisticsStore, properties);
+        ingester.start();
+
+        assertFalse(ingester.isEnabled());
+        assertEquals(0, ingester.getQueueDepth());
+    }
+
+    private void fillQueue() {
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(ingester.offer(new Transaction(i, NOW)));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BackfillAggregatorTest extends BaseTest {
+    private static final long START = 1478192204000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aggregate_csv() throws IOException {
+        Path file = write("transactions.csv", "amount,timestamp\n" +
+                "10,1478192204000\r\n" +
+                "4.0,1478192204999,merchant\n" +
+                "\n" +
+                "-2.5e1,1478192205000\n" +
+                "12345678901234567890.5,1478192206000\n" +
+                "abc,1478192206000\n" +
+                "1.5,\n" +
+                "1.5\n" +
+                "1.5,1478192206000.5\n" +
+                "NaN,1478192206000\n" +
+                "0.1,1478192206000");
+
+        BackfillAggregator aggregator = new BackfillAggregator(2, 16);
+        List<Statistic> statistics = collectSeconds(aggregator.aggregate(Collections.singletonList(file),
+                TransactionFileFormat.CSV));
+
+        assertEquals(3, statistics.size());
+        assertStatistic(14.0, 7.0, 10.0, 4.0, 2, statistics.get(0));
+        assertStatistic(-25.0, -25.0, -25.0, -25.0, 1, statistics.get(1));
+        assertEquals(12345678901234567890.5 + 0.1, statistics.get(2).getSum(), 0);
+        assertEquals(2, statistics.get(2).getCount());
+        // The header and five invalid lines, the empty line doesn't count
+        assertEquals(6, aggregator.getSkippedLines());
+        assertEquals(Files.size(file), aggregator.getBytes());
+    }
+
+    @Test
+    public void aggregate_csvAmountsParsedLikeParseDouble() throws IOException {
+        String[] amounts = {"0.1", "-0.0", "+3", "1e22", "1e23", "9007199254740993", "123.456e-5", "4.9e-324", "1.",
+                "12345678", "123456789", "1234567.8901", "0.000000001", "99999999.99999999", "007"};
+        StringBuilder csv = new StringBuilder();
+
+        for (int i = 0; i < amounts.length; i++) {
+            csv.append(amounts[i]).append(',').append(START + i * 1000).append('\n');
+        }
+
+        List<Statistic> statistics = collectSeconds(new BackfillAggregator(1, 1024).aggregate(
+                Collections.singletonList(write("amounts.csv", csv.toString())), TransactionFileFormat.CSV));
+
+        assertEquals(amounts.length, statistics.size());
+        for (int i = 0; i < amounts.length; i++) {
+            assertEquals(amounts[i], Double.parseDouble(amounts[i]), statistics.get(i).getSum(), 0);
+        }
+    }
+
+    @Test
+    public void aggregate_csvSplitsMatchSingleSplit() throws IOException {
+        Random random = new Random(42);
+        StringBuilder csv = new StringBuilder();
+
+        for (int i = 0; i < 20000; i++) {
+            csv.append(random.nextInt(100000) / 100.0).append(',').append(START + random.nextInt(600000))
+                    .append(random.nextBoolean() ? "\n" : "\r\n");
+        }
+
+        Path file = write("random.csv", csv.toString());
+
+        assertSameSeconds(new BackfillAggregator(1, Integer.MAX_VALUE >> 1).aggregate(
+                Collections.singletonList(file), TransactionFileFormat.CSV),
+                new BackfillAggregator(4, 100).aggregate(Collections.singletonList(file), TransactionFileFormat.CSV));
+    }
+
+    @Test
+    public void aggregate_packedFiles() throws IOException {
+        Random random = new Random(42);
+        SecondBuckets expected = new SecondBuckets();
+        List<Path> files = new ArrayList<>();
+
+        for (int file = 0; file < 3; file++) {
+            ByteBuffer buffer = ByteBuffer.allocate(1000 * 16).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int i = 0; i < 1000; i++) {
+                double amount = random.nextInt(100000) / 100.0;
+                long timestamp = START + random.nextInt(600000);
+
+                buffer.putDouble(amount).putLong(timestamp);
+                expected.add(amount, timestamp);
+            }
+
+            files.add(folder.newFile("transactions-" + file + ".bin").toPath());
+            Files.write(files.get(file), buffer.array());
+        }
+
+        BackfillAggregator aggregator = new BackfillAggregator(3, 40);
+
+        assertSameSeconds(expected, aggregator.aggregate(files, TransactionFileFormat.PACKED));
+        assertEquals(3 * 1000 * 16, aggregator.getBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aggregate_packedTruncated() throws IOException {
+        Path file = folder.newFile("truncated.bin").toPath();
+        Files.write(file, new byte[20]);
+
+        new BackfillAggregator(1, 1024).aggregate(Collections.singletonList(file), TransactionFileFormat.PACKED);
+    }
+
+    @Test(expected = IOException.class)
+    public void aggregate_missingFile() throws IOException {
+        new BackfillAggregator(1, 1024).aggregate(Collections.singletonList(new File(folder.getRoot(), "missing")
+                .toPath()), TransactionFileFormat.PACKED);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_invalidSplit() {
+        new BackfillAggregator(1, 8);
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = folder.newFile(name).toPath();
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static List<Statistic> collectSeconds(SecondBuckets buckets) {
+        List<Statistic> statistics = new ArrayList<>();
+        buckets.forEachSecond((timestamp, statistic) -> statistics.add(statistic));
+        return statistics;
+    }
+
+    private static void assertSameSeconds(SecondBuckets expected, SecondBuckets actual) {
+        List<Long> expectedTimestamps = new ArrayList<>();
+        List<Statistic> expectedStatistics = new ArrayList<>();
+        expected.forEachSecond((timestamp, statistic) -> {
+            expectedTimestamps.add(timestamp);
+            expectedStatistics.add(statistic);
+        });
+
+        List<Long> actualTimestamps = new ArrayList<>();
+        List<Statistic> actualStatistics = new ArrayList<>();
+        actual.forEachSecond((timestamp, statistic) -> {
+            actualTimestamps.add(timestamp);
+            actualStatistics.add(statistic);
+        });
+
+        assertEquals(expected.getTransactionCount(), actual.getTransactionCount());
+        assertEquals(expectedTimestamps, actualTimestamps);
+
+        for (int i = 0; i < expectedStatistics.size(); i++) {
+            Statistic statistic = expectedStatistics.get(i);
+            assertStatistic(statistic.getSum(), statistic.getAvg(), statistic.getMax(), statistic.getMin(),
+                    statistic.getCount(), actualStatistics.get(i));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import com.sun.net.httpserver.HttpServer;
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the peers as HTTP servers on localhost, serving the buckets of their own store.
+ */
+public class ClusterAggregatorTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private Clock clock;
+    private StatisticsStore localStore;
+    private AggregatorProperties properties;
+
+    @Before
+    public void setup() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(NOW);
+        localStore = new StatisticsStore(clock);
+
+        properties = new AggregatorProperties();
+        properties.setEnabled(true);
+    }
+
+    @After
+    public void teardown() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void getStatistic_mergesPeers() throws IOException {
+        StatisticsStore first = new StatisticsStore(clock);
+        StatisticsStore second = new StatisticsStore(clock);
+        properties.setPeers(Arrays.asList(startPeer(first), startPeer(second) + "/"));
+
+        localStore.add(new Transaction(10.0, NOW - 1000));
+        first.add(new Transaction(4.0, NOW - 1000));
+        first.add(new Transaction(2.0, NOW - 30000));
+        second.add(new Transaction(1.0, NOW - 1000));
+
+        ClusterAggregator aggregator = new ClusterAggregator(clock, localStore, properties);
+        aggregator.pollAll();
+
+        assertEquals(2, aggregator.getReachablePeerCount());
+        assertStatistic(17.0, 4.25, 10.0, 1.0, 4, aggregator.getStatistic());
+    }
+
+    @Test
+    public void getStatistic_withoutLocal() throws IOException {
+        StatisticsStore peer = new StatisticsStore(clock);
+        properties.setPeers(Arrays.asList(startPeer(peer)));
+        properties.setIncludeLocal(false);
+
+        localStore.add(new Transaction(10.0, NOW - 1000));
+        peer.add(new Transaction(4.0, NOW - 1000));
+
+        ClusterAggregator aggregator = new ClusterAggregator(clock, localStore, properties);
+        aggregator.pollAll();
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, aggregator.getStatistic());
+    }
+
+    @Test
+    public void getStatistic_keepsLastSnapshotOfUnreachablePeer() throws IOException {
+        StatisticsStore peer = new StatisticsStore(clock);
+        properties.setPeers(Arrays.asList(startPeer(peer)));
+        peer.add(new Transaction(4.0, NOW - 50000));
+        peer.add(new Transaction(2.0, NOW - 1000));
+
+        ClusterAggregator aggregator = new ClusterAggregator(clock, localStore, properties);
+        aggregator.pollAll();
+        servers.get(0).stop(0);
+        aggregator.pollAll();
+
+        assertEquals(0, aggregator.getReachablePeerCount());
+        assertStatistic(6.0, 3.0, 4.0, 2.0, 2, aggregator.getStatistic());
+
+        // The buckets of the unreachable peer leave the window like any other
+        when(clock.millis()).thenReturn(NOW + 20000);
+        assertStatistic(2.0, 2.0, 2.0, 2.0, 1, aggregator.getStatistic());
+    }
+
+    @Test
+    public void pollAll_invalidResponse() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/statistics/buckets", exchange -> {
+            exchange.sendResponseHeaders(200, 3);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(new byte[3]);
+            }
+        });
+        server.start();
+        servers.add(server);
+        properties.setPeers(Arrays.asList("http://localhost:" + server.getAddress().getPort()));
+
+        ClusterAggregator aggregator = new ClusterAggregator(clock, localStore, properties);
+        aggregator.pollAll();
+
+        assertEquals(0, aggregator.getReachablePeerCount());
+        assertEquals(0, aggregator.getStatistic().getCount());
+    }
+
+    /**
+     * Start a peer serving the buckets of a store, like the /statistics/buckets endpoint.
+     * @param store Store of the peer
+     * @return Base URL of the peer
+     */
+    private String startPeer(StatisticsStore store) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/statistics/buckets", exchange -> {
+            BucketSnapshot snapshot = store.exportBuckets();
+            byte[] bytes = snapshot.toBytes();
+
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(bytes);
+            }
+        });
+        server.start();
+        servers.add(server);
+
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+}
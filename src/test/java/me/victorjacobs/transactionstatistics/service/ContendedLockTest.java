@@ -0,0 +1,48 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContendedLockTest {
+    private static final int TOTAL = LatencyHistogram.getBoundsNanos().length;
+
+    @Test
+    public void acquire_free() {
+        ContendedLock lock = new ContendedLock();
+
+        lock.acquire();
+        lock.unlock();
+
+        assertEquals(0, lock.getWaits().getCumulativeCounts()[TOTAL]);
+    }
+
+    @Test
+    public void acquire_contended() throws Exception {
+        ContendedLock lock = new ContendedLock();
+        CountDownLatch acquired = new CountDownLatch(1);
+
+        lock.acquire();
+        Thread waiter = new Thread(() -> {
+            lock.acquire();
+            acquired.countDown();
+            lock.unlock();
+        });
+        waiter.start();
+
+        // Give the waiter time to block on the lock
+        while (!lock.hasQueuedThread(waiter)) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(20);
+        lock.unlock();
+
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, lock.getWaits().getCumulativeCounts()[TOTAL]);
+        assertTrue(lock.getWaits().getSumNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+}
@@ -0,0 +1,199 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.BatchResult;
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FixedPointBucketStorageTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    @Test
+    public void add_sumIsExact() {
+        FixedPointBucketStorage storage = new FixedPointBucketStorage(2);
+
+        // Added as doubles, 0.1 ten times sums to 0.9999999999999999
+        for (int i = 0; i < 10; i++) {
+            storage.add(0.1, NOW - i * 1000);
+        }
+        storage.add(12.1, NOW);
+
+        assertStatistic(13.1, 13.1 / 11, 12.1, 0.1, 11, storage.getStatistic(NOW, 60000));
+        assertEquals(13.1, storage.getStatistic(NOW, 60000).getSum(), 0);
+    }
+
+    @Test
+    public void add_roundsToScale() {
+        FixedPointBucketStorage storage = new FixedPointBucketStorage(2);
+
+        storage.add(1.006, NOW);
+        storage.add(-2.004, NOW);
+
+        assertStatistic(-0.99, -0.495, 1.01, -2.0, 2, storage.getStatistic(NOW, 60000));
+    }
+
+    @Test
+    public void add_concurrentWritersSameBucket() throws Exception {
+        FixedPointBucketStorage storage = new FixedPointBucketStorage(2);
+        int threads = 8;
+        int addsPerThread = 10000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                for (int i = 0; i < addsPerThread; i++) {
+                    storage.add(0.01, NOW + (i % 2000));
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+
+        start.countDown();
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        long total = threads * addsPerThread;
+        assertStatistic(total / 100.0, 0.01, 0.01, 0.01, total, storage.getStatistic(NOW + 2000, 60000));
+        assertEquals(total, storage.getTransactionCount());
+    }
+
+    @Test
+    public void add_newerSecondResetsBucket() {
+        FixedPointBucketStorage storage = new FixedPointBucketStorage(2);
+
+        storage.add(10.0, NOW);
+        storage.add(4.0, NOW + 60000);
+        storage.add(1.0, NOW);
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 60000, 60000));
+        assertEquals(1, storage.getBucketResets());
+        assertEquals(2, storage.getTransactionCount());
+    }
+
+    @Test
+    public void add_amountOverflowIsRejected() {
+        FixedPointBucketStorage storage = new FixedPointBucketStorage(2);
+
+        assertFalse(storage.add(1e17, NOW));
+        assertFalse(storage.add(Double.NaN, NOW));
+        assertFalse(storage.add(Double.POSITIVE_INFINITY, NOW));
+        assertTrue(storage.add(5.0, NOW));
+
+        assertStatistic(5.0, 5.0, 5.0, 5.0, 1, storage.getStatistic(NOW, 60000));
+        assertEquals(3, storage.getAmountOverflows());
+        assertEquals(1, storage.getTransactionCount());
+    }
+
+    @Test
+    public void add_sumOverflowIsRejected() {
+        FixedPointBucketStorage storage = new FixedPointBucketStorage(0);
+
+        assertTrue(storage.add(0x1p62, NOW));
+        assertFalse(storage.add(0x1p62, NOW));
+        assertTrue(storage.add(-1.0, NOW));
+
+        Statistic statistic = storage.getStatistic(NOW, 60000);
+        assertEquals(2, statistic.getCount());
+        assertEquals(0x1p62 - 1, statistic.getSum(), 0);
+        assertEquals(1, storage.getAmountOverflows());
+    }
+
+    @Test
+    public void add_overflowIsReportedToStore() {
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(NOW);
+        StatisticsStore store = new StatisticsStore(clock, StorageMode.FIXED_POINT);
+        long version = store.getVersion();
+
+        assertFalse(store.add(new Transaction(1e300, NOW)));
+        assertEquals(version, store.getVersion());
+
+        TransactionBatch batch = new TransactionBatch(3);
+        batch.add(1e300, NOW);
+        batch.add(5.0, NOW);
+        batch.add(1.0, NOW - 120000);
+
+        assertEquals(new BatchResult(1, 1, 0, 1, false), store.addAll(batch));
+        assertEquals(1, store.getMetrics().getAccepted());
+        assertEquals(2, store.getMetrics().getAmountOverflows());
+    }
+
+    @Test
+    public void getStatistic_windowSumBeyondLong() {
+        FixedPointBucketStorage storage = new FixedPointBucketStorage(0);
+
+        storage.add(0x1p62, NOW);
+        storage.add(0x1p62, NOW - 1000);
+        storage.add(0x1p62, NOW - 2000);
+
+        assertStatistic(3 * 0x1p62, 0x1p62, 0x1p62, 0x1p62, 3, storage.getStatistic(NOW, 60000));
+        assertEquals(0, storage.getAmountOverflows());
+    }
+
+    @Test
+    public void exportBuckets_decimals() {
+        FixedPointBucketStorage storage = new FixedPointBucketStorage(2);
+        storage.add(0.1, NOW);
+        storage.add(0.2, NOW + 1);
+
+        BucketSnapshot snapshot = new BucketSnapshot();
+        storage.exportBuckets(snapshot, NOW - 60000);
+
+        assertStatistic(0.3, 0.15, 0.2, 0.1, 2, snapshot.getBuckets().get(NOW));
+        assertEquals(0.3, snapshot.getBuckets().get(NOW).getSum(), 0);
+    }
+
+    @Test
+    public void resetExpired_installsEmptyCell() {
+        FixedPointBucketStorage storage = new FixedPointBucketStorage(2);
+        storage.add(10.0, NOW);
+        storage.add(4.0, NOW + 30000);
+
+        storage.resetExpired(NOW + 60001);
+        assertEquals(1, storage.getBucketResets());
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 60001, 60000));
+
+        BucketSnapshot snapshot = new BucketSnapshot();
+        storage.exportBuckets(snapshot, NOW);
+        assertEquals(1, snapshot.size());
+
+        // Writers of the new second add to the empty cell
+        storage.add(-1.0, NOW + 60500);
+        storage.add(3.0, NOW + 60700);
+        assertStatistic(6.0, 2.0, 4.0, -1.0, 3, storage.getStatistic(NOW + 60700, 60000));
+        assertEquals(1, storage.getBucketResets());
+
+        // Already reset for this second
+        storage.resetExpired(NOW + 60800);
+        assertStatistic(6.0, 2.0, 4.0, -1.0, 3, storage.getStatistic(NOW + 60800, 60000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_invalidScale() {
+        new FixedPointBucketStorage(FixedPointBucketStorage.MAX_SCALE + 1);
+    }
+}
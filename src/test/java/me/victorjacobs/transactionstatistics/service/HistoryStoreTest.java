@@ -0,0 +1,122 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HistoryStoreTest extends BaseTest {
+    // Start of an hour
+    private static final long NOW = 1486728000000L;
+    private static final long HOUR = 3600000;
+
+    private Clock clock;
+    private StatisticsStore statisticsStore;
+    private HistoryStore historyStore;
+
+    @Before
+    public void setup() {
+        clock = mock(Clock.class);
+        statisticsStore = new StatisticsStore(clock);
+
+        HistoryProperties properties = new HistoryProperties();
+        properties.setMinutes(60);
+        properties.setHours(24);
+        historyStore = new HistoryStore(clock, statisticsStore, properties);
+    }
+
+    @Test
+    public void getStatistic_rolledUpAndLive() {
+        add(10.0, NOW + 5000, NOW + 10000);
+        rollUpAt(NOW + 60000);
+        add(5.0, NOW + 55000, NOW + 60000);
+
+        assertStatistic(10.0, 10.0, 10.0, 10.0, 1, historyStore.getStatistic(NOW, NOW + 50000));
+        assertStatistic(15.0, 7.5, 10.0, 5.0, 2, historyStore.getStatistic(NOW, NOW + 60000));
+        // The minute of the first transaction starts before the range, the second of the other one doesn't
+        assertStatistic(5.0, 5.0, 5.0, 5.0, 1, historyStore.getStatistic(NOW + 1000));
+    }
+
+    @Test
+    public void start_keepsRollingUpAfterFailedRollup() {
+        StatisticsStore failingStore = mock(StatisticsStore.class);
+        when(failingStore.exportBuckets()).thenThrow(new IllegalStateException("Storage closed"))
+                .thenReturn(new BucketSnapshot());
+
+        HistoryProperties properties = new HistoryProperties();
+        properties.setEnabled(true);
+        properties.setRollupIntervalMillis(1);
+        HistoryStore roller = new HistoryStore(clock, failingStore, properties);
+
+        roller.start();
+        try {
+            verify(failingStore, timeout(5000).atLeast(3)).exportBuckets();
+        } finally {
+            roller.stop();
+        }
+    }
+
+    @Test
+    public void rollUp_onlyOnce() {
+        add(10.0, NOW + 5000, NOW + 10000);
+        rollUpAt(NOW + 60000);
+        rollUpAt(NOW + 62000);
+
+        assertStatistic(10.0, 10.0, 10.0, 10.0, 1, historyStore.getStatistic(NOW, NOW + 2 * HOUR));
+    }
+
+    @Test
+    public void rollUp_onlySecondsAboutToLeaveTheWindow() {
+        add(10.0, NOW + 5000, NOW + 10000);
+        rollUpAt(NOW + 50000);
+        add(1.0, NOW + 5000, NOW + 50000);
+        rollUpAt(NOW + 60000);
+
+        assertStatistic(11.0, 5.5, 10.0, 1.0, 2, historyStore.getStatistic(NOW, NOW + 60000));
+    }
+
+    @Test
+    public void getStatistic_olderThanMinutesFromHours() {
+        add(10.0, NOW + 5000, NOW + 10000);
+        rollUpAt(NOW + 60000);
+        add(4.0, NOW + 2 * HOUR + 5000, NOW + 2 * HOUR + 10000);
+        rollUpAt(NOW + 2 * HOUR + 60000);
+
+        assertStatistic(14.0, 7.0, 10.0, 4.0, 2, historyStore.getStatistic(NOW, NOW + 3 * HOUR));
+        // The minutes of the first hour are no longer retained, only the hour itself
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, historyStore.getStatistic(NOW + 60000, NOW + 3 * HOUR));
+        assertStatistic(10.0, 10.0, 10.0, 10.0, 1, historyStore.getStatistic(NOW, NOW + 2 * HOUR));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getStatistic_emptyRange() {
+        historyStore.getStatistic(NOW, NOW);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_rollupIntervalTooLong() {
+        HistoryProperties properties = new HistoryProperties();
+        properties.setRollupIntervalMillis(20000);
+
+        new HistoryStore(clock, statisticsStore, properties);
+    }
+
+    private void add(double amount, long timestamp, long now) {
+        when(clock.millis()).thenReturn(now);
+        statisticsStore.add(new Transaction(amount, timestamp));
+    }
+
+    private void rollUpAt(long now) {
+        when(clock.millis()).thenReturn(now);
+        historyStore.rollUp();
+    }
+}
@@ -0,0 +1,153 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.KeyedStatistic;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KeyedStatisticsStoreTest extends BaseTest {
+    private Clock clock;
+    private long now;
+
+    @Before
+    public void setup() {
+        clock = mock(Clock.class);
+        now = Instant.now().toEpochMilli();
+        when(clock.millis()).thenReturn(now);
+    }
+
+    @Test
+    public void add_keepsKeysApart() {
+        KeyedStatisticsStore store = new KeyedStatisticsStore(clock, 16);
+
+        store.add(createTransaction(10.0, 10, "a"));
+        store.add(createTransaction(4.0, 15, "a"));
+        store.add(createTransaction(3.0, 5, "b"));
+
+        assertStatistic(14.0, 7.0, 10.0, 4.0, 2, store.getStatistic("a"));
+        assertStatistic(3.0, 3.0, 3.0, 3.0, 1, store.getStatistic("b"));
+        assertStatistic(0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, store.getStatistic("c"));
+    }
+
+    @Test
+    public void add_outsideWindow() {
+        KeyedStatisticsStore store = new KeyedStatisticsStore(clock, 16);
+
+        assertFalse(store.add(createTransaction(10.0, 100, "a")));
+        assertFalse(store.add(createTransaction(10.0, -100, "a")));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void add_rejectsWhenFullOfActiveKeys() {
+        KeyedStatisticsStore store = new KeyedStatisticsStore(clock, 2);
+
+        assertTrue(store.add(createTransaction(1.0, 1, "a")));
+        assertTrue(store.add(createTransaction(1.0, 1, "b")));
+        assertFalse(store.add(createTransaction(1.0, 1, "c")));
+        assertTrue(store.add(createTransaction(1.0, 1, "a")));
+
+        assertEquals(1, store.getRejected());
+    }
+
+    @Test
+    public void add_evictsIdleKeys() {
+        KeyedStatisticsStore store = new KeyedStatisticsStore(clock, 2);
+        store.add(createTransaction(1.0, 1, "a"));
+        store.add(createTransaction(2.0, 1, "b"));
+
+        when(clock.millis()).thenReturn(now + 30000);
+        store.add(createTransaction(3.0, 1, "b"));
+
+        when(clock.millis()).thenReturn(now + 61000);
+        assertTrue(store.add(createTransaction(4.0, 1, "c")));
+
+        assertEquals(1, store.getEvicted());
+        assertStatistic(0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, store.getStatistic("a"));
+        assertStatistic(3.0, 3.0, 3.0, 3.0, 1, store.getStatistic("b"));
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, store.getStatistic("c"));
+    }
+
+    @Test
+    public void add_evictsLeastRecentlySeenKeysFirst() {
+        KeyedStatisticsStore store = new KeyedStatisticsStore(clock, 3);
+        store.add(createTransaction(1.0, 1, "a"));
+        store.add(createTransaction(2.0, 1, "b"));
+        store.add(createTransaction(3.0, 1, "c"));
+
+        when(clock.millis()).thenReturn(now + 30000);
+        store.add(createTransaction(4.0, 1, "a"));
+
+        when(clock.millis()).thenReturn(now + 61000);
+        assertTrue(store.add(createTransaction(5.0, 1, "d")));
+        assertTrue(store.add(createTransaction(6.0, 1, "e")));
+        // Only a is left from before, and it is still active
+        assertFalse(store.add(createTransaction(7.0, 1, "f")));
+
+        assertEquals(2, store.getEvicted());
+        assertEquals(1, store.getRejected());
+        assertEquals(3, store.size());
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, store.getStatistic("a"));
+        assertStatistic(0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, store.getStatistic("b"));
+        assertStatistic(6.0, 6.0, 6.0, 6.0, 1, store.getStatistic("e"));
+    }
+
+    @Test
+    public void getTopBySum() {
+        KeyedStatisticsStore store = new KeyedStatisticsStore(clock, 16);
+
+        for (int i = 0; i < 10; i++) {
+            store.add(createTransaction(i, 1, "key" + i));
+        }
+        store.add(createTransaction(100.0, 1, "key3"));
+
+        List<KeyedStatistic> top = store.getTopBySum(3);
+
+        assertEquals(3, top.size());
+        assertEquals("key3", top.get(0).getKey());
+        assertEquals("key9", top.get(1).getKey());
+        assertEquals("key8", top.get(2).getKey());
+        assertStatistic(103.0, 51.5, 100.0, 3.0, 2, top.get(0).getStatistic());
+    }
+
+    @Test
+    public void manyActiveKeys() {
+        int keys = 100000;
+        KeyedStatisticsStore store = new KeyedStatisticsStore(clock, keys);
+
+        for (int i = 0; i < keys; i++) {
+            assertTrue(store.add(createTransaction(i, i % 60, "merchant-" + i)));
+        }
+
+        assertEquals(keys, store.size());
+        for (int i = 0; i < keys; i += 997) {
+            assertStatistic(i, i, i, i, 1, store.getStatistic("merchant-" + i));
+        }
+        assertEquals("merchant-" + (keys - 1), store.getTopBySum(1).get(0).getKey());
+
+        // All keys go idle and are replaced by new ones
+        when(clock.millis()).thenReturn(now + 61000);
+        for (int i = 0; i < keys; i++) {
+            assertTrue(store.add(createTransaction(1.0, 1, "currency-" + i)));
+        }
+
+        assertEquals(keys, store.size());
+        assertEquals(keys, store.getEvicted());
+        assertStatistic(1.0, 1.0, 1.0, 1.0, 1, store.getStatistic("currency-" + (keys / 2)));
+    }
+
+    private Transaction createTransaction(double amount, int secondsAgo, String key) {
+        return new Transaction(amount, clock.millis() - secondsAgo * 1000, key);
+    }
+}
@@ -0,0 +1,63 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+    @Test
+    public void record() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(500);
+        histogram.record(1000);
+        histogram.record(1001);
+        histogram.record(3000000);
+        histogram.record(60000000000L);
+
+        long[] counts = histogram.getCumulativeCounts();
+        assertEquals(LatencyHistogram.getBoundsNanos().length + 1, counts.length);
+        // Bounds are inclusive: 1 µs, 2 µs, 5 µs, ...
+        assertEquals(2, counts[0]);
+        assertEquals(3, counts[1]);
+        assertEquals(3, counts[10]);
+        assertEquals(4, counts[11]);
+        assertEquals(4, counts[counts.length - 2]);
+        assertEquals(5, counts[counts.length - 1]);
+        assertEquals(60003002501L, histogram.getSumNanos());
+    }
+
+    @Test
+    public void record_concurrent() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(1500);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        long[] counts = histogram.getCumulativeCounts();
+        assertEquals(0, counts[0]);
+        assertEquals(400000, counts[1]);
+        assertEquals(600000000L, histogram.getSumNanos());
+    }
+
+    @Test
+    public void getBoundsNanos_isCopy() {
+        LatencyHistogram.getBoundsNanos()[0] = 0;
+
+        assertArrayEquals(new long[]{1000L, 2000L}, Arrays.copyOf(LatencyHistogram.getBoundsNanos(), 2));
+    }
+}
@@ -0,0 +1,164 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MappedBucketStorageTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        file = folder.getRoot().toPath().resolve("buckets.bin");
+    }
+
+    @Test
+    public void restart_keepsBuckets() {
+        MappedBucketStorage storage = new MappedBucketStorage(file, NOW);
+        storage.add(10.0, NOW - 30000);
+        storage.add(4.0, NOW - 5000);
+        storage.add(1.0, NOW - 5000);
+        storage.close();
+
+        MappedBucketStorage restarted = new MappedBucketStorage(file, NOW);
+
+        assertStatistic(15.0, 5.0, 10.0, 1.0, 3, restarted.getStatistic(NOW, 60000));
+    }
+
+    @Test
+    public void add_olderSecondThanBucketIsDropped() {
+        MappedBucketStorage storage = new MappedBucketStorage(file, NOW);
+        storage.add(4.0, NOW);
+        storage.add(10.0, NOW - 60000);
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW, 60000));
+        assertEquals(1, storage.getTransactionCount());
+        storage.close();
+    }
+
+    @Test
+    public void restart_dropsStaleBuckets() {
+        MappedBucketStorage storage = new MappedBucketStorage(file, NOW);
+        storage.add(10.0, NOW - 50000);
+        storage.add(4.0, NOW - 5000);
+        storage.close();
+
+        // Down for 20 seconds, the first bucket left the window in the meantime
+        MappedBucketStorage restarted = new MappedBucketStorage(file, NOW + 20000);
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, restarted.getStatistic(NOW + 20000, 60000));
+
+        // Writing to the slot of the stale bucket resets it
+        restarted.add(2.0, NOW + 10000);
+        assertStatistic(6.0, 3.0, 4.0, 2.0, 2, restarted.getStatistic(NOW + 20000, 60000));
+        assertEquals(1, restarted.getBucketResets());
+    }
+
+    @Test
+    public void restart_resetsBucketsAfterNow() {
+        MappedBucketStorage storage = new MappedBucketStorage(file, NOW + 30000);
+        storage.add(10.0, NOW + 30000);
+        storage.add(4.0, NOW - 5000);
+        storage.close();
+
+        // The clock was set back 30 seconds while down
+        MappedBucketStorage restarted = new MappedBucketStorage(file, NOW);
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, restarted.getStatistic(NOW + 30000, 60000));
+
+        // The slot of the bucket from the future takes writes again
+        restarted.add(2.0, NOW - 30000);
+        assertStatistic(6.0, 3.0, 4.0, 2.0, 2, restarted.getStatistic(NOW, 60000));
+    }
+
+    @Test
+    public void create_fileInUse() {
+        MappedBucketStorage storage = new MappedBucketStorage(file, NOW);
+
+        try {
+            new MappedBucketStorage(file, NOW);
+            fail("Opened a bucket file that is in use");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        storage.close();
+        new MappedBucketStorage(file, NOW).close();
+    }
+
+    @Test
+    public void create_missingDirectory() {
+        StoreProperties properties = new StoreProperties();
+        properties.setBucketFile(file.resolveSibling("data").resolve("buckets.bin").toString());
+
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC);
+
+        MappedBucketStorage storage = MappedBucketStorage.create(properties, clock);
+        storage.add(10.0, NOW);
+
+        assertStatistic(10.0, 10.0, 10.0, 10.0, 1, storage.getStatistic(NOW, 60000));
+    }
+
+    @Test
+    public void create_differentLayout() throws IOException {
+        MappedBucketStorage storage = new MappedBucketStorage(file, NOW);
+        storage.add(10.0, NOW);
+        storage.close();
+
+        // Same size, but written by another version of the layout
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(4, MappedBucketStorage.VERSION + 1);
+        Files.write(file, bytes);
+
+        assertStatistic(0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0,
+                new MappedBucketStorage(file, NOW).getStatistic(NOW, 60000));
+    }
+
+    @Test
+    public void create_truncatedFile() throws IOException {
+        Files.write(file, new byte[100]);
+
+        MappedBucketStorage storage = new MappedBucketStorage(file, NOW);
+        storage.add(10.0, NOW);
+
+        assertStatistic(10.0, 10.0, 10.0, 10.0, 1, storage.getStatistic(NOW, 60000));
+        assertEquals(16 + 60 * 40, Files.size(file));
+    }
+
+    @Test
+    public void layout() throws IOException {
+        MappedBucketStorage storage = new MappedBucketStorage(file, NOW);
+        storage.add(10.0, NOW + 1500);
+        storage.add(2.0, NOW + 1700);
+        storage.close();
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 16 + StatisticsStore.getBucketIndex(NOW + 1500) * 40;
+
+        assertEquals(MappedBucketStorage.MAGIC, buffer.getInt(0));
+        assertEquals(MappedBucketStorage.VERSION, buffer.getInt(4));
+        assertEquals(60, buffer.getInt(8));
+        assertEquals(NOW + 1000, buffer.getLong(offset));
+        assertEquals(2, buffer.getLong(offset + 8));
+        assertEquals(12.0, buffer.getDouble(offset + 16), 0);
+        assertEquals(2.0, buffer.getDouble(offset + 24), 0);
+        assertEquals(10.0, buffer.getDouble(offset + 32), 0);
+    }
+}
@@ -0,0 +1,104 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrimitiveBucketStorageTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+    private static final int OPERATIONS = 100000;
+    // Room for what reading the counter might allocate, a single object per operation takes megabytes
+    private static final long MAX_ALLOCATED_BYTES = 256;
+
+    private PrimitiveBucketStorage storage;
+
+    @Before
+    public void setup() {
+        storage = new PrimitiveBucketStorage();
+    }
+
+    @Test
+    public void add_wrapsAround() {
+        storage.add(10.0, NOW);
+        storage.add(4.0, NOW + 60000);
+        storage.add(2.0, NOW + 61000);
+
+        assertStatistic(6.0, 3.0, 4.0, 2.0, 2, storage.getStatistic(NOW + 61000, 60000));
+    }
+
+    @Test
+    public void add_olderSecondThanBucketIsDropped() {
+        storage.add(4.0, NOW + 60000);
+        storage.add(10.0, NOW);
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 60000, 60000));
+        assertEquals(1, storage.getTransactionCount());
+    }
+
+    @Test
+    public void resetExpired() {
+        storage.add(10.0, NOW);
+        storage.add(4.0, NOW + 30000);
+
+        storage.resetExpired(NOW + 60001);
+        assertEquals(1, storage.getBucketResets());
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 60001, 60000));
+
+        storage.add(2.0, NOW + 60500);
+        assertStatistic(6.0, 3.0, 4.0, 2.0, 2, storage.getStatistic(NOW + 60500, 60000));
+        assertEquals(1, storage.getBucketResets());
+    }
+
+    @Test
+    public void add_allocatesNothing() {
+        for (int i = 0; i < OPERATIONS; i++) {
+            storage.add(i, NOW + i);
+        }
+
+        long allocated = allocatedBytes();
+        for (int i = 0; i < OPERATIONS; i++) {
+            storage.add(i, NOW + i);
+        }
+        allocated = allocatedBytes() - allocated;
+
+        assertTrue("Allocated " + allocated + " bytes", allocated <= MAX_ALLOCATED_BYTES);
+    }
+
+    @Test
+    public void storeAdd_allocatesNothing() {
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(NOW + OPERATIONS), ZoneOffset.UTC);
+        StatisticsStore statisticsStore = new StatisticsStore(clock, StorageMode.PRIMITIVE);
+        Transaction transaction = new Transaction(10.0, NOW + OPERATIONS - 1);
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            statisticsStore.add(transaction);
+        }
+
+        long allocated = allocatedBytes();
+        for (int i = 0; i < OPERATIONS; i++) {
+            statisticsStore.add(transaction);
+        }
+        allocated = allocatedBytes() - allocated;
+
+        assertTrue("Allocated " + allocated + " bytes", allocated <= MAX_ALLOCATED_BYTES);
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, as reported by the JVM.
+     * @return Allocated bytes
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,104 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class RollingBucketStorageTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    private RollingBucketStorage storage;
+
+    @Before
+    public void setup() {
+        storage = new RollingBucketStorage();
+    }
+
+    @Test
+    public void getStatistic_expiresWithoutWrites() {
+        storage.add(10.0, NOW);
+        storage.add(4.0, NOW + 30000);
+        storage.add(1.0, NOW + 30500);
+
+        assertStatistic(15.0, 5.0, 10.0, 1.0, 3, storage.getStatistic(NOW + 60000, 60000));
+        assertStatistic(5.0, 2.5, 4.0, 1.0, 2, storage.getStatistic(NOW + 60001, 60000));
+        assertStatistic(0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0,
+                storage.getStatistic(NOW + 90001, 60000));
+    }
+
+    @Test
+    public void add_olderSecondThanBucketIsDropped() {
+        storage.add(4.0, NOW + 60000);
+        storage.add(10.0, NOW);
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 60000, 60000));
+        assertEquals(1, storage.getTransactionCount());
+    }
+
+    @Test
+    public void getStatistic_matchesFullScan() {
+        PrimitiveBucketStorage reference = new PrimitiveBucketStorage();
+        Random random = new Random(42);
+        long now = NOW;
+
+        for (int i = 0; i < 20000; i++) {
+            now += random.nextInt(50);
+            // Keep the second of the transaction in the window, for older ones the storages differ on purpose
+            long timestamp = now - random.nextInt(59000);
+            double amount = random.nextInt(2000) - 1000;
+
+            storage.add(amount, timestamp);
+            reference.add(amount, timestamp);
+
+            if (i % 10 == 0) {
+                Statistic expected = reference.getStatistic(now, 60000);
+                Statistic actual = storage.getStatistic(now, 60000);
+
+                assertStatistic(expected.getSum(), expected.getAvg(), expected.getMax(), expected.getMin(),
+                        expected.getCount(), actual);
+            }
+        }
+    }
+
+    @Test
+    public void getStatistic_shorterWindow() {
+        storage.add(10.0, NOW);
+        storage.add(4.0, NOW + 50000);
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 55000, 10000));
+    }
+
+    @Test(timeout = 5000)
+    public void getStatistic_doesNotWaitForWriters() throws Exception {
+        storage.add(10.0, NOW);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread writer = new Thread(() -> {
+            synchronized (storage) {
+                locked.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    // Test is over
+                }
+            }
+        });
+        writer.start();
+        locked.await();
+
+        try {
+            assertStatistic(10.0, 10.0, 10.0, 10.0, 1, storage.getStatistic(NOW + 1000, 60000));
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+    }
+}
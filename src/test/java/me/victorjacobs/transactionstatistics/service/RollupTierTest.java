@@ -0,0 +1,86 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class RollupTierTest extends BaseTest {
+    @Test
+    public void getStatistic_bucketsStartingInRange() {
+        RollupTier tier = new RollupTier(1000, 10);
+        tier.add(1500, 10.0, 10.0, 10.0, 1);
+        tier.add(1999, 2.0, 1.0, 1.0, 2);
+        tier.add(3000, 4.0, 4.0, 4.0, 1);
+
+        assertStatistic(16.0, 4.0, 10.0, 1.0, 4, tier.getStatistic(0, 10000));
+        assertStatistic(12.0, 4.0, 10.0, 1.0, 3, tier.getStatistic(1000, 3000));
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, tier.getStatistic(1001, 3001));
+        assertStatistic(0, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, tier.getStatistic(4000, 5000));
+    }
+
+    @Test
+    public void add_movingForwardClearsSkippedBuckets() {
+        RollupTier tier = new RollupTier(1000, 4);
+        tier.add(0, 1.0, 1.0, 1.0, 1);
+        tier.add(1000, 2.0, 2.0, 2.0, 1);
+        tier.add(6000, 6.0, 6.0, 6.0, 1);
+
+        // Only 3000 up to 6000 are retained, bucket 0 and 1000 would have been reused for 4000 and 5000
+        assertStatistic(6.0, 6.0, 6.0, 6.0, 1, tier.getStatistic(0, 10000));
+        assertEquals(3000, tier.getRetainedFrom());
+
+        tier.add(2000, 2.0, 2.0, 2.0, 1);
+        assertStatistic(6.0, 6.0, 6.0, 6.0, 1, tier.getStatistic(0, 10000));
+    }
+
+    @Test
+    public void getStatistic_equalsNaiveFold() {
+        Random random = new Random(42);
+        int capacity = 13;
+        RollupTier tier = new RollupTier(10, capacity);
+        TreeMap<Long, List<Double>> expected = new TreeMap<>();
+        long newest = 0;
+
+        for (int i = 0; i < 5000; i++) {
+            long bucket = Math.max(0, newest + random.nextInt(capacity + 5) - capacity);
+            if (random.nextInt(20) == 0) {
+                bucket += random.nextInt(3 * capacity);
+            }
+
+            double amount = random.nextInt(10000) / 100.0;
+            tier.add(bucket * 10 + random.nextInt(10), amount, amount, amount, 1);
+
+            if (bucket > newest - capacity) {
+                expected.computeIfAbsent(bucket, b -> new ArrayList<>()).add(amount);
+            }
+            newest = Math.max(newest, bucket);
+            expected.headMap(newest - capacity, true).clear();
+
+            long from = (newest - capacity - 2 + random.nextInt(capacity + 4)) * 10 + random.nextInt(10);
+            long to = from + random.nextInt(capacity * 10 + 20) + 1;
+            assertFold(expected, from, to, tier.getStatistic(from, to));
+        }
+    }
+
+    private void assertFold(TreeMap<Long, List<Double>> expected, long from, long to, Statistic statistic) {
+        Statistic fold = new Statistic();
+
+        for (Map.Entry<Long, List<Double>> bucket : expected.entrySet()) {
+            if (bucket.getKey() * 10 >= from && bucket.getKey() * 10 < to) {
+                for (double amount : bucket.getValue()) {
+                    fold = fold.add(amount);
+                }
+            }
+        }
+
+        assertStatistic(fold.getSum(), fold.getAvg(), fold.getMax(), fold.getMin(), fold.getCount(), statistic);
+    }
+}
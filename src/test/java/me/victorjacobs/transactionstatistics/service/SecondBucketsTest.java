@@ -0,0 +1,146 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SecondBucketsTest extends BaseTest {
+    private static final long START = 1478192204000L;
+
+    @Test
+    public void forEachSecond() {
+        SecondBuckets buckets = new SecondBuckets();
+        buckets.add(10.0, START + 999);
+        buckets.add(4.0, START);
+        buckets.add(3.0, START + 1000);
+        // Pages apart
+        buckets.add(7.0, START + 5000000);
+
+        List<Long> timestamps = new ArrayList<>();
+        List<Statistic> statistics = new ArrayList<>();
+        buckets.forEachSecond((timestamp, statistic) -> {
+            timestamps.add(timestamp);
+            statistics.add(statistic);
+        });
+
+        assertEquals(4, buckets.getTransactionCount());
+        assertEquals(3, timestamps.size());
+        assertEquals(START, (long) timestamps.get(0));
+        assertStatistic(14.0, 7.0, 10.0, 4.0, 2, statistics.get(0));
+        assertEquals(START + 1000, (long) timestamps.get(1));
+        assertStatistic(3.0, 3.0, 3.0, 3.0, 1, statistics.get(1));
+        assertEquals(START + 5000000, (long) timestamps.get(2));
+        assertStatistic(7.0, 7.0, 7.0, 7.0, 1, statistics.get(2));
+    }
+
+    @Test
+    public void merge_combinesBuckets() {
+        SecondBuckets buckets = new SecondBuckets();
+        buckets.add(10.0, START);
+        SecondBuckets other = new SecondBuckets();
+        other.add(4.0, START + 500);
+        other.add(-2.0, START + 60000);
+
+        buckets.merge(other);
+
+        List<Statistic> statistics = new ArrayList<>();
+        buckets.forEachSecond((timestamp, statistic) -> statistics.add(statistic));
+
+        assertEquals(3, buckets.getTransactionCount());
+        assertEquals(2, statistics.size());
+        assertStatistic(14.0, 7.0, 10.0, 4.0, 2, statistics.get(0));
+        assertStatistic(-2.0, -2.0, -2.0, -2.0, 1, statistics.get(1));
+    }
+
+    @Test
+    public void forEachWindow_slidesAndSkipsEmptyWindows() {
+        SecondBuckets buckets = new SecondBuckets();
+        buckets.add(10.0, START);
+        buckets.add(4.0, START + 2000);
+        buckets.add(1.0, START + 3600000);
+
+        List<Long> timestamps = new ArrayList<>();
+        List<Statistic> statistics = new ArrayList<>();
+        buckets.forEachWindow(3, (timestamp, statistic) -> {
+            timestamps.add(timestamp);
+            statistics.add(statistic);
+        });
+
+        // START up to START + 4s hold the first two transactions, the last one is an hour later
+        assertEquals(8, timestamps.size());
+        assertEquals(START, (long) timestamps.get(0));
+        assertStatistic(10.0, 10.0, 10.0, 10.0, 1, statistics.get(0));
+        assertStatistic(10.0, 10.0, 10.0, 10.0, 1, statistics.get(1));
+        assertStatistic(14.0, 7.0, 10.0, 4.0, 2, statistics.get(2));
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, statistics.get(3));
+        assertEquals(START + 4000, (long) timestamps.get(4));
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, statistics.get(4));
+        assertEquals(START + 3600000, (long) timestamps.get(5));
+        assertEquals(START + 3602000, (long) timestamps.get(7));
+        assertStatistic(1.0, 1.0, 1.0, 1.0, 1, statistics.get(7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forEachWindow_invalidWindow() {
+        new SecondBuckets().forEachWindow(0, (timestamp, statistic) -> { });
+    }
+
+    @Test
+    public void forEachWindow_matchesStatisticsStore() {
+        Random random = new Random(42);
+        SecondBuckets buckets = new SecondBuckets();
+        List<Transaction> transactions = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            // Bursts with gaps longer than the window in between
+            long timestamp = START + (i / 1000) * 200000 + random.nextInt(90000);
+            double amount = random.nextInt(10000) / 100.0;
+
+            buckets.add(amount, timestamp);
+            transactions.add(new Transaction(amount, timestamp));
+        }
+
+        List<Long> timestamps = new ArrayList<>();
+        List<Statistic> statistics = new ArrayList<>();
+        buckets.forEachWindow(60, (timestamp, statistic) -> {
+            timestamps.add(timestamp);
+            statistics.add(statistic);
+        });
+
+        Clock clock = mock(Clock.class);
+        long previous = Long.MIN_VALUE;
+
+        for (int i = 0; i < timestamps.size(); i++) {
+            long timestamp = timestamps.get(i);
+            assertTrue(timestamp > previous);
+            previous = timestamp;
+
+            // What the store reports at the end of the second, fed with the transactions of the seconds in its window
+            when(clock.millis()).thenReturn(timestamp + 999);
+            StatisticsStore statisticsStore = new StatisticsStore(clock);
+
+            for (Transaction transaction : transactions) {
+                if (transaction.getTimestamp() >= timestamp - 59000 && transaction.getTimestamp() <= timestamp + 999) {
+                    statisticsStore.add(transaction);
+                }
+            }
+
+            Statistic expected = statisticsStore.getStatistic();
+            assertStatistic(expected.getSum(), expected.getAvg(), expected.getMax(), expected.getMin(),
+                    expected.getCount(), statistics.get(i));
+            // Only subsamples, a store per second is slow
+            i += random.nextInt(20);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StatisticsBroadcasterTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    private StatisticsStore statisticsStore;
+    private StatisticsBroadcaster broadcaster;
+
+    @Before
+    public void setup() {
+        StreamProperties properties = new StreamProperties();
+        properties.setIntervalMillis(1000);
+        properties.setBufferSize(2);
+
+        statisticsStore = mock(StatisticsStore.class);
+        when(statisticsStore.getStatistic()).thenReturn(new Statistic());
+        broadcaster = new StatisticsBroadcaster(statisticsStore, new ObjectMapper(), properties);
+    }
+
+    @After
+    public void teardown() {
+        broadcaster.stop();
+    }
+
+    @Test
+    public void tick_withoutSubscribers() {
+        broadcaster.tick(NOW);
+
+        verify(statisticsStore, never()).getStatistic();
+    }
+
+    @Test
+    public void subscribe_pushesCurrentStatistics() throws Exception {
+        when(statisticsStore.getStatistic()).thenReturn(new Statistic(10.0, 10.0, 10.0, 10.0, 1));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        broadcaster.subscribe(subscriber);
+
+        String json = subscriber.next();
+        assertTrue(json.contains("\"sum\":10.0"));
+        assertTrue(json.contains("\"count\":1"));
+        assertEquals(1, broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    public void start_keepsCheckingAfterFailedCheck() throws Exception {
+        StreamProperties properties = new StreamProperties();
+        properties.setCheckMillis(1);
+        broadcaster.stop();
+        broadcaster = new StatisticsBroadcaster(statisticsStore, new ObjectMapper(), properties);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        broadcaster.subscribe(subscriber);
+        subscriber.next();
+
+        when(statisticsStore.getStatistic()).thenThrow(new IllegalStateException("Storage closed"))
+                .thenReturn(new Statistic(10.0, 10.0, 10.0, 10.0, 1));
+        broadcaster.start();
+
+        assertTrue(subscriber.next().contains("\"sum\":10.0"));
+    }
+
+    @Test
+    public void tick_coalescesUnchangedStatistics() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        broadcaster.subscribe(subscriber);
+        subscriber.next();
+
+        broadcaster.tick(NOW);
+        String first = subscriber.next();
+
+        // Unchanged and within the interval, nothing is pushed
+        broadcaster.tick(NOW + 100);
+        broadcaster.tick(NOW + 999);
+        assertNull(subscriber.poll());
+
+        // Unchanged but the interval passed
+        broadcaster.tick(NOW + 1000);
+        assertEquals(first, subscriber.next());
+    }
+
+    @Test
+    public void tick_pushesChangedStatistics() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        broadcaster.subscribe(subscriber);
+        subscriber.next();
+        broadcaster.tick(NOW);
+        subscriber.next();
+
+        when(statisticsStore.getStatistic()).thenReturn(new Statistic(5.0, 5.0, 5.0, 5.0, 1));
+        broadcaster.tick(NOW + 100);
+
+        assertTrue(subscriber.next().contains("\"sum\":5.0"));
+    }
+
+    @Test
+    public void tick_serialisesOnceForAllSubscribers() throws Exception {
+        List<RecordingSubscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            broadcaster.subscribe(subscriber);
+            subscriber.next();
+            subscribers.add(subscriber);
+        }
+
+        broadcaster.tick(NOW);
+
+        // Once per subscribe and once for the tick
+        verify(statisticsStore, times(4)).getStatistic();
+        String json = subscribers.get(0).next();
+        for (RecordingSubscriber subscriber : subscribers.subList(1, subscribers.size())) {
+            assertSame(json, subscriber.next());
+        }
+    }
+
+    @Test
+    public void offer_dropsOldestForSlowSubscriber() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+        StatisticsBroadcaster.Subscriber slow = broadcaster.new Subscriber() {
+            @Override
+            void send(String json) throws InterruptedIOException {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                received.add(json);
+            }
+
+            @Override
+            void close() {
+            }
+        };
+        RecordingSubscriber fast = new RecordingSubscriber();
+        broadcaster.subscribe(fast);
+        broadcaster.subscribe(slow);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        fast.next();
+
+        // The fast subscriber gets every push while the slow one is blocked
+        for (int i = 1; i <= 5; i++) {
+            when(statisticsStore.getStatistic()).thenReturn(new Statistic(i, i, i, i, 1));
+            broadcaster.tick(NOW + i * 100);
+            assertTrue(fast.next().contains("\"sum\":" + i + ".0"));
+        }
+
+        release.countDown();
+        received.poll(5, TimeUnit.SECONDS);
+        assertTrue(received.poll(5, TimeUnit.SECONDS).contains("\"sum\":4.0"));
+        assertTrue(received.poll(5, TimeUnit.SECONDS).contains("\"sum\":5.0"));
+        assertEquals(3, slow.getDropped());
+    }
+
+    @Test
+    public void send_failureRemovesSubscriber() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+
+        broadcaster.subscribe(broadcaster.new Subscriber() {
+            @Override
+            void send(String json) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            void close() {
+                closed.countDown();
+            }
+        });
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    public void tick_dropsSubscriberStuckInSend() throws Exception {
+        StreamProperties properties = new StreamProperties();
+        properties.setSenderThreads(1);
+        properties.setSendTimeoutMillis(100);
+        broadcaster.stop();
+        broadcaster = new StatisticsBroadcaster(statisticsStore, new ObjectMapper(), properties);
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+
+        broadcaster.subscribe(broadcaster.new Subscriber() {
+            @Override
+            void send(String json) {
+                blocked.countDown();
+
+                // Stays in the send after the interrupt, like a write to a connection that stopped reading
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                }
+            }
+
+            @Override
+            void close() {
+                closed.countDown();
+            }
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        // The only sender thread is stuck, so the push to the new subscriber waits
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        broadcaster.subscribe(subscriber);
+        assertNull(subscriber.poll());
+
+        broadcaster.tick(System.currentTimeMillis() + 1000);
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, broadcaster.getSubscriberCount());
+        subscriber.next();
+        subscriber.next();
+
+        // Completed once out of the send
+        assertEquals(1, closed.getCount());
+        release.countDown();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    private class RecordingSubscriber extends StatisticsBroadcaster.Subscriber {
+        private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+        RecordingSubscriber() {
+            broadcaster.super();
+        }
+
+        @Override
+        void send(String json) {
+            received.add(json);
+        }
+
+        @Override
+        void close() {
+        }
+
+        String next() throws InterruptedException {
+            String json = received.poll(5, TimeUnit.SECONDS);
+            assertTrue("No push received", json != null);
+            return json;
+        }
+
+        String poll() throws InterruptedException {
+            return received.poll(100, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -1,27 +1,54 @@
 package me.victorjacobs.transactionstatistics.service;
 
 import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.BatchResult;
+import me.victorjacobs.transactionstatistics.model.BucketSnapshot;
+import me.victorjacobs.transactionstatistics.model.Statistic;
 import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
 
+import java.io.IOException;
 import java.time.Clock;
 import java.time.Instant;
+import java.util.Arrays;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 /**
+ * Runs for every storage mode, all of them should behave the same.
  * Created by Victor on 10/02/2017.
  */
+@RunWith(Parameterized.class)
 public class StatisticsStoreTest extends BaseTest {
     private StatisticsStore statisticsStore;
     private Clock clock;
 
+    @Parameter
+    public StorageMode mode;
+
+    @Parameters(name = "{0}")
+    public static StorageMode[] modes() {
+        return StorageMode.values();
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
-    public void setup() {
+    public void setup() throws IOException {
         clock = mock(Clock.class);
-        statisticsStore = new StatisticsStore(clock);
+        statisticsStore = new StatisticsStore(clock, createProperties());
     }
 
     @Test
@@ -70,6 +97,21 @@ public class StatisticsStoreTest extends BaseTest {
         assertStatisticStore(4.0, 4.0, 4.0, 4.0, 1);
     }
 
+    @Test
+    public void addTransaction_olderSecondInSameBucket_keepsNewerSecond() {
+        long second = Instant.now().toEpochMilli() / 1000 * 1000;
+        long now = second + 500;
+
+        when(clock.millis()).thenReturn(now);
+        statisticsStore.add(new Transaction(10.0, second));
+        // Still accepted, but its second started a window ago and shares its bucket with the current one
+        statisticsStore.add(new Transaction(4.0, now - 60000));
+
+        assertStatisticStore(10.0, 10.0, 10.0, 10.0, 1);
+        // The coarser levels of the time wheel reach further back, and still take it
+        assertEquals(mode == StorageMode.TIME_WHEEL ? 2 : 1, statisticsStore.getMetrics().getAccepted());
+    }
+
     @Test
     public void addTransaction_outOfOrder() {
         when(clock.millis()).thenReturn(Instant.now().toEpochMilli());
@@ -110,6 +152,305 @@ public class StatisticsStoreTest extends BaseTest {
         assertStatisticStore(0.0, 0.0, 10.0, -10.0, 2);
     }
 
+    @Test
+    public void addAll_discardsOutsideWindow() {
+        when(clock.millis()).thenReturn(Instant.now().toEpochMilli());
+
+        TransactionBatch batch = new TransactionBatch(2);
+        batch.add(10.0, clock.millis() - 5000);
+        batch.add(4.0, clock.millis() - 100000);
+        batch.add(2.0, clock.millis() - 10000);
+        batch.add(7.0, clock.millis() + 100000);
+        batch.add(3.0, clock.millis() - 5000);
+
+        BatchResult result = statisticsStore.addAll(batch);
+
+        assertEquals(new BatchResult(3, 1, 1), result);
+        assertStatisticStore(15.0, 5.0, 10.0, 2.0, 3);
+    }
+
+    @Test
+    public void getStatistic_shorterWindow() {
+        when(clock.millis()).thenReturn(Instant.now().toEpochMilli());
+
+        statisticsStore.add(createTransaction(10.0, 30));
+        statisticsStore.add(createTransaction(4.0, 5));
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, statisticsStore.getStatistic(10000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getStatistic_windowTooLong() {
+        statisticsStore.getStatistic(statisticsStore.getWindowMillis() + 1);
+    }
+
+    @Test
+    public void getStatistic_percentiles() throws IOException {
+        when(clock.millis()).thenReturn(Instant.now().toEpochMilli());
+        StoreProperties properties = createProperties();
+        properties.setPercentiles(Arrays.asList(50.0, 99.0));
+        statisticsStore = new StatisticsStore(clock, properties);
+
+        for (int i = 1; i <= 100; i++) {
+            statisticsStore.add(createTransaction(i, i % 50));
+        }
+        statisticsStore.add(createTransaction(1000.0, 100));
+
+        Statistic statistic = statisticsStore.getStatistic();
+        assertEquals(100, statistic.getCount());
+        assertEquals(50, statistic.getPercentiles().get("p50"), 1);
+        assertEquals(99, statistic.getPercentiles().get("p99"), 1);
+    }
+
+    @Test
+    public void getStatistic_percentilesOverSameBuckets() throws IOException {
+        long now = Instant.now().toEpochMilli();
+        when(clock.millis()).thenReturn(now);
+        StoreProperties properties = createProperties();
+        properties.setPercentiles(Arrays.asList(0.0, 100.0));
+        statisticsStore = new StatisticsStore(clock, properties);
+
+        statisticsStore.add(createTransaction(1000.0, 50));
+        statisticsStore.add(createTransaction(10.0, 5));
+        statisticsStore.add(createTransaction(20.0, 5));
+
+        Statistic statistic = statisticsStore.getStatistic(10000);
+        assertEquals(2, statistic.getCount());
+        assertEquals(10, statistic.getPercentiles().get("p0"), 0.1);
+        assertEquals(20, statistic.getPercentiles().get("p100"), 0.2);
+
+        // The first transaction left the window, and its bucket is reused for a new second
+        when(clock.millis()).thenReturn(now + 20000);
+        statisticsStore.add(createTransaction(5.0, 10));
+
+        statistic = statisticsStore.getStatistic();
+        assertEquals(3, statistic.getCount());
+        assertEquals(5, statistic.getPercentiles().get("p0"), 0.05);
+        assertEquals(20, statistic.getPercentiles().get("p100"), 0.2);
+    }
+
+    @Test
+    public void getMetrics_countsTransactions() {
+        when(clock.millis()).thenReturn(Instant.now().toEpochMilli());
+
+        statisticsStore.add(createTransaction(10.0, 5));
+        statisticsStore.add(createTransaction(4.0, 100));
+        statisticsStore.add(createTransaction(2.0, -100));
+
+        TransactionBatch batch = new TransactionBatch(2);
+        batch.add(3.0, clock.millis() - 5000);
+        batch.add(7.0, clock.millis() + 100000);
+        statisticsStore.addAll(batch);
+        statisticsStore.getStatistic();
+
+        StoreMetrics metrics = statisticsStore.getMetrics();
+        assertEquals(2, metrics.getAccepted());
+        assertEquals(1, metrics.getTooOld());
+        assertEquals(2, metrics.getInFuture());
+        assertEquals(1, metrics.getGetStatisticLatencies().getCumulativeCounts()[
+                LatencyHistogram.getBoundsNanos().length]);
+    }
+
+    @Test
+    public void getMetrics_disabled() throws IOException {
+        when(clock.millis()).thenReturn(Instant.now().toEpochMilli());
+        statisticsStore = new StatisticsStore(clock, createProperties(), false);
+
+        statisticsStore.add(createTransaction(10.0, 5));
+        statisticsStore.add(createTransaction(4.0, 100));
+        statisticsStore.getStatistic();
+
+        // Accepted transactions are counted by the storage either way
+        StoreMetrics metrics = statisticsStore.getMetrics();
+        assertEquals(1, metrics.getAccepted());
+        assertEquals(0, metrics.getTooOld());
+        assertEquals(0, metrics.getGetStatisticLatencies().getSumNanos());
+        assertStatisticStore(10.0, 10.0, 10.0, 10.0, 1);
+    }
+
+    @Test
+    public void getMetrics_countsBucketResets() {
+        long now = Instant.now().toEpochMilli();
+
+        for (int i = 0; i < 120; i++) {
+            when(clock.millis()).thenReturn(now + i * 1000);
+            statisticsStore.add(createTransaction(1.0, 0));
+        }
+
+        assertTrue(statisticsStore.getMetrics().getBucketResets() > 0);
+        assertStatisticStore(60.0, 1.0, 1.0, 1.0, 60);
+    }
+
+    @Test
+    public void exportBuckets() {
+        long now = Instant.now().toEpochMilli();
+        when(clock.millis()).thenReturn(now);
+
+        statisticsStore.add(createTransaction(10.0, 5));
+        statisticsStore.add(createTransaction(4.0, 5));
+        statisticsStore.add(createTransaction(2.0, 30));
+
+        BucketSnapshot snapshot = statisticsStore.exportBuckets();
+        assertEquals(2, snapshot.size());
+        assertStatistic(14.0, 7.0, 10.0, 4.0, 2, snapshot.getBuckets().get((now - 5000) / 1000 * 1000));
+        assertStatistic(16.0, 5.333, 10.0, 2.0, 3, snapshot.getStatistic(now - 60000));
+
+        // Buckets that left the window aren't exported
+        when(clock.millis()).thenReturn(now + 40000);
+        assertEquals(1, statisticsStore.exportBuckets().size());
+    }
+
+    @Test
+    public void getVersion_changesWithAdds() {
+        when(clock.millis()).thenReturn(Instant.now().toEpochMilli());
+        long version = statisticsStore.getVersion();
+        assertEquals(version, statisticsStore.getVersion());
+
+        statisticsStore.add(createTransaction(10.0, 5));
+        assertTrue(statisticsStore.getVersion() > version);
+        version = statisticsStore.getVersion();
+
+        // Discarded transactions don't change the statistics
+        statisticsStore.add(createTransaction(10.0, 61));
+        assertEquals(version, statisticsStore.getVersion());
+
+        TransactionBatch batch = new TransactionBatch(1);
+        batch.add(4.0, clock.millis());
+        statisticsStore.addAll(batch);
+        assertTrue(statisticsStore.getVersion() > version);
+    }
+
+    @Test
+    public void getVersion_changesWhenBucketsExpire() {
+        long now = Instant.now().toEpochMilli() / 1000 * 1000;
+        when(clock.millis()).thenReturn(now);
+        statisticsStore.add(createTransaction(10.0, 59));
+        statisticsStore.add(createTransaction(4.0, 58));
+
+        long version = statisticsStore.getVersion();
+        Statistic statistic = statisticsStore.getStatistic();
+        int versionChanges = 0;
+
+        // Every time the statistics change as time passes, so does the version
+        for (long millis = now; millis < now + 2500; millis++) {
+            when(clock.millis()).thenReturn(millis);
+            long nextVersion = statisticsStore.getVersion();
+            Statistic nextStatistic = statisticsStore.getStatistic();
+
+            if (!nextStatistic.equals(statistic)) {
+                assertTrue(nextVersion > version);
+            }
+            if (nextVersion != version) {
+                versionChanges++;
+            }
+
+            version = nextVersion;
+            statistic = nextStatistic;
+        }
+
+        assertEquals(0, statistic.getCount());
+        assertTrue(versionChanges <= 25);
+    }
+
+    @Test
+    public void tick_coarseClockResetsBuckets() throws IOException {
+        long second = Instant.now().toEpochMilli() / 1000 * 1000;
+        when(clock.millis()).thenReturn(second - 1);
+        StoreProperties properties = createProperties();
+        properties.setTickerEnabled(true);
+        statisticsStore = new StatisticsStore(clock, properties);
+
+        statisticsStore.add(new Transaction(10.0, second - 59900));
+        statisticsStore.add(new Transaction(4.0, second - 2000));
+        assertStatisticStore(14.0, 7.0, 10.0, 4.0, 2);
+
+        // Without a tick the store keeps the time of the last one
+        when(clock.millis()).thenReturn(second + 1);
+        assertStatisticStore(14.0, 7.0, 10.0, 4.0, 2);
+        statisticsStore.add(new Transaction(2.0, second + 1));
+        assertEquals(1, statisticsStore.getMetrics().getInFuture());
+
+        statisticsStore.tick();
+        assertStatisticStore(4.0, 4.0, 4.0, 4.0, 1);
+
+        statisticsStore.add(new Transaction(2.0, second + 1));
+        statisticsStore.add(new Transaction(3.0, second + 1));
+        assertStatisticStore(9.0, 3.0, 4.0, 2.0, 3);
+        assertEquals(2, statisticsStore.exportBuckets().size());
+        assertTrue(statisticsStore.getMetrics().getBucketResets() <= 1);
+    }
+
+    @Test
+    public void add_tickerToleratesTickInterval() throws IOException {
+        long now = Instant.now().toEpochMilli();
+        when(clock.millis()).thenReturn(now);
+        StoreProperties properties = createProperties();
+        properties.setTickerEnabled(true);
+        properties.setTickMillis(5);
+        statisticsStore = new StatisticsStore(clock, properties);
+
+        // The store still has the time of the last tick, the transactions may be up to a tick ahead of it
+        when(clock.millis()).thenReturn(now + 5);
+        statisticsStore.add(new Transaction(10.0, now + 5));
+        statisticsStore.add(new Transaction(1.0, now + 6));
+
+        TransactionBatch batch = new TransactionBatch(2);
+        batch.add(4.0, now + 3);
+        batch.add(1.0, now + 10);
+        BatchResult result = statisticsStore.addAll(batch);
+
+        assertEquals(1, result.getAccepted());
+        assertEquals(1, result.getInFuture());
+        assertEquals(2, statisticsStore.getMetrics().getInFuture());
+        assertStatisticStore(14.0, 7.0, 10.0, 4.0, 2);
+    }
+
+    @Test
+    public void recover_replaysTransactionLog() throws IOException {
+        long now = Instant.now().toEpochMilli();
+        when(clock.millis()).thenReturn(now);
+        StoreProperties properties = createProperties();
+        properties.setPercentiles(Arrays.asList(0.0, 100.0));
+        LogProperties logProperties = new LogProperties();
+        logProperties.setDirectory(folder.newFolder().getPath());
+
+        TransactionLog transactionLog = new TransactionLog(clock, logProperties);
+        statisticsStore = new StatisticsStore(clock, properties, true, transactionLog);
+        statisticsStore.recover();
+        statisticsStore.add(createTransaction(10.0, 50));
+        statisticsStore.add(createTransaction(4.0, 10));
+        statisticsStore.add(createTransaction(2.0, 100));
+
+        TransactionBatch batch = new TransactionBatch(1);
+        batch.add(1.0, now - 5000);
+        statisticsStore.addAll(batch);
+        statisticsStore.close();
+        transactionLog.close();
+
+        // Down for 20 seconds, the first transaction left the window in the meantime
+        when(clock.millis()).thenReturn(now + 20000);
+        transactionLog = new TransactionLog(clock, logProperties);
+        statisticsStore = new StatisticsStore(clock, properties, true, transactionLog);
+        statisticsStore.recover();
+
+        assertStatisticStore(5.0, 2.5, 4.0, 1.0, 2);
+        assertEquals(1, statisticsStore.getStatistic().getPercentiles().get("p0"), 0.01);
+        assertEquals(4, statisticsStore.getStatistic().getPercentiles().get("p100"), 0.04);
+        statisticsStore.add(createTransaction(3.0, 0));
+        assertStatisticStore(8.0, 8.0 / 3, 4.0, 1.0, 3);
+        statisticsStore.close();
+        transactionLog.close();
+    }
+
+    private StoreProperties createProperties() throws IOException {
+        StoreProperties properties = new StoreProperties();
+        properties.setMode(mode);
+        // Limit the time wheel to the same 60 second window as the other storages
+        properties.setWheelLevels("100:1000,1000:60000");
+        properties.setBucketFile(folder.newFile().getPath());
+        return properties;
+    }
+
     private void assertStatisticStore(double sum, double avg, double max, double min, long count) {
         assertStatistic(sum, avg, max, min, count, statisticsStore.getStatistic());
     }
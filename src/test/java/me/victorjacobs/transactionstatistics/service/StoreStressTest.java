@@ -0,0 +1,588 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.Statistic;
+import me.victorjacobs.transactionstatistics.model.Transaction;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_MILLIS;
+import static me.victorjacobs.transactionstatistics.service.StatisticsStore.WINDOW_SIZE_SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Concurrency stress tests, run for every storage mode so a new mode is covered as soon as it is added to StorageMode.
+ *
+ * The litmus test works like a jcstress test: per round, writers and a reader race on a fresh store and every
+ * statistic the reader observes is classified as one of the outcomes that are allowed for the storage. The randomized
+ * test has writers and readers race on one store while the clock moves through several windows, and compares the
+ * store with a sequential model after every round of writes and at the second boundaries in between.
+ *
+ * The striped and fixed point storages update the fields of a bucket one by one, so a reader may see a count that
+ * doesn't match the sum, as long as each of them is right on its own. Every other storage has to look atomic to a
+ * reader.
+ *
+ * The KeyedStatisticsStore runs the same tests for a single key, its ring behaves like the one of the primitive
+ * storage.
+ */
+@RunWith(Parameterized.class)
+public class StoreStressTest extends BaseTest {
+    private static final Set<StorageMode> PER_FIELD_MODES = EnumSet.of(StorageMode.STRIPED, StorageMode.FIXED_POINT);
+    private static final int WRITERS = 3;
+    private static final String KEYED = "KEYED";
+    private static final String KEY = "merchant";
+
+    private final MutableClock clock = new MutableClock();
+    private final List<StatisticsStore> stores = new ArrayList<>();
+    private long seed;
+    private Random random;
+
+    @Parameter
+    public String name;
+
+    // Null for the keyed store
+    @Parameter(1)
+    public StorageMode mode;
+
+    @Parameters(name = "{0}")
+    public static List<Object[]> stores() {
+        List<Object[]> stores = new ArrayList<>();
+
+        for (StorageMode mode : StorageMode.values()) {
+            stores.add(new Object[]{mode.name(), mode});
+        }
+        stores.add(new Object[]{KEYED, null});
+
+        return stores;
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Reports the seed of a failing run, so it can be repeated
+    @Rule
+    public TestWatcher seedReporter = new TestWatcher() {
+        @Override
+        protected void failed(Throwable e, Description description) {
+            System.err.println("StoreStressTest " + description.getMethodName() + " failed with seed " + seed);
+        }
+    };
+
+    @Before
+    public void setup() {
+        seed = System.nanoTime();
+        random = new Random(seed);
+        clock.set(Instant.now().toEpochMilli());
+    }
+
+    @After
+    public void tearDown() {
+        stores.forEach(StatisticsStore::close);
+    }
+
+    /**
+     * Writers add transactions of 1.0 to the seconds of the window while a reader polls. Since every amount is 1.0, a
+     * statistic that is read atomically has a sum equal to its count, and since nothing leaves the window, neither the
+     * count nor the sum a reader sees ever goes down. Once the writers are done, every transaction has to be there.
+     */
+    @Test
+    public void litmus_readsAreNotTornAndAddsNotLost() throws Exception {
+        int rounds = 40;
+        int addsPerWriter = 500;
+
+        for (int round = 0; round < rounds; round++) {
+            Target store = createStore();
+            long now = clock.millis();
+            // Stay clear of the second at the start of the window, which may be evicted by the current one
+            long oldest = now - now % 1000 - WINDOW_SIZE_MILLIS + 2000;
+            AtomicBoolean writing = new AtomicBoolean(true);
+            AtomicReference<String> violation = new AtomicReference<>();
+
+            List<Runnable> actors = new ArrayList<>();
+
+            for (int w = 0; w < WRITERS; w++) {
+                long[] timestamps = new long[addsPerWriter];
+
+                for (int i = 0; i < addsPerWriter; i++) {
+                    timestamps[i] = oldest + (long) (random.nextDouble() * (now - oldest));
+                }
+
+                boolean batched = w == 0;
+                actors.add(() -> {
+                    if (batched) {
+                        for (int i = 0; i < timestamps.length; i += 50) {
+                            TransactionBatch batch = new TransactionBatch(50);
+
+                            for (int j = i; j < i + 50; j++) {
+                                batch.add(1.0, timestamps[j]);
+                            }
+
+                            store.addAll(batch);
+                        }
+                    } else {
+                        for (long timestamp : timestamps) {
+                            store.add(1.0, timestamp);
+                        }
+                    }
+                });
+            }
+
+            actors.add(() -> {
+                Statistic last = new Statistic();
+
+                while (writing.get() && violation.get() == null) {
+                    Statistic statistic = store.getStatistic();
+                    String outcome = classify(statistic, last, WRITERS * addsPerWriter);
+
+                    if (outcome != null) {
+                        violation.compareAndSet(null, outcome + " after " + last + ": " + statistic);
+                    }
+
+                    last = statistic;
+                }
+            });
+
+            race(actors, WRITERS, writing);
+
+            if (violation.get() != null) {
+                fail("Round " + round + ", forbidden outcome " + violation.get());
+            }
+
+            double total = WRITERS * addsPerWriter;
+            assertStatistic(total, 1.0, 1.0, 1.0, (long) total, store.getStatistic());
+            clock.advance(random.nextInt(2000));
+        }
+    }
+
+    /**
+     * Writers add random amounts at timestamps that favour the edges of the window, the second a window ago that
+     * shares its bucket with the current one, and timestamps that should be discarded, while readers poll. Between
+     * rounds the clock moves in steps that often land on or next to a second boundary, until the window wrapped around
+     * a few times. After every round and at every boundary crossed, the store has to match the sequential model.
+     */
+    @Test
+    public void randomized_matchesSequentialModel() throws Exception {
+        Target store = createStore();
+        SequentialModel model = new SequentialModel(getRingSize());
+        long end = clock.millis() + 3 * WINDOW_SIZE_MILLIS;
+        int round = 0;
+
+        while (clock.millis() < end) {
+            long now = clock.millis();
+            List<List<Transaction>> perWriter = new ArrayList<>();
+
+            for (int w = 0; w < WRITERS; w++) {
+                List<Transaction> transactions = new ArrayList<>();
+
+                for (int i = 0; i < 100; i++) {
+                    Transaction transaction = new Transaction(nextAmount(), nextTimestamp(now));
+                    transactions.add(transaction);
+                    model.add(transaction.getAmount(), transaction.getTimestamp(), now);
+                }
+
+                perWriter.add(transactions);
+            }
+
+            AtomicBoolean writing = new AtomicBoolean(true);
+            AtomicReference<String> violation = new AtomicReference<>();
+            List<Runnable> actors = new ArrayList<>();
+
+            for (int w = 0; w < WRITERS; w++) {
+                List<Transaction> transactions = perWriter.get(w);
+                boolean batched = w == 0;
+
+                actors.add(() -> {
+                    if (batched) {
+                        TransactionBatch batch = new TransactionBatch(transactions.size());
+                        transactions.forEach(t -> batch.add(t.getAmount(), t.getTimestamp()));
+                        store.addAll(batch);
+                    } else {
+                        transactions.forEach(t -> store.add(t.getAmount(), t.getTimestamp()));
+                    }
+                });
+            }
+
+            actors.add(() -> {
+                while (writing.get() && violation.get() == null) {
+                    Statistic statistic = store.getStatistic();
+
+                    if (statistic.getCount() < 0 ||
+                            (statistic.getCount() > 0 && statistic.getMin() > statistic.getMax())) {
+                        violation.compareAndSet(null, statistic.toString());
+                    }
+                }
+            });
+
+            race(actors, WRITERS, writing);
+
+            if (violation.get() != null) {
+                fail("Round " + round + ", inconsistent read " + violation.get());
+            }
+
+            assertMatchesModel(store, model, now, "after round " + round);
+
+            // Move on, checking the model on both sides of every second boundary on the way
+            long next = now + nextStep(now);
+
+            for (long boundary = now - now % 1000 + 1000; boundary <= next + 1; boundary += 1000) {
+                for (long t = Math.max(now + 1, boundary - 1); t <= Math.min(next, boundary + 1); t++) {
+                    clock.set(t);
+                    assertMatchesModel(store, model, t, "at " + (t - boundary) + "ms from a boundary after round " +
+                            round);
+                }
+            }
+
+            clock.set(next);
+            round++;
+        }
+    }
+
+    /**
+     * @return Why the statistic isn't an allowed outcome of the litmus test, or null when it is
+     */
+    private String classify(Statistic statistic, Statistic last, long total) {
+        long count = statistic.getCount();
+
+        if (count < last.getCount() || statistic.getSum() < last.getSum()) {
+            return "lost transactions";
+        }
+
+        if (count > total || statistic.getSum() > total) {
+            return "more transactions than were added";
+        }
+
+        if (count == 0) {
+            return statistic.getSum() == 0 ? null : "sum without transactions";
+        }
+
+        if (statistic.getMin() != 1.0 || statistic.getMax() != 1.0) {
+            return "min or max that was never added";
+        }
+
+        // Fields updated one by one only have to be right on their own, the reader may be preempted between them
+        return PER_FIELD_MODES.contains(mode) || statistic.getSum() == count ? null : "torn read";
+    }
+
+    /**
+     * Start all actors at once and wait for them, the first writers are told apart from the readers by the flag that is
+     * cleared once they are done.
+     */
+    private void race(List<Runnable> actors, int writers, AtomicBoolean writing) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(actors.size());
+        CountDownLatch writersDone = new CountDownLatch(writers);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < actors.size(); i++) {
+            Runnable actor = actors.get(i);
+            boolean writer = i < writers;
+
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    actor.run();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    if (writer) {
+                        writersDone.countDown();
+                    }
+                }
+            }, writer ? "stress-writer" : "stress-reader");
+            thread.start();
+            threads.add(thread);
+        }
+
+        writersDone.await();
+        writing.set(false);
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError("Actor failed", failure.get());
+        }
+    }
+
+    private void assertMatchesModel(Target store, SequentialModel model, long now, String when) {
+        Statistic expected = model.getStatistic(now);
+        Statistic actual = store.getStatistic();
+        String message = name + " " + when + ", expected " + expected + " but was " + actual;
+
+        assertEquals(message, expected.getCount(), actual.getCount());
+
+        if (expected.getCount() != 0) {
+            assertEquals(message, expected.getSum(), actual.getSum(), 1e-6);
+            assertEquals(message, expected.getAvg(), actual.getAvg(), 1e-6);
+            assertEquals(message, expected.getMax(), actual.getMax(), 0);
+            assertEquals(message, expected.getMin(), actual.getMin(), 0);
+        }
+    }
+
+    /**
+     * @return Amount with two decimals, which every storage, the fixed point one included, keeps exactly
+     */
+    private double nextAmount() {
+        return random.nextInt(100000) / 100.0;
+    }
+
+    private long nextTimestamp(long now) {
+        long second = now - now % 1000;
+        int choice = random.nextInt(20);
+
+        if (choice < 10) {
+            return now - random.nextInt(WINDOW_SIZE_MILLIS + 1);
+        } else if (choice < 13) {
+            // Second at the start of the window, sharing its bucket with the current one
+            return second - WINDOW_SIZE_MILLIS + random.nextInt(1000);
+        } else if (choice < 16) {
+            return second + random.nextInt((int) (now - second) + 1);
+        } else if (choice < 18) {
+            return now - WINDOW_SIZE_MILLIS + 1 - random.nextInt(3);
+        } else {
+            return now + 1 + random.nextInt(100);
+        }
+    }
+
+    /**
+     * @return Milliseconds to move the clock, landing on or next to a second boundary more often than not
+     */
+    private long nextStep(long now) {
+        long toBoundary = 1000 - now % 1000;
+
+        switch (random.nextInt(5)) {
+            case 0:
+                return toBoundary;
+            case 1:
+                return toBoundary + 1;
+            case 2:
+                return toBoundary == 1 ? 1000 : toBoundary - 1;
+            case 3:
+                return 1;
+            default:
+                return 1 + random.nextInt(2500);
+        }
+    }
+
+    /**
+     * @return Number of buckets the storage keeps for the 60 second window
+     */
+    private int getRingSize() {
+        // The time wheel keeps one bucket more than the window, so the second a window ago is never evicted
+        return mode == StorageMode.TIME_WHEEL ? WINDOW_SIZE_SECONDS + 1 : WINDOW_SIZE_SECONDS;
+    }
+
+    private Target createStore() throws IOException {
+        if (mode == null) {
+            KeyedStatisticsStore keyedStore = new KeyedStatisticsStore(clock, 1);
+
+            return new Target() {
+                @Override
+                public void add(double amount, long timestamp) {
+                    keyedStore.add(new Transaction(amount, timestamp, KEY));
+                }
+
+                @Override
+                public void addAll(TransactionBatch batch) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        add(batch.getAmount(i), batch.getTimestamp(i));
+                    }
+                }
+
+                @Override
+                public Statistic getStatistic() {
+                    return keyedStore.getStatistic(KEY);
+                }
+            };
+        }
+
+        StoreProperties properties = new StoreProperties();
+        properties.setMode(mode);
+        properties.setWheelLevels("100:1000,1000:60000");
+        properties.setBucketFile(folder.newFile().getPath());
+
+        StatisticsStore store = new StatisticsStore(clock, properties);
+        stores.add(store);
+
+        return new Target() {
+            @Override
+            public void add(double amount, long timestamp) {
+                store.add(new Transaction(amount, timestamp));
+            }
+
+            @Override
+            public void addAll(TransactionBatch batch) {
+                store.addAll(batch);
+            }
+
+            @Override
+            public Statistic getStatistic() {
+                return store.getStatistic();
+            }
+        };
+    }
+
+    /**
+     * Store under test, the StatisticsStore in one of the storage modes or the KeyedStatisticsStore for a single key.
+     */
+    private interface Target {
+        void add(double amount, long timestamp);
+
+        void addAll(TransactionBatch batch);
+
+        Statistic getStatistic();
+    }
+
+    /**
+     * Sequential model of a store: every accepted transaction goes to the bucket of its second, in a ring of buckets
+     * where a newer second evicts an older one and a transaction for a second older than the one in its bucket is
+     * dropped. Applying the same transactions in any order leaves the same buckets behind, so the model doesn't need to
+     * know in which order concurrent writers got to the store.
+     */
+    static class SequentialModel {
+        private final Map<Long, List<Double>> amountsPerSecond = new HashMap<>();
+        private final long[] newestSeconds;
+
+        SequentialModel(int ringSize) {
+            this.newestSeconds = new long[ringSize];
+        }
+
+        /**
+         * @param amount    Amount of the transaction
+         * @param timestamp Timestamp of the transaction, in milliseconds
+         * @param now       Time the transaction is added at, in milliseconds
+         */
+        void add(double amount, long timestamp, long now) {
+            if (now - timestamp > WINDOW_SIZE_MILLIS || now < timestamp) {
+                return;
+            }
+
+            long second = timestamp - timestamp % 1000;
+            int index = (int) ((second / 1000) % newestSeconds.length);
+
+            if (newestSeconds[index] > second) {
+                return;
+            }
+
+            if (newestSeconds[index] < second) {
+                amountsPerSecond.remove(newestSeconds[index]);
+                newestSeconds[index] = second;
+            }
+
+            amountsPerSecond.computeIfAbsent(second, s -> new ArrayList<>()).add(amount);
+        }
+
+        /**
+         * @param now   Current time, in milliseconds
+         * @return Statistics over the seconds that are still in the window at the given time
+         */
+        Statistic getStatistic(long now) {
+            Statistic statistic = new Statistic();
+
+            for (Map.Entry<Long, List<Double>> entry : amountsPerSecond.entrySet()) {
+                if (entry.getKey() >= now - WINDOW_SIZE_MILLIS) {
+                    for (double amount : entry.getValue()) {
+                        statistic = statistic.add(amount);
+                    }
+                }
+            }
+
+            return statistic;
+        }
+    }
+
+    /**
+     * Clock set by the test and read by the actors, which a mock would record every call of.
+     */
+    private static class MutableClock extends Clock {
+        private volatile long millis;
+
+        void set(long millis) {
+            this.millis = millis;
+        }
+
+        void advance(long millis) {
+            this.millis += millis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return zone.equals(getZone()) ? this : new ZonedView(zone);
+        }
+
+        /**
+         * The time of this clock in another zone, which moves along with it.
+         */
+        private class ZonedView extends Clock {
+            private final ZoneId zone;
+
+            private ZonedView(ZoneId zone) {
+                this.zone = zone;
+            }
+
+            @Override
+            public long millis() {
+                return millis;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(millis);
+            }
+
+            @Override
+            public ZoneId getZone() {
+                return zone;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return MutableClock.this.withZone(zone);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class StoreTickerTest {
+    private StatisticsStore statisticsStore;
+    private StoreTicker ticker;
+
+    @Before
+    public void setup() {
+        StoreProperties properties = new StoreProperties();
+        properties.setTickerEnabled(true);
+
+        statisticsStore = mock(StatisticsStore.class);
+        ticker = new StoreTicker(statisticsStore, properties);
+    }
+
+    @After
+    public void teardown() {
+        ticker.stop();
+    }
+
+    @Test
+    public void start_keepsTickingAfterFailedTick() {
+        doThrow(new IllegalStateException("Storage closed")).doNothing().when(statisticsStore).tick();
+
+        ticker.start();
+
+        verify(statisticsStore, timeout(5000).atLeast(3)).tick();
+    }
+}
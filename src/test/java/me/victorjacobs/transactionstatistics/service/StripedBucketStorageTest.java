@@ -0,0 +1,69 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class StripedBucketStorageTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    @Test
+    public void add_concurrentWritersSameBucket() throws Exception {
+        StripedBucketStorage storage = new StripedBucketStorage(2);
+        int threads = 8;
+        int addsPerThread = 10000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                for (int i = 0; i < addsPerThread; i++) {
+                    storage.add(1.0, NOW + (i % 2000));
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+
+        start.countDown();
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        long total = threads * addsPerThread;
+        assertStatistic(total, 1.0, 1.0, 1.0, total, storage.getStatistic(NOW, 60000));
+    }
+
+    @Test
+    public void add_olderSecondThanBucketIsDropped() {
+        StripedBucketStorage storage = new StripedBucketStorage(1);
+
+        storage.add(4.0, NOW + 60000);
+        storage.add(10.0, NOW);
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 60000, 60000));
+        assertEquals(1, storage.getTransactionCount());
+    }
+
+    @Test
+    public void add_newerSecondResetsBucket() {
+        StripedBucketStorage storage = new StripedBucketStorage(1);
+
+        storage.add(10.0, NOW);
+        storage.add(4.0, NOW + 60000);
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 60000, 60000));
+    }
+}
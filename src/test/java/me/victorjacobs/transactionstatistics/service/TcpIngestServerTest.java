@@ -0,0 +1,221 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.time.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class TcpIngestServerTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    private Clock clock;
+    private StatisticsStore statisticsStore;
+    private IngestProperties properties;
+    private TcpIngestServer server;
+
+    @Before
+    public void setup() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(NOW);
+        statisticsStore = new StatisticsStore(clock);
+
+        properties = new IngestProperties();
+        properties.setEnabled(true);
+        properties.setPort(0);
+        properties.setMaxFrameRecords(16);
+        properties.setRingCapacity(16);
+    }
+
+    @After
+    public void teardown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void frame_acksAcceptedAndDiscarded() throws Exception {
+        start();
+
+        try (Socket socket = connect()) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            writeFrame(out, 10.0, NOW - 1000, 4.0, NOW - 2000, 1.0, NOW - 61000, 2.0, NOW + 1000);
+
+            assertAck(socket, 2, 1, 1);
+        }
+
+        awaitCount(2);
+        assertStatistic(14.0, 7.0, 10.0, 4.0, 2, statisticsStore.getStatistic());
+        assertEquals(1, server.getFrames());
+        assertEquals(2, server.getAccepted());
+        assertEquals(2, server.getDiscarded());
+        assertEquals(1, statisticsStore.getMetrics().getTooOld());
+    }
+
+    @Test
+    public void frame_acceptsUpToATickAheadLikeTheStore() throws Exception {
+        StoreProperties storeProperties = new StoreProperties();
+        storeProperties.setTickerEnabled(true);
+        storeProperties.setTickMillis(10);
+        statisticsStore = new StatisticsStore(clock, storeProperties);
+        start();
+
+        try (Socket socket = connect()) {
+            writeFrame(new DataOutputStream(socket.getOutputStream()), 1.0, NOW + 10, 2.0, NOW + 11);
+
+            assertAck(socket, 1, 0, 1);
+        }
+    }
+
+    @Test
+    public void drain_keepsGoingWhenStoreFails() throws Exception {
+        statisticsStore = spy(statisticsStore);
+        doThrow(new UncheckedIOException(new IOException("Disk full"))).doCallRealMethod()
+                .when(statisticsStore).addAll(any(TransactionBatch.class));
+        start();
+
+        try (Socket socket = connect()) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            writeFrame(out, 1.0, NOW - 1000);
+            assertAck(socket, 1, 0, 0);
+
+            for (int i = 0; i < 500 && server.getFailed() == 0; i++) {
+                Thread.sleep(10);
+            }
+
+            writeFrame(out, 2.0, NOW - 1000);
+            assertAck(socket, 1, 0, 0);
+        }
+
+        awaitCount(1);
+        assertStatistic(2.0, 2.0, 2.0, 2.0, 1, statisticsStore.getStatistic());
+        assertEquals(1, server.getFailed());
+    }
+
+    @Test
+    public void frames_pipelinedBeyondRingCapacity() throws Exception {
+        start();
+
+        try (Socket socket = connect()) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+            // 100 frames of 10 records through a ring of 16, sent without waiting for the acks
+            for (int frame = 0; frame < 100; frame++) {
+                double[] records = new double[20];
+                for (int i = 0; i < 10; i++) {
+                    records[2 * i] = 1.0;
+                    records[2 * i + 1] = NOW - i;
+                }
+                writeFrame(out, records);
+            }
+            out.flush();
+
+            for (int frame = 0; frame < 100; frame++) {
+                assertAck(socket, 10, 0, 0);
+            }
+        }
+
+        awaitCount(1000);
+        assertStatistic(1000.0, 1.0, 1.0, 1.0, 1000, statisticsStore.getStatistic());
+    }
+
+    @Test
+    public void frame_emptyIsAcked() throws Exception {
+        start();
+
+        try (Socket socket = connect()) {
+            writeFrame(new DataOutputStream(socket.getOutputStream()));
+
+            assertAck(socket, 0, 0, 0);
+        }
+    }
+
+    @Test
+    public void frame_invalidLengthClosesConnection() throws Exception {
+        start();
+
+        try (Socket socket = connect()) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(15);
+            out.flush();
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void frame_tooLargeClosesConnection() throws Exception {
+        start();
+
+        try (Socket socket = connect()) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(17 * TcpIngestServer.RECORD_SIZE);
+            out.flush();
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void disabled_doesNotListen() {
+        properties.setEnabled(false);
+        start();
+
+        assertEquals(-1, server.getPort());
+    }
+
+    private void start() {
+        server = new TcpIngestServer(statisticsStore, properties);
+        server.start();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    /**
+     * Write a frame holding the given records.
+     * @param out       Stream to write to
+     * @param records   Amount and timestamp of every record, one after the other
+     */
+    private static void writeFrame(DataOutputStream out, double... records) throws IOException {
+        out.writeInt(records.length / 2 * TcpIngestServer.RECORD_SIZE);
+
+        for (int i = 0; i < records.length; i += 2) {
+            out.writeDouble(records[i]);
+            out.writeLong((long) records[i + 1]);
+        }
+        out.flush();
+    }
+
+    private static void assertAck(Socket socket, int accepted, int tooOld, int inFuture) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+
+        assertEquals(accepted, in.readInt());
+        assertEquals(tooOld, in.readInt());
+        assertEquals(inFuture, in.readInt());
+    }
+
+    private void awaitCount(long count) throws InterruptedException {
+        for (int i = 0; i < 500 && statisticsStore.getStatistic().getCount() < count; i++) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TickingClockTest {
+    @Test
+    public void millis_onlyMovesOnTick() {
+        Clock source = mock(Clock.class);
+        when(source.millis()).thenReturn(1000L);
+        TickingClock clock = new TickingClock(source);
+
+        when(source.millis()).thenReturn(1005L);
+        assertEquals(1000, clock.millis());
+
+        assertEquals(1005, clock.tick());
+        assertEquals(1005, clock.millis());
+        assertEquals(1005, clock.instant().toEpochMilli());
+    }
+
+    @Test
+    public void tick_neverMovesBackwards() {
+        Clock source = mock(Clock.class);
+        when(source.millis()).thenReturn(1000L);
+        TickingClock clock = new TickingClock(source);
+
+        when(source.millis()).thenReturn(900L);
+        assertEquals(1000, clock.tick());
+        assertEquals(1000, clock.millis());
+    }
+
+    @Test
+    public void withZone_movesAlongOnTick() {
+        Clock source = mock(Clock.class);
+        when(source.millis()).thenReturn(1000L);
+        when(source.getZone()).thenReturn(ZoneOffset.UTC);
+        TickingClock clock = new TickingClock(source);
+        ZoneId zone = ZoneId.of("Europe/Brussels");
+
+        Clock zoned = clock.withZone(zone);
+        when(source.millis()).thenReturn(1005L);
+        clock.tick();
+
+        assertEquals(zone, zoned.getZone());
+        assertEquals(1005, zoned.millis());
+        assertEquals(clock, clock.withZone(ZoneOffset.UTC));
+        assertEquals(clock, zoned.withZone(ZoneOffset.UTC));
+    }
+}
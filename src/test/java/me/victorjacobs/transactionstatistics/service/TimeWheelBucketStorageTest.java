@@ -0,0 +1,80 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.BaseTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeWheelBucketStorageTest extends BaseTest {
+    private static final long NOW = 1486728000000L;
+
+    private TimeWheelBucketStorage storage;
+
+    @Before
+    public void setup() {
+        storage = new TimeWheelBucketStorage("100:1000,1000:60000,60000:300000");
+    }
+
+    @Test
+    public void getStatistic_windowsOfDifferentLength() {
+        storage.add(1.0, NOW - 200);
+        storage.add(2.0, NOW - 5000);
+        storage.add(3.0, NOW - 30000);
+        storage.add(4.0, NOW - 180000);
+
+        assertStatistic(1.0, 1.0, 1.0, 1.0, 1, storage.getStatistic(NOW, 1000));
+        assertStatistic(3.0, 1.5, 2.0, 1.0, 2, storage.getStatistic(NOW, 10000));
+        assertStatistic(6.0, 2.0, 3.0, 1.0, 3, storage.getStatistic(NOW, 60000));
+        assertStatistic(10.0, 2.5, 4.0, 1.0, 4, storage.getStatistic(NOW, 300000));
+    }
+
+    @Test
+    public void add_wrapsAround() {
+        storage.add(10.0, NOW);
+        storage.add(4.0, NOW + 301000);
+
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 301000, 300000));
+        assertStatistic(4.0, 4.0, 4.0, 4.0, 1, storage.getStatistic(NOW + 301000, 1000));
+    }
+
+    @Test
+    public void add_olderThanLevelSpanKeepsNewerBucket() {
+        storage.add(1.0, NOW - 39000);
+        storage.add(2.0, NOW - 100000);
+
+        assertStatistic(1.0, 1.0, 1.0, 1.0, 1, storage.getStatistic(NOW, 60000));
+        assertStatistic(3.0, 1.5, 2.0, 1.0, 2, storage.getStatistic(NOW, 300000));
+        assertEquals(2, storage.getTransactionCount());
+    }
+
+    @Test
+    public void add_olderThanEveryLevelIsNotCounted() {
+        storage = new TimeWheelBucketStorage("1000:60000");
+        storage.add(1.0, NOW);
+        storage.add(2.0, NOW - 61000);
+
+        assertStatistic(1.0, 1.0, 1.0, 1.0, 1, storage.getStatistic(NOW, 60000));
+        assertEquals(1, storage.getTransactionCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getStatistic_windowNotMultipleOfCoarseResolution() {
+        storage.getStatistic(NOW, 61000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getStatistic_windowNotMultipleOfFineResolution() {
+        storage.getStatistic(NOW, 1500);
+    }
+
+    @Test
+    public void getWindowMillis_longestLevel() {
+        assertEquals(300000, storage.getWindowMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void levelsMustBeOrdered() {
+        new TimeWheelBucketStorage("1000:60000,100:1000");
+    }
+}
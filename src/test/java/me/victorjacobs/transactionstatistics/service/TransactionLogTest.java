@@ -0,0 +1,213 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TransactionLogTest {
+    private static final long NOW = 1486728000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Clock clock;
+    private LogProperties properties;
+
+    @Before
+    public void setup() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(NOW);
+
+        properties = new LogProperties();
+        properties.setEnabled(true);
+        properties.setDirectory(folder.getRoot().getPath());
+    }
+
+    @Test
+    public void replay_returnsAppendedTransactions() {
+        TransactionLog log = open();
+        log.append(10.0, NOW - 1000);
+        log.append(4.0, NOW - 50000);
+
+        TransactionBatch batch = new TransactionBatch();
+        batch.add(2.0, NOW - 2000);
+        batch.add(3.0, NOW - 3000);
+        log.appendAll(batch);
+        log.close();
+
+        assertEquals(4, log.getAppended());
+        assertEquals("[10.0@" + (NOW - 1000) + ", 2.0@" + (NOW - 2000) + ", 3.0@" + (NOW - 3000) + "]",
+                replay(NOW - 10000, NOW));
+    }
+
+    @Test
+    public void replay_stopsAtPartlyWrittenRecord() throws IOException {
+        TransactionLog log = open();
+        log.append(10.0, NOW - 1000);
+        log.append(4.0, NOW - 2000);
+        log.close();
+
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 7);
+        }
+
+        assertEquals("[10.0@" + (NOW - 1000) + "]", replay(0, NOW));
+    }
+
+    @Test
+    public void replay_stopsAtCorruptRecord() throws IOException {
+        TransactionLog log = open();
+        log.append(10.0, NOW - 1000);
+        log.append(4.0, NOW - 2000);
+        log.close();
+
+        Path segment = segments().get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[TransactionLog.HEADER_SIZE + TransactionLog.RECORD_SIZE + 3] ^= 1;
+        Files.write(segment, bytes);
+
+        assertEquals("[10.0@" + (NOW - 1000) + "]", replay(0, NOW));
+    }
+
+    @Test
+    public void append_rotatesSegments() throws IOException {
+        properties.setSegmentBytes(TransactionLog.HEADER_SIZE + 2 * TransactionLog.RECORD_SIZE);
+        properties.setDurability(Durability.PER_REQUEST);
+        TransactionLog log = open();
+
+        for (int i = 0; i < 5; i++) {
+            log.append(i, NOW - i);
+        }
+        log.close();
+
+        assertEquals(3, segments().size());
+        assertEquals(5, replay(0, NOW).split(",").length);
+    }
+
+    @Test
+    public void deleteSegments_keepsSegmentsWithTransactionsInWindow() throws IOException {
+        properties.setSegmentBytes(TransactionLog.HEADER_SIZE + TransactionLog.RECORD_SIZE);
+        properties.setDurability(Durability.PER_REQUEST);
+        TransactionLog log = open();
+
+        // One segment per transaction, created at NOW, NOW + 1 and NOW + 2
+        log.append(1.0, NOW);
+        log.append(2.0, NOW);
+        log.append(3.0, NOW);
+
+        // Only the first segment was followed by one created before NOW + 2, the last one is being written to
+        assertEquals(1, log.deleteSegments(NOW + 2));
+        assertEquals(2, segments().size());
+        assertEquals(1, log.deleteSegments(Long.MAX_VALUE));
+        assertEquals(1, segments().size());
+        log.close();
+    }
+
+    @Test
+    public void appendBatched_sharesForces() throws InterruptedException {
+        TransactionLog log = open();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    log.append(1.0, NOW);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        log.close();
+
+        assertEquals(1600, log.getAppended());
+        assertTrue(log.getSyncs() < 1600);
+        assertEquals(1600, replay(0, NOW).split(",").length);
+    }
+
+    @Test
+    public void appendPerRequest_forcesEveryAppend() {
+        properties.setDurability(Durability.PER_REQUEST);
+        TransactionLog log = open();
+        TransactionBatch batch = new TransactionBatch();
+        batch.add(2.0, NOW);
+        batch.add(3.0, NOW);
+
+        log.append(1.0, NOW);
+        log.appendAll(batch);
+
+        assertEquals(2, log.getSyncs());
+        log.close();
+    }
+
+    @Test
+    public void appendNone_writtenOutOnClose() {
+        properties.setDurability(Durability.NONE);
+        properties.setFlushIntervalMillis(60000);
+        TransactionLog log = open();
+
+        log.append(1.0, NOW);
+        log.close();
+
+        assertEquals(0, log.getSyncs());
+        assertEquals("[1.0@" + NOW + "]", replay(0, NOW));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void append_notOpen() {
+        new TransactionLog(clock, properties).append(1.0, NOW);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void append_closed() {
+        TransactionLog log = open();
+        log.close();
+
+        log.append(1.0, NOW);
+    }
+
+    private TransactionLog open() {
+        TransactionLog log = new TransactionLog(clock, properties);
+        log.open(60000);
+        return log;
+    }
+
+    private String replay(long from, long to) {
+        List<String> transactions = new ArrayList<>();
+
+        new TransactionLog(clock, properties).replay(from, to, batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                transactions.add(batch.getAmount(i) + "@" + batch.getTimestamp(i));
+            }
+        });
+
+        return transactions.toString();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> paths = Files.list(folder.getRoot().toPath())) {
+            return paths.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionQueueTest {
+    @Test
+    public void offer_untilFull() {
+        TransactionQueue queue = new TransactionQueue(4);
+        TransactionBatch batch = new TransactionBatch();
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i, i * 10));
+        }
+        assertFalse(queue.offer(4, 40));
+        assertEquals(4, queue.size());
+
+        assertEquals(2, queue.drainTo(batch, 2));
+        assertTrue(queue.offer(5, 50));
+        assertTrue(queue.offer(6, 60));
+        assertFalse(queue.offer(7, 70));
+
+        assertEquals(4, queue.drainTo(batch, 10));
+        assertEquals("[0.0@0, 1.0@10, 2.0@20, 3.0@30, 5.0@50, 6.0@60]", describe(batch));
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.drainTo(batch, 10));
+    }
+
+    @Test
+    public void drainTo_withoutBatchDrops() {
+        TransactionQueue queue = new TransactionQueue(2);
+        TransactionBatch batch = new TransactionBatch();
+
+        queue.offer(1, 10);
+        queue.offer(2, 20);
+        assertEquals(1, queue.drainTo(null, 1));
+        assertTrue(queue.offer(3, 30));
+
+        queue.drainTo(batch, 10);
+        assertEquals("[2.0@20, 3.0@30]", describe(batch));
+    }
+
+    @Test
+    public void concurrentProducers() throws InterruptedException {
+        TransactionQueue queue = new TransactionQueue(64);
+        int producers = 4;
+        int perProducer = 50000;
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!queue.offer(producer, i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        TransactionBatch batch = new TransactionBatch();
+        long[] expected = new long[producers];
+        int received = 0;
+
+        while (received < producers * perProducer) {
+            batch.clear();
+            if (queue.drainTo(batch, 16) == 0) {
+                Thread.yield();
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                // Transactions of one producer come out in the order they were put in
+                int producer = (int) batch.getAmount(i);
+                assertEquals(expected[producer]++, batch.getTimestamp(i));
+                received++;
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, queue.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_notPowerOfTwo() {
+        new TransactionQueue(100);
+    }
+
+    private static String describe(TransactionBatch batch) {
+        StringBuilder builder = new StringBuilder("[");
+
+        for (int i = 0; i < batch.size(); i++) {
+            builder.append(i == 0 ? "" : ", ").append(batch.getAmount(i)).append('@').append(batch.getTimestamp(i));
+        }
+
+        return builder.append(']').toString();
+    }
+}
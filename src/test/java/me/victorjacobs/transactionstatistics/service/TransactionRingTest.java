@@ -0,0 +1,101 @@
+package me.victorjacobs.transactionstatistics.service;
+
+import me.victorjacobs.transactionstatistics.model.TransactionBatch;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionRingTest {
+    @Test
+    public void drainTo_onlyPublished() {
+        TransactionRing ring = new TransactionRing(4);
+        TransactionBatch batch = new TransactionBatch();
+
+        ring.put(1.0, 10);
+        ring.put(2.0, 20);
+        assertEquals(0, ring.drainTo(batch, 10));
+
+        ring.publish();
+        assertEquals(2, ring.size());
+        assertEquals(2, ring.drainTo(batch, 10));
+        assertEquals("[1.0@10, 2.0@20]", describe(batch));
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void hasRoom_wrapsAround() {
+        TransactionRing ring = new TransactionRing(4);
+        TransactionBatch batch = new TransactionBatch();
+
+        for (int i = 0; i < 3; i++) {
+            ring.put(i, i);
+        }
+        ring.publish();
+        assertFalse(ring.hasRoom(2));
+
+        assertEquals(2, ring.drainTo(batch, 2));
+        assertTrue(ring.hasRoom(3));
+
+        for (int i = 3; i < 6; i++) {
+            ring.put(i, i);
+        }
+        ring.publish();
+        assertFalse(ring.hasRoom(1));
+
+        batch.clear();
+        assertEquals(4, ring.drainTo(batch, 10));
+        assertEquals("[2.0@2, 3.0@3, 4.0@4, 5.0@5]", describe(batch));
+    }
+
+    @Test
+    public void concurrentProducerAndConsumer() throws InterruptedException {
+        TransactionRing ring = new TransactionRing(64);
+        int total = 100000;
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < total; i++) {
+                while (!ring.hasRoom(1)) {
+                    Thread.yield();
+                }
+                ring.put(i, i);
+                ring.publish();
+            }
+        });
+        producer.start();
+
+        TransactionBatch batch = new TransactionBatch();
+        int expected = 0;
+
+        while (expected < total) {
+            batch.clear();
+            if (ring.drainTo(batch, 16) == 0) {
+                Thread.yield();
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(expected, batch.getTimestamp(i));
+                assertEquals(expected, batch.getAmount(i), 0);
+                expected++;
+            }
+        }
+
+        producer.join();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_notPowerOfTwo() {
+        new TransactionRing(100);
+    }
+
+    private static String describe(TransactionBatch batch) {
+        StringBuilder builder = new StringBuilder("[");
+
+        for (int i = 0; i < batch.size(); i++) {
+            builder.append(i == 0 ? "" : ", ").append(batch.getAmount(i)).append('@').append(batch.getTimestamp(i));
+        }
+
+        return builder.append(']').toString();
+    }
+}